@@ -0,0 +1,31 @@
+package org.avaje.imageop.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks reporting throughput and (via the gc profiler) the
+ * allocation rate per operation.
+ *
+ * <pre>
+ *
+ * java -cp target/benchmarks.jar org.avaje.imageop.jmh.BenchmarkRunner [include regex]
+ *
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException {
+
+    String include = (args.length > 0) ? args[0] : "org.avaje.imageop.jmh.*";
+    Options options = new OptionsBuilder()
+        .include(include)
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,147 @@
+package org.avaje.imageop.jmh;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.avaje.imageop.filter.BorderOp;
+import org.avaje.imageop.filter.CropImageOp;
+import org.avaje.imageop.filter.CropScaleImageOp;
+import org.avaje.imageop.filter.FillOp;
+import org.avaje.imageop.filter.GammaFilter;
+import org.avaje.imageop.filter.MaxSizeImageOp;
+import org.avaje.imageop.filter.PointFilter;
+import org.avaje.imageop.filter.ScaleImageOp;
+import org.avaje.imageop.filter.ScaleKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of each filter op across source image sizes and types.
+ * <p>
+ * The ops are created in setup so that only the filtering (including
+ * allocation of the destination image) is measured.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+  @Param({ "640x480", "1920x1080", "4000x3000" })
+  public String size;
+
+  @Param({ "INT_RGB", "INT_ARGB", "3BYTE_BGR", "4BYTE_ABGR" })
+  public String type;
+
+  private BufferedImage source;
+
+  private ScaleImageOp scaleBox;
+  private ScaleImageOp scaleLanczos;
+  private CropImageOp crop;
+  private CropImageOp cropView;
+  private CropScaleImageOp cropScale;
+  private MaxSizeImageOp maxSize;
+  private MaxSizeImageOp maxSizePadded;
+  private BorderOp border;
+  private FillOp fill;
+  private PointFilter invert;
+  private GammaFilter gamma;
+
+  @Setup
+  public void setup() {
+    source = TestImages.create(size, type);
+    int width = source.getWidth();
+    int height = source.getHeight();
+
+    scaleBox = new ScaleImageOp(width / 4, height / 4, ScaleKernel.Box);
+    scaleLanczos = new ScaleImageOp(width / 4, height / 4, ScaleKernel.Lanczos3);
+    crop = new CropImageOp(width / 4, height / 4, width / 2, height / 2);
+    cropView = new CropImageOp(width / 4, height / 4, width / 2, height / 2, true);
+    cropScale = new CropScaleImageOp(200, 200);
+    maxSize = new MaxSizeImageOp(800, 800);
+    maxSizePadded = new MaxSizeImageOp(800, 800, true, Color.WHITE);
+    border = new BorderOp(20, 20, 20, 20, Color.WHITE, BufferedImage.TYPE_INT_RGB);
+    fill = new FillOp(0xff336699);
+    invert = new InvertFilter();
+    gamma = new GammaFilter(1.2f);
+  }
+
+  @Benchmark
+  public BufferedImage scaleBox() {
+    return scaleBox.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage scaleLanczos3() {
+    return scaleLanczos.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage crop() {
+    return crop.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage cropView() {
+    return cropView.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage cropScale() {
+    return cropScale.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage maxSize() {
+    return maxSize.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage maxSizePadded() {
+    return maxSizePadded.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage border() {
+    return border.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage fill() {
+    return fill.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage pointFilter() {
+    return invert.filter(source, null);
+  }
+
+  @Benchmark
+  public BufferedImage lookupFilter() {
+    return gamma.filter(source, null);
+  }
+
+  /**
+   * A PointFilter using the per pixel filterRGB() path.
+   */
+  static final class InvertFilter extends PointFilter {
+
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      return (rgb & 0xff000000) | (~rgb & 0xffffff);
+    }
+  }
+}
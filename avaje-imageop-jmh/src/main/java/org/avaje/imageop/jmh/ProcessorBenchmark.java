@@ -0,0 +1,91 @@
+package org.avaje.imageop.jmh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.avaje.imageop.processor.ConvertMode;
+import org.avaje.imageop.processor.ImageFileSet;
+import org.avaje.imageop.processor.ImageMagickEngine;
+import org.avaje.imageop.processor.ImageProcessor;
+import org.avaje.imageop.processor.ImageSource;
+import org.avaje.imageop.processor.JavaImageEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of ImageProcessor.process() producing a main image and thumbnail
+ * for each ConvertMode and bundled test image.
+ * <p>
+ * The images are encoded to a stream that discards the bytes so the
+ * measurement includes decoding, scaling and encoding but no file IO. The
+ * Java engine is used by default, run with -p engine=imagemagick to measure
+ * the ImageMagick engine (which requires convert on the path).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorBenchmark {
+
+  @Param({ "Max", "Crop", "Pad", "PadArea" })
+  public ConvertMode mode;
+
+  @Param({ "ethan.jpg", "test-a.jpeg", "test-b.png", "test-c.jpeg", "test-x.jpg", "thumbnail3.gif" })
+  public String image;
+
+  @Param({ "java" })
+  public String engine;
+
+  private ImageProcessor processor;
+
+  private byte[] content;
+
+  private final DiscardOutputStream mainOutput = new DiscardOutputStream();
+
+  private final DiscardOutputStream thumbOutput = new DiscardOutputStream();
+
+  @Setup
+  public void setup() throws IOException {
+    content = TestImages.load(image);
+    processor = new ImageProcessor(200, 200, 800, 600, mode, null);
+    if ("java".equals(engine)) {
+      processor.setImageEngine(new JavaImageEngine());
+    } else if ("imagemagick".equals(engine)) {
+      processor.setImageEngine(new ImageMagickEngine());
+    } else {
+      throw new IllegalArgumentException("Unknown engine " + engine);
+    }
+  }
+
+  @Benchmark
+  public ImageFileSet process() throws IOException {
+    return processor.process(ImageSource.of(content), image, mainOutput, thumbOutput);
+  }
+
+  /**
+   * Discards the encoded images.
+   */
+  static final class DiscardOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
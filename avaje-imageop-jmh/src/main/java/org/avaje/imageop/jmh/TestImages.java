@@ -0,0 +1,84 @@
+package org.avaje.imageop.jmh;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Creates and loads the images used by the benchmarks.
+ */
+final class TestImages {
+
+  private TestImages() {
+  }
+
+  /**
+   * Return the BufferedImage type constant for a name like INT_RGB.
+   */
+  static int imageType(String name) {
+    switch (name) {
+    case "INT_RGB":
+      return BufferedImage.TYPE_INT_RGB;
+    case "INT_ARGB":
+      return BufferedImage.TYPE_INT_ARGB;
+    case "3BYTE_BGR":
+      return BufferedImage.TYPE_3BYTE_BGR;
+    case "4BYTE_ABGR":
+      return BufferedImage.TYPE_4BYTE_ABGR;
+    case "BYTE_GRAY":
+      return BufferedImage.TYPE_BYTE_GRAY;
+    default:
+      throw new IllegalArgumentException("Unknown image type " + name);
+    }
+  }
+
+  /**
+   * Create an image of the given size (like 1920x1080) and type with a
+   * gradient plus noise so that it is not trivially compressible.
+   */
+  static BufferedImage create(String size, String type) {
+
+    int x = size.indexOf('x');
+    int width = Integer.parseInt(size.substring(0, x));
+    int height = Integer.parseInt(size.substring(x + 1));
+
+    BufferedImage image = new BufferedImage(width, height, imageType(type));
+    Random random = new Random(width * 31 + height);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int i = 0; i < width; i++) {
+        int noise = random.nextInt(32);
+        int r = (i * 255 / width + noise) & 0xff;
+        int g = (y * 255 / height + noise) & 0xff;
+        int b = ((i + y) * 127 / (width + height) + noise) & 0xff;
+        int a = image.getColorModel().hasAlpha() ? 128 + (i * 127 / width) : 255;
+        row[i] = (a << 24) | (r << 16) | (g << 8) | b;
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return image;
+  }
+
+  /**
+   * Load the content of a bundled test image.
+   */
+  static byte[] load(String name) throws IOException {
+    InputStream in = TestImages.class.getResourceAsStream("/" + name);
+    if (in == null) {
+      throw new IOException("Test image " + name + " not found");
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
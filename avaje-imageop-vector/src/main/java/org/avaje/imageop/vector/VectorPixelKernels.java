@@ -0,0 +1,233 @@
+package org.avaje.imageop.vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.avaje.imageop.filter.LookupTable;
+import org.avaje.imageop.filter.PixelKernels;
+
+/**
+ * PixelKernels using the JDK Vector API.
+ * <p>
+ * Vertical resampling, premultiplying alpha and table lookups process a vector
+ * of pixels at a time (the preferred vector width of the CPU) while horizontal
+ * resampling unpacks the 4 channels of each pixel into the lanes of a 128 bit
+ * vector. The same fixed point integer arithmetic as the scalar kernels is
+ * used (unpremultiply divides in float which is exact for these operands) so
+ * the output is identical to the scalar output.
+ * </p>
+ * <p>
+ * This is registered via java.util.ServiceLoader and is selected when the
+ * jdk.incubator.vector module is added to the JVM (--add-modules
+ * jdk.incubator.vector) and the CPU supports vectors of at least 128 bits.
+ * </p>
+ */
+public final class VectorPixelKernels implements PixelKernels {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+  /**
+   * The alpha, red, green and blue channels of a pixel in 4 lanes.
+   */
+  private static final VectorSpecies<Integer> ARGB = IntVector.SPECIES_128;
+
+  private static final IntVector ARGB_SHIFTS = IntVector.fromArray(ARGB, new int[] { 24, 16, 8, 0 }, 0);
+
+  private final PixelKernels scalar = PixelKernels.scalar();
+
+  public String getName() {
+    return "vector-" + SPECIES.vectorBitSize();
+  }
+
+  public boolean isSupported() {
+    return SPECIES.vectorBitSize() >= 128 && FLOATS.length() == SPECIES.length();
+  }
+
+  public void horizontal(int[] src, int[] dst, int dstPos, int width, int[] start, int[] count, int[] weights, int stride, boolean alpha) {
+
+    IntVector rounding = IntVector.broadcast(ARGB, ROUNDING);
+    for (int x = 0; x < width; x++) {
+      IntVector acc = rounding;
+      int s = start[x];
+      int k = x * stride;
+      int end = k + count[x];
+      for (; k < end; k++) {
+        IntVector p = IntVector.broadcast(ARGB, src[s++]).lanewise(VectorOperators.LSHR, ARGB_SHIFTS).and(0xff);
+        acc = p.mul(weights[k]).add(acc);
+      }
+      dst[dstPos + x] = pack(acc, alpha);
+    }
+  }
+
+  /**
+   * Pack the 4 lane fixed point accumulator into an ARGB int.
+   */
+  private static int pack(IntVector acc, boolean alpha) {
+    IntVector v = acc.lanewise(VectorOperators.ASHR, PRECISION_BITS).max(0).min(255);
+    if (alpha) {
+      // premultiplied components can not exceed alpha
+      v = v.min(v.lane(0));
+    } else {
+      v = v.withLane(0, 255);
+    }
+    return v.lanewise(VectorOperators.LSHL, ARGB_SHIFTS).reduceLanes(VectorOperators.OR);
+  }
+
+  public void vertical(int[] src, int rowWidth, int firstRow, int rows, int[] weights, int weightPos, int[] dst, int[] scratch,
+      boolean alpha) {
+
+    int width = rowWidth;
+    int bound = SPECIES.loopBound(width);
+    int x = 0;
+    for (; x < bound; x += SPECIES.length()) {
+      // accumulate a vector of pixels over all the rows
+      IntVector a = IntVector.broadcast(SPECIES, ROUNDING);
+      IntVector r = a;
+      IntVector g = a;
+      IntVector b = a;
+      int o = firstRow * width + x;
+      for (int k = weightPos, end = weightPos + rows; k < end; k++, o += width) {
+        int wk = weights[k];
+        IntVector p = IntVector.fromArray(SPECIES, src, o);
+        a = p.lanewise(VectorOperators.LSHR, 24).mul(wk).add(a);
+        r = p.lanewise(VectorOperators.ASHR, 16).and(0xff).mul(wk).add(r);
+        g = p.lanewise(VectorOperators.ASHR, 8).and(0xff).mul(wk).add(g);
+        b = p.and(0xff).mul(wk).add(b);
+      }
+      IntVector cr = clamp(r);
+      IntVector cg = clamp(g);
+      IntVector cb = clamp(b);
+      IntVector ca;
+      if (alpha) {
+        ca = clamp(a);
+        cr = cr.min(ca);
+        cg = cg.min(ca);
+        cb = cb.min(ca);
+      } else {
+        ca = IntVector.broadcast(SPECIES, 255);
+      }
+      ca.lanewise(VectorOperators.LSHL, 24).or(cr.lanewise(VectorOperators.LSHL, 16)).or(cg.lanewise(VectorOperators.LSHL, 8)).or(cb)
+          .intoArray(dst, x);
+    }
+    // the remaining pixels of the row (narrower than a vector) a pixel at a time
+    IntVector rounding = IntVector.broadcast(ARGB, ROUNDING);
+    for (; x < width; x++) {
+      IntVector acc = rounding;
+      int o = firstRow * width + x;
+      for (int k = weightPos, end = weightPos + rows; k < end; k++, o += width) {
+        IntVector p = IntVector.broadcast(ARGB, src[o]).lanewise(VectorOperators.LSHR, ARGB_SHIFTS).and(0xff);
+        acc = p.mul(weights[k]).add(acc);
+      }
+      dst[x] = pack(acc, alpha);
+    }
+  }
+
+  private static IntVector clamp(IntVector acc) {
+    return acc.lanewise(VectorOperators.ASHR, PRECISION_BITS).max(0).min(255);
+  }
+
+  public void premultiply(int[] row, int width) {
+
+    int bound = SPECIES.loopBound(width);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector v = IntVector.fromArray(SPECIES, row, i);
+      IntVector a = v.lanewise(VectorOperators.LSHR, 24);
+      IntVector r = multiply(v.lanewise(VectorOperators.ASHR, 16).and(0xff), a);
+      IntVector g = multiply(v.lanewise(VectorOperators.ASHR, 8).and(0xff), a);
+      IntVector b = multiply(v.and(0xff), a);
+      IntVector p = a.lanewise(VectorOperators.LSHL, 24).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8))
+          .or(b);
+      p = p.blend(v, a.eq(255)).blend(0, a.eq(0));
+      p.intoArray(row, i);
+    }
+    if (i < width) {
+      int[] tail = new int[width - i];
+      System.arraycopy(row, i, tail, 0, tail.length);
+      scalar.premultiply(tail, tail.length);
+      System.arraycopy(tail, 0, row, i, tail.length);
+    }
+  }
+
+  /**
+   * Return c * a / 255 rounded (as per the scalar kernels).
+   */
+  private static IntVector multiply(IntVector c, IntVector a) {
+    IntVector t = c.mul(a).add(127);
+    return t.add(t.lanewise(VectorOperators.ASHR, 8)).lanewise(VectorOperators.ASHR, 8);
+  }
+
+  public void unpremultiply(int[] row, int width) {
+
+    int bound = SPECIES.loopBound(width);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector v = IntVector.fromArray(SPECIES, row, i);
+      IntVector a = v.lanewise(VectorOperators.LSHR, 24);
+      VectorMask<Integer> zero = a.eq(0);
+      // the division is exact in float as the operands are less than 2^16
+      FloatVector fa = (FloatVector) a.convert(VectorOperators.I2F, 0);
+      IntVector half = a.lanewise(VectorOperators.ASHR, 1);
+      IntVector r = divide(v.lanewise(VectorOperators.ASHR, 16).and(0xff), half, fa);
+      IntVector g = divide(v.lanewise(VectorOperators.ASHR, 8).and(0xff), half, fa);
+      IntVector b = divide(v.and(0xff), half, fa);
+      IntVector p = a.lanewise(VectorOperators.LSHL, 24).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8))
+          .or(b);
+      p = p.blend(v, a.eq(255)).blend(0, zero);
+      p.intoArray(row, i);
+    }
+    if (i < width) {
+      int[] tail = new int[width - i];
+      System.arraycopy(row, i, tail, 0, tail.length);
+      scalar.unpremultiply(tail, tail.length);
+      System.arraycopy(tail, 0, row, i, tail.length);
+    }
+  }
+
+  /**
+   * Return min(255, (c * 255 + half) / a) with integer division.
+   */
+  private static IntVector divide(IntVector c, IntVector half, FloatVector a) {
+    FloatVector n = (FloatVector) c.mul(255).add(half).convert(VectorOperators.I2F, 0);
+    IntVector q = (IntVector) n.div(a).convert(VectorOperators.F2I, 0);
+    return q.min(255);
+  }
+
+  public void lookup(int[] src, int srcPos, int[] dst, int dstPos, int width, int alphaIn, int maskOut, int[][] tables, int[] shifts) {
+
+    int[] ta = tables[LookupTable.ALPHA];
+    int[] tr = tables[LookupTable.RED];
+    int[] tg = tables[LookupTable.GREEN];
+    int[] tb = tables[LookupTable.BLUE];
+    int[] index = new int[SPECIES.length()];
+
+    int bound = SPECIES.loopBound(width);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector v = IntVector.fromArray(SPECIES, src, srcPos + i).or(alphaIn);
+      IntVector a = gather(v, shifts[LookupTable.ALPHA], ta, index);
+      IntVector r = gather(v, shifts[LookupTable.RED], tr, index);
+      IntVector g = gather(v, shifts[LookupTable.GREEN], tg, index);
+      IntVector b = gather(v, shifts[LookupTable.BLUE], tb, index);
+      IntVector p = a.lanewise(VectorOperators.LSHL, 24).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8))
+          .or(b);
+      p.and(maskOut).intoArray(dst, dstPos + i);
+    }
+    if (i < width) {
+      scalar.lookup(src, srcPos + i, dst, dstPos + i, width - i, alphaIn, maskOut, tables, shifts);
+    }
+  }
+
+  /**
+   * Return the table entries of the channel at the given shift.
+   */
+  private static IntVector gather(IntVector v, int shift, int[] table, int[] index) {
+    v.lanewise(VectorOperators.LSHR, shift).and(0xff).intoArray(index, 0);
+    return IntVector.fromArray(SPECIES, table, 0, index, 0);
+  }
+}
@@ -0,0 +1,170 @@
+package org.avaje.imageop.vector;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.avaje.imageop.filter.GammaFilter;
+import org.avaje.imageop.filter.PixelKernels;
+import org.avaje.imageop.filter.ScaleImageOp;
+import org.avaje.imageop.filter.ScaleKernel;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks the vector kernels against the scalar kernels within
+ * PixelKernels.TOLERANCE per channel (including widths that are not a
+ * multiple of the vector length).
+ */
+public class VectorPixelKernelsTest {
+
+  private final PixelKernels scalar = PixelKernels.scalar();
+
+  private final VectorPixelKernels vector = new VectorPixelKernels();
+
+  private final Random random = new Random(42);
+
+  private static final int[] WIDTHS = { 1, 3, 7, 8, 17, 64, 301 };
+
+  @Test
+  public void testSelected() {
+    Assume.assumeTrue(vector.isSupported());
+    Assert.assertTrue(PixelKernels.get() instanceof VectorPixelKernels);
+  }
+
+  @Test
+  public void testHorizontal() {
+    Assume.assumeTrue(vector.isSupported());
+    for (boolean alpha : new boolean[] { false, true }) {
+      for (int width : WIDTHS) {
+        int srcWidth = width * 3 + 5;
+        int[] src = pixels(srcWidth, alpha);
+        int stride = 7;
+        int[] start = new int[width];
+        int[] count = new int[width];
+        int[] weights = new int[width * stride];
+        for (int x = 0; x < width; x++) {
+          count[x] = 1 + random.nextInt(stride);
+          start[x] = random.nextInt(srcWidth - count[x] + 1);
+          weights(weights, x * stride, count[x]);
+        }
+        int[] expected = new int[width + 2];
+        int[] actual = new int[width + 2];
+        scalar.horizontal(src, expected, 2, width, start, count, weights, stride, alpha);
+        vector.horizontal(src, actual, 2, width, start, count, weights, stride, alpha);
+        assertWithinTolerance(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testVertical() {
+    Assume.assumeTrue(vector.isSupported());
+    for (boolean alpha : new boolean[] { false, true }) {
+      for (int width : WIDTHS) {
+        int rows = 9;
+        int[] src = pixels(width * rows, alpha);
+        int[] weights = new int[12];
+        weights(weights, 3, 6);
+        int[] expected = new int[width];
+        int[] actual = new int[width];
+        scalar.vertical(src, width, 2, 6, weights, 3, expected, new int[4 * width], alpha);
+        vector.vertical(src, width, 2, 6, weights, 3, actual, new int[4 * width], alpha);
+        assertWithinTolerance(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testPremultiply() {
+    Assume.assumeTrue(vector.isSupported());
+    for (int width : WIDTHS) {
+      int[] expected = pixels(width, true);
+      expected[0] = 0x00ffffff;
+      int[] actual = expected.clone();
+      scalar.premultiply(expected, width);
+      vector.premultiply(actual, width);
+      assertWithinTolerance(expected, actual);
+
+      scalar.unpremultiply(expected, width);
+      vector.unpremultiply(actual, width);
+      assertWithinTolerance(expected, actual);
+    }
+  }
+
+  @Test
+  public void testLookup() {
+    Assume.assumeTrue(vector.isSupported());
+    int[][] tables = new int[4][256];
+    for (int[] table : tables) {
+      for (int i = 0; i < 256; i++) {
+        table[i] = random.nextInt(256);
+      }
+    }
+    int[] shifts = { 0, 8, 16, 24 };
+    for (int width : WIDTHS) {
+      int[] src = pixels(width + 3, true);
+      int[] expected = new int[width];
+      int[] actual = new int[width];
+      scalar.lookup(src, 3, expected, 0, width, 0xff000000, 0xffffff, tables, shifts);
+      vector.lookup(src, 3, actual, 0, width, 0xff000000, 0xffffff, tables, shifts);
+      assertWithinTolerance(expected, actual);
+    }
+  }
+
+  @Test
+  public void testFilters() {
+    // the ops run with whichever kernels were selected
+    BufferedImage in = new BufferedImage(203, 151, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < in.getHeight(); y++) {
+      for (int x = 0; x < in.getWidth(); x++) {
+        in.setRGB(x, y, random.nextInt());
+      }
+    }
+    BufferedImage out = new GammaFilter(1.4f).filter(new ScaleImageOp(97, 61, ScaleKernel.Lanczos3).filter(in, null), null);
+    Assert.assertEquals(97, out.getWidth());
+    Assert.assertEquals(61, out.getHeight());
+  }
+
+  private int[] pixels(int count, boolean alpha) {
+    int[] pixels = new int[count];
+    for (int i = 0; i < count; i++) {
+      int p = random.nextInt();
+      if (alpha) {
+        // include fully transparent and opaque pixels
+        int a = (i % 5 == 0) ? 0 : (i % 5 == 1) ? 255 : (p >>> 24);
+        pixels[i] = (a << 24) | (p & 0xffffff);
+      } else {
+        pixels[i] = 0xff000000 | p;
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Random weights (including negative lobes) that sum to 1.
+   */
+  private void weights(int[] weights, int from, int count) {
+    int one = 1 << PixelKernels.PRECISION_BITS;
+    int sum = 0;
+    for (int i = 1; i < count; i++) {
+      int w = random.nextInt(one / count + one / 8) - one / 16;
+      weights[from + i] = w;
+      sum += w;
+    }
+    weights[from] = one - sum;
+  }
+
+  private void assertWithinTolerance(int[] expected, int[] actual) {
+    Assert.assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      for (int shift = 0; shift < 32; shift += 8) {
+        int e = (expected[i] >>> shift) & 0xff;
+        int a = (actual[i] >>> shift) & 0xff;
+        if (Math.abs(e - a) > PixelKernels.TOLERANCE) {
+          Assert.fail("pixel " + i + " expected " + Integer.toHexString(expected[i]) + " but was " + Integer.toHexString(actual[i]));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads and writes rows of a BufferedImage as packed (non premultiplied) ARGB
+ * ints.
+ * <p>
+ * For the common raster layouts (the int RGB types and the byte BGR/ABGR types
+ * that ImageIO returns for JPEG and PNG images) this works directly on the
+ * underlying int[] or byte[] data. Other image types fall back to
+ * BufferedImage.getRGB() and setRGB().
+ * </p>
+ */
+final class ArgbRaster {
+
+  static final int GENERIC = 0;
+  static final int INT_ARGB = 1;
+  static final int INT_RGB = 2;
+  static final int INT_BGR = 3;
+  static final int BYTE_BGR = 4;
+  static final int BYTE_ABGR = 5;
+
+  private final BufferedImage image;
+  private final int layout;
+  private final boolean alpha;
+  private final int[] intData;
+  private final byte[] byteData;
+
+  /**
+   * Index into the data array of pixel 0,0.
+   */
+  private final int base;
+  private final int scanline;
+  private final int pixelStride;
+  private final int rOffset;
+  private final int gOffset;
+  private final int bOffset;
+  private final int aOffset;
+
+  ArgbRaster(BufferedImage image) {
+    this.image = image;
+    this.alpha = image.getColorModel().hasAlpha();
+
+    WritableRaster raster = image.getRaster();
+    SampleModel sm = raster.getSampleModel();
+    DataBuffer db = raster.getDataBuffer();
+    int tx = -raster.getSampleModelTranslateX();
+    int ty = -raster.getSampleModelTranslateY();
+
+    int type = layoutOf(image);
+    if (type != GENERIC && sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt) {
+      scanline = ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+      pixelStride = 1;
+      base = db.getOffset() + ty * scanline + tx;
+      intData = ((DataBufferInt) db).getData();
+      byteData = null;
+      rOffset = gOffset = bOffset = aOffset = 0;
+
+    } else if (type != GENERIC && sm instanceof ComponentSampleModel && db instanceof DataBufferByte) {
+      ComponentSampleModel csm = (ComponentSampleModel) sm;
+      int[] bandOffsets = csm.getBandOffsets();
+      scanline = csm.getScanlineStride();
+      pixelStride = csm.getPixelStride();
+      base = db.getOffset() + ty * scanline + tx * pixelStride;
+      intData = null;
+      byteData = ((DataBufferByte) db).getData();
+      rOffset = bandOffsets[0];
+      gOffset = bandOffsets[1];
+      bOffset = bandOffsets[2];
+      aOffset = (bandOffsets.length > 3) ? bandOffsets[3] : 0;
+
+    } else {
+      type = GENERIC;
+      scanline = pixelStride = base = 0;
+      rOffset = gOffset = bOffset = aOffset = 0;
+      intData = null;
+      byteData = null;
+    }
+    this.layout = type;
+  }
+
+  private static int layoutOf(BufferedImage image) {
+    switch (image.getType()) {
+    case BufferedImage.TYPE_CUSTOM:
+      return customLayoutOf(image);
+    case BufferedImage.TYPE_INT_ARGB:
+      return INT_ARGB;
+    case BufferedImage.TYPE_INT_RGB:
+      return INT_RGB;
+    case BufferedImage.TYPE_INT_BGR:
+      return INT_BGR;
+    case BufferedImage.TYPE_3BYTE_BGR:
+      return BYTE_BGR;
+    case BufferedImage.TYPE_4BYTE_ABGR:
+      return BYTE_ABGR;
+    default:
+      return GENERIC;
+    }
+  }
+
+  /**
+   * Return the layout of a custom image. This picks up the interleaved 8 bit
+   * sRGB rasters created by ColorModel.createCompatibleWritableRaster() which
+   * are in RGB rather than BGR order and so are not given a standard type.
+   */
+  private static int customLayoutOf(BufferedImage image) {
+    ColorModel cm = image.getColorModel();
+    if (!(cm instanceof ComponentColorModel) || !cm.getColorSpace().isCS_sRGB() || cm.isAlphaPremultiplied()
+        || cm.getTransferType() != DataBuffer.TYPE_BYTE) {
+      return GENERIC;
+    }
+    SampleModel sm = image.getSampleModel();
+    if (!(sm instanceof ComponentSampleModel) || sm.getNumBands() != cm.getNumComponents()) {
+      return GENERIC;
+    }
+    switch (cm.getNumComponents()) {
+    case 3:
+      return BYTE_BGR;
+    case 4:
+      return cm.hasAlpha() ? BYTE_ABGR : GENERIC;
+    default:
+      return GENERIC;
+    }
+  }
+
+  /**
+   * Return the raster layout (one of the layout constants).
+   */
+  int getLayout() {
+    return layout;
+  }
+
+  /**
+   * Return true if the image has an alpha channel.
+   */
+  boolean hasAlpha() {
+    return alpha;
+  }
+
+  /**
+   * Return the int data of the INT layouts (null otherwise).
+   */
+  int[] intData() {
+    return intData;
+  }
+
+  /**
+   * Return the byte data of the BYTE layouts (null otherwise).
+   */
+  byte[] byteData() {
+    return byteData;
+  }
+
+  /**
+   * Return the index into the data of the pixel at x, y.
+   */
+  int index(int x, int y) {
+    return base + y * scanline + x * pixelStride;
+  }
+
+  /**
+   * Return the number of data elements between pixels of a row.
+   */
+  int pixelStride() {
+    return pixelStride;
+  }
+
+  /**
+   * Return the offsets of the red, green, blue and alpha bytes within a pixel
+   * of the BYTE layouts.
+   */
+  int[] byteOffsets() {
+    return new int[] { rOffset, gOffset, bOffset, aOffset };
+  }
+
+  /**
+   * Read width pixels from row y starting at x into the row array.
+   */
+  void getRow(int x, int y, int width, int[] row) {
+    int p = base + y * scanline + x * pixelStride;
+    switch (layout) {
+    case INT_ARGB:
+      System.arraycopy(intData, p, row, 0, width);
+      break;
+    case INT_RGB:
+      for (int i = 0; i < width; i++) {
+        row[i] = 0xff000000 | intData[p++];
+      }
+      break;
+    case INT_BGR:
+      for (int i = 0; i < width; i++) {
+        int v = intData[p++];
+        row[i] = 0xff000000 | ((v & 0xff) << 16) | (v & 0xff00) | ((v >> 16) & 0xff);
+      }
+      break;
+    case BYTE_BGR:
+      for (int i = 0; i < width; i++) {
+        row[i] = 0xff000000 | ((byteData[p + rOffset] & 0xff) << 16) | ((byteData[p + gOffset] & 0xff) << 8) | (byteData[p + bOffset] & 0xff);
+        p += pixelStride;
+      }
+      break;
+    case BYTE_ABGR:
+      for (int i = 0; i < width; i++) {
+        row[i] = ((byteData[p + aOffset] & 0xff) << 24) | ((byteData[p + rOffset] & 0xff) << 16) | ((byteData[p + gOffset] & 0xff) << 8) | (byteData[p + bOffset] & 0xff);
+        p += pixelStride;
+      }
+      break;
+    default:
+      image.getRGB(x, y, width, 1, row, 0, width);
+    }
+  }
+
+  /**
+   * Write width pixels from the row array into row y starting at x.
+   */
+  void setRow(int x, int y, int width, int[] row) {
+    int p = base + y * scanline + x * pixelStride;
+    switch (layout) {
+    case INT_ARGB:
+      System.arraycopy(row, 0, intData, p, width);
+      break;
+    case INT_RGB:
+      for (int i = 0; i < width; i++) {
+        intData[p++] = row[i] & 0xffffff;
+      }
+      break;
+    case INT_BGR:
+      for (int i = 0; i < width; i++) {
+        int v = row[i];
+        intData[p++] = ((v & 0xff) << 16) | (v & 0xff00) | ((v >> 16) & 0xff);
+      }
+      break;
+    case BYTE_BGR:
+      for (int i = 0; i < width; i++) {
+        int v = row[i];
+        byteData[p + rOffset] = (byte) (v >> 16);
+        byteData[p + gOffset] = (byte) (v >> 8);
+        byteData[p + bOffset] = (byte) v;
+        p += pixelStride;
+      }
+      break;
+    case BYTE_ABGR:
+      for (int i = 0; i < width; i++) {
+        int v = row[i];
+        byteData[p + aOffset] = (byte) (v >>> 24);
+        byteData[p + rOffset] = (byte) (v >> 16);
+        byteData[p + gOffset] = (byte) (v >> 8);
+        byteData[p + bOffset] = (byte) v;
+        p += pixelStride;
+      }
+      break;
+    default:
+      image.setRGB(x, y, width, 1, row, 0, width);
+    }
+  }
+
+  /**
+   * Return true if different rows of the image can be written concurrently.
+   * <p>
+   * This is false for indexed images as IndexColorModel uses an unsynchronized
+   * lookup cache when mapping colours to palette entries.
+   * </p>
+   */
+  static boolean supportsConcurrentWrites(BufferedImage image) {
+    return !(image.getColorModel() instanceof IndexColorModel);
+  }
+}
@@ -0,0 +1,256 @@
+package org.avaje.imageop.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an image into bands and processes the bands in parallel.
+ * <p>
+ * This is opt-in by setting a BandExecutor on an ImageOp. Each row is computed
+ * exactly as it would be serially so the output is identical to the single
+ * threaded output. Images smaller than the threshold (in pixels) are processed
+ * on the calling thread.
+ * </p>
+ *
+ * <pre class="code">
+ *
+ * ScaleImageOp scale = new ScaleImageOp(800, 600);
+ * scale.setBandExecutor(new BandExecutor());
+ *
+ * </pre>
+ */
+public class BandExecutor {
+
+  /**
+   * Default threshold of 1 mega pixel below which processing is serial.
+   */
+  public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+  /**
+   * The minimum number of rows in a band.
+   */
+  private static final int MIN_BAND_ROWS = 8;
+
+  private static class DefaultPool {
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * A unit of work processing the rows from y0 (inclusive) to y1 (exclusive).
+   */
+  public interface Band {
+
+    void run(int y0, int y1);
+  }
+
+  private final Executor executor;
+  private final int parallelism;
+  private final long threshold;
+
+  /**
+   * Construct using a shared ForkJoinPool sized to the number of processors and
+   * the default threshold.
+   */
+  public BandExecutor() {
+    this(DefaultPool.POOL, DefaultPool.POOL.getParallelism(), DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Construct with a caller supplied executor.
+   *
+   * @param executor
+   *          the executor (or ForkJoinPool) used to process the bands
+   * @param parallelism
+   *          the maximum number of bands to split the image into
+   * @param threshold
+   *          the number of pixels below which processing is serial
+   */
+  public BandExecutor(Executor executor, int parallelism, long threshold) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor is null");
+    }
+    this.executor = executor;
+    this.parallelism = Math.max(1, parallelism);
+    this.threshold = threshold;
+  }
+
+  /**
+   * Return the maximum number of bands an image is split into.
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Return the number of pixels below which processing is serial.
+   */
+  public long getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Run the band for the given number of rows splitting them across threads if
+   * the executor is not null and the image is above the threshold.
+   */
+  public static void run(BandExecutor bandExecutor, int width, int height, Band band) {
+    if (bandExecutor == null) {
+      band.run(0, height);
+    } else {
+      bandExecutor.run(width, height, band);
+    }
+  }
+
+  /**
+   * Run the band for the given number of rows, splitting them across threads if
+   * the image is above the threshold.
+   */
+  public void run(int width, int height, Band band) {
+
+    int bands = Math.min(parallelism, height / MIN_BAND_ROWS);
+    if (bands < 2 || (long) width * height < threshold) {
+      band.run(0, height);
+      return;
+    }
+
+    int[] bounds = new int[bands + 1];
+    for (int i = 0; i <= bands; i++) {
+      bounds[i] = (int) ((long) height * i / bands);
+    }
+
+    if (executor instanceof ForkJoinPool) {
+      runForkJoin((ForkJoinPool) executor, bounds, band);
+    } else {
+      runExecutor(bounds, band);
+    }
+  }
+
+  private void runForkJoin(ForkJoinPool pool, int[] bounds, Band band) {
+
+    List<BandAction> actions = new ArrayList<BandAction>(bounds.length - 1);
+    for (int i = 0; i < bounds.length - 1; i++) {
+      actions.add(new BandAction(band, bounds[i], bounds[i + 1]));
+    }
+    if (ForkJoinTask.getPool() == pool) {
+      // already running in the pool so fork and join (work stealing)
+      ForkJoinTask.invokeAll(actions);
+    } else {
+      pool.invoke(new AllAction(actions));
+    }
+  }
+
+  private void runExecutor(int[] bounds, Band band) {
+
+    int bands = bounds.length - 1;
+    CountDownLatch latch = new CountDownLatch(bands);
+    Throwable[] error = new Throwable[1];
+
+    for (int i = 1; i < bands; i++) {
+      BandTask task = new BandTask(band, bounds[i], bounds[i + 1], latch, error);
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // saturated or shutdown executor so process the band on this thread
+        task.run();
+      }
+    }
+
+    // the calling thread processes the first band (recording any error so
+    // that it still waits for the other bands writing to the image)
+    new BandTask(band, bounds[0], bounds[1], latch, error).run();
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for image bands", e);
+    }
+    synchronized (error) {
+      if (error[0] instanceof RuntimeException) {
+        throw (RuntimeException) error[0];
+      }
+      if (error[0] instanceof Error) {
+        throw (Error) error[0];
+      }
+      if (error[0] != null) {
+        throw new IllegalStateException(error[0]);
+      }
+    }
+  }
+
+  /**
+   * Runs a band on an executor thread recording the first error and counting
+   * down the latch when done.
+   */
+  private static class BandTask implements Runnable {
+
+    private final Band band;
+    private final int y0;
+    private final int y1;
+    private final CountDownLatch latch;
+    private final Throwable[] error;
+
+    BandTask(Band band, int y0, int y1, CountDownLatch latch, Throwable[] error) {
+      this.band = band;
+      this.y0 = y0;
+      this.y1 = y1;
+      this.latch = latch;
+      this.error = error;
+    }
+
+    @Override
+    public void run() {
+      try {
+        band.run(y0, y1);
+      } catch (Throwable e) {
+        synchronized (error) {
+          if (error[0] == null) {
+            error[0] = e;
+          }
+        }
+      } finally {
+        latch.countDown();
+      }
+    }
+  }
+
+  private static class AllAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<BandAction> actions;
+
+    AllAction(List<BandAction> actions) {
+      this.actions = actions;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(actions);
+    }
+  }
+
+  private static class BandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Band band;
+    private final int y0;
+    private final int y1;
+
+    BandAction(Band band, int y0, int y1) {
+      this.band = band;
+      this.y0 = y0;
+      this.y1 = y1;
+    }
+
+    @Override
+    protected void compute() {
+      band.run(y0, y1);
+    }
+  }
+}
@@ -169,29 +169,63 @@ public class BorderOp extends ImageOp {
     return borderPaint;
   }
 
+  /**
+   * Return the image type used when the source image type is custom.
+   */
+  public int getOriginImageType() {
+    return originImageType;
+  }
+
+  public Rectangle2D getBounds2D(int width, int height) {
+    return new Rectangle(0, 0, width + leftBorder + rightBorder, height + topBorder + bottomBorder);
+  }
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
 
     if (dst == null) {
       int type = src.getType() != 0 ? src.getType() : originImageType;
-      dst = new BufferedImage(width + leftBorder + rightBorder, height + topBorder + bottomBorder, type);
+      dst = createImage(width + leftBorder + rightBorder, height + topBorder + bottomBorder, type);
     }
     Graphics2D g = dst.createGraphics();
+    fillBorder(g, width, height);
+    g.drawRenderedImage(src, AffineTransform.getTranslateInstance(leftBorder, topBorder));
+    g.dispose();
+    return dst;
+  }
+
+  /**
+   * Fill just the border of the destination image leaving the interior (where
+   * an image of width x height is placed) unchanged.
+   * 
+   * @param dst
+   *          the destination image
+   * @param width
+   *          the width of the image inside the border
+   * @param height
+   *          the height of the image inside the border
+   */
+  public void fillBorder(BufferedImage dst, int width, int height) {
+    Graphics2D g = dst.createGraphics();
+    fillBorder(g, width, height);
+    g.dispose();
+  }
+
+  private void fillBorder(Graphics2D g, int width, int height) {
     if (borderPaint != null) {
       g.setPaint(borderPaint);
-      if (leftBorder > 0)
-        g.fillRect(0, 0, leftBorder, height);
-      if (rightBorder > 0)
-        g.fillRect(width + leftBorder, 0, rightBorder, height);
+      // the top and bottom strips span the whole destination width
+      int dstWidth = width + leftBorder + rightBorder;
       if (topBorder > 0)
-        g.fillRect(leftBorder, 0, width - leftBorder - rightBorder, topBorder);
+        g.fillRect(0, 0, dstWidth, topBorder);
       if (bottomBorder > 0)
-        g.fillRect(leftBorder, height + topBorder, width - leftBorder - rightBorder, bottomBorder);
+        g.fillRect(0, height + topBorder, dstWidth, bottomBorder);
+      if (leftBorder > 0)
+        g.fillRect(0, topBorder, leftBorder, height);
+      if (rightBorder > 0)
+        g.fillRect(width + leftBorder, topBorder, rightBorder, height);
     }
-    g.drawRenderedImage(src, AffineTransform.getTranslateInstance(leftBorder, topBorder));
-    g.dispose();
-    return dst;
   }
 
   public String toString() {
@@ -0,0 +1,44 @@
+package org.avaje.imageop.filter;
+
+/**
+ * Scales the red, green and blue channels by a brightness factor (1 leaves the
+ * image unchanged).
+ */
+public class BrightnessFilter extends LookupFilter {
+
+  private final float brightness;
+
+  /**
+   * Construct with the brightness factor.
+   *
+   * @param brightness
+   *          the factor each channel is multiplied by (like 1.2 for 20%
+   *          brighter)
+   */
+  public BrightnessFilter(float brightness) {
+    super(LookupTable.of(table(brightness)));
+    this.brightness = brightness;
+  }
+
+  private static int[] table(float brightness) {
+    if (brightness < 0) {
+      throw new IllegalArgumentException("Invalid brightness " + brightness);
+    }
+    int[] table = new int[256];
+    for (int i = 0; i < 256; i++) {
+      table[i] = LookupTable.clamp(Math.round(i * brightness));
+    }
+    return table;
+  }
+
+  /**
+   * Return the brightness factor.
+   */
+  public float getBrightness() {
+    return brightness;
+  }
+
+  public String toString() {
+    return "Colors/Brightness";
+  }
+}
@@ -0,0 +1,33 @@
+package org.avaje.imageop.filter;
+
+/**
+ * Rearranges the red, green and blue channels.
+ *
+ * <pre class="code">
+ *
+ * // swap the red and blue channels
+ * new ChannelSwapFilter(LookupTable.BLUE, LookupTable.GREEN, LookupTable.RED);
+ *
+ * </pre>
+ */
+public class ChannelSwapFilter extends LookupFilter {
+
+  /**
+   * Construct with the input channel each output channel is taken from.
+   *
+   * @param red
+   *          the channel (LookupTable.RED, GREEN, BLUE or ALPHA) the red
+   *          channel is taken from
+   * @param green
+   *          the channel the green channel is taken from
+   * @param blue
+   *          the channel the blue channel is taken from
+   */
+  public ChannelSwapFilter(int red, int green, int blue) {
+    super(LookupTable.swap(red, green, blue));
+  }
+
+  public String toString() {
+    return "Colors/Channel Swap";
+  }
+}
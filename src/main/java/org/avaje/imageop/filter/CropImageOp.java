@@ -22,6 +22,13 @@ import java.awt.image.*;
 
 /**
  * A filter which crops an image to a given rectangle.
+ * <p>
+ * In view mode the cropped image shares the raster of the source (like
+ * BufferedImage.getSubimage()) so no pixels are copied. This suits a crop that
+ * is only read (like one that is then scaled) as writes to either image are
+ * visible in the other. A copy is still made when a destination image is
+ * given or the crop rectangle extends past the source.
+ * </p>
  */
 public class CropImageOp extends ImageOp {
 
@@ -29,6 +36,7 @@ public class CropImageOp extends ImageOp {
   private int y;
   private int width;
   private int height;
+  private boolean view;
 
   /**
    * Construct a CropFilter.
@@ -50,10 +58,29 @@ public class CropImageOp extends ImageOp {
    *          the height of the crop rectangle
    */
   public CropImageOp(int x, int y, int width, int height) {
+    this(x, y, width, height, false);
+  }
+
+  /**
+   * Construct a CropFilter.
+   * 
+   * @param x
+   *          the left edge of the crop rectangle
+   * @param y
+   *          the top edge of the crop rectangle
+   * @param width
+   *          the width of the crop rectangle
+   * @param height
+   *          the height of the crop rectangle
+   * @param view
+   *          true to return a view sharing the source raster when possible
+   */
+  public CropImageOp(int x, int y, int width, int height, boolean view) {
     this.x = x;
     this.y = y;
     this.width = width;
     this.height = height;
+    this.view = view;
   }
 
   /**
@@ -140,11 +167,53 @@ public class CropImageOp extends ImageOp {
     return height;
   }
 
+  /**
+   * Set to true to return a view sharing the source raster (rather than a
+   * detached copy) when possible.
+   * 
+   * @param view
+   *          true for view mode
+   * @see #isView
+   */
+  public void setView(boolean view) {
+    this.view = view;
+  }
+
+  /**
+   * Return true if the cropped image shares the source raster when possible.
+   * 
+   * @return true for view mode
+   * @see #setView
+   */
+  public boolean isView() {
+    return view;
+  }
+
+  /**
+   * Return true if the crop rectangle is inside an image of the given size.
+   */
+  boolean inside(int srcWidth, int srcHeight) {
+    return x >= 0 && y >= 0 && width > 0 && height > 0 && x + width <= srcWidth && y + height <= srcHeight;
+  }
+
+  public Rectangle2D getBounds2D(int srcWidth, int srcHeight) {
+    return new Rectangle(0, 0, width, height);
+  }
+
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
 
+    if (dst == null && inside(src.getWidth(), src.getHeight())) {
+      if (view) {
+        return src.getSubimage(x, y, width, height);
+      }
+      // detached copy of the raster data (no colour conversion)
+      BufferedImage copy = createImage(width, height, src.getColorModel(), false);
+      copy.getRaster().setRect(src.getRaster().createChild(x, y, width, height, 0, 0, null));
+      return copy;
+    }
+
     if (dst == null) {
-      ColorModel dstCM = src.getColorModel();
-      dst = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(width, height), dstCM.isAlphaPremultiplied(), null);
+      dst = createImage(width, height, src.getColorModel(), true);
     }
 
     Graphics2D g = dst.createGraphics();
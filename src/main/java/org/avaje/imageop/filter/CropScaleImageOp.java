@@ -1,29 +1,43 @@
 package org.avaje.imageop.filter;
 
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Scales an image to cover maxWidth x maxHeight (keeping the aspect ratio)
+ * cropping the overflow about the center.
+ * <p>
+ * The crop and scale are fused: only the crop rectangle of the source is read
+ * and it is resampled straight into the final size image.
+ * </p>
+ */
 public class CropScaleImageOp extends ImageOp {
 
   private static final Logger log = LoggerFactory.getLogger(CropScaleImageOp.class);
   
   private final int maxWidth;
   private final int maxHeight;
-  private final BigDecimal maxWidthBd;
-  private final BigDecimal maxHeightBd;
-
-  private final ScaleImageOp scaleFilter;
+  private final ScaleKernel kernel;
   
   public CropScaleImageOp(int maxWidth, int maxHeight) {
+    this(maxWidth, maxHeight, ScaleKernel.Box);
+  }
+
+  /**
+   * Construct specifying the resampling kernel used to scale the cropped image.
+   */
+  public CropScaleImageOp(int maxWidth, int maxHeight, ScaleKernel kernel) {
     this.maxWidth = maxWidth;
     this.maxHeight = maxHeight;
-    this.maxWidthBd = new BigDecimal(maxWidth);
-    this.maxHeightBd = new BigDecimal(maxHeight);
-    this.scaleFilter = new ScaleImageOp(maxWidth, maxHeight);
+    this.kernel = kernel;
+  }
+
+  public Rectangle2D getBounds2D(int width, int height) {
+    return new Rectangle(0, 0, maxWidth, maxHeight);
   }
 
   public BufferedImage filter(BufferedImage src, BufferedImage dest) {
@@ -35,42 +49,16 @@ public class CropScaleImageOp extends ImageOp {
       log.debug("No crop or scale required");
       return src;
     }
-    
-    BigDecimal origHeightAsBd = new BigDecimal(origHeight);
-    BigDecimal origWidthAsBd = new BigDecimal(origWidth);
 
-    BigDecimal scaleWidth = origWidthAsBd.divide(maxWidthBd, 6, RoundingMode.HALF_DOWN);
-    BigDecimal scaleHeight = origHeightAsBd.divide(maxHeightBd, 6, RoundingMode.HALF_DOWN);
-
-    int minsWint = origWidth;
-    int minsHint = origHeight;
-
-    log.debug("o:{}x{} max:{}x{} scaleWidth:{} scaleHeight:{}" ,origWidth, origHeight, maxWidth, maxHeight, scaleWidth, scaleHeight);
-
-    int x = 0;
-    int y = 0;
-    BigDecimal minScaleDb = scaleWidth.min(scaleHeight);
-    BigDecimal maxScaleDb = scaleWidth.max(scaleHeight);
-    if (minScaleDb.compareTo(scaleWidth) == 0) {
-      // width was min
-      BigDecimal tmp = origHeightAsBd.multiply(minScaleDb);
-      minsHint = tmp.divide(maxScaleDb, 6, RoundingMode.HALF_DOWN).intValue();
-      log.debug("change height minsHint:{}", minsHint);
-      y = (origHeight - minsHint) / 2;
-      
-    } else {
-      BigDecimal tmp = origWidthAsBd.multiply(minScaleDb);
-      minsWint = tmp.divide(maxScaleDb, 6, RoundingMode.HALF_DOWN).intValue();
-      log.debug("change width minsWint:{}", minsWint);
-      x = (origWidth - minsWint) / 2;
+    GeometryPlan plan = GeometryPlan.cover(origWidth, origHeight, maxWidth, maxHeight);
+    if (log.isDebugEnabled()) {
+      log.debug("o:{}x{} max:{}x{} plan:{}", origWidth, origHeight, maxWidth, maxHeight, plan);
     }
 
-    // Crop the image first
-    CropImageOp cropFilter = new CropImageOp(x, y, minsWint, minsHint);
-    BufferedImage croppedImg = cropFilter.filter(src, null);
-
-    // Now scale the image
-    return scaleFilter.filter(croppedImg, null);
+    PlanImageOp planOp = new PlanImageOp(plan, kernel, null, 0);
+    planOp.setBandExecutor(bandExecutor);
+    planOp.setImagePool(imagePool);
+    return planOp.filter(src, null);
   }
 
 }
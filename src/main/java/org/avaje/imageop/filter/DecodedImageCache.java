@@ -0,0 +1,317 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in memory cache of decoded images (and intermediate downscales of them)
+ * bounded by the total bytes of their rasters.
+ * <p>
+ * Used when several derivatives are produced from the same source so that it
+ * is decoded once rather than once per derivative. Entries are weighted by
+ * the size of their raster so a few large images can not hold an unbounded
+ * amount of memory and the least recently used entries are evicted once the
+ * total weight exceeds the maximum.
+ * </p>
+ * <p>
+ * Loading is single flight: concurrent requests for a key that is not cached
+ * wait for the one load rather than each decoding the image.
+ * </p>
+ * <p>
+ * Cached images are shared so they must be treated as read only (the filter
+ * operations never write to their source image).
+ * </p>
+ */
+public class DecodedImageCache {
+
+  /**
+   * Loads the image for a key that is not cached.
+   */
+  public interface Loader {
+
+    /**
+     * Load (typically decode or scale) the image.
+     */
+    BufferedImage load() throws IOException;
+  }
+
+  private final long maxWeight;
+
+  /**
+   * Access ordered entries guarded by synchronising on the map.
+   */
+  private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(64, 0.75f, true);
+
+  /**
+   * The loads in progress.
+   */
+  private final ConcurrentHashMap<Object, CompletableFuture<BufferedImage>> loading = new ConcurrentHashMap<Object, CompletableFuture<BufferedImage>>();
+
+  private long weight;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong loads = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create with the maximum total bytes of the cached rasters.
+   */
+  public DecodedImageCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * Return the key of a scaled (intermediate) image of the source.
+   */
+  public static Object scaledKey(Object sourceKey, int width, int height) {
+    return new ScaledKey(sourceKey, width, height);
+  }
+
+  /**
+   * Return the bytes held by the raster of the image.
+   */
+  public static long weigh(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    long bits = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType());
+    return bits / 8;
+  }
+
+  /**
+   * Return the cached image or null if it is not cached.
+   */
+  public BufferedImage getIfPresent(Object key) {
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.image;
+  }
+
+  /**
+   * Return the cached image loading it if it is not cached.
+   * <p>
+   * When another thread is already loading the image this waits for that load.
+   * A failed load is not cached and its exception is thrown to all the waiting
+   * callers.
+   * </p>
+   */
+  public BufferedImage get(Object key, Loader loader) throws IOException {
+
+    BufferedImage image = getIfPresent(key);
+    if (image != null) {
+      return image;
+    }
+
+    CompletableFuture<BufferedImage> future = new CompletableFuture<BufferedImage>();
+    CompletableFuture<BufferedImage> existing = loading.putIfAbsent(key, future);
+    if (existing != null) {
+      return await(existing);
+    }
+
+    try {
+      // check again as it may have been loaded between the miss and putIfAbsent
+      synchronized (entries) {
+        Entry entry = entries.get(key);
+        image = (entry == null) ? null : entry.image;
+      }
+      if (image == null) {
+        loads.incrementAndGet();
+        image = loader.load();
+        put(key, image);
+      }
+      future.complete(image);
+      return image;
+
+    } catch (Throwable e) {
+      // including errors (like OutOfMemoryError) so waiting callers never block
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(key, future);
+    }
+  }
+
+  private BufferedImage await(CompletableFuture<BufferedImage> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for image load", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Put the image into the cache evicting least recently used images as
+   * required. An image heavier than the maximum weight is not cached.
+   */
+  public void put(Object key, BufferedImage image) {
+
+    long imageWeight = weigh(image);
+    synchronized (entries) {
+      Entry previous = entries.remove(key);
+      if (previous != null) {
+        weight -= previous.weight;
+      }
+      if (imageWeight > maxWeight) {
+        return;
+      }
+      entries.put(key, new Entry(image, imageWeight));
+      weight += imageWeight;
+
+      Iterator<Entry> it = entries.values().iterator();
+      while (weight > maxWeight && it.hasNext()) {
+        Entry eldest = it.next();
+        it.remove();
+        weight -= eldest.weight;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Remove the image from the cache.
+   */
+  public void invalidate(Object key) {
+    synchronized (entries) {
+      Entry entry = entries.remove(key);
+      if (entry != null) {
+        weight -= entry.weight;
+      }
+    }
+  }
+
+  /**
+   * Remove all the images from the cache.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      weight = 0;
+    }
+  }
+
+  /**
+   * Return the number of cached images.
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Return the total bytes of the cached rasters.
+   */
+  public long getWeight() {
+    synchronized (entries) {
+      return weight;
+    }
+  }
+
+  /**
+   * Return the maximum total bytes of the cached rasters.
+   */
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * Return the number of requests that found the image cached.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Return the number of requests that did not find the image cached.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Return the number of images loaded.
+   */
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  /**
+   * Return the number of images evicted to stay within the maximum weight.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public String toString() {
+    return "DecodedImageCache size:" + size() + " weight:" + getWeight() + "/" + maxWeight + " hits:" + hits + " misses:" + misses
+        + " evictions:" + evictions;
+  }
+
+  private static class Entry {
+
+    final BufferedImage image;
+    final long weight;
+
+    Entry(BufferedImage image, long weight) {
+      this.image = image;
+      this.weight = weight;
+    }
+  }
+
+  private static class ScaledKey {
+
+    final Object sourceKey;
+    final int width;
+    final int height;
+
+    ScaledKey(Object sourceKey, int width, int height) {
+      this.sourceKey = sourceKey;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ScaledKey)) {
+        return false;
+      }
+      ScaledKey other = (ScaledKey) obj;
+      return width == other.width && height == other.height && sourceKey.equals(other.sourceKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return (sourceKey.hashCode() * 31 + width) * 31 + height;
+    }
+
+    public String toString() {
+      return sourceKey + "@" + width + "x" + height;
+    }
+  }
+}
@@ -16,6 +16,8 @@ package org.avaje.imageop.filter;
  limitations under the License.
  */
 
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 /**
  * A filter which fills an image with a given color. Normally you would just
@@ -64,6 +66,23 @@ public class FillOp extends PointFilter {
     return fillColor;
   }
 
+  @Override
+  protected void filterRows(BufferedImage src, BufferedImage dst, int y0, int y1) {
+    // the source pixels are not used so only the destination is written
+    int width = src.getWidth();
+    int[] row = new int[width];
+    Arrays.fill(row, fillColor);
+    ArgbRaster out = new ArgbRaster(dst);
+    for (int y = y0; y < y1; y++) {
+      out.setRow(0, y, width, row);
+    }
+  }
+
+  @Override
+  protected void filterRow(int[] row, int y) {
+    Arrays.fill(row, fillColor);
+  }
+
   public int filterRGB(int x, int y, int rgb) {
     return fillColor;
   }
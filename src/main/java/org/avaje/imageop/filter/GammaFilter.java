@@ -0,0 +1,44 @@
+package org.avaje.imageop.filter;
+
+/**
+ * Applies gamma correction to the red, green and blue channels (1 leaves the
+ * image unchanged, larger values brighten the mid tones).
+ */
+public class GammaFilter extends LookupFilter {
+
+  private final float gamma;
+
+  /**
+   * Construct with the gamma.
+   *
+   * @param gamma
+   *          the gamma where each channel value v becomes 255 *
+   *          (v/255)^(1/gamma)
+   */
+  public GammaFilter(float gamma) {
+    super(LookupTable.of(table(gamma)));
+    this.gamma = gamma;
+  }
+
+  private static int[] table(float gamma) {
+    if (gamma <= 0) {
+      throw new IllegalArgumentException("Invalid gamma " + gamma);
+    }
+    int[] table = new int[256];
+    for (int i = 0; i < 256; i++) {
+      table[i] = LookupTable.clamp((int) Math.round(255 * Math.pow(i / 255.0, 1.0 / gamma)));
+    }
+    return table;
+  }
+
+  /**
+   * Return the gamma.
+   */
+  public float getGamma() {
+    return gamma;
+  }
+
+  public String toString() {
+    return "Colors/Gamma";
+  }
+}
@@ -0,0 +1,333 @@
+package org.avaje.imageop.filter;
+
+/**
+ * A precomputed plan to crop, scale and pad a source image of known size.
+ * <p>
+ * The plan is applied in order: the crop rectangle of the source is scaled to
+ * scaleWidth x scaleHeight and placed at offsetX, offsetY of an output image of
+ * width x height (padding any remaining area). The output dimensions are
+ * therefore known before any pixels are processed.
+ * </p>
+ * <p>
+ * Scaled dimensions are rounded the same way as ImageMagick geometry so that
+ * plans also describe the output of the ImageMagick convert command.
+ * </p>
+ */
+public final class GeometryPlan {
+
+  private final int sourceWidth;
+  private final int sourceHeight;
+  private final int cropX;
+  private final int cropY;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final int scaleWidth;
+  private final int scaleHeight;
+  private final int width;
+  private final int height;
+  private final int offsetX;
+  private final int offsetY;
+
+  private GeometryPlan(int sourceWidth, int sourceHeight, int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth,
+      int scaleHeight, int width, int height, int offsetX, int offsetY) {
+    this.sourceWidth = sourceWidth;
+    this.sourceHeight = sourceHeight;
+    this.cropX = cropX;
+    this.cropY = cropY;
+    this.cropWidth = cropWidth;
+    this.cropHeight = cropHeight;
+    this.scaleWidth = scaleWidth;
+    this.scaleHeight = scaleHeight;
+    this.width = width;
+    this.height = height;
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+  }
+
+  /**
+   * Return a plan that leaves the source unchanged.
+   */
+  public static GeometryPlan identity(int sourceWidth, int sourceHeight) {
+    return new GeometryPlan(sourceWidth, sourceHeight, 0, 0, sourceWidth, sourceHeight, sourceWidth, sourceHeight, sourceWidth,
+        sourceHeight, 0, 0);
+  }
+
+  /**
+   * Return a plan that crops the rectangle from the source.
+   */
+  public static GeometryPlan crop(int sourceWidth, int sourceHeight, int x, int y, int width, int height) {
+    return new GeometryPlan(sourceWidth, sourceHeight, x, y, width, height, width, height, width, height, 0, 0);
+  }
+
+  /**
+   * Return a plan with the crop rectangle of this plan scaled to the given
+   * width and height (and no padding).
+   */
+  public GeometryPlan scaleTo(int width, int height) {
+    return new GeometryPlan(sourceWidth, sourceHeight, cropX, cropY, cropWidth, cropHeight, width, height, width, height, 0, 0);
+  }
+
+  /**
+   * Return a plan with a border of the given sizes added around this plans
+   * output.
+   */
+  public GeometryPlan border(int left, int top, int right, int bottom) {
+    return new GeometryPlan(sourceWidth, sourceHeight, cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight,
+        width + left + right, height + top + bottom, offsetX + left, offsetY + top);
+  }
+
+  /**
+   * Return a plan that scales the source by the given factor.
+   */
+  public static GeometryPlan scale(int sourceWidth, int sourceHeight, double scale) {
+    int w = round(scale * sourceWidth);
+    int h = round(scale * sourceHeight);
+    return new GeometryPlan(sourceWidth, sourceHeight, 0, 0, sourceWidth, sourceHeight, w, h, w, h, 0, 0);
+  }
+
+  /**
+   * Return a plan that scales the source to fit inside the width and height
+   * keeping the aspect ratio.
+   *
+   * @param enlarge
+   *          if false sources that already fit are left unchanged
+   */
+  public static GeometryPlan fit(int sourceWidth, int sourceHeight, int width, int height, boolean enlarge) {
+    if (!enlarge && sourceWidth <= width && sourceHeight <= height) {
+      return identity(sourceWidth, sourceHeight);
+    }
+    double scale = Math.min((double) width / sourceWidth, (double) height / sourceHeight);
+    return scale(sourceWidth, sourceHeight, scale);
+  }
+
+  /**
+   * Return a plan that scales the source to cover the width and height keeping
+   * the aspect ratio and crops the overflow about the center.
+   */
+  public static GeometryPlan cover(int sourceWidth, int sourceHeight, int width, int height) {
+    double scale = Math.max((double) width / sourceWidth, (double) height / sourceHeight);
+    return scale(sourceWidth, sourceHeight, scale).extent(width, height);
+  }
+
+  /**
+   * Return a plan that scales the source so that it has approximately the
+   * area of width x height keeping the aspect ratio.
+   */
+  public static GeometryPlan area(int sourceWidth, int sourceHeight, int width, int height) {
+    double scale = Math.sqrt((double) width * height / ((double) sourceWidth * sourceHeight));
+    return scale(sourceWidth, sourceHeight, scale);
+  }
+
+  /**
+   * Return a plan with this plans scaled image cropped and/or padded about the
+   * center to the given width and height.
+   * <p>
+   * Cropping is converted into a crop of the source rectangle (so that only the
+   * part of the source that survives is scaled) and padding sets the offset of
+   * the scaled image in the output.
+   * </p>
+   */
+  public GeometryPlan extent(int width, int height) {
+
+    boolean cropsX = scaleWidth > width;
+    boolean cropsY = scaleHeight > height;
+
+    // source pixels per scaled pixel, when only one axis is cropped this is
+    // taken from the other axis as the cropped axis scaled size was rounded
+    double ratioX = (double) cropWidth / scaleWidth;
+    double ratioY = (double) cropHeight / scaleHeight;
+    if (cropsX && !cropsY) {
+      ratioX = ratioY;
+    } else if (cropsY && !cropsX) {
+      ratioY = ratioX;
+    }
+
+    int cx = cropX;
+    int cw = cropWidth;
+    int sw = scaleWidth;
+    int ox = 0;
+    if (cropsX) {
+      // crop the source horizontally about the center (in source pixels)
+      cw = Math.min(round(width * ratioX), cropWidth);
+      cx = cropX + (cropWidth - cw) / 2;
+      sw = width;
+    } else {
+      ox = (width - sw) / 2;
+    }
+
+    int cy = cropY;
+    int ch = cropHeight;
+    int sh = scaleHeight;
+    int oy = 0;
+    if (cropsY) {
+      ch = Math.min(round(height * ratioY), cropHeight);
+      cy = cropY + (cropHeight - ch) / 2;
+      sh = height;
+    } else {
+      oy = (height - sh) / 2;
+    }
+
+    return new GeometryPlan(sourceWidth, sourceHeight, cx, cy, cw, ch, sw, sh, width, height, ox, oy);
+  }
+
+  /**
+   * Return this plan relative to a reduced decode of the source.
+   * <p>
+   * The source is decoded from the region starting at regionX, regionY taking
+   * every subsampling pixel giving a decoded image of decodedWidth x
+   * decodedHeight. The crop rectangle is mapped into the decoded image while
+   * the scaled and output dimensions are unchanged.
+   * </p>
+   */
+  public GeometryPlan decoded(int regionX, int regionY, int subsampling, int decodedWidth, int decodedHeight) {
+
+    int cx = (cropX - regionX) / subsampling;
+    int cy = (cropY - regionY) / subsampling;
+    int cw = Math.max(1, Math.min((cropWidth + subsampling - 1) / subsampling, decodedWidth - cx));
+    int ch = Math.max(1, Math.min((cropHeight + subsampling - 1) / subsampling, decodedHeight - cy));
+    return new GeometryPlan(decodedWidth, decodedHeight, cx, cy, cw, ch, scaleWidth, scaleHeight, width, height, offsetX, offsetY);
+  }
+
+  /**
+   * Return this plan relative to the whole source resampled to resampledWidth
+   * x resampledHeight (like an intermediate downscale of the source).
+   * <p>
+   * The crop rectangle is mapped proportionally into the resampled image while
+   * the scaled and output dimensions are unchanged.
+   * </p>
+   */
+  public GeometryPlan resampled(int resampledWidth, int resampledHeight) {
+
+    double sx = (double) resampledWidth / sourceWidth;
+    double sy = (double) resampledHeight / sourceHeight;
+    int cx = Math.min((int) Math.round(cropX * sx), resampledWidth - 1);
+    int cy = Math.min((int) Math.round(cropY * sy), resampledHeight - 1);
+    int cw = Math.max(1, Math.min((int) Math.round((cropX + cropWidth) * sx), resampledWidth) - cx);
+    int ch = Math.max(1, Math.min((int) Math.round((cropY + cropHeight) * sy), resampledHeight) - cy);
+    return new GeometryPlan(resampledWidth, resampledHeight, cx, cy, cw, ch, scaleWidth, scaleHeight, width, height, offsetX, offsetY);
+  }
+
+  /**
+   * Round as per ImageMagick geometry (with a minimum of 1 pixel).
+   */
+  private static int round(double value) {
+    return Math.max(1, (int) Math.floor(value + 0.5));
+  }
+
+  /**
+   * Return true if the plan does not change the source.
+   */
+  public boolean isIdentity() {
+    return !isCropped() && !isScaled() && !isPadded();
+  }
+
+  /**
+   * Return true if only part of the source is used.
+   */
+  public boolean isCropped() {
+    return cropX != 0 || cropY != 0 || cropWidth != sourceWidth || cropHeight != sourceHeight;
+  }
+
+  /**
+   * Return true if the (cropped) source is scaled.
+   */
+  public boolean isScaled() {
+    return scaleWidth != cropWidth || scaleHeight != cropHeight;
+  }
+
+  /**
+   * Return true if the scaled image is padded to the output size.
+   */
+  public boolean isPadded() {
+    return scaleWidth != width || scaleHeight != height;
+  }
+
+  public String toString() {
+    return "src:" + sourceWidth + "x" + sourceHeight + " crop:" + cropWidth + "x" + cropHeight + "+" + cropX + "+" + cropY
+        + " scale:" + scaleWidth + "x" + scaleHeight + " out:" + width + "x" + height + "+" + offsetX + "+" + offsetY;
+  }
+
+  /**
+   * Return the width of the source image.
+   */
+  public int getSourceWidth() {
+    return sourceWidth;
+  }
+
+  /**
+   * Return the height of the source image.
+   */
+  public int getSourceHeight() {
+    return sourceHeight;
+  }
+
+  /**
+   * Return the left edge of the source crop rectangle.
+   */
+  public int getCropX() {
+    return cropX;
+  }
+
+  /**
+   * Return the top edge of the source crop rectangle.
+   */
+  public int getCropY() {
+    return cropY;
+  }
+
+  /**
+   * Return the width of the source crop rectangle.
+   */
+  public int getCropWidth() {
+    return cropWidth;
+  }
+
+  /**
+   * Return the height of the source crop rectangle.
+   */
+  public int getCropHeight() {
+    return cropHeight;
+  }
+
+  /**
+   * Return the width the crop rectangle is scaled to.
+   */
+  public int getScaleWidth() {
+    return scaleWidth;
+  }
+
+  /**
+   * Return the height the crop rectangle is scaled to.
+   */
+  public int getScaleHeight() {
+    return scaleHeight;
+  }
+
+  /**
+   * Return the output image width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the output image height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the left edge of the scaled image in the output.
+   */
+  public int getOffsetX() {
+    return offsetX;
+  }
+
+  /**
+   * Return the top edge of the scaled image in the output.
+   */
+  public int getOffsetY() {
+    return offsetY;
+  }
+}
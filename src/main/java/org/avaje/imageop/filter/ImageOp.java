@@ -30,16 +30,98 @@ import java.awt.image.ColorModel;
  */
 public abstract class ImageOp implements BufferedImageOp, Cloneable {
 
+  /**
+   * When set rows are processed in parallel bands (for ops that support it).
+   */
+  protected BandExecutor bandExecutor;
+
+  /**
+   * When set destination images are acquired from this pool.
+   */
+  protected ImagePool imagePool;
+
+  /**
+   * Set the executor used to process rows in parallel. When null (the default)
+   * the op runs on the calling thread.
+   * <p>
+   * This is supported by the scaling ops and point filters and produces output
+   * identical to the serial processing.
+   * </p>
+   */
+  public void setBandExecutor(BandExecutor bandExecutor) {
+    this.bandExecutor = bandExecutor;
+  }
+
+  /**
+   * Return the executor used to process rows in parallel (null if serial).
+   */
+  public BandExecutor getBandExecutor() {
+    return bandExecutor;
+  }
+
+  /**
+   * Set the pool that destination images are acquired from. When null (the
+   * default) destination images are allocated.
+   * <p>
+   * Images returned by the op are then acquired from the pool and should be
+   * released back to it once no longer used.
+   * </p>
+   */
+  public void setImagePool(ImagePool imagePool) {
+    this.imagePool = imagePool;
+  }
+
+  /**
+   * Return the pool destination images are acquired from (null if allocated).
+   */
+  public ImagePool getImagePool() {
+    return imagePool;
+  }
+
   public BufferedImage createCompatibleDestImage(BufferedImage src, ColorModel dstCM) {
     if (dstCM == null) {
       dstCM = src.getColorModel();
     }
-    return new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(src.getWidth(), src.getHeight()),
-        dstCM.isAlphaPremultiplied(), null);
+    return createImage(src.getWidth(), src.getHeight(), dstCM, true);
+  }
+
+  /**
+   * Create a destination image with the colour model (and a raster compatible
+   * with it) acquiring it from the image pool when set.
+   *
+   * @param clear
+   *          false when every pixel of the image is written so that a pooled
+   *          image does not need to be cleared
+   */
+  protected BufferedImage createImage(int width, int height, ColorModel cm, boolean clear) {
+    if (imagePool != null) {
+      return imagePool.acquire(width, height, cm, clear);
+    }
+    return new BufferedImage(cm, cm.createCompatibleWritableRaster(width, height), cm.isAlphaPremultiplied(), null);
+  }
+
+  /**
+   * Create a destination image of a standard BufferedImage type acquiring it
+   * from the image pool when set.
+   */
+  protected BufferedImage createImage(int width, int height, int imageType) {
+    if (imagePool != null) {
+      return imagePool.acquire(width, height, imageType);
+    }
+    return new BufferedImage(width, height, imageType);
   }
 
   public Rectangle2D getBounds2D(BufferedImage src) {
-    return new Rectangle(0, 0, src.getWidth(), src.getHeight());
+    return getBounds2D(src.getWidth(), src.getHeight());
+  }
+
+  /**
+   * Return the bounds of the destination image for a source image of the given
+   * size. This allows the output size of a sequence of ops to be planned before
+   * any images are processed.
+   */
+  public Rectangle2D getBounds2D(int width, int height) {
+    return new Rectangle(0, 0, width, height);
   }
 
   public Point2D getPoint2D(Point2D srcPt, Point2D dstPt) {
@@ -0,0 +1,372 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sequence of ops applied as a single op.
+ * <p>
+ * The sequence is planned before any pixels are processed using the output
+ * size of each op (see {@link ImageOp#getBounds2D(int, int)}) and adjacent
+ * ops are merged into single passes where possible:
+ * </p>
+ * <ul>
+ * <li>A crop followed by a scale reads just the crop rectangle of its source
+ * (no cropped image is made)</li>
+ * <li>A scale followed by a border scales straight into the interior of the
+ * bordered image</li>
+ * <li>Consecutive point filters are applied to each row in turn in one pass
+ * over the image with consecutive lookup filters merged into one table</li>
+ * </ul>
+ * <p>
+ * Intermediate images are reused: point filters run in place on images created
+ * by the chain and images no longer needed are reused as the destination of
+ * later scale, orientation and point filter steps of the same size and colour
+ * model. The source image is never modified.
+ * </p>
+ * <p>
+ * With an image pool set the destinations of these steps and of the merged
+ * steps are acquired from the pool and intermediate images that are no longer
+ * needed are released back to it.
+ * </p>
+ *
+ * <pre>{@code
+ *
+ * ImageOpChain chain = new ImageOpChain(
+ *     new CropImageOp(10, 10, 400, 300),
+ *     new ScaleImageOp(200, 150),
+ *     new BorderOp(5, 5, 5, 5, Color.WHITE, BufferedImage.TYPE_INT_RGB));
+ *
+ * BufferedImage out = chain.filter(src, null);
+ *
+ * }</pre>
+ */
+public class ImageOpChain extends ImageOp {
+
+  private static final Logger log = LoggerFactory.getLogger(ImageOpChain.class);
+
+  private final List<ImageOp> ops = new ArrayList<ImageOp>();
+
+  /**
+   * Create with the ops applied in order.
+   */
+  public ImageOpChain(ImageOp... ops) {
+    this.ops.addAll(Arrays.asList(ops));
+  }
+
+  /**
+   * Add an op to the end of the chain.
+   */
+  public ImageOpChain add(ImageOp op) {
+    ops.add(op);
+    return this;
+  }
+
+  /**
+   * Return the ops of the chain.
+   */
+  public List<ImageOp> getOps() {
+    return Collections.unmodifiableList(ops);
+  }
+
+  public Rectangle2D getBounds2D(int width, int height) {
+    for (ImageOp op : ops) {
+      Rectangle2D bounds = op.getBounds2D(width, height);
+      width = (int) bounds.getWidth();
+      height = (int) bounds.getHeight();
+    }
+    return new Rectangle(0, 0, width, height);
+  }
+
+  /**
+   * Return the steps that are run for a source of the given size (with
+   * adjacent ops merged).
+   */
+  List<ImageOp> plan(int width, int height) {
+    List<Step> steps = planSteps(width, height);
+    List<ImageOp> planned = new ArrayList<ImageOp>(steps.size());
+    for (Step step : steps) {
+      planned.add(step.op(0));
+    }
+    return planned;
+  }
+
+  private List<Step> planSteps(int width, int height) {
+
+    List<Step> steps = new ArrayList<Step>();
+    int i = 0;
+    while (i < ops.size()) {
+      ImageOp op = ops.get(i);
+      int start = i;
+
+      if (op instanceof PointFilter) {
+        // consecutive point filters run as one pass
+        List<PointFilter> filters = new ArrayList<PointFilter>();
+        while (i < ops.size() && ops.get(i) instanceof PointFilter) {
+          PointFilter filter = (PointFilter) ops.get(i++);
+          int prev = filters.size() - 1;
+          if (prev >= 0 && filters.get(prev) instanceof LookupFilter && filter instanceof LookupFilter) {
+            // consecutive lookup filters merge into one table
+            LookupFilter merged = ((LookupFilter) filters.get(prev)).then((LookupFilter) filter);
+            merged.setBandExecutor(bandExecutor);
+            merged.setImagePool(imagePool);
+            filters.set(prev, merged);
+          } else {
+            filters.add(filter);
+          }
+        }
+        ImageOp merged = (filters.size() == 1) ? filters.get(0) : new PointFilters(filters, bandExecutor, imagePool);
+        steps.add(new Step(merged, ops.subList(start, i), width, height, width, height));
+        continue;
+      }
+
+      GeometryPlan plan = null;
+      if (op instanceof CropImageOp && next(i) instanceof ScaleImageOp) {
+        CropImageOp crop = (CropImageOp) op;
+        if (crop.inside(width, height)) {
+          plan = GeometryPlan.crop(width, height, crop.getX(), crop.getY(), crop.getWidth(), crop.getHeight());
+          i++;
+        }
+      } else if (op instanceof ScaleImageOp && next(i) instanceof BorderOp) {
+        plan = GeometryPlan.identity(width, height);
+      }
+
+      if (plan == null) {
+        Rectangle2D bounds = op.getBounds2D(width, height);
+        int w = (int) bounds.getWidth();
+        int h = (int) bounds.getHeight();
+        steps.add(new Step(op, ops.subList(start, ++i), width, height, w, h));
+        width = w;
+        height = h;
+        continue;
+      }
+
+      // crop and/or scale and border in one pass
+      ScaleImageOp scale = (ScaleImageOp) ops.get(i++);
+      plan = plan.scaleTo(scale.getWidth(), scale.getHeight());
+      BorderOp border = null;
+      if (next(i - 1) instanceof BorderOp) {
+        border = (BorderOp) ops.get(i++);
+        plan = plan.border(border.getLeftBorder(), border.getTopBorder(), border.getRightBorder(), border.getBottomBorder());
+      }
+      BandExecutor executor = (scale.getBandExecutor() != null) ? scale.getBandExecutor() : bandExecutor;
+      ImagePool pool = (scale.getImagePool() != null) ? scale.getImagePool() : imagePool;
+      steps.add(new Step(plan, scale.getKernel(), border, executor, pool, ops.subList(start, i), width, height));
+      width = plan.getWidth();
+      height = plan.getHeight();
+    }
+    return steps;
+  }
+
+  private ImageOp next(int i) {
+    return (i + 1 < ops.size()) ? ops.get(i + 1) : null;
+  }
+
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+
+    List<Step> steps = planSteps(src.getWidth(), src.getHeight());
+    if (log.isTraceEnabled()) {
+      log.trace("chain {} planned as {}", ops, steps);
+    }
+
+    // images created by the chain keyed by their data buffer
+    Map<DataBuffer, BufferedImage> owned = new IdentityHashMap<DataBuffer, BufferedImage>();
+    List<BufferedImage> free = new ArrayList<BufferedImage>();
+
+    BufferedImage image = src;
+    for (int s = 0; s < steps.size(); s++) {
+      Step step = steps.get(s);
+      boolean last = (s == steps.size() - 1);
+
+      BufferedImage out;
+      if (image.getWidth() != step.srcWidth || image.getHeight() != step.srcHeight) {
+        // an op did not produce its planned size so run the original ops
+        out = image;
+        for (ImageOp op : step.ops) {
+          out = op.filter(out, null);
+        }
+      } else {
+        ImageOp op = step.op(image.getType());
+        BufferedImage target = (last && dst != null) ? dst : destination(op, step, image, owned, free);
+        out = op.filter(image, target);
+      }
+
+      DataBuffer in = image.getRaster().getDataBuffer();
+      DataBuffer result = out.getRaster().getDataBuffer();
+      if (out != image && result != in && owned.containsKey(in)) {
+        // the input is no longer needed
+        free.add(owned.get(in));
+      }
+      if (out != src && result != src.getRaster().getDataBuffer() && !owned.containsKey(result) && !last) {
+        owned.put(result, out);
+      }
+      image = out;
+    }
+    if (imagePool != null) {
+      for (BufferedImage unused : free) {
+        imagePool.release(unused);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Return the destination for the step (null for the op to create one).
+   */
+  private BufferedImage destination(ImageOp op, Step step, BufferedImage image, Map<DataBuffer, BufferedImage> owned,
+      List<BufferedImage> free) {
+
+    if (op instanceof PointFilter && owned.containsKey(image.getRaster().getDataBuffer())) {
+      // in place as the image was created by the chain
+      return image;
+    }
+    if (!(op instanceof PointFilter || op instanceof ScaleImageOp || op instanceof OrientationOp)) {
+      return null;
+    }
+    // these ops write every pixel of a destination with the source colour model
+    Iterator<BufferedImage> it = free.iterator();
+    while (it.hasNext()) {
+      BufferedImage candidate = it.next();
+      if (candidate.getWidth() == step.width && candidate.getHeight() == step.height
+          && candidate.getColorModel().equals(image.getColorModel())) {
+        it.remove();
+        return candidate;
+      }
+    }
+    if (imagePool != null) {
+      // area averaging draws (composites) onto the destination
+      boolean clear = op instanceof ScaleImageOp && ((ScaleImageOp) op).getKernel() == ScaleKernel.AreaAveraging;
+      return imagePool.acquire(step.width, step.height, image.getColorModel(), clear);
+    }
+    return null;
+  }
+
+  public String toString() {
+    return "Chain" + ops;
+  }
+
+  /**
+   * An op (or a merged crop, scale and border) to run with the original ops it
+   * replaces and the planned sizes.
+   */
+  private static final class Step {
+
+    final ImageOp op;
+    final GeometryPlan plan;
+    final ScaleKernel kernel;
+    final BorderOp border;
+    final BandExecutor executor;
+    final ImagePool pool;
+    final List<ImageOp> ops;
+    final int srcWidth;
+    final int srcHeight;
+    final int width;
+    final int height;
+
+    Step(ImageOp op, List<ImageOp> ops, int srcWidth, int srcHeight, int width, int height) {
+      this.op = op;
+      this.plan = null;
+      this.kernel = null;
+      this.border = null;
+      this.executor = null;
+      this.pool = null;
+      this.ops = ops;
+      this.srcWidth = srcWidth;
+      this.srcHeight = srcHeight;
+      this.width = width;
+      this.height = height;
+    }
+
+    Step(GeometryPlan plan, ScaleKernel kernel, BorderOp border, BandExecutor executor, ImagePool pool, List<ImageOp> ops, int srcWidth,
+        int srcHeight) {
+      this.op = null;
+      this.plan = plan;
+      this.kernel = kernel;
+      this.border = border;
+      this.executor = executor;
+      this.pool = pool;
+      this.ops = ops;
+      this.srcWidth = srcWidth;
+      this.srcHeight = srcHeight;
+      this.width = plan.getWidth();
+      this.height = plan.getHeight();
+    }
+
+    /**
+     * Return the op to run for a source image of the given type.
+     */
+    ImageOp op(int srcType) {
+      if (op != null) {
+        return op;
+      }
+      Paint background = null;
+      int imageType = 0;
+      if (border != null) {
+        // the image type BorderOp would create
+        background = border.getBorderPaint();
+        imageType = (srcType != 0) ? srcType : border.getOriginImageType();
+      }
+      PlanImageOp planOp = new PlanImageOp(plan, kernel, background, imageType);
+      planOp.setBandExecutor(executor);
+      planOp.setImagePool(pool);
+      return planOp;
+    }
+
+    public String toString() {
+      return ((op != null) ? op.toString() : plan.toString()) + " " + width + "x" + height;
+    }
+  }
+
+  /**
+   * Consecutive point filters applied to each row in turn.
+   */
+  private static final class PointFilters extends PointFilter {
+
+    private final List<PointFilter> filters;
+
+    PointFilters(List<PointFilter> filters, BandExecutor bandExecutor, ImagePool imagePool) {
+      this.filters = filters;
+      this.bandExecutor = bandExecutor;
+      this.imagePool = imagePool;
+    }
+
+    @Override
+    public void setDimensions(int width, int height) {
+      for (PointFilter filter : filters) {
+        filter.setDimensions(width, height);
+      }
+    }
+
+    @Override
+    protected void filterRow(int[] row, int y) {
+      for (PointFilter filter : filters) {
+        filter.filterRow(row, y);
+      }
+    }
+
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      for (PointFilter filter : filters) {
+        rgb = filter.filterRGB(x, y, rgb);
+      }
+      return rgb;
+    }
+
+    public String toString() {
+      return "PointFilters" + filters;
+    }
+  }
+}
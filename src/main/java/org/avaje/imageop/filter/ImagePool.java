@@ -0,0 +1,368 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of image rasters reused as the destination of image ops.
+ * <p>
+ * Rasters are pooled by (width bucket, height bucket, image type or colour
+ * model). A bucket is the size rounded up to a step of 64 pixels or a quarter
+ * of its highest power of 2 (whichever is larger) so that images of similar
+ * sizes share rasters. An acquired image is a view of exactly the requested
+ * size onto a raster of the bucket size.
+ * </p>
+ * <p>
+ * Images are returned to the pool with an explicit {@link #release} once they
+ * are no longer used (the image must not be used after that). The pool only
+ * holds weak references to acquired images so images that are never released
+ * (like on an exception path) are garbage collected. The bytes held by idle rasters
+ * are capped, releasing an image that does not fit discards the least recently
+ * used idle rasters first.
+ * </p>
+ *
+ * <pre class="code">
+ *
+ * ImagePool pool = new ImagePool(64 * 1024 * 1024);
+ *
+ * ScaleImageOp scale = new ScaleImageOp(800, 600);
+ * scale.setImagePool(pool);
+ *
+ * BufferedImage out = scale.filter(src, null);
+ * ... write the image
+ * pool.release(out);
+ *
+ * </pre>
+ */
+public class ImagePool {
+
+  /**
+   * The minimum bucket step in pixels.
+   */
+  private static final int MIN_STEP = 64;
+
+  private final long maxBytes;
+
+  /**
+   * Idle rasters by key in least recently used order.
+   */
+  private final LinkedHashMap<Key, ArrayDeque<Pooled>> idle = new LinkedHashMap<Key, ArrayDeque<Pooled>>(16, 0.75f, true);
+
+  /**
+   * The keys of acquired images weakly by their data buffer (which does not
+   * override equals so entries are by identity).
+   */
+  private final Map<DataBuffer, Key> acquired = new WeakHashMap<DataBuffer, Key>();
+
+  private long idleBytes;
+  private long hitCount;
+  private long missCount;
+  private long discardCount;
+
+  /**
+   * Construct with the maximum number of bytes held by idle rasters.
+   */
+  public ImagePool(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Return the size bucket for an image width or height.
+   */
+  static int bucket(int size) {
+    int step = Math.max(MIN_STEP, Integer.highestOneBit(Math.max(1, size)) / 4);
+    return (size + step - 1) / step * step;
+  }
+
+  /**
+   * Acquire a cleared image of the given standard BufferedImage type.
+   */
+  public BufferedImage acquire(int width, int height, int imageType) {
+    return acquire(width, height, imageType, true);
+  }
+
+  /**
+   * Acquire an image of the given standard BufferedImage type.
+   * 
+   * @param clear
+   *          false when the caller writes every pixel so that a reused raster
+   *          does not need to be cleared
+   */
+  public BufferedImage acquire(int width, int height, int imageType, boolean clear) {
+    if (imageType == BufferedImage.TYPE_CUSTOM) {
+      throw new IllegalArgumentException("Acquire custom images using their ColorModel");
+    }
+    return acquire(new Key(bucket(width), bucket(height), imageType, null), width, height, clear);
+  }
+
+  /**
+   * Acquire a cleared image with the given colour model (and a raster
+   * compatible with it).
+   */
+  public BufferedImage acquire(int width, int height, ColorModel cm) {
+    return acquire(width, height, cm, true);
+  }
+
+  /**
+   * Acquire an image with the given colour model (and a raster compatible with
+   * it).
+   * 
+   * @param clear
+   *          false when the caller writes every pixel so that a reused raster
+   *          does not need to be cleared
+   */
+  public BufferedImage acquire(int width, int height, ColorModel cm, boolean clear) {
+    return acquire(new Key(bucket(width), bucket(height), 0, cm), width, height, clear);
+  }
+
+  private BufferedImage acquire(Key key, int width, int height, boolean clear) {
+
+    Pooled pooled;
+    synchronized (this) {
+      pooled = poll(key);
+      if (pooled != null) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+    }
+
+    if (pooled == null) {
+      // new rasters are already cleared
+      if (key.colorModel == null) {
+        BufferedImage image = new BufferedImage(key.width, key.height, key.imageType);
+        pooled = new Pooled(key, image.getColorModel(), image.getRaster());
+      } else {
+        pooled = new Pooled(key, key.colorModel, key.colorModel.createCompatibleWritableRaster(key.width, key.height));
+      }
+    } else if (clear) {
+      clear(pooled.raster);
+    }
+
+    WritableRaster raster = pooled.raster;
+    if (width != key.width || height != key.height) {
+      raster = raster.createWritableChild(0, 0, width, height, 0, 0, null);
+    }
+    ColorModel cm = pooled.colorModel;
+    BufferedImage image = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+    synchronized (this) {
+      acquired.put(raster.getDataBuffer(), pooled.key);
+    }
+    return image;
+  }
+
+  private Pooled poll(Key key) {
+    ArrayDeque<Pooled> rasters = idle.get(key);
+    if (rasters == null) {
+      return null;
+    }
+    Pooled pooled = rasters.poll();
+    if (rasters.isEmpty()) {
+      idle.remove(key);
+    }
+    if (pooled != null) {
+      idleBytes -= bytes(pooled.raster);
+    }
+    return pooled;
+  }
+
+  /**
+   * Return an image acquired from this pool to it.
+   * <p>
+   * The image must not be used after it is released. Images that were not
+   * acquired from this pool (or were already released) are ignored.
+   * </p>
+   * 
+   * @return true if the image was returned to the pool
+   */
+  public synchronized boolean release(BufferedImage image) {
+    if (image == null) {
+      return false;
+    }
+    Key key = acquired.remove(image.getRaster().getDataBuffer());
+    if (key == null) {
+      return false;
+    }
+    // the bucket size raster the image is a view of
+    WritableRaster raster = image.getRaster();
+    while (raster.getParent() instanceof WritableRaster) {
+      raster = (WritableRaster) raster.getParent();
+    }
+    if (raster.getWidth() != key.width || raster.getHeight() != key.height) {
+      return false;
+    }
+    Pooled pooled = new Pooled(key, image.getColorModel(), raster);
+    long bytes = bytes(pooled.raster);
+    if (bytes > maxBytes) {
+      discardCount++;
+      return true;
+    }
+    evict(maxBytes - bytes);
+
+    ArrayDeque<Pooled> rasters = idle.get(pooled.key);
+    if (rasters == null) {
+      rasters = new ArrayDeque<Pooled>();
+      idle.put(pooled.key, rasters);
+    }
+    rasters.push(pooled);
+    idleBytes += bytes;
+    return true;
+  }
+
+  /**
+   * Discard the least recently used idle rasters until at most the given
+   * bytes are held.
+   */
+  private void evict(long bytes) {
+    Iterator<ArrayDeque<Pooled>> it = idle.values().iterator();
+    while (idleBytes > bytes && it.hasNext()) {
+      ArrayDeque<Pooled> rasters = it.next();
+      while (idleBytes > bytes && !rasters.isEmpty()) {
+        idleBytes -= bytes(rasters.pollLast().raster);
+        discardCount++;
+      }
+      if (rasters.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Discard all the idle rasters.
+   */
+  public synchronized void clear() {
+    evict(0);
+  }
+
+  /**
+   * Return the number of bytes of a raster.
+   */
+  static long bytes(WritableRaster raster) {
+    DataBuffer db = raster.getDataBuffer();
+    return (long) db.getSize() * db.getNumBanks() * (DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+  }
+
+  private static void clear(WritableRaster raster) {
+    DataBuffer db = raster.getDataBuffer();
+    for (int bank = 0; bank < db.getNumBanks(); bank++) {
+      if (db instanceof DataBufferInt) {
+        Arrays.fill(((DataBufferInt) db).getData(bank), 0);
+      } else if (db instanceof DataBufferByte) {
+        Arrays.fill(((DataBufferByte) db).getData(bank), (byte) 0);
+      } else if (db instanceof DataBufferUShort) {
+        Arrays.fill(((DataBufferUShort) db).getData(bank), (short) 0);
+      } else {
+        for (int i = 0; i < db.getSize(); i++) {
+          db.setElem(bank, i, 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the maximum number of bytes held by idle rasters.
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Return the number of bytes held by idle rasters.
+   */
+  public synchronized long getIdleBytes() {
+    return idleBytes;
+  }
+
+  /**
+   * Return the number of images acquired and not yet released.
+   */
+  public synchronized int getAcquiredCount() {
+    return acquired.size();
+  }
+
+  /**
+   * Return the number of images acquired reusing an idle raster.
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Return the number of images acquired allocating a new raster.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Return the number of released rasters discarded to stay within the
+   * maximum bytes.
+   */
+  public synchronized long getDiscardCount() {
+    return discardCount;
+  }
+
+  public String toString() {
+    return "ImagePool[idleBytes:" + getIdleBytes() + " acquired:" + getAcquiredCount() + "]";
+  }
+
+  /**
+   * The bucket an image is pooled by.
+   */
+  private static final class Key {
+
+    final int width;
+    final int height;
+    final int imageType;
+    final ColorModel colorModel;
+
+    Key(int width, int height, int imageType, ColorModel colorModel) {
+      this.width = width;
+      this.height = height;
+      this.imageType = imageType;
+      this.colorModel = colorModel;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return width == k.width && height == k.height && imageType == k.imageType
+          && (colorModel == null ? k.colorModel == null : colorModel.equals(k.colorModel));
+    }
+
+    public int hashCode() {
+      int h = width * 31 + height;
+      h = h * 31 + imageType;
+      return h * 31 + (colorModel == null ? 0 : colorModel.hashCode());
+    }
+  }
+
+  /**
+   * A bucket size raster with its colour model.
+   */
+  private static final class Pooled {
+
+    final Key key;
+    final ColorModel colorModel;
+    final WritableRaster raster;
+
+    Pooled(Key key, ColorModel colorModel, WritableRaster raster) {
+      this.key = key;
+      this.colorModel = colorModel;
+      this.raster = raster;
+    }
+  }
+}
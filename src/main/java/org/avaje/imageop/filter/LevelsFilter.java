@@ -0,0 +1,94 @@
+package org.avaje.imageop.filter;
+
+/**
+ * Stretches the red, green and blue channels from an input range to an output
+ * range (like the ImageMagick -level option).
+ * <p>
+ * Values at or below the input black point map to the output black point and
+ * values at or above the input white point map to the output white point with
+ * values between mapped linearly.
+ * </p>
+ */
+public class LevelsFilter extends LookupFilter {
+
+  private final int low;
+  private final int high;
+  private final int lowOutput;
+  private final int highOutput;
+
+  /**
+   * Construct stretching the input range to the full output range.
+   *
+   * @param low
+   *          the input black point (0 to 255)
+   * @param high
+   *          the input white point (0 to 255)
+   */
+  public LevelsFilter(int low, int high) {
+    this(low, high, 0, 255);
+  }
+
+  /**
+   * Construct with the input and output ranges.
+   *
+   * @param low
+   *          the input black point (0 to 255)
+   * @param high
+   *          the input white point (0 to 255)
+   * @param lowOutput
+   *          the output black point (0 to 255)
+   * @param highOutput
+   *          the output white point (0 to 255)
+   */
+  public LevelsFilter(int low, int high, int lowOutput, int highOutput) {
+    super(LookupTable.of(table(low, high, lowOutput, highOutput)));
+    this.low = low;
+    this.high = high;
+    this.lowOutput = lowOutput;
+    this.highOutput = highOutput;
+  }
+
+  private static int[] table(int low, int high, int lowOutput, int highOutput) {
+    if (low < 0 || high > 255 || low >= high) {
+      throw new IllegalArgumentException("Invalid levels " + low + " to " + high);
+    }
+    int[] table = new int[256];
+    for (int i = 0; i < 256; i++) {
+      int v = Math.min(high, Math.max(low, i));
+      table[i] = LookupTable.clamp(lowOutput + Math.round((float) (v - low) * (highOutput - lowOutput) / (high - low)));
+    }
+    return table;
+  }
+
+  /**
+   * Return the input black point.
+   */
+  public int getLow() {
+    return low;
+  }
+
+  /**
+   * Return the input white point.
+   */
+  public int getHigh() {
+    return high;
+  }
+
+  /**
+   * Return the output black point.
+   */
+  public int getLowOutput() {
+    return lowOutput;
+  }
+
+  /**
+   * Return the output white point.
+   */
+  public int getHighOutput() {
+    return highOutput;
+  }
+
+  public String toString() {
+    return "Colors/Levels";
+  }
+}
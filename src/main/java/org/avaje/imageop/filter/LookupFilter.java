@@ -0,0 +1,138 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A point filter that maps each channel through a {@link LookupTable}.
+ * <p>
+ * Rather than calling filterRGB() per pixel the table is applied in a single
+ * loop over the packed raster data of the common int and byte image types.
+ * Consecutive lookup filters merge into one table via
+ * {@link #then(LookupFilter)} (which ImageOpChain does automatically) so that
+ * several adjustments cost a single pass.
+ * </p>
+ *
+ * <pre class="code">
+ *
+ * LookupFilter adjust = new GammaFilter(1.2f).then(new BrightnessFilter(1.1f));
+ * BufferedImage out = adjust.filter(src, null);
+ *
+ * </pre>
+ */
+public class LookupFilter extends PointFilter {
+
+  private final LookupTable table;
+
+  /**
+   * Construct with the table that is applied.
+   */
+  public LookupFilter(LookupTable table) {
+    this.table = table;
+  }
+
+  /**
+   * Return the table that is applied.
+   */
+  public LookupTable getTable() {
+    return table;
+  }
+
+  /**
+   * Return a filter applying this filters table and then the next one.
+   */
+  public LookupFilter then(LookupFilter next) {
+    LookupFilter merged = new LookupFilter(table.then(next.table));
+    merged.bandExecutor = bandExecutor;
+    merged.imagePool = imagePool;
+    return merged;
+  }
+
+  @Override
+  public int filterRGB(int x, int y, int rgb) {
+    return table.apply(rgb);
+  }
+
+  @Override
+  protected void filterRow(int[] row, int y) {
+    table.apply(row, 0, row.length);
+  }
+
+  @Override
+  protected void filterRows(BufferedImage src, BufferedImage dst, int y0, int y1) {
+
+    ArgbRaster in = new ArgbRaster(src);
+    ArgbRaster out = (dst == src) ? in : new ArgbRaster(dst);
+    int width = src.getWidth();
+
+    if (in.intData() != null && out.intData() != null && isArgbOrRgb(in) && isArgbOrRgb(out)) {
+      // opaque pixels are read with an alpha of 255 and written without alpha
+      int alphaIn = in.hasAlpha() ? 0 : 0xff000000;
+      int maskOut = out.hasAlpha() ? 0xffffffff : 0xffffff;
+      PixelKernels kernels = PixelKernels.get();
+      int[][] tables = table.tables();
+      int[] shifts = table.shifts();
+      for (int y = y0; y < y1; y++) {
+        kernels.lookup(in.intData(), in.index(0, y), out.intData(), out.index(0, y), width, alphaIn, maskOut, tables, shifts);
+      }
+    } else if (in.byteData() != null && out.byteData() != null) {
+      for (int y = y0; y < y1; y++) {
+        filterBytes(in, out, y, width);
+      }
+    } else {
+      super.filterRows(src, dst, y0, y1);
+    }
+  }
+
+  private static boolean isArgbOrRgb(ArgbRaster raster) {
+    return raster.getLayout() == ArgbRaster.INT_ARGB || raster.getLayout() == ArgbRaster.INT_RGB;
+  }
+
+  private void filterBytes(ArgbRaster in, ArgbRaster out, int y, int width) {
+    byte[] src = in.byteData();
+    byte[] dst = out.byteData();
+    int[] so = in.byteOffsets();
+    int[] d = out.byteOffsets();
+    int srcStride = in.pixelStride();
+    int dstStride = out.pixelStride();
+    boolean srcAlpha = in.hasAlpha();
+    boolean dstAlpha = out.hasAlpha();
+
+    int[][] tables = table.tables();
+    int[] a = tables[LookupTable.ALPHA];
+    int[] r = tables[LookupTable.RED];
+    int[] g = tables[LookupTable.GREEN];
+    int[] b = tables[LookupTable.BLUE];
+    int as = table.source(LookupTable.ALPHA);
+    int rs = table.source(LookupTable.RED);
+    int gs = table.source(LookupTable.GREEN);
+    int bs = table.source(LookupTable.BLUE);
+
+    int[] channels = new int[4];
+    channels[LookupTable.ALPHA] = 255;
+    int sp = in.index(0, y);
+    int dp = out.index(0, y);
+    for (int i = 0; i < width; i++) {
+      channels[LookupTable.RED] = src[sp + so[0]] & 0xff;
+      channels[LookupTable.GREEN] = src[sp + so[1]] & 0xff;
+      channels[LookupTable.BLUE] = src[sp + so[2]] & 0xff;
+      if (srcAlpha) {
+        channels[LookupTable.ALPHA] = src[sp + so[3]] & 0xff;
+      }
+      int red = r[channels[rs]];
+      int green = g[channels[gs]];
+      int blue = b[channels[bs]];
+      if (dstAlpha) {
+        dst[dp + d[3]] = (byte) a[channels[as]];
+      }
+      dst[dp + d[0]] = (byte) red;
+      dst[dp + d[1]] = (byte) green;
+      dst[dp + d[2]] = (byte) blue;
+      sp += srcStride;
+      dp += dstStride;
+    }
+  }
+
+  public String toString() {
+    return "Colors/Lookup";
+  }
+}
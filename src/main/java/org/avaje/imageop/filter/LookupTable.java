@@ -0,0 +1,230 @@
+package org.avaje.imageop.filter;
+
+import java.util.Arrays;
+
+/**
+ * Per channel 256 entry tables mapping 8 bit channel values.
+ * <p>
+ * Each output channel reads one input channel (normally the same channel but
+ * channels can be swapped) and maps its value through the table of the output
+ * channel. Tables compose via {@link #then(LookupTable)} so that a sequence of
+ * point adjustments (brightness, gamma, levels, channel swaps) is applied as a
+ * single lookup per channel.
+ * </p>
+ * <p>
+ * Tables are immutable and so can be shared between threads.
+ * </p>
+ */
+public final class LookupTable {
+
+  /**
+   * The red channel.
+   */
+  public static final int RED = 0;
+
+  /**
+   * The green channel.
+   */
+  public static final int GREEN = 1;
+
+  /**
+   * The blue channel.
+   */
+  public static final int BLUE = 2;
+
+  /**
+   * The alpha channel.
+   */
+  public static final int ALPHA = 3;
+
+  /**
+   * The bit shift of each channel in a packed ARGB int.
+   */
+  private static final int[] SHIFT = { 16, 8, 0, 24 };
+
+  private static final int[] IDENTITY = identityTable();
+
+  private static final int[] SAME_CHANNELS = { RED, GREEN, BLUE, ALPHA };
+
+  /**
+   * The table of each output channel.
+   */
+  private final int[][] tables;
+
+  /**
+   * The input channel read by each output channel.
+   */
+  private final int[] sources;
+
+  private LookupTable(int[][] tables, int[] sources) {
+    this.tables = tables;
+    this.sources = sources;
+  }
+
+  /**
+   * Return a table that leaves every channel unchanged.
+   */
+  public static LookupTable identity() {
+    return new LookupTable(new int[][] { IDENTITY, IDENTITY, IDENTITY, IDENTITY }, SAME_CHANNELS);
+  }
+
+  /**
+   * Return a table that maps the red, green and blue channels through the same
+   * table leaving alpha unchanged.
+   */
+  public static LookupTable of(int[] table) {
+    return of(table, table, table);
+  }
+
+  /**
+   * Return a table mapping the red, green and blue channels through their own
+   * tables leaving alpha unchanged.
+   *
+   * @param red
+   *          the 256 entry table of the red channel
+   * @param green
+   *          the 256 entry table of the green channel
+   * @param blue
+   *          the 256 entry table of the blue channel
+   */
+  public static LookupTable of(int[] red, int[] green, int[] blue) {
+    return new LookupTable(new int[][] { check(red), check(green), check(blue), IDENTITY }, SAME_CHANNELS);
+  }
+
+  /**
+   * Return a table where the red, green and blue channels are taken from the
+   * given input channels (one of RED, GREEN, BLUE or ALPHA). For example
+   * swap(BLUE, GREEN, RED) swaps the red and blue channels.
+   */
+  public static LookupTable swap(int red, int green, int blue) {
+    int[] sources = { channel(red), channel(green), channel(blue), ALPHA };
+    return new LookupTable(new int[][] { IDENTITY, IDENTITY, IDENTITY, IDENTITY }, sources);
+  }
+
+  private static int channel(int channel) {
+    if (channel < RED || channel > ALPHA) {
+      throw new IllegalArgumentException("Invalid channel " + channel);
+    }
+    return channel;
+  }
+
+  private static int[] check(int[] table) {
+    if (table.length != 256) {
+      throw new IllegalArgumentException("Table length " + table.length + " is not 256");
+    }
+    int[] copy = new int[256];
+    for (int i = 0; i < 256; i++) {
+      copy[i] = clamp(table[i]);
+    }
+    return copy;
+  }
+
+  /**
+   * Clamp the value to the range 0 to 255.
+   */
+  static int clamp(int value) {
+    return (value < 0) ? 0 : (value > 255) ? 255 : value;
+  }
+
+  private static int[] identityTable() {
+    int[] table = new int[256];
+    for (int i = 0; i < 256; i++) {
+      table[i] = i;
+    }
+    return table;
+  }
+
+  /**
+   * Return the table that applies this table and then the next one.
+   */
+  public LookupTable then(LookupTable next) {
+    int[][] composed = new int[4][];
+    int[] composedSources = new int[4];
+    for (int c = 0; c < 4; c++) {
+      // the next table reads channel s of this tables output
+      int s = next.sources[c];
+      composedSources[c] = sources[s];
+      int[] first = tables[s];
+      int[] second = next.tables[c];
+      if (first == IDENTITY) {
+        composed[c] = second;
+      } else if (second == IDENTITY) {
+        composed[c] = first;
+      } else {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+          table[i] = second[first[i]];
+        }
+        composed[c] = table;
+      }
+    }
+    return new LookupTable(composed, composedSources);
+  }
+
+  /**
+   * Return true if the table leaves every channel unchanged.
+   */
+  public boolean isIdentity() {
+    for (int c = 0; c < 4; c++) {
+      if (sources[c] != c || !(tables[c] == IDENTITY || Arrays.equals(tables[c], IDENTITY))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the tables of the output channels (which must not be modified).
+   */
+  int[][] tables() {
+    return tables;
+  }
+
+  /**
+   * Return the bit shift in a packed ARGB int of the input channel read by
+   * each output channel.
+   */
+  int[] shifts() {
+    int[] shifts = new int[4];
+    for (int c = 0; c < 4; c++) {
+      shifts[c] = SHIFT[sources[c]];
+    }
+    return shifts;
+  }
+
+  /**
+   * Return the input channel read by the output channel.
+   */
+  int source(int channel) {
+    return sources[channel];
+  }
+
+  /**
+   * Map a non premultiplied ARGB pixel.
+   */
+  public int apply(int argb) {
+    return (tables[ALPHA][(argb >>> SHIFT[sources[ALPHA]]) & 0xff] << 24)
+        | (tables[RED][(argb >>> SHIFT[sources[RED]]) & 0xff] << 16)
+        | (tables[GREEN][(argb >>> SHIFT[sources[GREEN]]) & 0xff] << 8)
+        | tables[BLUE][(argb >>> SHIFT[sources[BLUE]]) & 0xff];
+  }
+
+  /**
+   * Map width non premultiplied ARGB pixels of the array starting at offset in
+   * place.
+   */
+  public void apply(int[] pixels, int offset, int width) {
+    int[] a = tables[ALPHA];
+    int[] r = tables[RED];
+    int[] g = tables[GREEN];
+    int[] b = tables[BLUE];
+    int as = SHIFT[sources[ALPHA]];
+    int rs = SHIFT[sources[RED]];
+    int gs = SHIFT[sources[GREEN]];
+    int bs = SHIFT[sources[BLUE]];
+    for (int i = offset, end = offset + width; i < end; i++) {
+      int v = pixels[i];
+      pixels[i] = (a[(v >>> as) & 0xff] << 24) | (r[(v >>> rs) & 0xff] << 16) | (g[(v >>> gs) & 0xff] << 8) | b[(v >>> bs) & 0xff];
+    }
+  }
+}
@@ -1,9 +1,9 @@
 package org.avaje.imageop.filter;
 
 import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +11,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Uses the width and height as a maximum and retains the original images width
  * to height ratio.
+ * <p>
+ * With a border the final maxWidth x maxHeight image is allocated once, only
+ * its border is filled and the source is scaled straight into its interior.
+ * </p>
  */
 public class MaxSizeImageOp extends ImageOp {
 
@@ -20,6 +24,7 @@ public class MaxSizeImageOp extends ImageOp {
   private final int maxHeight;
   private final boolean withBorder;
   private final Paint borderPaint;
+  private final ScaleKernel kernel;
 
   /**
    * Construct so that images are scaled down so that they fit within a maxWidth
@@ -42,69 +47,57 @@ public class MaxSizeImageOp extends ImageOp {
    * </p>
    */
   public MaxSizeImageOp(int maxWidth, int maxHeight, boolean withBorder, Paint borderPaint) {
+    this(maxWidth, maxHeight, withBorder, borderPaint, ScaleKernel.Box);
+  }
+
+  /**
+   * Construct with a border colour and the resampling kernel used to scale the
+   * image.
+   */
+  public MaxSizeImageOp(int maxWidth, int maxHeight, boolean withBorder, Paint borderPaint, ScaleKernel kernel) {
     this.maxWidth = maxWidth;
     this.maxHeight = maxHeight;
     this.withBorder = withBorder;
     this.borderPaint = borderPaint;
+    this.kernel = kernel;
   }
 
-  public BufferedImage filter(BufferedImage src, BufferedImage dest) {
+  public Rectangle2D getBounds2D(int width, int height) {
+    GeometryPlan plan = GeometryPlan.fit(width, height, maxWidth, maxHeight, false);
+    if (!plan.isScaled()) {
+      return new Rectangle(0, 0, width, height);
+    }
+    if (withBorder) {
+      return new Rectangle(0, 0, maxWidth, maxHeight);
+    }
+    return new Rectangle(0, 0, plan.getScaleWidth(), plan.getScaleHeight());
+  }
 
-    int origHeight = src.getHeight();
-    int origWidth = src.getWidth();
+  public BufferedImage filter(BufferedImage src, BufferedImage dest) {
 
-    if (origHeight <= maxHeight && origWidth <= maxWidth) {
+    GeometryPlan plan = GeometryPlan.fit(src.getWidth(), src.getHeight(), maxWidth, maxHeight, false);
+    if (!plan.isScaled()) {
       log.debug("No scaling required for MaxSize filter, width and height fine.");
       return src;
     }
 
-    BigDecimal maxWidthBd = new BigDecimal(maxWidth);
-    BigDecimal maxHeightBd = new BigDecimal(maxHeight);
-
-    BigDecimal origHeightAsBd = new BigDecimal(origHeight);
-    BigDecimal origWidthAsBd = new BigDecimal(origWidth);
-
-    BigDecimal scaleWidth = origWidthAsBd.divide(maxWidthBd, 6, RoundingMode.HALF_DOWN);
-    BigDecimal scaleHeight = origHeightAsBd.divide(maxHeightBd, 6, RoundingMode.HALF_DOWN);
-    BigDecimal maxScale = scaleWidth.max(scaleHeight);
-
-    if (log.isDebugEnabled()) {
-      log.debug("scaleWidth:{} scaleHeight:{}", scaleWidth.doubleValue(), scaleHeight.doubleValue());
-    }
-
-    int width = maxWidth;
-    int height = maxHeight;
-
-    height = origHeightAsBd.divide(maxScale, RoundingMode.HALF_DOWN).intValue();
-    width = origWidthAsBd.divide(maxScale, RoundingMode.HALF_DOWN).intValue();
-
     if (log.isDebugEnabled()) {
-      log.debug("width:{} height:{}", width, height);
+      log.debug("width:{} height:{}", plan.getScaleWidth(), plan.getScaleHeight());
     }
 
-    ScaleImageOp scaleFilter = new ScaleImageOp(width, height);
-    BufferedImage destImage = scaleFilter.filter(src, null);
-
     if (withBorder) {
       // Using the with border option so a horizontal or vertical
       // border will be added to 'pad' the image up so that it 
       // matches the maxWidth and maxHeight
-      int vertical = 0;
-      int horizontal = 0;
-      if (height < maxHeight) {
-        vertical = (maxHeight - height) / 2;
-      }
-      if (width < maxWidth) {
-        horizontal = (maxWidth - width) / 2;
-      }
+      plan = plan.extent(maxWidth, maxHeight);
       if (log.isDebugEnabled()) {
-        log.debug("applying border vertical:{} horizontal:{}", vertical, horizontal);
+        log.debug("applying border vertical:{} horizontal:{}", plan.getOffsetY(), plan.getOffsetX());
       }
-
-      BorderOp borderOp = new BorderOp(horizontal, vertical, horizontal, vertical, borderPaint, src.getType());
-      destImage = borderOp.filter(destImage, null);
     }
 
-    return destImage;
+    PlanImageOp planOp = new PlanImageOp(plan, kernel, borderPaint, src.getType());
+    planOp.setBandExecutor(bandExecutor);
+    planOp.setImagePool(imagePool);
+    return planOp.filter(src, null);
   }
 }
@@ -0,0 +1,117 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Rotates and/or flips an image as per an EXIF orientation so that it displays
+ * upright (like the ImageMagick -auto-orient option).
+ * <p>
+ * Orientations 5 to 8 transpose the image so the width and height of the
+ * output are swapped.
+ * </p>
+ */
+public class OrientationOp extends ImageOp {
+
+  private final int orientation;
+
+  /**
+   * Construct with the EXIF orientation (1 to 8) of the source image.
+   */
+  public OrientationOp(int orientation) {
+    if (orientation < 1 || orientation > 8) {
+      throw new IllegalArgumentException("Invalid EXIF orientation " + orientation);
+    }
+    this.orientation = orientation;
+  }
+
+  /**
+   * Return the EXIF orientation of the source image.
+   */
+  public int getOrientation() {
+    return orientation;
+  }
+
+  /**
+   * Return true if the width and height are swapped by this op.
+   */
+  public boolean isTransposed() {
+    return orientation >= 5;
+  }
+
+  @Override
+  public Rectangle2D getBounds2D(int width, int height) {
+    if (isTransposed()) {
+      return new Rectangle(0, 0, height, width);
+    }
+    return new Rectangle(0, 0, width, height);
+  }
+
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+
+    if (orientation == 1) {
+      return src;
+    }
+    int w = src.getWidth();
+    int h = src.getHeight();
+    int dw = isTransposed() ? h : w;
+    int dh = isTransposed() ? w : h;
+    if (dst == null) {
+      dst = createImage(dw, dh, src.getColorModel(), false);
+    }
+
+    ArgbRaster in = new ArgbRaster(src);
+    int[] pixels = new int[w * h];
+    int[] row = new int[w];
+    for (int y = 0; y < h; y++) {
+      in.getRow(0, y, w, row);
+      System.arraycopy(row, 0, pixels, y * w, w);
+    }
+
+    ArgbRaster out = new ArgbRaster(dst);
+    int[] dstRow = new int[dw];
+    for (int dy = 0; dy < dh; dy++) {
+      for (int dx = 0; dx < dw; dx++) {
+        dstRow[dx] = pixels[sourceIndex(dx, dy, w, h)];
+      }
+      out.setRow(0, dy, dw, dstRow);
+    }
+    return dst;
+  }
+
+  /**
+   * Return the index of the source pixel that maps to the output pixel.
+   */
+  private int sourceIndex(int dx, int dy, int w, int h) {
+    switch (orientation) {
+    case 2:
+      // flip horizontal
+      return dy * w + (w - 1 - dx);
+    case 3:
+      // rotate 180
+      return (h - 1 - dy) * w + (w - 1 - dx);
+    case 4:
+      // flip vertical
+      return (h - 1 - dy) * w + dx;
+    case 5:
+      // transpose
+      return dx * w + dy;
+    case 6:
+      // rotate 90 clockwise
+      return (h - 1 - dx) * w + dy;
+    case 7:
+      // transverse
+      return (h - 1 - dx) * w + (w - 1 - dy);
+    case 8:
+      // rotate 90 counter clockwise
+      return dx * w + (w - 1 - dy);
+    default:
+      return dy * w + dx;
+    }
+  }
+
+  public String toString() {
+    return "Distort/Orientation";
+  }
+}
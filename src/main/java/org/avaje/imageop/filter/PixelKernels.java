@@ -0,0 +1,128 @@
+package org.avaje.imageop.filter;
+
+/**
+ * The inner loops of resampling and point filtering over packed ARGB ints.
+ * <p>
+ * A scalar implementation is always available. An alternative implementation
+ * (like the SIMD one of the avaje-imageop-vector module which uses the JDK
+ * Vector API) is registered via java.util.ServiceLoader as a provider of this
+ * interface and is used when it reports that it is supported on the running
+ * JVM and CPU. Setting the system property {@value #PROPERTY} to "scalar"
+ * forces the scalar implementation.
+ * </p>
+ * <p>
+ * Implementations must produce output matching the scalar implementation
+ * within {@link #TOLERANCE} per channel. The arrays passed in must not be
+ * retained.
+ * </p>
+ */
+public interface PixelKernels {
+
+  /**
+   * The system property used to force the scalar implementation.
+   */
+  String PROPERTY = "avaje.imageop.kernels";
+
+  /**
+   * The maximum difference in any channel from the output of the scalar
+   * implementation.
+   */
+  int TOLERANCE = 1;
+
+  /**
+   * Fixed point precision of resampling weights. This leaves enough headroom
+   * to accumulate 8 bit samples in an int.
+   */
+  int PRECISION_BITS = 32 - 8 - 2;
+
+  /**
+   * Rounding value added to accumulators before shifting.
+   */
+  int ROUNDING = 1 << (PRECISION_BITS - 1);
+
+  /**
+   * Return the implementation selected for this JVM.
+   */
+  static PixelKernels get() {
+    return PixelKernelsLoader.KERNELS;
+  }
+
+  /**
+   * Return the scalar implementation.
+   */
+  static PixelKernels scalar() {
+    return ScalarPixelKernels.INSTANCE;
+  }
+
+  /**
+   * Return a short name for the implementation (for logging).
+   */
+  String getName();
+
+  /**
+   * Return true if the implementation can be used on this JVM and CPU.
+   */
+  boolean isSupported();
+
+  /**
+   * Resample a row of (premultiplied when alpha) ARGB pixels horizontally.
+   * <p>
+   * Destination pixel x is the sum of count[x] source pixels from start[x]
+   * weighted by the fixed point weights from x * stride, rounded, shifted by
+   * {@link #PRECISION_BITS} and clamped to 0 to 255 (and to alpha when alpha is
+   * true, otherwise alpha is 255).
+   * </p>
+   *
+   * @param src
+   *          the source row
+   * @param dst
+   *          the destination pixels
+   * @param dstPos
+   *          the index in dst of destination pixel 0
+   * @param width
+   *          the number of destination pixels
+   */
+  void horizontal(int[] src, int[] dst, int dstPos, int width, int[] start, int[] count, int[] weights, int stride, boolean alpha);
+
+  /**
+   * Resample one destination row vertically summing rows of the source
+   * weighted by the fixed point weights (rounded, shifted and clamped the same
+   * as horizontal).
+   *
+   * @param src
+   *          the source rows of rowWidth pixels
+   * @param firstRow
+   *          the first source row
+   * @param rows
+   *          the number of source rows
+   * @param weights
+   *          the weights with the weight of the first row at weightPos
+   * @param dst
+   *          the destination row of rowWidth pixels
+   * @param scratch
+   *          working space of at least 4 * rowWidth ints
+   */
+  void vertical(int[] src, int rowWidth, int firstRow, int rows, int[] weights, int weightPos, int[] dst, int[] scratch, boolean alpha);
+
+  /**
+   * Convert a row of ARGB pixels to premultiplied alpha.
+   */
+  void premultiply(int[] row, int width);
+
+  /**
+   * Convert a row of premultiplied ARGB pixels back to non premultiplied
+   * alpha.
+   */
+  void unpremultiply(int[] row, int width);
+
+  /**
+   * Map width pixels through per channel tables.
+   * <p>
+   * Each source pixel is OR'ed with alphaIn, output channel c is
+   * tables[c][(pixel >>> shifts[c]) &amp; 0xff] (channels indexed by the
+   * LookupTable channel constants) and the packed result is AND'ed with
+   * maskOut.
+   * </p>
+   */
+  void lookup(int[] src, int srcPos, int[] dst, int dstPos, int width, int alphaIn, int maskOut, int[][] tables, int[] shifts);
+}
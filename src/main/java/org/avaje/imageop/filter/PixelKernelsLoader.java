@@ -0,0 +1,41 @@
+package org.avaje.imageop.filter;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the PixelKernels implementation once per JVM.
+ */
+final class PixelKernelsLoader {
+
+  private static final Logger log = LoggerFactory.getLogger(PixelKernelsLoader.class);
+
+  static final PixelKernels KERNELS = load();
+
+  private PixelKernelsLoader() {
+  }
+
+  private static PixelKernels load() {
+    if ("scalar".equalsIgnoreCase(System.getProperty(PixelKernels.PROPERTY))) {
+      return ScalarPixelKernels.INSTANCE;
+    }
+    try {
+      Iterator<PixelKernels> it = ServiceLoader.load(PixelKernels.class, PixelKernels.class.getClassLoader()).iterator();
+      while (it.hasNext()) {
+        PixelKernels kernels = it.next();
+        if (kernels.isSupported()) {
+          log.debug("using {} pixel kernels", kernels.getName());
+          return kernels;
+        }
+        log.debug("{} pixel kernels not supported", kernels.getName());
+      }
+    } catch (Throwable e) {
+      // like the Vector API module not being enabled
+      log.debug("pixel kernels not available, using scalar", e);
+    }
+    return ScalarPixelKernels.INSTANCE;
+  }
+}
@@ -0,0 +1,166 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies a GeometryPlan to an image, cropping, scaling and padding as planned.
+ */
+public class PlanImageOp extends ImageOp {
+
+  private static final Logger log = LoggerFactory.getLogger(PlanImageOp.class);
+
+  private final GeometryPlan plan;
+  private final ScaleKernel kernel;
+  private final Paint background;
+  private final int imageType;
+
+  /**
+   * Construct with the plan to apply.
+   *
+   * @param plan
+   *          the plan to apply (which must match the size of source images)
+   * @param kernel
+   *          the kernel used to scale the image
+   * @param background
+   *          the paint used to fill any padding (may be null for no painting)
+   * @param imageType
+   *          the BufferedImage type of padded images, 0 to derive from the
+   *          source image and background
+   */
+  public PlanImageOp(GeometryPlan plan, ScaleKernel kernel, Paint background, int imageType) {
+    this.plan = plan;
+    this.kernel = kernel;
+    this.background = background;
+    this.imageType = imageType;
+  }
+
+  /**
+   * Return the plan applied by this op.
+   */
+  public GeometryPlan getPlan() {
+    return plan;
+  }
+
+  public Rectangle2D getBounds2D(int width, int height) {
+    return new Rectangle(0, 0, plan.getWidth(), plan.getHeight());
+  }
+
+  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+
+    if (src.getWidth() != plan.getSourceWidth() || src.getHeight() != plan.getSourceHeight()) {
+      throw new IllegalArgumentException("Image size " + src.getWidth() + "x" + src.getHeight() + " does not match plan " + plan);
+    }
+    if (plan.isIdentity()) {
+      log.debug("No crop, scale or padding required");
+      return src;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("apply plan {}", plan);
+    }
+
+    if (plan.isScaled() && plan.isPadded() && scalesIntoPadded(src, dst)) {
+      return scalePadded(src, dst);
+    }
+
+    BufferedImage image = src;
+    if (plan.isScaled()) {
+      // crop and scale in one pass reading just the crop rectangle of the source
+      Rectangle crop = new Rectangle(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight());
+      ScaleImageOp scale = new ScaleImageOp(plan.getScaleWidth(), plan.getScaleHeight(), kernel);
+      scale.setBandExecutor(bandExecutor);
+      scale.setImagePool(imagePool);
+      image = scale.filter(image, crop, null, 0, 0);
+
+    } else if (plan.isCropped()) {
+      // a view when the crop is only read by the following border
+      CropImageOp crop = new CropImageOp(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight(), plan.isPadded());
+      crop.setImagePool(imagePool);
+      image = crop.filter(image, null);
+    }
+
+    if (plan.isPadded()) {
+      int type = paddedImageType(src);
+      if (dst == null) {
+        dst = createImage(plan.getWidth(), plan.getHeight(), type);
+      }
+      int right = plan.getWidth() - plan.getScaleWidth() - plan.getOffsetX();
+      int bottom = plan.getHeight() - plan.getScaleHeight() - plan.getOffsetY();
+      BorderOp border = new BorderOp(plan.getOffsetX(), plan.getOffsetY(), right, bottom, background, type);
+      BufferedImage scaled = image;
+      image = border.filter(scaled, dst);
+      if (imagePool != null && plan.isScaled() && scaled != src) {
+        // the scaled intermediate was copied into the padded image (a cropped
+        // view shares the source pixels so is never released)
+        imagePool.release(scaled);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Scale the crop rectangle of the source straight into the interior of the
+   * output image only filling its border.
+   */
+  private BufferedImage scalePadded(BufferedImage src, BufferedImage dst) {
+
+    if (dst == null) {
+      dst = createImage(plan.getWidth(), plan.getHeight(), paddedImageType(src));
+    }
+    int right = plan.getWidth() - plan.getScaleWidth() - plan.getOffsetX();
+    int bottom = plan.getHeight() - plan.getScaleHeight() - plan.getOffsetY();
+    BorderOp border = new BorderOp(plan.getOffsetX(), plan.getOffsetY(), right, bottom, background, dst.getType());
+    border.fillBorder(dst, plan.getScaleWidth(), plan.getScaleHeight());
+
+    Rectangle crop = new Rectangle(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight());
+    ScaleImageOp scale = new ScaleImageOp(plan.getScaleWidth(), plan.getScaleHeight(), kernel);
+    scale.setBandExecutor(bandExecutor);
+    return scale.filter(src, crop, dst, plan.getOffsetX(), plan.getOffsetY());
+  }
+
+  /**
+   * Return true if the scaled pixels can be written straight into the padded
+   * image. This is false when a source with alpha is padded into an opaque
+   * image as the scaled image is then drawn (composited) onto it.
+   */
+  private boolean scalesIntoPadded(BufferedImage src, BufferedImage dst) {
+    if (!src.getColorModel().hasAlpha()) {
+      return true;
+    }
+    return (dst == null) ? hasAlpha(paddedImageType(src)) : dst.getColorModel().hasAlpha();
+  }
+
+  private static boolean hasAlpha(int type) {
+    return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE || type == BufferedImage.TYPE_4BYTE_ABGR
+        || type == BufferedImage.TYPE_4BYTE_ABGR_PRE;
+  }
+
+  /**
+   * Return the image type used for a padded image.
+   */
+  private int paddedImageType(BufferedImage src) {
+    if (imageType != 0) {
+      return imageType;
+    }
+    boolean alpha = src.getColorModel().hasAlpha()
+        || (background instanceof Color && ((Color) background).getAlpha() < 255);
+    if (alpha) {
+      return BufferedImage.TYPE_INT_ARGB;
+    }
+    int type = src.getType();
+    if (type == BufferedImage.TYPE_CUSTOM || type == BufferedImage.TYPE_BYTE_INDEXED || type == BufferedImage.TYPE_BYTE_BINARY) {
+      return BufferedImage.TYPE_INT_RGB;
+    }
+    return type;
+  }
+
+  public String toString() {
+    return "Distort/Plan";
+  }
+}
@@ -21,43 +21,77 @@ import java.awt.image.*;
 /**
  * An abstract superclass for point filters. The interface is the same as the
  * old RGBImageFilter.
+ * <p>
+ * Rows are read and written directly on the int[] or byte[] data of the
+ * common raster layouts (see ArgbRaster) and filtered by filterRow(). Filters
+ * that can process a whole row at once (like FillOp) override filterRow()
+ * rather than filterRGB() avoiding a call per pixel.
+ * </p>
+ * <p>
+ * When a BandExecutor is set rows are filtered in parallel so filterRGB() must
+ * then be safe to call concurrently.
+ * </p>
  */
 public abstract class PointFilter extends ImageOp {
 
   protected boolean canFilterIndexColorModel = false;
 
-  public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+  public BufferedImage filter(final BufferedImage src, BufferedImage dst) {
     int width = src.getWidth();
     int height = src.getHeight();
-    int type = src.getType();
-    WritableRaster srcRaster = src.getRaster();
 
     if (dst == null)
       dst = createCompatibleDestImage(src, null);
-    WritableRaster dstRaster = dst.getRaster();
 
     setDimensions(width, height);
 
-    int[] inPixels = new int[width];
-    for (int y = 0; y < height; y++) {
-      // We try to avoid calling getRGB on images as it causes them to become
-      // unmanaged, causing horrible performance problems.
-      if (type == BufferedImage.TYPE_INT_ARGB) {
-        srcRaster.getDataElements(0, y, width, 1, inPixels);
-        for (int x = 0; x < width; x++)
-          inPixels[x] = filterRGB(x, y, inPixels[x]);
-        dstRaster.setDataElements(0, y, width, 1, inPixels);
-      } else {
-        src.getRGB(0, y, width, 1, inPixels, 0, width);
-        for (int x = 0; x < width; x++)
-          inPixels[x] = filterRGB(x, y, inPixels[x]);
-        dst.setRGB(0, y, width, 1, inPixels, 0, width);
+    final BufferedImage dstImage = dst;
+    BandExecutor executor = ArgbRaster.supportsConcurrentWrites(dst) ? bandExecutor : null;
+    BandExecutor.run(executor, width, height, new BandExecutor.Band() {
+      public void run(int y0, int y1) {
+        filterRows(src, dstImage, y0, y1);
       }
-    }
+    });
 
     return dst;
   }
 
+  /**
+   * Filter the rows from y0 (inclusive) to y1 (exclusive).
+   */
+  protected void filterRows(BufferedImage src, BufferedImage dst, int y0, int y1) {
+    int width = src.getWidth();
+    // work directly on the raster data avoiding getRGB/setRGB which convert
+    // each pixel via the colour model (and make images unmanaged)
+    ArgbRaster in = new ArgbRaster(src);
+    ArgbRaster out = (dst == src) ? in : new ArgbRaster(dst);
+
+    int[] row = new int[width];
+    for (int y = y0; y < y1; y++) {
+      in.getRow(0, y, width, row);
+      filterRow(row, y);
+      out.setRow(0, y, width, row);
+    }
+  }
+
+  /**
+   * Filter a row of non premultiplied ARGB pixels in place.
+   * <p>
+   * This calls filterRGB() for each pixel. Override to filter the whole row at
+   * once.
+   * </p>
+   *
+   * @param row
+   *          the pixels of the row (the length of the row is the image width)
+   * @param y
+   *          the row
+   */
+  protected void filterRow(int[] row, int y) {
+    for (int x = 0; x < row.length; x++) {
+      row[x] = filterRGB(x, y, row[x]);
+    }
+  }
+
   public void setDimensions(int width, int height) {
   }
 
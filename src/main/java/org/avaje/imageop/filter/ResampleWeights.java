@@ -0,0 +1,110 @@
+package org.avaje.imageop.filter;
+
+/**
+ * Precomputed fixed point kernel weights for resampling one dimension of an
+ * image.
+ * <p>
+ * For each destination pixel this holds the first contributing source pixel,
+ * the number of contributing source pixels and their weights. Weights are
+ * normalised so that they sum to 1 and are stored as fixed point ints with
+ * {@link #PRECISION_BITS} of precision.
+ * </p>
+ */
+final class ResampleWeights {
+
+  /**
+   * Fixed point precision of the weights. This leaves enough headroom to
+   * accumulate 8 bit samples in an int.
+   */
+  static final int PRECISION_BITS = PixelKernels.PRECISION_BITS;
+
+  /**
+   * Rounding value added to accumulators before shifting.
+   */
+  static final int ROUNDING = PixelKernels.ROUNDING;
+
+  /**
+   * The first source pixel for each destination pixel.
+   */
+  final int[] start;
+
+  /**
+   * The number of source pixels for each destination pixel.
+   */
+  final int[] count;
+
+  /**
+   * The weights with {@link #stride} entries per destination pixel.
+   */
+  final int[] weights;
+
+  /**
+   * The maximum number of weights per destination pixel.
+   */
+  final int stride;
+
+  private ResampleWeights(int[] start, int[] count, int[] weights, int stride) {
+    this.start = start;
+    this.count = count;
+    this.weights = weights;
+    this.stride = stride;
+  }
+
+  /**
+   * Create the weights to resample srcSize pixels to dstSize pixels.
+   */
+  static ResampleWeights create(ScaleKernel kernel, int srcSize, int dstSize) {
+
+    double scale = (double) srcSize / dstSize;
+    double filterScale = Math.max(scale, 1.0);
+    double support = kernel.getSupport() * filterScale;
+    int stride = (int) Math.ceil(support) * 2 + 1;
+
+    int[] start = new int[dstSize];
+    int[] count = new int[dstSize];
+    int[] weights = new int[dstSize * stride];
+    double[] w = new double[stride];
+
+    double invScale = 1.0 / filterScale;
+    for (int i = 0; i < dstSize; i++) {
+      double center = (i + 0.5) * scale;
+      int min = Math.max((int) (center - support + 0.5), 0);
+      int max = Math.min((int) (center + support + 0.5), srcSize);
+      int n = Math.min(max - min, stride);
+
+      double total = 0;
+      for (int j = 0; j < n; j++) {
+        double v = kernel.weight((j + min - center + 0.5) * invScale);
+        w[j] = v;
+        total += v;
+      }
+      if (total == 0) {
+        // degenerate kernel (box filter upscaling), use the nearest pixel
+        int nearest = Math.min((int) center, srcSize - 1);
+        min = nearest;
+        n = 1;
+        w[0] = 1;
+        total = 1;
+      }
+
+      start[i] = min;
+      count[i] = n;
+      int offset = i * stride;
+      for (int j = 0; j < n; j++) {
+        weights[offset + j] = (int) Math.round(w[j] / total * (1 << PRECISION_BITS));
+      }
+    }
+    return new ResampleWeights(start, count, weights, stride);
+  }
+
+  /**
+   * Clamp a fixed point accumulator to an 8 bit sample.
+   */
+  static int clamp(int acc) {
+    int v = acc >> PRECISION_BITS;
+    if (v < 0) {
+      return 0;
+    }
+    return (v > 255) ? 255 : v;
+  }
+}
@@ -0,0 +1,163 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Separable two pass resampler.
+ * <p>
+ * The source is first resampled horizontally into an intermediate buffer of
+ * packed ARGB ints (destination width by source height) and that is then
+ * resampled vertically into the destination. Images with an alpha channel are
+ * resampled with premultiplied alpha so that transparent pixels do not bleed
+ * colour into their neighbours.
+ * </p>
+ * <p>
+ * The inner loops are run by the selected {@link PixelKernels}.
+ * </p>
+ */
+final class Resampler {
+
+  private final ScaleKernel kernel;
+
+  private final BandExecutor bandExecutor;
+
+  private final PixelKernels kernels = PixelKernels.get();
+
+  Resampler(ScaleKernel kernel, BandExecutor bandExecutor) {
+    this.kernel = kernel;
+    this.bandExecutor = bandExecutor;
+  }
+
+  /**
+   * Resample the whole source image into a width x height area at the top left
+   * of the destination image.
+   */
+  void resample(BufferedImage src, BufferedImage dst, int width, int height) {
+    resample(src, 0, 0, src.getWidth(), src.getHeight(), dst, 0, 0, width, height);
+  }
+
+  /**
+   * Resample the srcWidth x srcHeight region of the source at srcX, srcY into
+   * the width x height area of the destination at dstX, dstY.
+   * <p>
+   * Only the source region is read and only the destination area is written so
+   * a crop and scale (and placing the result in a larger image) is done in one
+   * pass without intermediate images.
+   * </p>
+   */
+  void resample(BufferedImage src, final int srcX, final int srcY, final int srcWidth, final int srcHeight, BufferedImage dst,
+      final int dstX, final int dstY, int width, int height) {
+
+    final ArgbRaster in = new ArgbRaster(src);
+    final ArgbRaster out = new ArgbRaster(dst);
+    final boolean alpha = in.hasAlpha();
+
+    final int[] tmp = new int[width * srcHeight];
+    final int tmpWidth = width;
+    BandExecutor writeExecutor = ArgbRaster.supportsConcurrentWrites(dst) ? bandExecutor : null;
+
+    if (width == srcWidth) {
+      BandExecutor.run(bandExecutor, width, srcHeight, new BandExecutor.Band() {
+        public void run(int y0, int y1) {
+          copyRows(in, srcX, srcY, tmp, tmpWidth, alpha, y0, y1);
+        }
+      });
+    } else {
+      final ResampleWeights xWeights = ResampleWeights.create(kernel, srcWidth, width);
+      BandExecutor.run(bandExecutor, srcWidth, srcHeight, new BandExecutor.Band() {
+        public void run(int y0, int y1) {
+          horizontal(in, srcX, srcY, tmp, xWeights, srcWidth, alpha, y0, y1);
+        }
+      });
+    }
+
+    if (height == srcHeight) {
+      BandExecutor.run(writeExecutor, width, height, new BandExecutor.Band() {
+        public void run(int y0, int y1) {
+          writeRows(tmp, out, dstX, dstY, tmpWidth, alpha, y0, y1);
+        }
+      });
+    } else {
+      final ResampleWeights yWeights = ResampleWeights.create(kernel, srcHeight, height);
+      BandExecutor.run(writeExecutor, width, height, new BandExecutor.Band() {
+        public void run(int y0, int y1) {
+          vertical(tmp, out, dstX, dstY, yWeights, tmpWidth, alpha, y0, y1);
+        }
+      });
+    }
+  }
+
+  /**
+   * Copy source rows [y0, y1) unchanged into the intermediate buffer.
+   */
+  private void copyRows(ArgbRaster in, int srcX, int srcY, int[] tmp, int width, boolean alpha, int y0, int y1) {
+    int[] row = new int[width];
+    for (int y = y0; y < y1; y++) {
+      in.getRow(srcX, srcY + y, width, row);
+      if (alpha) {
+        kernels.premultiply(row, width);
+      }
+      System.arraycopy(row, 0, tmp, y * width, width);
+    }
+  }
+
+  /**
+   * Write intermediate rows [y0, y1) unchanged into the destination.
+   */
+  private void writeRows(int[] tmp, ArgbRaster out, int dstX, int dstY, int width, boolean alpha, int y0, int y1) {
+    int[] row = new int[width];
+    for (int y = y0; y < y1; y++) {
+      System.arraycopy(tmp, y * width, row, 0, width);
+      if (alpha) {
+        kernels.unpremultiply(row, width);
+      }
+      out.setRow(dstX, dstY + y, width, row);
+    }
+  }
+
+  /**
+   * Resample source rows [y0, y1) horizontally into the intermediate buffer.
+   */
+  private void horizontal(ArgbRaster in, int srcX, int srcY, int[] tmp, ResampleWeights weights, int srcWidth, boolean alpha, int y0,
+      int y1) {
+
+    int width = weights.start.length;
+    int stride = weights.stride;
+    int[] start = weights.start;
+    int[] count = weights.count;
+    int[] w = weights.weights;
+
+    int[] row = new int[srcWidth];
+    for (int y = y0; y < y1; y++) {
+      in.getRow(srcX, srcY + y, srcWidth, row);
+      if (alpha) {
+        kernels.premultiply(row, srcWidth);
+      }
+      kernels.horizontal(row, tmp, y * width, width, start, count, w, stride, alpha);
+    }
+  }
+
+  /**
+   * Resample destination rows [y0, y1) vertically from the intermediate
+   * buffer.
+   */
+  private void vertical(int[] tmp, ArgbRaster out, int dstX, int dstY, ResampleWeights weights, int width, boolean alpha, int y0,
+      int y1) {
+
+    int stride = weights.stride;
+    int[] start = weights.start;
+    int[] count = weights.count;
+    int[] w = weights.weights;
+
+    int[] scratch = new int[4 * width];
+    int[] row = new int[width];
+
+    for (int y = y0; y < y1; y++) {
+      kernels.vertical(tmp, width, start[y], count[y], w, y * stride, row, scratch, alpha);
+      if (alpha) {
+        kernels.unpremultiply(row, width);
+      }
+      out.setRow(dstX, dstY + y, width, row);
+    }
+  }
+}
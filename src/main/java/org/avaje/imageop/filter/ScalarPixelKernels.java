@@ -0,0 +1,135 @@
+package org.avaje.imageop.filter;
+
+/**
+ * The scalar PixelKernels (always supported).
+ */
+final class ScalarPixelKernels implements PixelKernels {
+
+  static final ScalarPixelKernels INSTANCE = new ScalarPixelKernels();
+
+  private ScalarPixelKernels() {
+  }
+
+  public String getName() {
+    return "scalar";
+  }
+
+  public boolean isSupported() {
+    return true;
+  }
+
+  public void horizontal(int[] src, int[] dst, int dstPos, int width, int[] start, int[] count, int[] weights, int stride, boolean alpha) {
+    for (int x = 0; x < width; x++) {
+      int a = ROUNDING;
+      int r = ROUNDING;
+      int g = ROUNDING;
+      int b = ROUNDING;
+      int s = start[x];
+      int k = x * stride;
+      int end = k + count[x];
+      for (; k < end; k++) {
+        int p = src[s++];
+        int wk = weights[k];
+        a += (p >>> 24) * wk;
+        r += ((p >> 16) & 0xff) * wk;
+        g += ((p >> 8) & 0xff) * wk;
+        b += (p & 0xff) * wk;
+      }
+      dst[dstPos + x] = pack(a, r, g, b, alpha);
+    }
+  }
+
+  public void vertical(int[] src, int rowWidth, int firstRow, int rows, int[] weights, int weightPos, int[] dst, int[] scratch,
+      boolean alpha) {
+
+    int width = rowWidth;
+    int aa = 0;
+    int ar = width;
+    int ag = 2 * width;
+    int ab = 3 * width;
+    for (int x = 0; x < 4 * width; x++) {
+      scratch[x] = ROUNDING;
+    }
+    int o = firstRow * width;
+    for (int k = weightPos, end = weightPos + rows; k < end; k++, o += width) {
+      int wk = weights[k];
+      for (int x = 0; x < width; x++) {
+        int p = src[o + x];
+        scratch[aa + x] += (p >>> 24) * wk;
+        scratch[ar + x] += ((p >> 16) & 0xff) * wk;
+        scratch[ag + x] += ((p >> 8) & 0xff) * wk;
+        scratch[ab + x] += (p & 0xff) * wk;
+      }
+    }
+    for (int x = 0; x < width; x++) {
+      dst[x] = pack(scratch[aa + x], scratch[ar + x], scratch[ag + x], scratch[ab + x], alpha);
+    }
+  }
+
+  /**
+   * Pack the fixed point accumulators into an ARGB int.
+   */
+  private static int pack(int a, int r, int g, int b, boolean alpha) {
+    int ca;
+    int cr = ResampleWeights.clamp(r);
+    int cg = ResampleWeights.clamp(g);
+    int cb = ResampleWeights.clamp(b);
+    if (alpha) {
+      // premultiplied components can not exceed alpha
+      ca = ResampleWeights.clamp(a);
+      if (cr > ca) cr = ca;
+      if (cg > ca) cg = ca;
+      if (cb > ca) cb = ca;
+    } else {
+      ca = 255;
+    }
+    return (ca << 24) | (cr << 16) | (cg << 8) | cb;
+  }
+
+  public void premultiply(int[] row, int width) {
+    for (int i = 0; i < width; i++) {
+      int v = row[i];
+      int a = v >>> 24;
+      if (a == 0) {
+        row[i] = 0;
+      } else if (a != 255) {
+        int r = ((v >> 16) & 0xff) * a + 127;
+        int g = ((v >> 8) & 0xff) * a + 127;
+        int b = (v & 0xff) * a + 127;
+        row[i] = (a << 24) | (((r + (r >> 8)) >> 8) << 16) | (((g + (g >> 8)) >> 8) << 8) | ((b + (b >> 8)) >> 8);
+      }
+    }
+  }
+
+  public void unpremultiply(int[] row, int width) {
+    for (int i = 0; i < width; i++) {
+      int v = row[i];
+      int a = v >>> 24;
+      if (a == 0) {
+        row[i] = 0;
+      } else if (a != 255) {
+        int half = a >> 1;
+        int r = Math.min(255, (((v >> 16) & 0xff) * 255 + half) / a);
+        int g = Math.min(255, (((v >> 8) & 0xff) * 255 + half) / a);
+        int b = Math.min(255, ((v & 0xff) * 255 + half) / a);
+        row[i] = (a << 24) | (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+
+  public void lookup(int[] src, int srcPos, int[] dst, int dstPos, int width, int alphaIn, int maskOut, int[][] tables, int[] shifts) {
+    int[] a = tables[LookupTable.ALPHA];
+    int[] r = tables[LookupTable.RED];
+    int[] g = tables[LookupTable.GREEN];
+    int[] b = tables[LookupTable.BLUE];
+    int as = shifts[LookupTable.ALPHA];
+    int rs = shifts[LookupTable.RED];
+    int gs = shifts[LookupTable.GREEN];
+    int bs = shifts[LookupTable.BLUE];
+    for (int i = 0; i < width; i++) {
+      int v = src[srcPos + i] | alphaIn;
+      int p = (a[(v >>> as) & 0xff] << 24) | (r[(v >>> rs) & 0xff] << 16) | (g[(v >>> gs) & 0xff] << 8) | b[(v >>> bs) & 0xff];
+      dst[dstPos + i] = p & maskOut;
+    }
+  }
+}
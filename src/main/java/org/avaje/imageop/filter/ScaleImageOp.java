@@ -17,16 +17,23 @@ limitations under the License.
 package org.avaje.imageop.filter;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.*;
 
 /**
- * Scales an image using the area-averaging algorithm, which can't be done with
- * AffineTransformOp.
+ * Scales an image using a separable resampling filter.
+ * <p>
+ * By default a box filter is used which for downscaling gives area averaging
+ * (which can't be done with AffineTransformOp). Other kernels can be chosen via
+ * {@link ScaleKernel}, including the AWT area-averaging implementation for
+ * output compatible with earlier versions.
+ * </p>
  */
 public class ScaleImageOp extends ImageOp {
 
   private final int width;
   private final int height;
+  private final ScaleKernel kernel;
 
   /**
    * Construct a ScaleFilter.
@@ -44,19 +51,110 @@ public class ScaleImageOp extends ImageOp {
    *          the height to scale to
    */
   public ScaleImageOp(int width, int height) {
+    this(width, height, ScaleKernel.Box);
+  }
+
+  /**
+   * Construct a ScaleFilter.
+   * 
+   * @param width
+   *          the width to scale to
+   * @param height
+   *          the height to scale to
+   * @param kernel
+   *          the resampling kernel
+   */
+  public ScaleImageOp(int width, int height, ScaleKernel kernel) {
     this.width = width;
     this.height = height;
+    this.kernel = (kernel == null) ? ScaleKernel.Box : kernel;
+  }
+
+  /**
+   * Return the resampling kernel.
+   */
+  public ScaleKernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Return the width to scale to.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the height to scale to.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  public Rectangle2D getBounds2D(int srcWidth, int srcHeight) {
+    return new Rectangle(0, 0, width, height);
   }
 
   public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+    return filter(src, new Rectangle(0, 0, src.getWidth(), src.getHeight()), dst, 0, 0);
+  }
+
+  /**
+   * Scale a region of the source into the destination at dstX, dstY.
+   * <p>
+   * This crops and scales in one pass reading only the region of the source
+   * (no cropped copy of the source is made). The destination can be larger than
+   * the scaled size (like a padded image) with the rest of it left unchanged.
+   * </p>
+   * 
+   * @param src
+   *          the source image
+   * @param region
+   *          the region of the source that is scaled
+   * @param dst
+   *          the destination or null to create a width x height image
+   * @param dstX
+   *          the left edge of the scaled image in the destination
+   * @param dstY
+   *          the top edge of the scaled image in the destination
+   * @throws IllegalArgumentException
+   *           if the region is not inside the source or the scaled image does
+   *           not fit inside the destination
+   */
+  public BufferedImage filter(BufferedImage src, Rectangle region, BufferedImage dst, int dstX, int dstY) {
+    if (region.isEmpty() || region.x < 0 || region.y < 0 || region.x + region.width > src.getWidth()
+        || region.y + region.height > src.getHeight()) {
+      throw new IllegalArgumentException("Region " + region + " is not inside the " + src.getWidth() + "x" + src.getHeight() + " source");
+    }
     if (dst == null) {
-      ColorModel dstCM = src.getColorModel();
-      dst = new BufferedImage(dstCM, dstCM.createCompatibleWritableRaster(width, height), dstCM.isAlphaPremultiplied(), null);
+      // area averaging draws (composites) onto the destination
+      dst = createImage(width, height, src.getColorModel(), kernel == ScaleKernel.AreaAveraging);
     }
+    if (dstX < 0 || dstY < 0 || dstX + width > dst.getWidth() || dstY + height > dst.getHeight()) {
+      throw new IllegalArgumentException("Scaled " + width + "x" + height + " at " + dstX + "," + dstY + " does not fit the "
+          + dst.getWidth() + "x" + dst.getHeight() + " destination");
+    }
+
+    if (kernel == ScaleKernel.AreaAveraging) {
+      BufferedImage image = src;
+      if (region.x != 0 || region.y != 0 || region.width != src.getWidth() || region.height != src.getHeight()) {
+        image = src.getSubimage(region.x, region.y, region.width, region.height);
+      }
+      return areaAveraging(image, dst, dstX, dstY);
+    }
+
+    new Resampler(kernel, bandExecutor).resample(src, region.x, region.y, region.width, region.height, dst, dstX, dstY, width, height);
+    return dst;
+  }
+
+  /**
+   * Scale using Image.getScaledInstance() with SCALE_AREA_AVERAGING.
+   */
+  private BufferedImage areaAveraging(BufferedImage src, BufferedImage dst, int dstX, int dstY) {
 
     Image scaleImage = src.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
     Graphics2D g = dst.createGraphics();
-    g.drawImage(scaleImage, 0, 0, width, height, null);
+    g.drawImage(scaleImage, dstX, dstY, width, height, null);
     g.dispose();
 
     return dst;
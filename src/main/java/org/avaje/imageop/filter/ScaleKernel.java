@@ -0,0 +1,118 @@
+package org.avaje.imageop.filter;
+
+/**
+ * The resampling kernel used when scaling an image.
+ * <p>
+ * All kernels other than AreaAveraging are applied by a separable (horizontal
+ * then vertical) resampler using precomputed weight tables. When downscaling
+ * the kernel is stretched by the scale factor so that every source pixel
+ * contributes to the result.
+ * </p>
+ */
+public enum ScaleKernel {
+
+  /**
+   * Box filter. When downscaling this averages the area of source pixels that
+   * map to each destination pixel.
+   */
+  Box(0.5) {
+    @Override
+    double weight(double x) {
+      if (x >= -0.5 && x < 0.5) {
+        return 1.0;
+      }
+      return 0.0;
+    }
+  },
+
+  /**
+   * Triangle (bilinear) filter.
+   */
+  Bilinear(1.0) {
+    @Override
+    double weight(double x) {
+      if (x < 0.0) {
+        x = -x;
+      }
+      if (x < 1.0) {
+        return 1.0 - x;
+      }
+      return 0.0;
+    }
+  },
+
+  /**
+   * Mitchell-Netravali bicubic filter (B = C = 1/3).
+   */
+  Mitchell(2.0) {
+    @Override
+    double weight(double x) {
+      final double b = 1.0 / 3.0;
+      final double c = 1.0 / 3.0;
+      if (x < 0.0) {
+        x = -x;
+      }
+      double x2 = x * x;
+      if (x < 1.0) {
+        return ((12 - 9 * b - 6 * c) * x * x2 + (-18 + 12 * b + 6 * c) * x2 + (6 - 2 * b)) / 6.0;
+      }
+      if (x < 2.0) {
+        return ((-b - 6 * c) * x * x2 + (6 * b + 30 * c) * x2 + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6.0;
+      }
+      return 0.0;
+    }
+  },
+
+  /**
+   * Lanczos windowed sinc filter with 3 lobes. Sharpest of the kernels.
+   */
+  Lanczos3(3.0) {
+    @Override
+    double weight(double x) {
+      if (x > -3.0 && x < 3.0) {
+        return sinc(x) * sinc(x / 3.0);
+      }
+      return 0.0;
+    }
+  },
+
+  /**
+   * Uses the AWT Image.getScaledInstance() area averaging filter.
+   * <p>
+   * This is much slower than the other kernels and is provided for output
+   * compatible with earlier versions of ScaleImageOp.
+   * </p>
+   */
+  AreaAveraging(0.5) {
+    @Override
+    double weight(double x) {
+      return Box.weight(x);
+    }
+  };
+
+  private final double support;
+
+  ScaleKernel(double support) {
+    this.support = support;
+  }
+
+  /**
+   * Return the radius of the kernel (at a scale of 1).
+   */
+  public double getSupport() {
+    return support;
+  }
+
+  /**
+   * Return the kernel weight at the given distance from the sample center.
+   */
+  abstract double weight(double x);
+
+  private static double sinc(double x) {
+    if (x == 0.0) {
+      return 1.0;
+    }
+    x *= Math.PI;
+    return Math.sin(x) / x;
+  }
+}
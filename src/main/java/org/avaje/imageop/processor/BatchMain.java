@@ -0,0 +1,139 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Command line batch processing of a directory tree or manifest of images.
+ *
+ * <pre>
+ * java -cp avaje-imageop.jar:... org.avaje.imageop.processor.BatchMain [options] &lt;input dir | manifest&gt; &lt;output dir&gt;
+ *
+ *   --size WxH             main image size (default 800x800)
+ *   --thumb WxH            thumbnail size (default 150x150, 0x0 for none)
+ *   --mode MODE            thumbnail ConvertMode: Crop, Pad, PadArea or Max (default Crop)
+ *   --engine java|magick   conversion engine (default magick)
+ *   --thumb-ext EXT        image format of all thumbnails
+ *   --background COLOUR    background of padded thumbnails
+ *   --read-threads N       threads reading source files
+ *   --convert-threads N    threads converting images
+ *   --write-threads N      threads writing images
+ *   --queue N              capacity of the queues between the stages
+ * </pre>
+ */
+public class BatchMain {
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.out));
+  }
+
+  /**
+   * Run the batch returning the exit code (0 success, 1 some files failed, 2
+   * invalid arguments).
+   */
+  static int run(String[] args, PrintStream out) {
+
+    int[] size = { 800, 800 };
+    int[] thumb = { 150, 150 };
+    ConvertMode mode = ConvertMode.Crop;
+    String engine = "magick";
+    String thumbExtension = null;
+    String background = null;
+    Integer readThreads = null;
+    Integer convertThreads = null;
+    Integer writeThreads = null;
+    Integer queueSize = null;
+
+    int i = 0;
+    try {
+      for (; i < args.length && args[i].startsWith("--"); i += 2) {
+        String option = args[i];
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + option);
+        }
+        String value = args[i + 1];
+        if (option.equals("--size")) {
+          size = parseSize(value);
+        } else if (option.equals("--thumb")) {
+          thumb = parseSize(value);
+        } else if (option.equals("--mode")) {
+          mode = ConvertMode.valueOf(value);
+        } else if (option.equals("--engine")) {
+          engine = value;
+        } else if (option.equals("--thumb-ext")) {
+          thumbExtension = value;
+        } else if (option.equals("--background")) {
+          background = value;
+        } else if (option.equals("--read-threads")) {
+          readThreads = Integer.valueOf(value);
+        } else if (option.equals("--convert-threads")) {
+          convertThreads = Integer.valueOf(value);
+        } else if (option.equals("--write-threads")) {
+          writeThreads = Integer.valueOf(value);
+        } else if (option.equals("--queue")) {
+          queueSize = Integer.valueOf(value);
+        } else {
+          throw new IllegalArgumentException("Unknown option " + option);
+        }
+      }
+      if (args.length - i != 2) {
+        throw new IllegalArgumentException("Expected an input directory or manifest and an output directory");
+      }
+    } catch (IllegalArgumentException e) {
+      out.println(e.getMessage());
+      out.println("usage: BatchMain [options] <input dir | manifest> <output dir>");
+      return 2;
+    }
+
+    File input = new File(args[i]);
+    File output = new File(args[i + 1]);
+
+    ImageProcessor processor = new ImageProcessor(thumb[0], thumb[1], size[0], size[1], mode, null);
+    if (engine.equals("java")) {
+      processor.setImageEngine(new JavaImageEngine());
+    }
+    if (thumbExtension != null) {
+      processor.setThumbnailExtension(thumbExtension);
+    }
+    if (background != null) {
+      processor.setThumbNailBackground(background);
+    }
+
+    BatchProcessor batch = new BatchProcessor(processor);
+    if (readThreads != null) {
+      batch.setReadThreads(readThreads);
+    }
+    if (convertThreads != null) {
+      batch.setConvertThreads(convertThreads);
+    }
+    if (writeThreads != null) {
+      batch.setWriteThreads(writeThreads);
+    }
+    if (queueSize != null) {
+      batch.setQueueSize(queueSize);
+    }
+
+    BatchResult result;
+    try {
+      result = input.isDirectory() ? batch.processDirectory(input, output) : batch.processManifest(input, output);
+    } catch (IOException e) {
+      out.println("Failed to read " + input + ": " + e);
+      return 1;
+    }
+
+    for (BatchResult.Failure failure : result.getFailures()) {
+      out.println(failure);
+    }
+    out.println(result);
+    return result.getFailures().isEmpty() ? 0 : 1;
+  }
+
+  private static int[] parseSize(String value) {
+    int x = value.indexOf('x');
+    if (x < 0) {
+      throw new IllegalArgumentException("Expected WxH but got " + value);
+    }
+    return new int[] { Integer.parseInt(value.substring(0, x)), Integer.parseInt(value.substring(x + 1)) };
+  }
+}
@@ -0,0 +1,368 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a directory tree or a manifest of images using an ImageProcessor
+ * writing the main and thumbnail images to an output directory.
+ * <p>
+ * The work is pipelined in three stages each with its own threads: reading
+ * the source files (I/O), converting them (CPU) and writing the images (I/O).
+ * The stages are connected by bounded queues so the disk is busy while the
+ * CPU converts and memory use is bounded by the queue size.
+ * </p>
+ * <p>
+ * Images are written to the same relative path in the output directory with
+ * <code>-main</code> and <code>-thumb</code> suffixes. A file that fails in any
+ * stage (including with an Error like OutOfMemoryError) is recorded in the
+ * BatchResult and does not stop the batch. A manifest path that would be
+ * written outside the output directory (like <code>../x.jpg</code>) fails.
+ * </p>
+ */
+public class BatchProcessor {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchProcessor.class);
+
+  private final ImageProcessor processor;
+
+  private int readThreads = 2;
+
+  private int convertThreads = Runtime.getRuntime().availableProcessors();
+
+  private int writeThreads = 2;
+
+  private int queueSize = 32;
+
+  /**
+   * Create with the ImageProcessor that converts each image.
+   */
+  public BatchProcessor(ImageProcessor processor) {
+    this.processor = processor;
+  }
+
+  /**
+   * Return the number of threads reading source files.
+   */
+  public int getReadThreads() {
+    return readThreads;
+  }
+
+  /**
+   * Set the number of threads reading source files (defaults to 2).
+   */
+  public void setReadThreads(int readThreads) {
+    this.readThreads = Math.max(1, readThreads);
+  }
+
+  /**
+   * Return the number of threads converting images.
+   */
+  public int getConvertThreads() {
+    return convertThreads;
+  }
+
+  /**
+   * Set the number of threads converting images (defaults to the number of
+   * available processors).
+   */
+  public void setConvertThreads(int convertThreads) {
+    this.convertThreads = Math.max(1, convertThreads);
+  }
+
+  /**
+   * Return the number of threads writing images.
+   */
+  public int getWriteThreads() {
+    return writeThreads;
+  }
+
+  /**
+   * Set the number of threads writing images (defaults to 2).
+   */
+  public void setWriteThreads(int writeThreads) {
+    this.writeThreads = Math.max(1, writeThreads);
+  }
+
+  /**
+   * Return the capacity of the queues between the stages.
+   */
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Set the capacity of each of the queues between the stages (defaults to 32).
+   */
+  public void setQueueSize(int queueSize) {
+    this.queueSize = Math.max(1, queueSize);
+  }
+
+  /**
+   * Process all the images in the directory tree.
+   */
+  public BatchResult processDirectory(File inputDirectory, File outputDirectory) throws IOException {
+
+    final Path root = inputDirectory.toPath();
+    try (Stream<Path> paths = Files.walk(root)) {
+      final Iterator<Path> it = paths.filter(p -> Files.isRegularFile(p) && isImage(p.getFileName().toString())).iterator();
+      return run(new Iterator<Job>() {
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        public Job next() {
+          Path path = it.next();
+          return new Job(path.toFile(), root.relativize(path).toString());
+        }
+      }, outputDirectory);
+    }
+  }
+
+  /**
+   * Process the images listed in the manifest (one path per line, blank lines
+   * and lines starting with # are ignored). Relative paths are relative to the
+   * directory of the manifest.
+   */
+  public BatchResult processManifest(File manifest, File outputDirectory) throws IOException {
+
+    final File base = manifest.getAbsoluteFile().getParentFile();
+    try (Stream<String> lines = Files.lines(manifest.toPath(), StandardCharsets.UTF_8)) {
+      Iterator<Job> jobs = lines.map(String::trim)
+          .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+          .map(line -> {
+            File file = new File(line);
+            return file.isAbsolute() ? new Job(file, file.getName()) : new Job(new File(base, line), line);
+          }).iterator();
+      return run(jobs, outputDirectory);
+    }
+  }
+
+  /**
+   * Return true if the file name has the extension of a supported image format.
+   */
+  static boolean isImage(String fileName) {
+    int dot = fileName.lastIndexOf('.');
+    if (dot < 0) {
+      return false;
+    }
+    String extension = fileName.substring(dot + 1);
+    for (ImageFormat format : ImageFormat.values()) {
+      if (format.matches(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private BatchResult run(Iterator<Job> jobs, File outputDirectory) {
+
+    BatchResult result = new BatchResult();
+    Pipeline pipeline = new Pipeline(jobs, outputDirectory, result);
+    long start = System.nanoTime();
+    pipeline.run();
+    result.setElapsedNanos(System.nanoTime() - start);
+    log.info("batch {}", result);
+    return result;
+  }
+
+  /**
+   * A source image moving through the stages.
+   */
+  private static class Job {
+
+    final File source;
+
+    final String relativePath;
+
+    byte[] content;
+
+    ImageFileSet imageSet;
+
+    Job(File source, String relativePath) {
+      this.source = source;
+      this.relativePath = relativePath;
+    }
+  }
+
+  /**
+   * The threads and queues of a single batch run.
+   */
+  private class Pipeline {
+
+    /**
+     * Marks the end of the jobs for a stage.
+     */
+    private final Job end = new Job(null, null);
+
+    private final Iterator<Job> jobs;
+
+    private final File outputDirectory;
+
+    private final BatchResult result;
+
+    private final BlockingQueue<Job> convertQueue = new ArrayBlockingQueue<Job>(queueSize);
+
+    private final BlockingQueue<Job> writeQueue = new ArrayBlockingQueue<Job>(queueSize);
+
+    Pipeline(Iterator<Job> jobs, File outputDirectory, BatchResult result) {
+      this.jobs = jobs;
+      this.outputDirectory = outputDirectory;
+      this.result = result;
+    }
+
+    void run() {
+      CountDownLatch readers = start("read", readThreads, this::readLoop);
+      CountDownLatch converters = start("convert", convertThreads, this::convertLoop);
+      CountDownLatch writers = start("write", writeThreads, this::writeLoop);
+      try {
+        readers.await();
+        endStage(convertQueue, convertThreads);
+        converters.await();
+        endStage(writeQueue, writeThreads);
+        writers.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted waiting for batch", e);
+      }
+    }
+
+    private CountDownLatch start(String stage, int threads, final Runnable loop) {
+      final CountDownLatch latch = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++) {
+        Thread thread = new Thread(() -> {
+          try {
+            loop.run();
+          } finally {
+            latch.countDown();
+          }
+        }, "imageop-batch-" + stage + "-" + i);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      return latch;
+    }
+
+    private void endStage(BlockingQueue<Job> queue, int threads) throws InterruptedException {
+      for (int i = 0; i < threads; i++) {
+        queue.put(end);
+      }
+    }
+
+    private Job nextJob() {
+      synchronized (jobs) {
+        try {
+          return jobs.hasNext() ? jobs.next() : null;
+        } catch (RuntimeException e) {
+          // listing the directory failed, stop reading
+          result.addFailure(null, "list", e);
+          return null;
+        }
+      }
+    }
+
+    private void readLoop() {
+      Job job;
+      while ((job = nextJob()) != null) {
+        try {
+          checkRelativePath(job);
+          job.content = Files.readAllBytes(job.source.toPath());
+          result.addRead(job.content.length);
+          convertQueue.put(job);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (Throwable e) {
+          result.addRead(0);
+          failed(job, "read", e);
+        }
+      }
+    }
+
+    private void convertLoop() {
+      try {
+        Job job;
+        while ((job = convertQueue.take()) != end) {
+          try {
+            job.imageSet = processor.process(ImageSource.of(job.content), job.source.getName());
+            job.content = null;
+            writeQueue.put(job);
+          } catch (InterruptedException e) {
+            throw e;
+          } catch (Throwable e) {
+            failed(job, "convert", e);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void writeLoop() {
+      try {
+        Job job;
+        while ((job = writeQueue.take()) != end) {
+          try {
+            write(job, job.imageSet.getNormalImage(), "-main");
+            write(job, job.imageSet.getThumbImage(), "-thumb");
+            result.addSuccess();
+          } catch (Throwable e) {
+            failed(job, "write", e);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Reject a relative path that resolves outside the output directory.
+     */
+    private void checkRelativePath(Job job) throws IOException {
+      Path base = outputDirectory.toPath().toAbsolutePath().normalize();
+      if (!base.resolve(job.relativePath).normalize().startsWith(base)) {
+        throw new IOException("Path " + job.relativePath + " is outside the output directory " + outputDirectory);
+      }
+    }
+
+    private void write(Job job, ImageFileDetail image, String suffix) throws IOException {
+      if (image == null) {
+        return;
+      }
+      File file = outputFile(job, image, suffix);
+      File dir = file.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+        throw new IOException("Unable to create directory " + dir);
+      }
+      try (OutputStream out = new FileOutputStream(file)) {
+        out.write(image.getContent());
+      }
+      result.addWritten(image.getContent().length);
+    }
+
+    private File outputFile(Job job, ImageFileDetail image, String suffix) {
+      String relative = job.relativePath;
+      int lastSlash = Math.max(relative.lastIndexOf('/'), relative.lastIndexOf(File.separatorChar));
+      String dir = (lastSlash < 0) ? "" : relative.substring(0, lastSlash + 1);
+      return new File(outputDirectory, dir + job.imageSet.getSourceName() + suffix + "." + image.getExtension());
+    }
+
+    private void failed(Job job, String stage, Throwable e) {
+      log.warn("batch {} failed for {}: {}", stage, job.source, e.toString());
+      result.addFailure(job.source, stage, e);
+    }
+  }
+}
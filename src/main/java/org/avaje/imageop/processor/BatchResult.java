@@ -0,0 +1,154 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outcome of a batch run with throughput and the failure of each file that
+ * could not be processed.
+ */
+public class BatchResult {
+
+  private final AtomicInteger total = new AtomicInteger();
+
+  private final AtomicInteger succeeded = new AtomicInteger();
+
+  private final AtomicLong bytesRead = new AtomicLong();
+
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  private final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+
+  private volatile long elapsedNanos;
+
+  void addRead(long bytes) {
+    total.incrementAndGet();
+    bytesRead.addAndGet(bytes);
+  }
+
+  void addWritten(long bytes) {
+    bytesWritten.addAndGet(bytes);
+  }
+
+  void addSuccess() {
+    succeeded.incrementAndGet();
+  }
+
+  void addFailure(File file, String stage, Throwable error) {
+    failures.add(new Failure(file, stage, error));
+  }
+
+  void setElapsedNanos(long elapsedNanos) {
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Return the number of files read (or that failed to be read).
+   */
+  public int getTotal() {
+    return Math.max(total.get(), succeeded.get() + failures.size());
+  }
+
+  /**
+   * Return the number of files processed and written successfully.
+   */
+  public int getSucceeded() {
+    return succeeded.get();
+  }
+
+  /**
+   * Return the failures (one per file that failed).
+   */
+  public List<Failure> getFailures() {
+    synchronized (failures) {
+      return new ArrayList<Failure>(failures);
+    }
+  }
+
+  /**
+   * Return the total bytes of the source images read.
+   */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /**
+   * Return the total bytes of the images written.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * Return the elapsed time of the batch in milliseconds.
+   */
+  public long getElapsedMillis() {
+    return elapsedNanos / 1000000;
+  }
+
+  /**
+   * Return the number of source images processed per second.
+   */
+  public double getImagesPerSecond() {
+    return (elapsedNanos == 0) ? 0 : getSucceeded() * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * Return the source megabytes processed per second.
+   */
+  public double getMegabytesPerSecond() {
+    return (elapsedNanos == 0) ? 0 : bytesRead.get() * 1e9 / elapsedNanos / (1024 * 1024);
+  }
+
+  public String toString() {
+    return String.format("processed %d of %d images (%d failed) in %d ms, %.1f images/sec %.1f MB/sec", getSucceeded(), getTotal(),
+        failures.size(), getElapsedMillis(), getImagesPerSecond(), getMegabytesPerSecond());
+  }
+
+  /**
+   * A file that failed in one of the stages.
+   */
+  public static class Failure {
+
+    private final File file;
+
+    private final String stage;
+
+    private final Throwable error;
+
+    Failure(File file, String stage, Throwable error) {
+      this.file = file;
+      this.stage = stage;
+      this.error = error;
+    }
+
+    /**
+     * Return the source file.
+     */
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Return the stage that failed (list, read, convert or write).
+     */
+    public String getStage() {
+      return stage;
+    }
+
+    /**
+     * Return the cause of the failure.
+     */
+    public Throwable getError() {
+      return error;
+    }
+
+    public String toString() {
+      return stage + " failed for " + file + ": " + error;
+    }
+  }
+}
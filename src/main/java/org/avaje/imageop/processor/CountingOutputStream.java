@@ -0,0 +1,42 @@
+package org.avaje.imageop.processor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a caller supplied stream.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+  private long count;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  /**
+   * Return the number of bytes written.
+   */
+  long getCount() {
+    return count;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    count++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    count += len;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // the caller owns the stream so only flush it
+    flush();
+  }
+}
@@ -0,0 +1,454 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A disk cache of converted images keyed by a hash of the source image bytes
+ * and the processing parameters.
+ * <p>
+ * Identical uploads (logos, re-uploads, shared assets) then reuse the images
+ * converted the first time. The cache is bounded by the total bytes of the
+ * cached images evicting the least recently used entries.
+ * </p>
+ * <p>
+ * Each image of an entry is stored in its own file named
+ * <code>key_count_role_WxH.ext</code> (in a sub directory named by the first 2
+ * characters of the key). Everything the in memory index needs is in the file
+ * names so it is rebuilt at startup from a directory listing without reading
+ * any files. An entry is only indexed when all of its (count) images are
+ * present and the last modified time of the files gives the LRU order.
+ * </p>
+ */
+public class DerivativeCache {
+
+  private static final Logger log = LoggerFactory.getLogger(DerivativeCache.class);
+
+  private final File directory;
+
+  private final long maxBytes;
+
+  /**
+   * Access ordered index of the entries.
+   */
+  private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+  private long totalBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create the cache in the directory rebuilding the index of existing
+   * entries.
+   *
+   * @param directory
+   *          the directory the images are stored in
+   * @param maxBytes
+   *          the maximum total bytes of the cached images
+   */
+  public DerivativeCache(File directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create cache directory " + directory);
+    }
+    rebuild();
+  }
+
+  /**
+   * Return the cache key for the source image and the processing parameters.
+   */
+  public String key(ImageSource source, String parameters) throws IOException {
+    MessageDigest digest = sha256();
+    if (source.isFile()) {
+      try (InputStream in = source.openStream()) {
+        byte[] buffer = new byte[16 * 1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, len);
+        }
+      }
+    } else {
+      digest.update(source.getContent());
+    }
+    digest.update((byte) 0);
+    digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Return the cached images for the key or null if not cached.
+   */
+  public List<Derivative> get(String key) {
+    Entry entry;
+    synchronized (index) {
+      entry = index.get(key);
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    // persist the LRU order for the next rebuild
+    entry.derivatives.get(0).file.setLastModified(System.currentTimeMillis());
+    return entry.derivatives;
+  }
+
+  /**
+   * Put the converted images into the cache evicting least recently used
+   * entries when the cache exceeds its maximum size.
+   * <p>
+   * Each derivative provides its content in memory or in a file (which is
+   * copied).
+   * </p>
+   */
+  public void put(String key, List<Derivative> derivatives) throws IOException {
+
+    if (derivatives.isEmpty()) {
+      return;
+    }
+    File dir = new File(directory, key.substring(0, 2));
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Unable to create cache directory " + dir);
+    }
+    List<Derivative> cached = new ArrayList<Derivative>(derivatives.size());
+    long bytes = 0;
+    for (Derivative derivative : derivatives) {
+      File file = new File(dir, fileName(key, derivatives.size(), derivative));
+      File temp = File.createTempFile(key, ".tmp", dir);
+      try {
+        if (derivative.content != null) {
+          Files.write(temp.toPath(), derivative.content);
+        } else {
+          Files.copy(derivative.file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        temp.delete();
+      }
+      Derivative c = new Derivative(derivative.role, derivative.extension, derivative.width, derivative.height, file);
+      bytes += c.length;
+      cached.add(c);
+    }
+
+    List<Entry> evicted = new ArrayList<Entry>();
+    synchronized (index) {
+      Entry previous = index.put(key, new Entry(key, cached, bytes));
+      if (previous != null) {
+        totalBytes -= previous.bytes;
+      }
+      totalBytes += bytes;
+      Iterator<Entry> it = index.values().iterator();
+      while (totalBytes > maxBytes && it.hasNext()) {
+        Entry eldest = it.next();
+        if (eldest.key.equals(key)) {
+          break;
+        }
+        it.remove();
+        totalBytes -= eldest.bytes;
+        evicted.add(eldest);
+      }
+    }
+    for (Entry entry : evicted) {
+      evictions.incrementAndGet();
+      for (Derivative derivative : entry.derivatives) {
+        derivative.file.delete();
+      }
+    }
+  }
+
+  /**
+   * Rebuild the index from the file names in the cache directory.
+   */
+  private void rebuild() {
+
+    Map<String, List<Derivative>> groups = new HashMap<String, List<Derivative>>();
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    File[] dirs = directory.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    for (File dir : dirs) {
+      File[] files = dir.isDirectory() ? dir.listFiles() : null;
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        String name = file.getName();
+        if (name.endsWith(".tmp")) {
+          // incomplete write
+          file.delete();
+          continue;
+        }
+        String[] parts = parseFileName(name);
+        if (parts == null) {
+          continue;
+        }
+        String key = parts[0];
+        int x = parts[3].indexOf('x');
+        Derivative derivative = new Derivative(parts[2], parts[4], Integer.parseInt(parts[3].substring(0, x)),
+            Integer.parseInt(parts[3].substring(x + 1)), file);
+        List<Derivative> group = groups.get(key);
+        if (group == null) {
+          group = new ArrayList<Derivative>();
+          groups.put(key, group);
+          counts.put(key, Integer.valueOf(parts[1]));
+        }
+        group.add(derivative);
+      }
+    }
+
+    List<Entry> entries = new ArrayList<Entry>(groups.size());
+    for (Map.Entry<String, List<Derivative>> group : groups.entrySet()) {
+      List<Derivative> derivatives = group.getValue();
+      if (derivatives.size() != counts.get(group.getKey())) {
+        // incomplete entry
+        for (Derivative derivative : derivatives) {
+          derivative.file.delete();
+        }
+        continue;
+      }
+      Collections.sort(derivatives, new Comparator<Derivative>() {
+        public int compare(Derivative o1, Derivative o2) {
+          return o1.role.compareTo(o2.role);
+        }
+      });
+      long bytes = 0;
+      long lastUsed = 0;
+      for (Derivative derivative : derivatives) {
+        bytes += derivative.length;
+        lastUsed = Math.max(lastUsed, derivative.file.lastModified());
+      }
+      Entry entry = new Entry(group.getKey(), derivatives, bytes);
+      entry.lastUsed = lastUsed;
+      entries.add(entry);
+    }
+
+    Collections.sort(entries, new Comparator<Entry>() {
+      public int compare(Entry o1, Entry o2) {
+        return Long.compare(o1.lastUsed, o2.lastUsed);
+      }
+    });
+    synchronized (index) {
+      for (Entry entry : entries) {
+        index.put(entry.key, entry);
+        totalBytes += entry.bytes;
+      }
+    }
+    log.debug("rebuilt derivative cache index with {} entries {} bytes", entries.size(), totalBytes);
+  }
+
+  private static String fileName(String key, int count, Derivative derivative) {
+    return key + "_" + count + "_" + derivative.role + "_" + derivative.width + "x" + derivative.height + "." + derivative.extension;
+  }
+
+  /**
+   * Return the key, count, role, size and extension parsed from a file name or
+   * null if it is not a cache file.
+   */
+  private static String[] parseFileName(String name) {
+    int dot = name.lastIndexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    String[] parts = name.substring(0, dot).split("_");
+    if (parts.length != 4 || parts[0].length() != 64 || !parts[3].matches("\\d+x\\d+") || !parts[1].matches("\\d+")) {
+      return null;
+    }
+    return new String[] { parts[0], parts[1], parts[2], parts[3], name.substring(dot + 1) };
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Return the number of cached entries.
+   */
+  public int size() {
+    synchronized (index) {
+      return index.size();
+    }
+  }
+
+  /**
+   * Return the total bytes of the cached images.
+   */
+  public long getTotalBytes() {
+    synchronized (index) {
+      return totalBytes;
+    }
+  }
+
+  /**
+   * Return the maximum total bytes of the cached images.
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Return the number of cache hits.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Return the number of cache misses.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Return the number of entries evicted.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * A converted image to put into the cache or held by the cache.
+   */
+  public static class Derivative {
+
+    private final String role;
+
+    private final String extension;
+
+    private final int width;
+
+    private final int height;
+
+    private final byte[] content;
+
+    private final File file;
+
+    private final long length;
+
+    /**
+     * Create with the image content held in memory.
+     */
+    public Derivative(String role, String extension, int width, int height, byte[] content) {
+      this.role = checkName(role);
+      this.extension = checkName(extension);
+      this.width = width;
+      this.height = height;
+      this.content = content;
+      this.file = null;
+      this.length = content.length;
+    }
+
+    /**
+     * Create with the image content in a file.
+     */
+    public Derivative(String role, String extension, int width, int height, File file) {
+      this.role = checkName(role);
+      this.extension = checkName(extension);
+      this.width = width;
+      this.height = height;
+      this.content = null;
+      this.file = file;
+      this.length = file.length();
+    }
+
+    private static String checkName(String value) {
+      if (value.isEmpty() || value.indexOf('_') > -1 || value.indexOf('.') > -1 || value.indexOf('/') > -1) {
+        throw new IllegalArgumentException("Invalid role or extension " + value);
+      }
+      return value;
+    }
+
+    /**
+     * Return the role of the image (like main or thumb).
+     */
+    public String getRole() {
+      return role;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * Return the file holding the image (null for content held in memory).
+     */
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Return the image content held in memory (null for an image in a file).
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * Return the size of the image in bytes.
+     */
+    public long getLength() {
+      return length;
+    }
+  }
+
+  private static class Entry {
+
+    final String key;
+
+    final List<Derivative> derivatives;
+
+    final long bytes;
+
+    long lastUsed;
+
+    Entry(String key, List<Derivative> derivatives, long bytes) {
+      this.key = key;
+      this.derivatives = Collections.unmodifiableList(derivatives);
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package org.avaje.imageop.processor;
+
+/**
+ * Options used to encode an output image (quality, progressive, chroma
+ * subsampling, metadata stripping and PNG compression).
+ * <p>
+ * Options are immutable with each with method returning a copy. Options left
+ * unset use the encoder default so that {@link #DEFAULT} produces the same
+ * output as when no options are given.
+ * </p>
+ *
+ * <pre>{@code
+ *
+ * processor.setThumbEncoderOptions(EncoderOptions.DEFAULT
+ *   .withQuality(80)
+ *   .withProgressive(true)
+ *   .withChromaSubsampling(EncoderOptions.ChromaSubsampling.S420)
+ *   .withStrip(true)
+ *   .withMaxBytes(20 * 1024));
+ *
+ * }</pre>
+ */
+public class EncoderOptions {
+
+  /**
+   * The options that leave the encoder defaults.
+   */
+  public static final EncoderOptions DEFAULT = new EncoderOptions(0, null, null, false, -1, 0, 40);
+
+  /**
+   * The JPEG chroma subsampling.
+   */
+  public enum ChromaSubsampling {
+
+    /**
+     * Chroma halved horizontally and vertically (smallest).
+     */
+    S420("4:2:0", 2, 2),
+
+    /**
+     * Chroma halved horizontally.
+     */
+    S422("4:2:2", 2, 1),
+
+    /**
+     * No chroma subsampling (best colour detail).
+     */
+    S444("4:4:4", 1, 1);
+
+    private final String factor;
+    private final int horizontal;
+    private final int vertical;
+
+    ChromaSubsampling(String factor, int horizontal, int vertical) {
+      this.factor = factor;
+      this.horizontal = horizontal;
+      this.vertical = vertical;
+    }
+
+    /**
+     * Return the ImageMagick sampling factor (like 4:2:0).
+     */
+    public String getFactor() {
+      return factor;
+    }
+
+    /**
+     * Return the horizontal sampling factor of the luma component.
+     */
+    public int getHorizontal() {
+      return horizontal;
+    }
+
+    /**
+     * Return the vertical sampling factor of the luma component.
+     */
+    public int getVertical() {
+      return vertical;
+    }
+  }
+
+  private final int quality;
+
+  private final Boolean progressive;
+
+  private final ChromaSubsampling chromaSubsampling;
+
+  private final boolean strip;
+
+  private final int pngCompressionLevel;
+
+  private final long maxBytes;
+
+  private final int minQuality;
+
+  private EncoderOptions(int quality, Boolean progressive, ChromaSubsampling chromaSubsampling, boolean strip, int pngCompressionLevel,
+      long maxBytes, int minQuality) {
+    this.quality = quality;
+    this.progressive = progressive;
+    this.chromaSubsampling = chromaSubsampling;
+    this.strip = strip;
+    this.pngCompressionLevel = pngCompressionLevel;
+    this.maxBytes = maxBytes;
+    this.minQuality = minQuality;
+  }
+
+  public String toString() {
+    return "q:" + quality + " progressive:" + progressive + " sampling:" + chromaSubsampling + " strip:" + strip + " png:"
+        + pngCompressionLevel + " maxBytes:" + maxBytes + " minQuality:" + minQuality;
+  }
+
+  /**
+   * Return true if all the options are the encoder defaults.
+   */
+  public boolean isDefault() {
+    return quality == 0 && progressive == null && chromaSubsampling == null && !strip && pngCompressionLevel < 0 && maxBytes <= 0;
+  }
+
+  /**
+   * Return a copy with the JPEG quality (1 to 100, 0 for the encoder default).
+   */
+  public EncoderOptions withQuality(int quality) {
+    if (quality < 0 || quality > 100) {
+      throw new IllegalArgumentException("Invalid quality " + quality);
+    }
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return a copy writing progressive JPEG (interlaced PNG) when true or
+   * baseline JPEG (non interlaced PNG) when false.
+   */
+  public EncoderOptions withProgressive(boolean progressive) {
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return a copy with the JPEG chroma subsampling (null for the encoder
+   * default).
+   */
+  public EncoderOptions withChromaSubsampling(ChromaSubsampling chromaSubsampling) {
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return a copy that strips profiles, comments and embedded thumbnails (like
+   * EXIF and ICC) from the output.
+   */
+  public EncoderOptions withStrip(boolean strip) {
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return a copy with the PNG compression level (0 to 9, -1 for the encoder
+   * default).
+   */
+  public EncoderOptions withPngCompressionLevel(int pngCompressionLevel) {
+    if (pngCompressionLevel < -1 || pngCompressionLevel > 9) {
+      throw new IllegalArgumentException("Invalid PNG compression level " + pngCompressionLevel);
+    }
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return a copy with a byte budget for JPEG output (0 for none).
+   * <p>
+   * The highest JPEG quality (up to the quality or 90 when not set) that
+   * encodes the image within the budget is searched for. When even the
+   * minimum quality exceeds the budget the image is encoded at the minimum
+   * quality. The budget does not apply to lossless formats like PNG.
+   * </p>
+   */
+  public EncoderOptions withMaxBytes(long maxBytes) {
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, Math.max(0, maxBytes), minQuality);
+  }
+
+  /**
+   * Return a copy with the lowest quality used when searching for a quality
+   * within the byte budget (defaults to 40).
+   */
+  public EncoderOptions withMinQuality(int minQuality) {
+    if (minQuality < 1 || minQuality > 100) {
+      throw new IllegalArgumentException("Invalid minimum quality " + minQuality);
+    }
+    return new EncoderOptions(quality, progressive, chromaSubsampling, strip, pngCompressionLevel, maxBytes, minQuality);
+  }
+
+  /**
+   * Return the JPEG quality (0 for the encoder default).
+   */
+  public int getQuality() {
+    return quality;
+  }
+
+  /**
+   * Return true for progressive, false for baseline or null for the encoder
+   * default.
+   */
+  public Boolean getProgressive() {
+    return progressive;
+  }
+
+  /**
+   * Return the JPEG chroma subsampling (null for the encoder default).
+   */
+  public ChromaSubsampling getChromaSubsampling() {
+    return chromaSubsampling;
+  }
+
+  /**
+   * Return true if metadata is stripped from the output.
+   */
+  public boolean isStrip() {
+    return strip;
+  }
+
+  /**
+   * Return the PNG compression level (-1 for the encoder default).
+   */
+  public int getPngCompressionLevel() {
+    return pngCompressionLevel;
+  }
+
+  /**
+   * Return the JPEG byte budget (0 for none).
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Return the lowest quality used when searching within the byte budget.
+   */
+  public int getMinQuality() {
+    return minQuality;
+  }
+
+  /**
+   * Return the highest quality tried when searching within the byte budget.
+   */
+  int maxQuality() {
+    return (quality > 0) ? quality : 90;
+  }
+}
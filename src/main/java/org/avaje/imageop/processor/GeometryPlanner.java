@@ -0,0 +1,55 @@
+package org.avaje.imageop.processor;
+
+import org.avaje.imageop.filter.GeometryPlan;
+
+/**
+ * Plans the crop, scale and padding of an image for a ConvertMode.
+ * <p>
+ * This is shared by the engines so that the output image dimensions are known
+ * before the image is converted. The plans follow the ImageMagick convert
+ * options used by the ImageMagickEngine.
+ * </p>
+ */
+public final class GeometryPlanner {
+
+  private GeometryPlanner() {
+  }
+
+  /**
+   * Plan the main image which is only ever shrunk to fit the width and height.
+   */
+  public static GeometryPlan planMain(int sourceWidth, int sourceHeight, int width, int height) {
+    return GeometryPlan.fit(sourceWidth, sourceHeight, width, height, false);
+  }
+
+  /**
+   * Plan a thumbnail image using the given mode.
+   */
+  public static GeometryPlan plan(int sourceWidth, int sourceHeight, ConvertMode mode, int width, int height) {
+
+    switch (mode) {
+    case Crop:
+      // -thumbnail WxH^ -gravity center -extent WxH
+      return GeometryPlan.cover(sourceWidth, sourceHeight, width, height);
+    case Pad:
+      // -thumbnail WxH -gravity center -extent WxH
+      return GeometryPlan.fit(sourceWidth, sourceHeight, width, height, true).extent(width, height);
+    case PadArea:
+      // -thumbnail (W*H)@ -gravity center -extent WxH
+      return GeometryPlan.area(sourceWidth, sourceHeight, width, height).extent(width, height);
+    default:
+      // -thumbnail WxH
+      return GeometryPlan.fit(sourceWidth, sourceHeight, width, height, true);
+    }
+  }
+
+  /**
+   * Plan the conversion of a source image of the given size.
+   */
+  public static GeometryPlan plan(ImageConversion conversion, int sourceWidth, int sourceHeight) {
+    if (conversion.isThumbnail()) {
+      return plan(sourceWidth, sourceHeight, conversion.getMode(), conversion.getWidth(), conversion.getHeight());
+    }
+    return planMain(sourceWidth, sourceHeight, conversion.getWidth(), conversion.getHeight());
+  }
+}
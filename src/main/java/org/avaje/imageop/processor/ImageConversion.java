@@ -0,0 +1,203 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import org.avaje.imageop.filter.GeometryPlan;
+
+/**
+ * A conversion of the original image into an output image file or stream.
+ * <p>
+ * The main image is a conversion using ConvertMode.Max that only shrinks the
+ * image and is not auto oriented. Thumbnail conversions are auto oriented and
+ * use the ConvertMode of the ImageProcessor.
+ * </p>
+ */
+public class ImageConversion {
+
+  /**
+   * The file the converted image is written to (null when written to a stream).
+   */
+  private final File file;
+
+  /**
+   * The stream the converted image is written to (null when written to a file).
+   */
+  private final OutputStream output;
+
+  /**
+   * The file extension (image format) of the converted image.
+   */
+  private final String extension;
+
+  /**
+   * The target width.
+   */
+  private final int width;
+
+  /**
+   * The target height.
+   */
+  private final int height;
+
+  /**
+   * The mode used to fit the image to the width and height.
+   */
+  private final ConvertMode mode;
+
+  /**
+   * True for a thumbnail conversion.
+   */
+  private final boolean thumbnail;
+
+  /**
+   * The background colour used with modes that pad the image.
+   */
+  private final String background;
+
+  /**
+   * The planned geometry (null when the source image size is not known).
+   */
+  private final GeometryPlan plan;
+
+  /**
+   * The role of the output image (null for main or thumb).
+   */
+  private final String role;
+
+  /**
+   * The options used to encode the output image.
+   */
+  private final EncoderOptions encoderOptions;
+
+  /**
+   * Create a conversion.
+   */
+  public ImageConversion(File file, String extension, int width, int height, ConvertMode mode, boolean thumbnail, String background) {
+    this(file, extension, width, height, mode, thumbnail, background, null);
+  }
+
+  /**
+   * Create a conversion with the planned geometry.
+   */
+  public ImageConversion(File file, String extension, int width, int height, ConvertMode mode, boolean thumbnail, String background, GeometryPlan plan) {
+    this(file, null, extension, width, height, mode, thumbnail, background, plan, null, EncoderOptions.DEFAULT);
+  }
+
+  /**
+   * Create a conversion writing the image to a stream. The stream is not
+   * closed by the engine.
+   */
+  public ImageConversion(OutputStream output, String extension, int width, int height, ConvertMode mode, boolean thumbnail, String background, GeometryPlan plan) {
+    this(null, output, extension, width, height, mode, thumbnail, background, plan, null, EncoderOptions.DEFAULT);
+  }
+
+  private ImageConversion(File file, OutputStream output, String extension, int width, int height, ConvertMode mode, boolean thumbnail, String background, GeometryPlan plan, String role, EncoderOptions encoderOptions) {
+    this.file = file;
+    this.output = output;
+    this.extension = extension;
+    this.width = width;
+    this.height = height;
+    this.mode = mode;
+    this.thumbnail = thumbnail;
+    this.background = background;
+    this.plan = plan;
+    this.role = role;
+    this.encoderOptions = (encoderOptions == null) ? EncoderOptions.DEFAULT : encoderOptions;
+  }
+
+  public String toString() {
+    return (thumbnail ? "thumb " : "main ") + mode + " " + width + "x" + height + " " + extension;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Return the stream the image is written to (null when written to the file).
+   */
+  public OutputStream getOutput() {
+    return output;
+  }
+
+  /**
+   * Return a copy of this conversion written to the file instead.
+   */
+  public ImageConversion withFile(File file) {
+    return new ImageConversion(file, null, extension, width, height, mode, thumbnail, background, plan, role, encoderOptions);
+  }
+
+  /**
+   * Return a copy of this conversion written to the stream instead.
+   */
+  public ImageConversion withOutput(OutputStream output) {
+    return new ImageConversion(null, output, extension, width, height, mode, thumbnail, background, plan, role, encoderOptions);
+  }
+
+  /**
+   * Return a copy of this conversion with the given role (like r-name for a
+   * rendition).
+   */
+  public ImageConversion withRole(String role) {
+    return new ImageConversion(file, output, extension, width, height, mode, thumbnail, background, plan, role, encoderOptions);
+  }
+
+  /**
+   * Return a copy of this conversion encoded using the options.
+   */
+  public ImageConversion withEncoderOptions(EncoderOptions encoderOptions) {
+    return new ImageConversion(file, output, extension, width, height, mode, thumbnail, background, plan, role, encoderOptions);
+  }
+
+  /**
+   * Return the options used to encode the output image.
+   */
+  public EncoderOptions getEncoderOptions() {
+    return encoderOptions;
+  }
+
+  /**
+   * Return the role of the output image (main, thumb or r-name for a
+   * rendition).
+   */
+  public String getRole() {
+    if (role != null) {
+      return role;
+    }
+    return thumbnail ? "thumb" : "main";
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public ConvertMode getMode() {
+    return mode;
+  }
+
+  public boolean isThumbnail() {
+    return thumbnail;
+  }
+
+  public String getBackground() {
+    return background;
+  }
+
+  /**
+   * Return the planned geometry which gives the output image size. This is null
+   * when the size of the original image is not known.
+   */
+  public GeometryPlan getPlan() {
+    return plan;
+  }
+
+}
@@ -0,0 +1,45 @@
+package org.avaje.imageop.processor;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Engine that performs the image conversions for an ImageProcessor.
+ * <p>
+ * The default engine is {@link ImageMagickEngine} which runs the ImageMagick
+ * convert command. {@link JavaImageEngine} performs the conversions in process
+ * using ImageIO and the filter operations.
+ * </p>
+ */
+public interface ImageEngine {
+
+  /**
+   * Convert the original image writing each of the conversions to its file or
+   * stream.
+   */
+  void convert(ImageSource source, List<ImageConversion> conversions) throws IOException;
+
+  /**
+   * Convert the original image notifying the listener of the stages performed
+   * by the engine (like decoding and each conversion).
+   * <p>
+   * By default the listener is not notified.
+   * </p>
+   */
+  default void convert(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+    convert(source, conversions);
+  }
+
+  /**
+   * Return a description of the engine settings that change the converted
+   * images. This is part of the derivative cache key so that images cached
+   * using other settings are not returned.
+   * <p>
+   * By default this is the class name.
+   * </p>
+   */
+  default String cacheKey() {
+    return getClass().getName();
+  }
+
+}
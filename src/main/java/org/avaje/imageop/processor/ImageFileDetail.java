@@ -37,6 +37,11 @@ public class ImageFileDetail {
    */
   File file;
 
+  /**
+   * The image content when it is held in memory rather than in a file.
+   */
+  byte[] content;
+
   public boolean deleteFile() {
     if (file != null){
       return file.delete();
@@ -91,4 +96,16 @@ public class ImageFileDetail {
   public void setFile(File file) {
     this.file = file;
   }
+
+  /**
+   * Return the image content when it is held in memory (null for images
+   * written to a file or a caller supplied stream).
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  public void setContent(byte[] content) {
+    this.content = content;
+  }
 }
@@ -1,9 +1,15 @@
 package org.avaje.imageop.processor;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
  * Set of image details potentially containing a thumbnail image, scaled image and the original image.
+ * <p>
+ * When the ImageProcessor has a RenditionSet the set also contains an image per rendition.
+ * </p>
  */
 public class ImageFileSet {
 
@@ -14,12 +20,26 @@ public class ImageFileSet {
   private final ImageFileDetail normalImage;
   private final ImageFileDetail originalImage;
 
+  private final Map<String, ImageFileDetail> renditions;
+
   public ImageFileSet(String sourceName, String sourceExtension, ImageFileDetail thumbImage, ImageFileDetail normalImage, ImageFileDetail originalImage) {
+    this(sourceName, sourceExtension, thumbImage, normalImage, originalImage, null);
+  }
+
+  /**
+   * Create with the images of the renditions keyed by rendition name.
+   */
+  public ImageFileSet(String sourceName, String sourceExtension, ImageFileDetail thumbImage, ImageFileDetail normalImage, ImageFileDetail originalImage, Map<String, ImageFileDetail> renditions) {
     this.sourceName = sourceName;
     this.sourceExtension = sourceExtension;
     this.normalImage = normalImage;
     this.thumbImage = thumbImage;
     this.originalImage = originalImage;
+    if (renditions == null) {
+      this.renditions = Collections.emptyMap();
+    } else {
+      this.renditions = Collections.unmodifiableMap(new LinkedHashMap<String, ImageFileDetail>(renditions));
+    }
   }
 
   public boolean deleteFiles() {
@@ -30,6 +50,9 @@ public class ImageFileSet {
     if (thumbImage != null){
       deleteOk &= thumbImage.deleteFile();
     }
+    for (ImageFileDetail rendition : renditions.values()) {
+      deleteOk &= rendition.deleteFile();
+    }
     return deleteOk;
   } 
 
@@ -52,5 +75,19 @@ public class ImageFileSet {
   public ImageFileDetail getOriginalImage() {
     return originalImage;
   }
+
+  /**
+   * Return the images of the renditions keyed by rendition name (in the order of the RenditionSet).
+   */
+  public Map<String, ImageFileDetail> getRenditions() {
+    return renditions;
+  }
+
+  /**
+   * Return the image of the named rendition or null.
+   */
+  public ImageFileDetail getRendition(String name) {
+    return renditions.get(name);
+  }
   
 }
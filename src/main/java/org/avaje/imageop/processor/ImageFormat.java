@@ -0,0 +1,42 @@
+package org.avaje.imageop.processor;
+
+/**
+ * Image formats that can be detected from the leading (magic) bytes of a file.
+ */
+public enum ImageFormat {
+
+  JPEG("jpg", "jpeg", "jpe"),
+
+  PNG("png"),
+
+  GIF("gif"),
+
+  TIFF("tiff", "tif"),
+
+  BMP("bmp");
+
+  private final String[] extensions;
+
+  ImageFormat(String... extensions) {
+    this.extensions = extensions;
+  }
+
+  /**
+   * Return the default file extension for the format.
+   */
+  public String getExtension() {
+    return extensions[0];
+  }
+
+  /**
+   * Return true if the file extension is one used for this format.
+   */
+  public boolean matches(String extension) {
+    for (String e : extensions) {
+      if (e.equalsIgnoreCase(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,163 @@
+package org.avaje.imageop.processor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
+
+/**
+ * Encodes images using an ImageIO writer configured by the EncoderOptions.
+ * <p>
+ * ImageIO does not copy the metadata of the original (EXIF, ICC profiles or
+ * embedded thumbnails) into the output so images are always stripped.
+ * </p>
+ */
+final class ImageIOEncoder {
+
+  private static final Logger log = LoggerFactory.getLogger(ImageIOEncoder.class);
+
+  private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+  private ImageIOEncoder() {
+  }
+
+  static boolean isJpeg(String extension) {
+    return "jpg".equalsIgnoreCase(extension) || "jpeg".equalsIgnoreCase(extension);
+  }
+
+  static boolean isPng(String extension) {
+    return "png".equalsIgnoreCase(extension);
+  }
+
+  /**
+   * Encode the image writing it to the stream (which is not closed).
+   */
+  static void write(BufferedImage image, String extension, EncoderOptions options, OutputStream out) throws IOException {
+    if (options.getMaxBytes() > 0 && isJpeg(extension)) {
+      out.write(encodeWithin(image, extension, options));
+    } else {
+      encode(image, extension, options, options.getQuality(), out);
+    }
+  }
+
+  /**
+   * Return the image encoded at the highest quality that is within the byte
+   * budget (or at the minimum quality when none are).
+   */
+  static byte[] encodeWithin(BufferedImage image, String extension, EncoderOptions options) throws IOException {
+
+    long maxBytes = options.getMaxBytes();
+    int low = options.getMinQuality();
+    int high = Math.max(low, options.maxQuality());
+
+    // the highest quality often fits
+    byte[] bytes = encode(image, extension, options, high);
+    if (bytes.length <= maxBytes) {
+      return bytes;
+    }
+    byte[] best = null;
+    byte[] lowest = null;
+    high--;
+    while (low <= high) {
+      int quality = (low + high) >>> 1;
+      bytes = encode(image, extension, options, quality);
+      if (bytes.length <= maxBytes) {
+        best = bytes;
+        low = quality + 1;
+      } else {
+        if (quality == options.getMinQuality()) {
+          lowest = bytes;
+        }
+        high = quality - 1;
+      }
+    }
+    if (best != null) {
+      return best;
+    }
+    if (lowest == null) {
+      lowest = encode(image, extension, options, options.getMinQuality());
+    }
+    log.debug("image of {} bytes at quality {} exceeds the budget of {} bytes", lowest.length, options.getMinQuality(), maxBytes);
+    return lowest;
+  }
+
+  private static byte[] encode(BufferedImage image, String extension, EncoderOptions options, int quality) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    encode(image, extension, options, quality, buffer);
+    return buffer.toByteArray();
+  }
+
+  private static void encode(BufferedImage image, String extension, EncoderOptions options, int quality, OutputStream out)
+      throws IOException {
+
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(extension);
+    if (!writers.hasNext()) {
+      throw new IOException("No ImageIO writer for image format " + extension);
+    }
+    ImageWriter writer = writers.next();
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      if (param.canWriteCompressed()) {
+        if (isJpeg(extension) && quality > 0) {
+          param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+          param.setCompressionQuality(quality / 100f);
+        } else if (isPng(extension) && options.getPngCompressionLevel() >= 0) {
+          param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+          param.setCompressionQuality((9 - options.getPngCompressionLevel()) / 9f);
+        }
+      }
+      if (options.getProgressive() != null && param.canWriteProgressive()) {
+        param.setProgressiveMode(options.getProgressive() ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+      }
+      IIOMetadata metadata = null;
+      if (options.getChromaSubsampling() != null && isJpeg(extension)) {
+        metadata = subsampling(writer, image, param, options.getChromaSubsampling());
+      }
+      ImageOutputStream output = ImageIO.createImageOutputStream(out);
+      try {
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, metadata), param);
+      } finally {
+        output.close();
+      }
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * Return JPEG metadata with the sampling factors of the chroma subsampling.
+   */
+  private static IIOMetadata subsampling(ImageWriter writer, BufferedImage image, ImageWriteParam param,
+      EncoderOptions.ChromaSubsampling sampling) throws IOException {
+
+    IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+    IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA);
+    NodeList specs = root.getElementsByTagName("componentSpec");
+    if (specs.getLength() < 3) {
+      // grayscale has no chroma
+      return null;
+    }
+    for (int i = 0; i < specs.getLength(); i++) {
+      IIOMetadataNode spec = (IIOMetadataNode) specs.item(i);
+      spec.setAttribute("HsamplingFactor", String.valueOf((i == 0) ? sampling.getHorizontal() : 1));
+      spec.setAttribute("VsamplingFactor", String.valueOf((i == 0) ? sampling.getVertical() : 1));
+    }
+    metadata.setFromTree(JPEG_METADATA, root);
+    return metadata;
+  }
+}
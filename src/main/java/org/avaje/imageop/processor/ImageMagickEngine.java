@@ -0,0 +1,451 @@
+package org.avaje.imageop.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.avaje.imageop.filter.GeometryPlan;
+import org.im4java.core.ConvertCmd;
+import org.im4java.core.IMOperation;
+import org.im4java.process.Pipe;
+
+/**
+ * ImageEngine that uses the ImageMagick convert command via im4java.
+ * <p>
+ * Sources held in memory are piped to convert via stdin and an image written
+ * to a stream is read from stdout. Only when a single convert process writes
+ * several images to streams are temporary files used for all but the last.
+ * </p>
+ * <p>
+ * With a {@link ImageMagickWorkerPool} the conversions are run by long lived
+ * ImageMagick processes rather than a convert process per conversion. Workers
+ * read and write files so content held in memory and images written to streams
+ * then use temporary files.
+ * </p>
+ */
+public class ImageMagickEngine implements ImageEngine {
+
+  /**
+   * When true all the conversions are produced by a single convert process
+   * decoding the original image once.
+   */
+  private boolean singleConvert;
+
+  /**
+   * When set conversions are run by the pooled ImageMagick workers.
+   */
+  private ImageMagickWorkerPool workerPool;
+
+  /**
+   * Return true if all the images are produced by a single convert process.
+   */
+  public boolean isSingleConvert() {
+    return singleConvert;
+  }
+
+  /**
+   * Set to true to produce the main and thumbnail images using a single convert
+   * process. The original image is then decoded once rather than once per
+   * output image.
+   */
+  public void setSingleConvert(boolean singleConvert) {
+    this.singleConvert = singleConvert;
+  }
+
+  /**
+   * Return the pool of ImageMagick workers (null when a convert process is
+   * started per conversion).
+   */
+  public ImageMagickWorkerPool getWorkerPool() {
+    return workerPool;
+  }
+
+  /**
+   * Set the pool of long lived ImageMagick workers used to run the conversions.
+   */
+  public void setWorkerPool(ImageMagickWorkerPool workerPool) {
+    this.workerPool = workerPool;
+  }
+
+  /**
+   * Include singleConvert which changes the decode size hint.
+   */
+  @Override
+  public String cacheKey() {
+    return getClass().getName() + ":single=" + singleConvert;
+  }
+
+  @Override
+  public void convert(ImageSource source, List<ImageConversion> conversions) throws IOException {
+    convert(source, conversions, ProcessingListener.NONE);
+  }
+
+  @Override
+  public void convert(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+
+    if (workerPool == null) {
+      convertImages(source, conversions, listener);
+      return;
+    }
+
+    // workers read and write files
+    List<File> tempFiles = new ArrayList<File>();
+    try {
+      ImageSource fileSource = source;
+      if (!source.isFile()) {
+        ImageProbe probe = source.probe();
+        File temp = source.createTempFile((probe == null) ? "tmp" : probe.getFormat().getExtension(), null);
+        tempFiles.add(temp);
+        fileSource = ImageSource.of(temp);
+      }
+      List<ImageConversion> fileConversions = toFiles(conversions, conversions.size(), tempFiles);
+      convertImages(fileSource, fileConversions, listener);
+      copyOutputs(conversions, fileConversions);
+    } finally {
+      for (File temp : tempFiles) {
+        temp.delete();
+      }
+    }
+  }
+
+  private void convertImages(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+
+    if (singleConvert && conversions.size() > 1) {
+      convertSingle(source, conversions, listener);
+    } else {
+      for (ImageConversion conversion : conversions) {
+        StageTimer timer = StageTimer.start(listener, ProcessingStage.CONVERT, conversion);
+        try {
+          if (conversion.isThumbnail()) {
+            convertThumbImage(source, conversion, listener);
+          } else {
+            convertMainImage(source, conversion, listener);
+          }
+        } catch (Throwable e) {
+          timer.failed(e);
+          throw e;
+        }
+        timer.completed(written(conversion), pixels(conversion));
+      }
+    }
+  }
+
+  /**
+   * Return the size of the image written to a file (0 for a stream).
+   */
+  private static long written(ImageConversion conversion) {
+    File file = conversion.getFile();
+    return (file == null) ? 0 : file.length();
+  }
+
+  /**
+   * Return the planned number of pixels of the image (0 when not known).
+   */
+  private static long pixels(ImageConversion conversion) {
+    GeometryPlan plan = conversion.getPlan();
+    return (plan == null) ? 0 : (long) plan.getWidth() * plan.getHeight();
+  }
+
+  /**
+   * Decode the original once producing all the images.
+   */
+  private void convertSingle(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+
+    // only the last image can be written to stdout
+    List<File> tempFiles = new ArrayList<File>();
+    try {
+      int last = conversions.size() - 1;
+      List<ImageConversion> fileConversions = toFiles(conversions, last, tempFiles);
+      StageTimer timer = StageTimer.start(listener, ProcessingStage.PROCESS);
+      try {
+        runConvert(createSingleOperation(source, fileConversions), source, conversions.get(last).getOutput());
+      } catch (Throwable e) {
+        timer.failed(e);
+        throw e;
+      }
+      long bytes = 0;
+      long pixels = 0;
+      for (ImageConversion conversion : fileConversions) {
+        bytes += written(conversion);
+        pixels += pixels(conversion);
+      }
+      timer.completed(bytes, pixels);
+      copyOutputs(conversions, fileConversions);
+    } finally {
+      for (File temp : tempFiles) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Return the conversions with the first count of those written to a stream
+   * changed to write to a temporary file instead.
+   */
+  private List<ImageConversion> toFiles(List<ImageConversion> conversions, int count, List<File> tempFiles) throws IOException {
+    List<ImageConversion> fileConversions = new ArrayList<ImageConversion>(conversions);
+    for (int i = 0; i < count; i++) {
+      ImageConversion conversion = conversions.get(i);
+      if (conversion.getFile() == null) {
+        File temp = File.createTempFile("imageop-", "." + conversion.getExtension());
+        tempFiles.add(temp);
+        fileConversions.set(i, conversion.withFile(temp));
+      }
+    }
+    return fileConversions;
+  }
+
+  /**
+   * Copy the images written to temporary files to their streams.
+   */
+  private void copyOutputs(List<ImageConversion> conversions, List<ImageConversion> fileConversions) throws IOException {
+    for (int i = 0; i < conversions.size(); i++) {
+      ImageConversion conversion = conversions.get(i);
+      if (conversion.getFile() == null && fileConversions.get(i).getFile() != null) {
+        copy(fileConversions.get(i).getFile(), conversion.getOutput());
+      }
+    }
+  }
+
+  private void convertMainImage(ImageSource source, ImageConversion main, ProcessingListener listener) throws IOException {
+
+    IMOperation op = new IMOperation();
+    op.addImage(input(source));
+    addMainOptions(op, main);
+    addEncoderOptions(op, main);
+    op.addImage(output(main));
+    runConvert(op, source, main, listener);
+  }
+
+  private void convertThumbImage(ImageSource source, ImageConversion thumb, ProcessingListener listener) throws IOException {
+
+    IMOperation op = new IMOperation();
+    op.addRawArgs("-define", deriveThumbDefine(thumb));
+    op.addImage(input(source));
+    addThumbOptions(op, thumb);
+    addEncoderOptions(op, thumb);
+    op.addImage(output(thumb));
+    runConvert(op, source, thumb, listener);
+  }
+
+  /**
+   * Return the input image argument (stdin for content held in memory).
+   */
+  private String input(ImageSource source) {
+    return source.isFile() ? source.getFile().getAbsolutePath() : "-";
+  }
+
+  /**
+   * Return the output image argument (stdout with an explicit format for a
+   * stream).
+   */
+  private String output(ImageConversion conversion) {
+    File file = conversion.getFile();
+    return (file != null) ? file.getAbsolutePath() : conversion.getExtension() + ":-";
+  }
+
+  /**
+   * Create a single operation that decodes the original once and writes all
+   * the conversions.
+   * <p>
+   * Each conversion other than the last is applied to a clone of the decoded
+   * original and written with -write (inside parentheses so that the options
+   * only apply to the clone). The last conversion is applied to the original.
+   * This means the main image is still not auto oriented, the same as when
+   * converted on its own.
+   * </p>
+   * <p>
+   * When encoder options are given -respect-parentheses is used so that the
+   * options of each clone do not apply to the images that follow.
+   * </p>
+   */
+  IMOperation createSingleOperation(ImageSource source, List<ImageConversion> conversions) {
+
+    IMOperation op = new IMOperation();
+    for (ImageConversion conversion : conversions) {
+      if (!conversion.getEncoderOptions().isDefault()) {
+        op.addRawArgs("-respect-parentheses");
+        break;
+      }
+    }
+    op.addRawArgs("-define", deriveSingleDefine(conversions));
+    op.addImage(input(source));
+
+    int last = conversions.size() - 1;
+    for (int i = 0; i < last; i++) {
+      ImageConversion conversion = conversions.get(i);
+      op.openOperation();
+      op.addRawArgs("+clone");
+      addOptions(op, conversion);
+      addEncoderOptions(op, conversion);
+      op.addRawArgs("-write", conversion.getFile().getAbsolutePath());
+      op.addRawArgs("+delete");
+      op.closeOperation();
+    }
+
+    ImageConversion conversion = conversions.get(last);
+    addOptions(op, conversion);
+    addEncoderOptions(op, conversion);
+    op.addImage(output(conversion));
+    return op;
+  }
+
+  private void addOptions(IMOperation op, ImageConversion conversion) {
+    if (conversion.isThumbnail()) {
+      addThumbOptions(op, conversion);
+    } else {
+      addMainOptions(op, conversion);
+    }
+  }
+
+  private void addMainOptions(IMOperation op, ImageConversion main) {
+    // resize if the image is bigger than the width or height, original size if smaller
+    op.resize(main.getWidth(), main.getHeight(), ">");
+  }
+
+  private void addThumbOptions(IMOperation op, ImageConversion thumb) {
+
+    int thumbWidth = thumb.getWidth();
+    int thumbHeight = thumb.getHeight();
+    ConvertMode thumbMode = thumb.getMode();
+
+    op.addRawArgs("-auto-orient");
+
+    if (thumbMode == ConvertMode.PadArea) {
+      op.addRawArgs("-thumbnail", (thumbWidth * thumbHeight) + "@");
+    } else {
+      String option = (thumbMode == ConvertMode.Crop) ? "^" : null;
+      op.thumbnail(thumbWidth, thumbHeight, option);
+    }
+
+    // sharpen the image a little bit
+    //op.addRawArgs("-unsharp","0x.5");
+
+    if (thumbMode.hasBackground()) {
+      op.addRawArgs("-background", thumb.getBackground());
+    }
+
+    if (thumbMode.hasExtent()) {
+      op.addRawArgs("-gravity", "center");
+      op.addRawArgs("-extent", thumbWidth + "x" + thumbHeight);
+    }
+  }
+
+  /**
+   * Run the operation for a single conversion timing the process.
+   */
+  private void runConvert(IMOperation op, ImageSource source, ImageConversion conversion, ProcessingListener listener) throws IOException {
+    StageTimer timer = StageTimer.start(listener, ProcessingStage.PROCESS, conversion);
+    try {
+      runConvert(op, source, conversion.getOutput());
+    } catch (Throwable e) {
+      timer.failed(e);
+      throw e;
+    }
+    timer.completed(written(conversion), pixels(conversion));
+  }
+
+  /**
+   * Add the encoder options of the conversion.
+   * <p>
+   * The byte budget uses the jpeg:extent define where ImageMagick searches for
+   * the quality (so the minimum quality does not apply). PNG uses the
+   * compression level rather than the quality.
+   * </p>
+   */
+  void addEncoderOptions(IMOperation op, ImageConversion conversion) {
+
+    EncoderOptions options = conversion.getEncoderOptions();
+    if (options.isDefault()) {
+      return;
+    }
+    boolean jpeg = ImageIOEncoder.isJpeg(conversion.getExtension());
+    boolean png = ImageIOEncoder.isPng(conversion.getExtension());
+    if (options.isStrip()) {
+      op.addRawArgs("-strip");
+    }
+    if (options.getQuality() > 0 && !png) {
+      op.addRawArgs("-quality", String.valueOf(options.getQuality()));
+    }
+    if (options.getPngCompressionLevel() >= 0 && png) {
+      op.addRawArgs("-define", "png:compression-level=" + options.getPngCompressionLevel());
+    }
+    if (options.getProgressive() != null) {
+      op.addRawArgs("-interlace", options.getProgressive() ? "Plane" : "None");
+    }
+    if (options.getChromaSubsampling() != null && jpeg) {
+      op.addRawArgs("-sampling-factor", options.getChromaSubsampling().getFactor());
+    }
+    if (options.getMaxBytes() > 0 && jpeg) {
+      op.addRawArgs("-define", "jpeg:extent=" + options.getMaxBytes());
+    }
+  }
+
+  private void runConvert(IMOperation op, ImageSource source, OutputStream stdout) throws IOException {
+    if (workerPool != null) {
+      workerPool.convert(op.getCmdArgs());
+      return;
+    }
+    try {
+      ConvertCmd cmd = new ConvertCmd();
+      if (!source.isFile()) {
+        cmd.setInputProvider(new Pipe(new ByteArrayInputStream(source.getContent()), null));
+      }
+      if (stdout != null) {
+        cmd.setOutputConsumer(new Pipe(null, stdout));
+      }
+      cmd.run(op);
+    } catch (Exception e) {
+      throw new IOException("Error trying to generate thumbnail image", e);
+    }
+  }
+
+  private void copy(File file, OutputStream out) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Set an initial size to 2 times the final thumb image width and height.
+   */
+  protected String deriveThumbDefine(ImageConversion thumb) {
+    return "jpeg:size=" + (thumb.getWidth() * 2) + "x" + (thumb.getHeight() * 2);
+  }
+
+  /**
+   * Return the size hint used when all the images are produced from a single
+   * decode.
+   * <p>
+   * This is {@link #deriveThumbDefine(ImageConversion)} for a size covering
+   * every conversion (including the main image) so that each output keeps at
+   * least 2 times its size of decoded detail, the same as a thumbnail
+   * converted on its own.
+   * </p>
+   */
+  protected String deriveSingleDefine(List<ImageConversion> conversions) {
+    ImageConversion first = conversions.get(0);
+    int width = 0;
+    int height = 0;
+    for (ImageConversion conversion : conversions) {
+      width = Math.max(width, conversion.getWidth());
+      height = Math.max(height, conversion.getHeight());
+    }
+    ImageConversion covering = new ImageConversion((File) null, first.getExtension(), width, height, first.getMode(), true,
+        first.getBackground()).withRole("single");
+    return deriveThumbDefine(covering);
+  }
+
+}
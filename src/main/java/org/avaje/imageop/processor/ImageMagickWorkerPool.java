@@ -0,0 +1,458 @@
+package org.avaje.imageop.processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of long lived ImageMagick processes that each run a stream of
+ * conversions read from stdin (<code>magick -script -</code>).
+ * <p>
+ * This avoids the fork/exec and ImageMagick startup (delegate and config
+ * loading) per conversion and bounds the number of ImageMagick processes to
+ * the pool size. Callers wait for a worker when all are busy.
+ * </p>
+ * <p>
+ * Each conversion is written to the worker as a line of script. The convert
+ * arguments are wrapped in parentheses (with -respect-parentheses so that
+ * settings do not leak into the next conversion), the last argument is written
+ * with -write and the worker then prints a marker line that tells the pool the
+ * conversion has completed. The image list is then cleared. A conversion fails
+ * when ImageMagick reports an error (warnings are logged). The error output of a
+ * worker is merged with its output so messages are read before the marker.
+ * </p>
+ * <p>
+ * The marker must not be held in a stdout buffer so the default command runs
+ * the worker with <code>stdbuf -oL</code> (line buffered output) when stdbuf is
+ * available.
+ * </p>
+ * <p>
+ * Workers are recycled after a number of conversions (limiting the impact of
+ * any leaks), health checked with a marker only script when they have been idle
+ * and destroyed when a conversion fails or times out.
+ * </p>
+ */
+public class ImageMagickWorkerPool {
+
+  private static final Logger log = LoggerFactory.getLogger(ImageMagickWorkerPool.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String MARKER = "@@imageop:";
+
+  private final List<String> command;
+
+  private final int size;
+
+  private final Semaphore permits;
+
+  private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+
+  private final AtomicLong jobCounter = new AtomicLong();
+
+  private final AtomicLong started = new AtomicLong();
+
+  private final AtomicLong recycled = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private int maxJobsPerWorker = 500;
+
+  private long jobTimeoutMillis = 60000;
+
+  private long healthCheckIdleMillis = 30000;
+
+  private volatile boolean shutdown;
+
+  /**
+   * Create a pool running <code>magick -script -</code> with a worker per
+   * available processor.
+   */
+  public ImageMagickWorkerPool() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a pool running <code>magick -script -</code> with the given
+   * maximum number of workers.
+   */
+  public ImageMagickWorkerPool(int size) {
+    this(size, defaultCommand());
+  }
+
+  /**
+   * Return the default worker command which is <code>magick -script -</code>
+   * run with line buffered output when stdbuf is available.
+   */
+  public static List<String> defaultCommand() {
+    List<String> command = new ArrayList<String>();
+    for (String stdbuf : new String[] { "/usr/bin/stdbuf", "/bin/stdbuf", "/usr/local/bin/stdbuf" }) {
+      if (new File(stdbuf).canExecute()) {
+        command.add(stdbuf);
+        command.add("-oL");
+        break;
+      }
+    }
+    command.addAll(Arrays.asList("magick", "-script", "-"));
+    return command;
+  }
+
+  /**
+   * Create a pool with the given maximum number of workers and the command
+   * used to start a worker (which reads script from stdin).
+   */
+  public ImageMagickWorkerPool(int size, List<String> command) {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be at least 1");
+    }
+    this.size = size;
+    this.command = new ArrayList<String>(command);
+    this.permits = new Semaphore(size, true);
+  }
+
+  /**
+   * Return the maximum number of workers.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Return the number of conversions a worker runs before it is replaced.
+   */
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
+  /**
+   * Set the number of conversions a worker runs before it is replaced (defaults
+   * to 500).
+   */
+  public void setMaxJobsPerWorker(int maxJobsPerWorker) {
+    this.maxJobsPerWorker = maxJobsPerWorker;
+  }
+
+  /**
+   * Return the time allowed for a conversion in milliseconds.
+   */
+  public long getJobTimeoutMillis() {
+    return jobTimeoutMillis;
+  }
+
+  /**
+   * Set the time allowed for a conversion in milliseconds (defaults to 60
+   * seconds). A worker that does not complete in time is destroyed.
+   */
+  public void setJobTimeoutMillis(long jobTimeoutMillis) {
+    this.jobTimeoutMillis = jobTimeoutMillis;
+  }
+
+  /**
+   * Return the idle time after which a worker is health checked before use.
+   */
+  public long getHealthCheckIdleMillis() {
+    return healthCheckIdleMillis;
+  }
+
+  /**
+   * Set the idle time in milliseconds after which a worker is health checked
+   * before it is used (defaults to 30 seconds, 0 to check before every use).
+   */
+  public void setHealthCheckIdleMillis(long healthCheckIdleMillis) {
+    this.healthCheckIdleMillis = healthCheckIdleMillis;
+  }
+
+  /**
+   * Return the number of worker processes started.
+   */
+  public long getStartedCount() {
+    return started.get();
+  }
+
+  /**
+   * Return the number of workers replaced after reaching maxJobsPerWorker.
+   */
+  public long getRecycledCount() {
+    return recycled.get();
+  }
+
+  /**
+   * Return the number of workers destroyed due to a failure, timeout or failed
+   * health check.
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Return the number of idle workers.
+   */
+  public int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Run the convert arguments (input images, options and the output image as
+   * the last argument) on a pooled worker.
+   */
+  public void convert(List<String> args) throws IOException {
+
+    if (args.isEmpty()) {
+      throw new IllegalArgumentException("No convert arguments");
+    }
+    if (shutdown) {
+      throw new IOException("ImageMagickWorkerPool has been shutdown");
+    }
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for an ImageMagick worker", e);
+    }
+    try {
+      Worker worker = obtain();
+      boolean ok = false;
+      try {
+        String marker = MARKER + jobCounter.incrementAndGet();
+        worker.jobs++;
+        worker.run(script(args, marker), marker, jobTimeoutMillis);
+        ok = true;
+      } finally {
+        release(worker, ok);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Stop all the idle workers and reject further conversions.
+   */
+  public void shutdown() {
+    shutdown = true;
+    Worker worker;
+    while ((worker = idle.poll()) != null) {
+      worker.stop();
+    }
+  }
+
+  private Worker obtain() throws IOException {
+    Worker worker;
+    while ((worker = idle.poll()) != null) {
+      if (healthy(worker)) {
+        return worker;
+      }
+      failed.incrementAndGet();
+      worker.destroy();
+    }
+    started.incrementAndGet();
+    return new Worker(command);
+  }
+
+  private boolean healthy(Worker worker) {
+    if (!worker.isAlive()) {
+      return false;
+    }
+    if (System.currentTimeMillis() - worker.lastUsed < healthCheckIdleMillis) {
+      return true;
+    }
+    try {
+      String marker = MARKER + jobCounter.incrementAndGet();
+      worker.run(printMarker(marker), marker, jobTimeoutMillis);
+      return true;
+    } catch (IOException e) {
+      log.warn("ImageMagick worker failed health check", e);
+      return false;
+    }
+  }
+
+  private void release(Worker worker, boolean ok) {
+    if (!ok || !worker.isAlive()) {
+      failed.incrementAndGet();
+      worker.destroy();
+    } else if (shutdown) {
+      worker.stop();
+    } else if (worker.jobs >= maxJobsPerWorker) {
+      recycled.incrementAndGet();
+      worker.stop();
+    } else {
+      idle.add(worker);
+    }
+  }
+
+  /**
+   * Return the line of script for the convert arguments ending by printing the
+   * marker.
+   */
+  static String script(List<String> args, String marker) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("-respect-parentheses (");
+    int last = args.size() - 1;
+    for (int i = 0; i < last; i++) {
+      sb.append(' ').append(quote(args.get(i)));
+    }
+    sb.append(" -write ").append(quote(args.get(last)));
+    sb.append(" ) ").append(printMarker(marker)).append(" -delete 0--1");
+    return sb.toString();
+  }
+
+  private static String printMarker(String marker) {
+    return "-print " + quote(marker + "\\n");
+  }
+
+  /**
+   * Quote a script token when it contains whitespace, quotes, backslashes or
+   * the comment character.
+   */
+  static String quote(String token) {
+    boolean plain = !token.isEmpty();
+    for (int i = 0; plain && i < token.length(); i++) {
+      char c = token.charAt(i);
+      plain = !Character.isWhitespace(c) && c != '"' && c != '\'' && c != '\\' && c != '#';
+    }
+    if (plain) {
+      return token;
+    }
+    if (token.endsWith("\\n") && token.indexOf('"') == -1) {
+      // escape sequence interpreted by -print
+      return "\"" + token + "\"";
+    }
+    StringBuilder sb = new StringBuilder(token.length() + 4).append('"');
+    for (int i = 0; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * A long lived ImageMagick process reading script from stdin.
+   */
+  private static class Worker {
+
+    private final Process process;
+
+    private final Writer stdin;
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+    private final StringBuilder messages = new StringBuilder();
+
+    private int jobs;
+
+    private long lastUsed = System.currentTimeMillis();
+
+    Worker(List<String> command) throws IOException {
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectErrorStream(true);
+      this.process = builder.start();
+      this.stdin = new OutputStreamWriter(process.getOutputStream(), UTF8);
+      readOutput();
+    }
+
+    boolean isAlive() {
+      try {
+        process.exitValue();
+        return false;
+      } catch (IllegalThreadStateException e) {
+        return true;
+      }
+    }
+
+    /**
+     * Send the script and wait for the worker to print the marker.
+     */
+    void run(String script, String marker, long timeoutMillis) throws IOException {
+      messages.setLength(0);
+      lines.clear();
+      stdin.write(script);
+      stdin.write('\n');
+      stdin.flush();
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      try {
+        while (true) {
+          long wait = deadline - System.currentTimeMillis();
+          String line = (wait <= 0) ? null : lines.poll(wait, TimeUnit.MILLISECONDS);
+          if (line == null) {
+            throw new IOException("ImageMagick worker timed out after " + timeoutMillis + " millis " + messages);
+          }
+          if (line.equals(MARKER + "eof")) {
+            throw new IOException("ImageMagick worker exited " + messages);
+          }
+          if (line.endsWith(marker)) {
+            break;
+          }
+          messages.append(line).append('\n');
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for ImageMagick worker", e);
+      } finally {
+        lastUsed = System.currentTimeMillis();
+      }
+      String output = messages.toString().trim();
+      if (output.length() > 0) {
+        if (output.contains("@ error/") || output.contains("@ fatal")) {
+          throw new IOException("ImageMagick error: " + output);
+        }
+        log.warn("ImageMagick: {}", output);
+      }
+    }
+
+    /**
+     * Ask the worker to exit once it has completed any script.
+     */
+    void stop() {
+      try {
+        stdin.close();
+      } catch (IOException e) {
+        process.destroy();
+      }
+    }
+
+    void destroy() {
+      process.destroy();
+    }
+
+    /**
+     * Read the output of the worker into the lines queue.
+     */
+    private void readOutput() {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+              lines.add(line);
+            }
+          } catch (IOException e) {
+            log.trace("ImageMagick worker stream closed", e);
+          } finally {
+            lines.add(MARKER + "eof");
+          }
+        }
+      }, "imageop-magick-worker");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+}
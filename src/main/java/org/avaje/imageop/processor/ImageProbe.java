@@ -0,0 +1,328 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads the format, dimensions and EXIF orientation of an image from its
+ * headers without decoding the image.
+ * <p>
+ * The format is detected from the leading (magic) bytes rather than the file
+ * name. Only the headers are read (for JPEG the markers before the first frame
+ * are skipped rather than read) so probing a large image costs a few small
+ * reads rather than a full decode.
+ * </p>
+ */
+public final class ImageProbe {
+
+  /**
+   * The EXIF orientation tag.
+   */
+  private static final int TAG_ORIENTATION = 274;
+
+  private static final int TAG_WIDTH = 256;
+
+  private static final int TAG_HEIGHT = 257;
+
+  /**
+   * Maximum number of bytes of a JPEG APP1 segment read to find the orientation.
+   */
+  private static final int MAX_EXIF_READ = 4096;
+
+  private final ImageFormat format;
+  private final int width;
+  private final int height;
+  private final int orientation;
+
+  private ImageProbe(ImageFormat format, int width, int height, int orientation) {
+    this.format = format;
+    this.width = width;
+    this.height = height;
+    this.orientation = (orientation < 1 || orientation > 8) ? 1 : orientation;
+  }
+
+  /**
+   * Probe the image file returning null if the format is not recognised.
+   */
+  public static ImageProbe probe(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return probe(new FileInput(raf));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Probe the image content returning null if the format is not recognised.
+   */
+  public static ImageProbe probe(byte[] content) throws IOException {
+    return probe(new ArrayInput(content));
+  }
+
+  private static ImageProbe probe(Input in) throws IOException {
+
+    byte[] b = new byte[26];
+    int len = in.read(0, b, 0, b.length);
+    if (len < 8) {
+      return null;
+    }
+    if (u8(b, 0) == 0xFF && u8(b, 1) == 0xD8 && u8(b, 2) == 0xFF) {
+      return probeJpeg(in);
+    }
+    if (u8(b, 0) == 0x89 && b[1] == 'P' && b[2] == 'N' && b[3] == 'G' && len >= 24) {
+      // IHDR is always the first chunk
+      return new ImageProbe(ImageFormat.PNG, s32(b, 16, false), s32(b, 20, false), 1);
+    }
+    if (b[0] == 'G' && b[1] == 'I' && b[2] == 'F' && b[3] == '8' && len >= 10) {
+      return new ImageProbe(ImageFormat.GIF, u16(b, 6, true), u16(b, 8, true), 1);
+    }
+    if (b[0] == 'B' && b[1] == 'M' && len >= 26) {
+      return probeBmp(b);
+    }
+    if ((b[0] == 'I' && b[1] == 'I' && b[2] == 42 && b[3] == 0) || (b[0] == 'M' && b[1] == 'M' && b[2] == 0 && b[3] == 42)) {
+      int[] tags = readTiffTags(in, 0);
+      return (tags == null) ? null : new ImageProbe(ImageFormat.TIFF, tags[0], tags[1], tags[2]);
+    }
+    return null;
+  }
+
+  private static ImageProbe probeBmp(byte[] b) {
+    int headerSize = s32(b, 14, true);
+    if (headerSize == 12) {
+      // OS/2 BITMAPCOREHEADER
+      return new ImageProbe(ImageFormat.BMP, u16(b, 18, true), u16(b, 20, true), 1);
+    }
+    // height is negative for top down bitmaps
+    return new ImageProbe(ImageFormat.BMP, s32(b, 18, true), Math.abs(s32(b, 22, true)), 1);
+  }
+
+  /**
+   * Walk the JPEG markers up to the first frame header reading the
+   * orientation from an EXIF APP1 segment along the way.
+   */
+  private static ImageProbe probeJpeg(Input in) throws IOException {
+
+    int orientation = 1;
+    byte[] b = new byte[9];
+    long pos = 2;
+    while (true) {
+      if (in.read(pos, b, 0, 4) < 4) {
+        return null;
+      }
+      if (u8(b, 0) != 0xFF) {
+        return null;
+      }
+      int marker = u8(b, 1);
+      if (marker == 0xFF) {
+        // fill byte
+        pos++;
+        continue;
+      }
+      if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+        // standalone marker without a length
+        pos += 2;
+        continue;
+      }
+      if (marker == 0xD9 || marker == 0xDA) {
+        // end of image or start of scan before any frame header
+        return null;
+      }
+      int segmentLength = u16(b, 2, false);
+      if (isStartOfFrame(marker)) {
+        if (in.read(pos + 4, b, 0, 5) < 5) {
+          return null;
+        }
+        return new ImageProbe(ImageFormat.JPEG, u16(b, 3, false), u16(b, 1, false), orientation);
+      }
+      if (marker == 0xE1 && orientation == 1) {
+        orientation = readExifOrientation(in, pos + 4, segmentLength - 2);
+      }
+      pos += 2 + segmentLength;
+    }
+  }
+
+  private static boolean isStartOfFrame(int marker) {
+    return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+  }
+
+  private static int readExifOrientation(Input in, long pos, int length) throws IOException {
+    byte[] b = new byte[6];
+    if (length < 14 || in.read(pos, b, 0, 6) < 6) {
+      return 1;
+    }
+    if (b[0] != 'E' || b[1] != 'x' || b[2] != 'i' || b[3] != 'f' || b[4] != 0 || b[5] != 0) {
+      return 1;
+    }
+    byte[] tiff = new byte[Math.min(length - 6, MAX_EXIF_READ)];
+    int len = in.read(pos + 6, tiff, 0, tiff.length);
+    if (len < tiff.length) {
+      return 1;
+    }
+    int[] tags = readTiffTags(new ArrayInput(tiff), 0);
+    return (tags == null) ? 1 : tags[2];
+  }
+
+  /**
+   * Read the width, height and orientation tags of the first IFD of a TIFF
+   * structure (a TIFF file or the EXIF data of a JPEG).
+   */
+  private static int[] readTiffTags(Input in, long base) throws IOException {
+
+    byte[] b = new byte[12];
+    if (in.read(base, b, 0, 8) < 8) {
+      return null;
+    }
+    boolean little = b[0] == 'I';
+    long ifd = base + (s32(b, 4, little) & 0xFFFFFFFFL);
+    if (in.read(ifd, b, 0, 2) < 2) {
+      return null;
+    }
+    int entries = u16(b, 0, little);
+    int[] tags = { 0, 0, 1 };
+    for (int i = 0; i < entries; i++) {
+      if (in.read(ifd + 2 + i * 12, b, 0, 12) < 12) {
+        break;
+      }
+      int tag = u16(b, 0, little);
+      int type = u16(b, 2, little);
+      // SHORT values are left justified in the value field
+      int value = (type == 3) ? u16(b, 8, little) : s32(b, 8, little);
+      if (tag == TAG_WIDTH) {
+        tags[0] = value;
+      } else if (tag == TAG_HEIGHT) {
+        tags[1] = value;
+      } else if (tag == TAG_ORIENTATION) {
+        tags[2] = value;
+      }
+    }
+    return tags;
+  }
+
+  private static int u8(byte[] b, int off) {
+    return b[off] & 0xFF;
+  }
+
+  private static int u16(byte[] b, int off, boolean little) {
+    if (little) {
+      return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+    return (b[off] & 0xFF) << 8 | (b[off + 1] & 0xFF);
+  }
+
+  private static int s32(byte[] b, int off, boolean little) {
+    if (little) {
+      return u16(b, off, true) | u16(b, off + 2, true) << 16;
+    }
+    return u16(b, off, false) << 16 | u16(b, off + 2, false);
+  }
+
+  /**
+   * Return the format detected from the magic bytes.
+   */
+  public ImageFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * Return the width of the image as stored (before any orientation).
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the height of the image as stored (before any orientation).
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the EXIF orientation (1 to 8, 1 being the normal orientation).
+   */
+  public int getOrientation() {
+    return orientation;
+  }
+
+  /**
+   * Return true if the width and height are swapped when the image is auto
+   * oriented (orientations 5 to 8).
+   */
+  public boolean isTransposed() {
+    return orientation >= 5;
+  }
+
+  /**
+   * Return the width of the image after auto orientation.
+   */
+  public int getOrientedWidth() {
+    return isTransposed() ? height : width;
+  }
+
+  /**
+   * Return the height of the image after auto orientation.
+   */
+  public int getOrientedHeight() {
+    return isTransposed() ? width : height;
+  }
+
+  public String toString() {
+    return format + " " + width + "x" + height + " orientation:" + orientation;
+  }
+
+  /**
+   * Positional reads of the image content.
+   */
+  private interface Input {
+
+    /**
+     * Read up to len bytes at the position returning the number of bytes read.
+     */
+    int read(long pos, byte[] buffer, int off, int len) throws IOException;
+  }
+
+  private static class FileInput implements Input {
+
+    private final RandomAccessFile file;
+
+    FileInput(RandomAccessFile file) {
+      this.file = file;
+    }
+
+    public int read(long pos, byte[] buffer, int off, int len) throws IOException {
+      if (pos < 0 || pos >= file.length()) {
+        return 0;
+      }
+      file.seek(pos);
+      int total = 0;
+      while (total < len) {
+        int count = file.read(buffer, off + total, len - total);
+        if (count < 0) {
+          break;
+        }
+        total += count;
+      }
+      return total;
+    }
+  }
+
+  private static class ArrayInput implements Input {
+
+    private final byte[] content;
+
+    ArrayInput(byte[] content) {
+      this.content = content;
+    }
+
+    public int read(long pos, byte[] buffer, int off, int len) {
+      if (pos < 0 || pos >= content.length) {
+        return 0;
+      }
+      int count = (int) Math.min(len, content.length - pos);
+      System.arraycopy(content, (int) pos, buffer, off, count);
+      return count;
+    }
+  }
+}
@@ -1,16 +1,24 @@
 package org.avaje.imageop.processor;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 
-import org.im4java.core.ConvertCmd;
-import org.im4java.core.IMOperation;
+import org.avaje.imageop.filter.GeometryPlan;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +72,41 @@ public class ImageProcessor {
    * The default main image format when it is not a png or jpg image (like a tiff).
    */
   private String defaultMainImageExtension = "jpg";
+
+  /**
+   * The engine that performs the conversions.
+   */
+  private ImageEngine imageEngine = new DefaultImageMagickEngine();
+
+  /**
+   * Caps the concurrency of processAsync (created with defaults when first used).
+   */
+  private ProcessingQueue processingQueue;
+
+  /**
+   * Optional cache of converted images keyed by the source bytes and parameters.
+   */
+  private DerivativeCache derivativeCache;
+
+  /**
+   * Optional renditions produced in addition to the main and thumbnail images.
+   */
+  private RenditionSet renditions;
+
+  /**
+   * Notified of the stages of processing each image.
+   */
+  private ProcessingListener processingListener = ProcessingListener.NONE;
+
+  /**
+   * The options used to encode the main image (and renditions without options).
+   */
+  private EncoderOptions mainEncoderOptions = EncoderOptions.DEFAULT;
+
+  /**
+   * The options used to encode the thumbnail image.
+   */
+  private EncoderOptions thumbEncoderOptions = EncoderOptions.DEFAULT;
   
   /**
    * Create the ImageProcessor with no thumbnail and system temporary directory.
@@ -102,15 +145,278 @@ public class ImageProcessor {
   /**
    * Process the file scaling and cropping as required producing a thumbnail and scaled version of the image.
    * The ImageSet returned contains the original image file and thumbnail and scaled versions of the image.
+   * <p>
+   * The thumbnail and scaled images are written to temporary files.
+   * </p>
+   */
+  public ImageFileSet process(File originalFile, String uploadFileName) throws IOException {
+    return process(ImageSource.of(originalFile), uploadFileName, true, null, null);
+  }
+
+  /**
+   * Process the image content returning the thumbnail and scaled images in memory
+   * (see {@link ImageFileDetail#getContent()}).
+   */
+  public ImageFileSet process(byte[] content, String uploadFileName) throws IOException {
+    return process(ImageSource.of(content), uploadFileName, false, null, null);
+  }
+
+  /**
+   * Process the remaining content of the buffer returning the thumbnail and scaled
+   * images in memory.
+   */
+  public ImageFileSet process(ByteBuffer content, String uploadFileName) throws IOException {
+    return process(ImageSource.of(content), uploadFileName, false, null, null);
+  }
+
+  /**
+   * Process the image read from the stream returning the thumbnail and scaled images
+   * in memory. The stream is read fully but not closed.
+   */
+  public ImageFileSet process(InputStream in, String uploadFileName) throws IOException {
+    return process(ImageSource.of(in), uploadFileName, false, null, null);
+  }
+
+  /**
+   * Process the image returning the thumbnail and scaled images in memory.
+   */
+  public ImageFileSet process(ImageSource source, String uploadFileName) throws IOException {
+    return process(source, uploadFileName, false, null, null);
+  }
+
+  /**
+   * Process the image writing the scaled image to mainOutput and the thumbnail to
+   * thumbOutput. The streams are not closed.
+   * <p>
+   * When a stream is null that image is returned in memory instead.
+   * </p>
+   */
+  public ImageFileSet process(ImageSource source, String uploadFileName, OutputStream mainOutput, OutputStream thumbOutput) throws IOException {
+    return process(source, uploadFileName, false, mainOutput, thumbOutput);
+  }
+
+  /**
+   * Process the file asynchronously (see {@link #process(File, String)}).
+   * <p>
+   * The number of concurrent conversions and waiting conversions is bounded by
+   * the ProcessingQueue. When the queue is full the future may complete with a
+   * RejectedExecutionException (depending on the RejectionPolicy).
+   * </p>
+   */
+  public CompletableFuture<ImageFileSet> processAsync(final File originalFile, final String uploadFileName) {
+    return getProcessingQueue().submit(() -> process(originalFile, uploadFileName));
+  }
+
+  /**
+   * Process the image content asynchronously returning the images in memory.
+   */
+  public CompletableFuture<ImageFileSet> processAsync(final byte[] content, final String uploadFileName) {
+    return processAsync(ImageSource.of(content), uploadFileName);
+  }
+
+  /**
+   * Process the image asynchronously returning the images in memory.
+   */
+  public CompletableFuture<ImageFileSet> processAsync(final ImageSource source, final String uploadFileName) {
+    return getProcessingQueue().submit(() -> process(source, uploadFileName));
+  }
+
+  /**
+   * Process the image asynchronously writing the images to the streams (which
+   * are not closed).
+   */
+  public CompletableFuture<ImageFileSet> processAsync(final ImageSource source, final String uploadFileName,
+      final OutputStream mainOutput, final OutputStream thumbOutput) {
+    return getProcessingQueue().submit(() -> process(source, uploadFileName, mainOutput, thumbOutput));
+  }
+
+  /**
+   * Return the queue that bounds the concurrency of processAsync.
+   */
+  public synchronized ProcessingQueue getProcessingQueue() {
+    if (processingQueue == null) {
+      processingQueue = new ProcessingQueue();
+    }
+    return processingQueue;
+  }
+
+  /**
+   * Set the queue that bounds the concurrency of processAsync (defaults to a
+   * queue with maxConcurrent of the number of available processors).
+   */
+  public synchronized void setProcessingQueue(ProcessingQueue processingQueue) {
+    this.processingQueue = processingQueue;
+  }
+
+  /**
+   * Return the cache of converted images (null when not caching).
+   */
+  public DerivativeCache getDerivativeCache() {
+    return derivativeCache;
+  }
+
+  /**
+   * Set a cache of converted images so that the same source image processed
+   * with the same parameters reuses the images converted the first time.
+   */
+  public void setDerivativeCache(DerivativeCache derivativeCache) {
+    this.derivativeCache = derivativeCache;
+  }
+
+  /**
+   * Return the renditions produced in addition to the main and thumbnail
+   * images (null for none).
+   */
+  public RenditionSet getRenditions() {
+    return renditions;
+  }
+
+  /**
+   * Set renditions (named sizes like the widths of a responsive srcset) to
+   * produce in addition to the main and thumbnail images. These are returned
+   * by {@link ImageFileSet#getRendition(String)}.
+   */
+  public void setRenditions(RenditionSet renditions) {
+    this.renditions = renditions;
+  }
+
+  /**
+   * Return the listener notified of the processing stages.
+   */
+  public ProcessingListener getProcessingListener() {
+    return processingListener;
+  }
+
+  /**
+   * Set a listener notified as each stage of processing an image starts and
+   * completes (like {@link ProcessingMetrics}). Set to null for none.
+   */
+  public void setProcessingListener(ProcessingListener processingListener) {
+    this.processingListener = (processingListener == null) ? ProcessingListener.NONE : processingListener;
+  }
+
+  /**
+   * Return the options used to encode the main image.
+   */
+  public EncoderOptions getMainEncoderOptions() {
+    return mainEncoderOptions;
+  }
+
+  /**
+   * Set the options used to encode the main image (like quality, progressive
+   * and stripping metadata). These are also used for renditions that do not
+   * have their own options. Set to null for the encoder defaults.
+   */
+  public void setMainEncoderOptions(EncoderOptions mainEncoderOptions) {
+    this.mainEncoderOptions = (mainEncoderOptions == null) ? EncoderOptions.DEFAULT : mainEncoderOptions;
+  }
+
+  /**
+   * Return the options used to encode the thumbnail image.
+   */
+  public EncoderOptions getThumbEncoderOptions() {
+    return thumbEncoderOptions;
+  }
+
+  /**
+   * Set the options used to encode the thumbnail image (like a lower quality
+   * or a byte budget). Set to null for the encoder defaults.
+   */
+  public void setThumbEncoderOptions(EncoderOptions thumbEncoderOptions) {
+    this.thumbEncoderOptions = (thumbEncoderOptions == null) ? EncoderOptions.DEFAULT : thumbEncoderOptions;
+  }
+
+  /**
+   * Return the processing parameters that are part of the derivative cache key.
+   */
+  protected String cacheParameters(String sourceExtension) {
+    return width + "x" + height + "|" + thumbWidth + "x" + thumbHeight + "|" + thumbMode + "|" + thumbnailBackground
+        + "|" + thumbnailExtension + "|" + defaultMainImageExtension + "|" + sourceExtension + "|" + imageEngine.cacheKey()
+        + "|" + renditions + "|" + mainEncoderOptions + "|" + thumbEncoderOptions;
+  }
+
+  /**
+   * Copy the cached images to the outputs returning false if they are not
+   * available (like when evicted concurrently).
+   */
+  private boolean restore(List<DerivativeCache.Derivative> cached, List<ImageOutput> outputs) {
+    try {
+      for (ImageOutput output : outputs) {
+        DerivativeCache.Derivative derivative = null;
+        for (DerivativeCache.Derivative candidate : cached) {
+          if (candidate.getRole().equals(output.role)) {
+            derivative = candidate;
+          }
+        }
+        if (derivative == null) {
+          throw new IOException("No cached image for " + output.role);
+        }
+        output.restore(derivative);
+      }
+      return true;
+    } catch (IOException e) {
+      log.debug("cached images not available, converting", e);
+      for (ImageOutput output : outputs) {
+        output.reset();
+      }
+      return false;
+    }
+  }
+
+  private void putCache(String cacheKey, List<ImageOutput> outputs) {
+    List<DerivativeCache.Derivative> derivatives = new ArrayList<DerivativeCache.Derivative>(outputs.size());
+    for (ImageOutput output : outputs) {
+      if (output.plan == null) {
+        // output size not known
+        return;
+      }
+      derivatives.add(output.derivative());
+    }
+    try {
+      derivativeCache.put(cacheKey, derivatives);
+    } catch (IOException e) {
+      log.warn("Failed to cache converted images", e);
+    }
+  }
+
+  /**
+   * Return the number of asynchronous conversions waiting to run.
+   */
+  public int getQueueDepth() {
+    return getProcessingQueue().getQueueDepth();
+  }
+
+  /**
+   * Return the number of asynchronous conversions running.
    */
-  public ImageFileSet process(File originalFile, String uploadFileName) throws IOException {      
+  public int getInFlight() {
+    return getProcessingQueue().getInFlight();
+  }
+
+  private ImageFileSet process(ImageSource source, String uploadFileName, boolean toFiles, OutputStream mainOutput, OutputStream thumbOutput) throws IOException {
+
+    ProcessingListener listener = processingListener;
+    StageTimer timer = StageTimer.start(listener, ProcessingStage.TOTAL);
+    ImageFileSet fileSet;
+    try {
+      fileSet = process(listener, source, uploadFileName, toFiles, mainOutput, thumbOutput);
+    } catch (Throwable e) {
+      timer.failed(e);
+      throw e;
+    }
+    ImageFileDetail original = fileSet.getOriginalImage();
+    timer.completed(original.getLength(), pixels(original));
+    return fileSet;
+  }
+
+  private ImageFileSet process(ProcessingListener listener, ImageSource source, String uploadFileName, boolean toFiles, OutputStream mainOutput, OutputStream thumbOutput) throws IOException {
   
     log.debug("processing {}", uploadFileName);
 
     int lastDot = uploadFileName.lastIndexOf('.');
-    String sourceExtension = uploadFileName.substring(lastDot + 1).toLowerCase();
+    String sourceExtension = (lastDot < 0) ? "" : uploadFileName.substring(lastDot + 1).toLowerCase();
     
-    String sourceName = uploadFileName.substring(0, lastDot);
+    String sourceName = (lastDot < 0) ? uploadFileName : uploadFileName.substring(0, lastDot);
     int lastSlash = sourceName.lastIndexOf('/');
     if (lastSlash > -1) {
       sourceName = sourceName.substring(lastSlash);
@@ -120,38 +426,150 @@ public class ImageProcessor {
       sourceName = sourceName.substring(lastBackSlash);
     }
     
-    InputStream originalStream = new FileInputStream(originalFile);
+    boolean withMain = width > 0 && height > 0;
+    boolean withThumb = thumbWidth > 0 && thumbHeight > 0;
+
+    StageTimer probeTimer = StageTimer.start(listener, ProcessingStage.PROBE);
+    ImageProbe probe;
+    ImageFileDetail origImage;
     try {
-  
-      ImageFileDetail maxImage = null;
-      if (width > 0 && height > 0) {
-        // convert the main image
-        String mainExtn = deriveExtension(sourceExtension);
+      probe = source.probe();
+      sourceExtension = deriveSourceExtension(sourceExtension, probe);
+      if (probe != null) {
+        origImage = createImageFileDetail(sourceName, sourceExtension, source, probe.getWidth(), probe.getHeight());
+      } else {
+        origImage = createImageFileDetail(sourceName, sourceExtension, source);
+      }
+    } catch (Throwable e) {
+      probeTimer.failed(e);
+      throw e;
+    }
+    probeTimer.completed(origImage.getLength(), pixels(origImage));
+    int sourceWidth = origImage.getWidth();
+    int sourceHeight = origImage.getHeight();
+    boolean sourceSizeKnown = sourceWidth > 0 && sourceHeight > 0;
+
+    List<ImageConversion> conversions = new ArrayList<ImageConversion>(2);
+    List<ImageOutput> outputs = new ArrayList<ImageOutput>(2);
+
+    // thumbnails and renditions are auto oriented
+    boolean transposed = probe != null && probe.isTransposed();
+    int orientedWidth = transposed ? sourceHeight : sourceWidth;
+    int orientedHeight = transposed ? sourceWidth : sourceHeight;
+
+    ImageOutput mainImage = null;
+    if (withMain) {
+      String mainExtn = deriveExtension(sourceExtension);
+      GeometryPlan mainPlan = !sourceSizeKnown ? null : GeometryPlanner.planMain(sourceWidth, sourceHeight, width, height);
+      mainImage = new ImageOutput("main", mainExtn, mainPlan);
+      if (toFiles) {
         String mainFileName = sourceName+"-main" + width + "x" + height + "-";
-        File mainFile = File.createTempFile(mainFileName, "."+mainExtn, tempDirectory);
+        mainImage.file = File.createTempFile(mainFileName, "."+mainExtn, tempDirectory);
+      } else {
+        mainImage.stream(mainOutput, derivativeCache != null);
+      }
+      conversions.add(mainImage.conversion(width, height, ConvertMode.Max, false, null).withEncoderOptions(mainEncoderOptions));
+      outputs.add(mainImage);
+    }
 
-        convertMainImage(originalFile, mainFile);
-        maxImage = createImageFileDetail(sourceName, mainExtn, mainFile);
+    ImageOutput thumbImage = null;
+    if (withThumb) {
+      String thumbExtn = deriveThumbnailExtension(sourceExtension);
+      GeometryPlan thumbPlan = null;
+      if (sourceSizeKnown) {
+        thumbPlan = GeometryPlanner.plan(orientedWidth, orientedHeight, thumbMode, thumbWidth, thumbHeight);
       }
-  
-      ImageFileDetail thumbImage = null;
-      if (thumbWidth > 0 && thumbHeight > 0) {
-        // convert the thumbnail image
-        String thumbExtn = deriveThumbnailExtension(sourceExtension);
+      thumbImage = new ImageOutput("thumb", thumbExtn, thumbPlan);
+      if (toFiles) {
         String thumbExtra = "-thumb" + thumbWidth + "x" + thumbHeight + "-";
-        File thumbFile = File.createTempFile(sourceName+thumbExtra, "."+thumbExtn, tempDirectory);
+        thumbImage.file = File.createTempFile(sourceName+thumbExtra, "."+thumbExtn, tempDirectory);
+      } else {
+        thumbImage.stream(thumbOutput, derivativeCache != null);
+      }
+      conversions.add(thumbImage.conversion(thumbWidth, thumbHeight, thumbMode, true, thumbnailBackground).withEncoderOptions(thumbEncoderOptions));
+      outputs.add(thumbImage);
+    }
 
-        convertThumbImage(originalFile, thumbFile);
-        thumbImage = createImageFileDetail(sourceName, thumbExtn, thumbFile);
+    List<ImageOutput> renditionImages = new ArrayList<ImageOutput>();
+    if (renditions != null) {
+      for (Rendition rendition : renditions.getRenditions()) {
+        String extn = (rendition.getFormat() != null) ? rendition.getFormat() : deriveExtension(sourceExtension);
+        GeometryPlan plan = null;
+        if (sourceSizeKnown) {
+          plan = GeometryPlanner.plan(orientedWidth, orientedHeight, rendition.getMode(), rendition.getWidth(), rendition.getHeight());
+        }
+        ImageOutput output = new ImageOutput("r-" + rendition.getName(), extn, plan);
+        if (toFiles) {
+          output.file = File.createTempFile(sourceName + "-" + rendition.getName() + "-", "." + extn, tempDirectory);
+        } else {
+          output.stream(null, false);
+        }
+        EncoderOptions options = (rendition.getEncoderOptions() != null) ? rendition.getEncoderOptions() : mainEncoderOptions;
+        conversions.add(output.conversion(rendition.getWidth(), rendition.getHeight(), rendition.getMode(), true, thumbnailBackground).withEncoderOptions(options));
+        outputs.add(output);
+        renditionImages.add(output);
       }
-  
-      ImageFileDetail origImage = createImageFileDetail(sourceName, sourceExtension, originalFile);
-      
-      return new ImageFileSet(sourceName, sourceExtension, thumbImage, maxImage, origImage);
-      
-    } finally {
-      originalStream.close();
     }
+
+    if (!conversions.isEmpty()) {
+      String cacheKey = null;
+      boolean restored = false;
+      if (derivativeCache != null) {
+        StageTimer cacheTimer = StageTimer.start(listener, ProcessingStage.CACHE);
+        try {
+          cacheKey = derivativeCache.key(source, cacheParameters(sourceExtension));
+          List<DerivativeCache.Derivative> cached = derivativeCache.get(cacheKey);
+          restored = cached != null && restore(cached, outputs);
+        } catch (Throwable e) {
+          cacheTimer.failed(e);
+          throw e;
+        }
+        cacheTimer.completed(restored ? ProcessingOutcome.HIT : ProcessingOutcome.MISS, 0, 0);
+      }
+      if (!restored) {
+        imageEngine.convert(source, conversions, listener);
+        if (cacheKey != null) {
+          putCache(cacheKey, outputs);
+        }
+      }
+    }
+
+    StageTimer outputTimer = StageTimer.start(listener, ProcessingStage.OUTPUT);
+    ImageFileDetail maxImage = null;
+    ImageFileDetail thumbDetail = null;
+    Map<String, ImageFileDetail> renditionDetails = new LinkedHashMap<String, ImageFileDetail>();
+    try {
+      for (ImageOutput output : outputs) {
+        output.flush();
+      }
+      if (withMain) {
+        maxImage = createImageFileDetail(sourceName, mainImage);
+      }
+      if (withThumb) {
+        thumbDetail = createImageFileDetail(sourceName, thumbImage);
+      }
+      for (int i = 0; i < renditionImages.size(); i++) {
+        String name = renditions.getRenditions().get(i).getName();
+        renditionDetails.put(name, createImageFileDetail(sourceName, renditionImages.get(i)));
+      }
+    } catch (Throwable e) {
+      outputTimer.failed(e);
+      throw e;
+    }
+    long outputBytes = 0;
+    long outputPixels = 0;
+    List<ImageFileDetail> details = new ArrayList<ImageFileDetail>(renditionDetails.values());
+    details.add(maxImage);
+    details.add(thumbDetail);
+    for (ImageFileDetail detail : details) {
+      if (detail != null) {
+        outputBytes += detail.getLength();
+        outputPixels += pixels(detail);
+      }
+    }
+    outputTimer.completed(outputBytes, outputPixels);
+
+    return new ImageFileSet(sourceName, sourceExtension, thumbDetail, maxImage, origImage, renditionDetails);
   }
   
   /**
@@ -168,6 +586,34 @@ public class ImageProcessor {
     this.thumbnailBackground = thumbNailBackground;
   }
   
+  /**
+   * Return the engine used to convert the images.
+   */
+  public ImageEngine getImageEngine() {
+    return imageEngine;
+  }
+
+  /**
+   * Set the engine used to convert the images. This defaults to the
+   * ImageMagickEngine.
+   */
+  public void setImageEngine(ImageEngine imageEngine) {
+    this.imageEngine = imageEngine;
+  }
+
+  /**
+   * Set an initial size to 2 times the final thumb image width and height.
+   *
+   * @deprecated the size hint is derived by the engine, override
+   *             {@link ImageMagickEngine#deriveThumbDefine(ImageConversion)}
+   *             instead. This is only used by the default engine (not one set
+   *             via setImageEngine) when converting the thumbnail on its own.
+   */
+  @Deprecated
+  protected String deriveThumbDefine() {
+    return "jpeg:size="+(thumbWidth*2)+"x"+(thumbHeight*2);
+  }
+
   /**
    * Return the image format thumbnails are converted to.
    */
@@ -190,6 +636,22 @@ public class ImageProcessor {
     return deriveExtension(extension);
   }
   
+  /**
+   * Return the source extension to use given the probed format.
+   * <p>
+   * The format detected from the magic bytes takes precedence over the upload
+   * file name so that wrongly named uploads are converted correctly. The file
+   * name extension is used when the format is not recognised.
+   * </p>
+   */
+  protected String deriveSourceExtension(String nameExtension, ImageProbe probe) {
+    if (probe == null || probe.getFormat().matches(nameExtension)) {
+      return nameExtension;
+    }
+    log.debug("upload with extension {} is a {} image", nameExtension, probe.getFormat());
+    return probe.getFormat().getExtension();
+  }
+
   protected String deriveExtension(String sourceExtension) {
     
     String thumbExtn = sourceExtension;
@@ -200,66 +662,80 @@ public class ImageProcessor {
     return thumbExtn;
   }
 
-  private void convertMainImage(File originalFile, File thumbFile) throws IOException {
-    
-    IMOperation op = new IMOperation();
-    op.addImage(originalFile.getAbsolutePath());
-    
-    // resize if the image is bigger than the width or height, original size if smaller
-    op.resize(width, height, ">");
-    op.addImage(thumbFile.getAbsolutePath());
-    try {
-      ConvertCmd cmd = new ConvertCmd();
-      cmd.run(op);
-    } catch (Exception e) {
-      throw new IOException("Error trying to generate thumbnail image", e);
-    }
+  private static long pixels(ImageFileDetail detail) {
+    return (long) detail.getWidth() * detail.getHeight();
   }
-  
-  private void convertThumbImage(File originalFile, File thumbFile) throws IOException {
-    
-    IMOperation op = new IMOperation();
-    op.addRawArgs("-define",deriveThumbDefine());
-    op.addImage(originalFile.getAbsolutePath());
-    op.addRawArgs("-auto-orient");
-    
-    if (thumbMode == ConvertMode.PadArea) {
-      op.addRawArgs("-thumbnail",(thumbWidth*thumbHeight)+"@");
-    } else {
-      String option = (thumbMode == ConvertMode.Crop) ? "^": null;
-      op.thumbnail(thumbWidth, thumbHeight, option);
+
+  /**
+   * Create the detail for a converted image using the planned output size. The
+   * image headers are only read to determine its size when there is no plan.
+   */
+  private ImageFileDetail createImageFileDetail(String name, ImageOutput output) throws IOException {
+
+    GeometryPlan plan = output.plan;
+    if (output.file != null) {
+      if (plan == null) {
+        return createImageFileDetail(name, output.extension, output.file);
+      }
+      return createImageFileDetail(name, output.extension, output.file, plan.getWidth(), plan.getHeight());
     }
-    
-    // sharpen the image a little bit
-    //op.addRawArgs("-unsharp","0x.5");
-        
-    if (thumbMode.hasBackground()) {
-      op.addRawArgs("-background", thumbnailBackground);      
+
+    ImageFileDetail i = new ImageFileDetail();
+    i.setName(name);
+    i.setExtension(output.extension);
+    if (output.callerOutput != null) {
+      // buffered for the cache and copied to the caller stream
+      i.setLength(output.buffer.size());
+    } else if (output.buffer != null) {
+      byte[] content = output.buffer.toByteArray();
+      i.setContent(content);
+      i.setLength(content.length);
+      if (plan == null) {
+        ImageProbe probe = ImageProbe.probe(content);
+        if (probe != null) {
+          i.setWidth(probe.getWidth());
+          i.setHeight(probe.getHeight());
+        }
+      }
+    } else {
+      i.setLength(output.counter.getCount());
     }
-    
-    if (thumbMode.hasExtent()) {
-      op.addRawArgs("-gravity", "center");
-      op.addRawArgs("-extent", thumbWidth+"x"+thumbHeight);            
+    if (plan != null) {
+      i.setWidth(plan.getWidth());
+      i.setHeight(plan.getHeight());
     }
-    
-    
-    op.addImage(thumbFile.getAbsolutePath());    
-    
-    try {
-      ConvertCmd cmd = new ConvertCmd();
-      cmd.run(op);
-    } catch (Exception e) {
-      throw new IOException("Error trying to generate thumbnail image", e);
+    return i;
+  }
+
+  /**
+   * Create the detail for the original image decoding it to determine its size.
+   */
+  protected ImageFileDetail createImageFileDetail(String name, String extn, ImageSource source) throws IOException {
+    if (source.isFile()) {
+      return createImageFileDetail(name, extn, source.getFile());
     }
+    BufferedImage in = ImageIO.read(source.openStream());
+    int width = (in == null) ? 0 : in.getWidth();
+    int height = (in == null) ? 0 : in.getHeight();
+    return createImageFileDetail(name, extn, source, width, height);
   }
-  
+
   /**
-   * Set an initial size to 2 times the final thumb image width and height.
+   * Create the detail for the original image of known size.
    */
-  protected String deriveThumbDefine() {
-    return "jpeg:size="+(thumbWidth*2)+"x"+(thumbHeight*2);
+  protected ImageFileDetail createImageFileDetail(String name, String extn, ImageSource source, int width, int height) throws IOException {
+    if (source.isFile()) {
+      return createImageFileDetail(name, extn, source.getFile(), width, height);
+    }
+    ImageFileDetail i = new ImageFileDetail();
+    i.setName(name);
+    i.setExtension(extn);
+    i.setWidth(width);
+    i.setHeight(height);
+    i.setLength(source.length());
+    i.setContent(source.getContent());
+    return i;
   }
-  
 
   protected ImageFileDetail createImageFileDetail(String name, String extn, File file) throws IOException {
     
@@ -281,6 +757,104 @@ public class ImageProcessor {
     return i;
   }
   
+  /**
+   * Where a converted image is written (a file, an in memory buffer or a caller
+   * supplied stream).
+   */
+  private static class ImageOutput {
+
+    final String role;
+    final String extension;
+    final GeometryPlan plan;
+    File file;
+    ByteArrayOutputStream buffer;
+    CountingOutputStream counter;
+    OutputStream callerOutput;
+
+    ImageOutput(String role, String extension, GeometryPlan plan) {
+      this.role = role;
+      this.extension = extension;
+      this.plan = plan;
+    }
+
+    /**
+     * Write to the caller supplied stream or an in memory buffer if null. When
+     * caching the image is buffered and then copied to the caller stream.
+     */
+    void stream(OutputStream output, boolean buffered) {
+      if (output == null || buffered) {
+        buffer = new ByteArrayOutputStream(16 * 1024);
+        callerOutput = output;
+      } else {
+        counter = new CountingOutputStream(output);
+      }
+    }
+
+    /**
+     * Copy the cached image to this output.
+     */
+    void restore(DerivativeCache.Derivative derivative) throws IOException {
+      if (file != null) {
+        Files.copy(derivative.getFile().toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } else if (buffer != null) {
+        Files.copy(derivative.getFile().toPath(), buffer);
+      } else {
+        Files.copy(derivative.getFile().toPath(), counter);
+      }
+    }
+
+    /**
+     * Discard any partially restored image.
+     */
+    void reset() {
+      if (buffer != null) {
+        buffer.reset();
+      }
+    }
+
+    /**
+     * Copy a buffered image to the caller stream.
+     */
+    void flush() throws IOException {
+      if (callerOutput != null) {
+        buffer.writeTo(callerOutput);
+      }
+    }
+
+    /**
+     * Return the image to put into the derivative cache.
+     */
+    DerivativeCache.Derivative derivative() {
+      if (file != null) {
+        return new DerivativeCache.Derivative(role, extension, plan.getWidth(), plan.getHeight(), file);
+      }
+      return new DerivativeCache.Derivative(role, extension, plan.getWidth(), plan.getHeight(), buffer.toByteArray());
+    }
+
+    ImageConversion conversion(int width, int height, ConvertMode mode, boolean thumbnail, String background) {
+      if (file != null) {
+        return new ImageConversion(file, extension, width, height, mode, thumbnail, background, plan).withRole(role);
+      }
+      OutputStream out = (buffer != null) ? buffer : counter;
+      return new ImageConversion(out, extension, width, height, mode, thumbnail, background, plan).withRole(role);
+    }
+  }
+
+  /**
+   * The default ImageMagickEngine honouring a deriveThumbDefine() overridden by
+   * a subclass of the processor.
+   */
+  private class DefaultImageMagickEngine extends ImageMagickEngine {
+
+    @Override
+    protected String deriveThumbDefine(ImageConversion thumb) {
+      if ("thumb".equals(thumb.getRole())) {
+        return ImageProcessor.this.deriveThumbDefine();
+      }
+      return super.deriveThumbDefine(thumb);
+    }
+  }
+
   public void pump(InputStream in, OutputStream out) throws IOException {
     
     if (in == null) throw new IOException("Input stream is null");
@@ -0,0 +1,156 @@
+package org.avaje.imageop.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The original image to process which is either a file or content held in
+ * memory.
+ * <p>
+ * Engines read the source directly where they can and only write content held
+ * in memory to a temporary file when they truly need a file.
+ * </p>
+ */
+public final class ImageSource {
+
+  private final File file;
+
+  private final byte[] content;
+
+  private ImageSource(File file, byte[] content) {
+    this.file = file;
+    this.content = content;
+  }
+
+  /**
+   * Return a source for the image file.
+   */
+  public static ImageSource of(File file) {
+    if (file == null) {
+      throw new IllegalArgumentException("file is null");
+    }
+    return new ImageSource(file, null);
+  }
+
+  /**
+   * Return a source for the image content (which is not copied).
+   */
+  public static ImageSource of(byte[] content) {
+    if (content == null) {
+      throw new IllegalArgumentException("content is null");
+    }
+    return new ImageSource(null, content);
+  }
+
+  /**
+   * Return a source for the remaining content of the buffer.
+   * <p>
+   * The backing array is used without copying when it holds exactly the
+   * remaining content. The position of the buffer is not changed.
+   * </p>
+   */
+  public static ImageSource of(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+      return of(buffer.array());
+    }
+    byte[] content = new byte[buffer.remaining()];
+    buffer.duplicate().get(content);
+    return of(content);
+  }
+
+  /**
+   * Return a source reading the stream fully into memory (the stream is not
+   * closed).
+   */
+  public static ImageSource of(InputStream in) throws IOException {
+    if (in == null) {
+      throw new IOException("Input stream is null");
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+    byte[] buffer = new byte[8192];
+    int len;
+    while ((len = in.read(buffer)) != -1) {
+      out.write(buffer, 0, len);
+    }
+    return of(out.toByteArray());
+  }
+
+  /**
+   * Return true if the source is a file.
+   */
+  public boolean isFile() {
+    return file != null;
+  }
+
+  /**
+   * Return the file (null when the content is held in memory).
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Return the content held in memory (null when the source is a file).
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * Return the size of the image in bytes.
+   */
+  public long length() {
+    return (file != null) ? file.length() : content.length;
+  }
+
+  /**
+   * Open a stream to read the image.
+   */
+  public InputStream openStream() throws IOException {
+    return (file != null) ? new FileInputStream(file) : new ByteArrayInputStream(content);
+  }
+
+  /**
+   * Probe the image headers returning null if the format is not recognised.
+   */
+  public ImageProbe probe() throws IOException {
+    return (file != null) ? ImageProbe.probe(file) : ImageProbe.probe(content);
+  }
+
+  /**
+   * Return the input for ImageIO.createImageInputStream().
+   */
+  Object imageInput() {
+    return (file != null) ? file : new ByteArrayInputStream(content);
+  }
+
+  /**
+   * Write the in memory content to a temporary file for a backend that needs a
+   * file. The caller should delete the returned file when it is no longer
+   * needed.
+   */
+  public File createTempFile(String extension, File tempDirectory) throws IOException {
+    if (file != null) {
+      throw new IllegalStateException("Source is already the file " + file);
+    }
+    File temp = File.createTempFile("imageop-", "." + extension, tempDirectory);
+    OutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+    return temp;
+  }
+
+  public String toString() {
+    return (file != null) ? file.toString() : "content[" + content.length + "]";
+  }
+}
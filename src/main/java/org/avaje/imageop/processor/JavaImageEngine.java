@@ -0,0 +1,745 @@
+package org.avaje.imageop.processor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.avaje.imageop.filter.BandExecutor;
+import org.avaje.imageop.filter.DecodedImageCache;
+import org.avaje.imageop.filter.GeometryPlan;
+import org.avaje.imageop.filter.ImageOp;
+import org.avaje.imageop.filter.ImagePool;
+import org.avaje.imageop.filter.OrientationOp;
+import org.avaje.imageop.filter.PlanImageOp;
+import org.avaje.imageop.filter.ScaleImageOp;
+import org.avaje.imageop.filter.ScaleKernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageEngine that converts images in process using ImageIO and the filter
+ * operations.
+ * <p>
+ * This avoids starting an ImageMagick process per image and is a good choice
+ * for small and medium JPEG and PNG images. The original image is decoded once
+ * and all the conversions are produced from it.
+ * </p>
+ * <p>
+ * The ConvertModes follow the ImageMagick engine with the geometry of each
+ * conversion planned by the GeometryPlanner and applied by PlanImageOp.
+ * Thumbnails are auto oriented using the EXIF orientation of the original.
+ * </p>
+ * <p>
+ * Like the ImageMagick jpeg:size hint the original is decoded at reduced
+ * resolution when all the conversions shrink it enough (using source
+ * subsampling so that the decoded image is at least 2 times the largest
+ * scaled size) and only the region that survives cropping is decoded.
+ * </p>
+ * <p>
+ * When producing several images (like a RenditionSet) each smaller image is
+ * scaled from the nearest larger intermediate rather than the original.
+ * </p>
+ */
+public class JavaImageEngine implements ImageEngine {
+
+  private static final Logger log = LoggerFactory.getLogger(JavaImageEngine.class);
+
+  /**
+   * The common ImageMagick colour names (which follow SVG rather than the AWT
+   * constants, so green is #008000).
+   */
+  private static final Map<String, Integer> COLOUR_NAMES = new HashMap<String, Integer>();
+
+  static {
+    COLOUR_NAMES.put("black", 0x000000);
+    COLOUR_NAMES.put("white", 0xffffff);
+    COLOUR_NAMES.put("red", 0xff0000);
+    COLOUR_NAMES.put("lime", 0x00ff00);
+    COLOUR_NAMES.put("green", 0x008000);
+    COLOUR_NAMES.put("blue", 0x0000ff);
+    COLOUR_NAMES.put("yellow", 0xffff00);
+    COLOUR_NAMES.put("cyan", 0x00ffff);
+    COLOUR_NAMES.put("aqua", 0x00ffff);
+    COLOUR_NAMES.put("magenta", 0xff00ff);
+    COLOUR_NAMES.put("fuchsia", 0xff00ff);
+    COLOUR_NAMES.put("gray", 0x7e7e7e);
+    COLOUR_NAMES.put("grey", 0xbebebe);
+    COLOUR_NAMES.put("lightgray", 0xd3d3d3);
+    COLOUR_NAMES.put("lightgrey", 0xd3d3d3);
+    COLOUR_NAMES.put("darkgray", 0xa9a9a9);
+    COLOUR_NAMES.put("darkgrey", 0xa9a9a9);
+    COLOUR_NAMES.put("silver", 0xc0c0c0);
+    COLOUR_NAMES.put("whitesmoke", 0xf5f5f5);
+    COLOUR_NAMES.put("snow", 0xfffafa);
+    COLOUR_NAMES.put("ivory", 0xfffff0);
+    COLOUR_NAMES.put("beige", 0xf5f5dc);
+    COLOUR_NAMES.put("maroon", 0x800000);
+    COLOUR_NAMES.put("navy", 0x000080);
+    COLOUR_NAMES.put("olive", 0x808000);
+    COLOUR_NAMES.put("purple", 0x800080);
+    COLOUR_NAMES.put("teal", 0x008080);
+    COLOUR_NAMES.put("orange", 0xffa500);
+    COLOUR_NAMES.put("pink", 0xffc0cb);
+    COLOUR_NAMES.put("brown", 0xa52a2a);
+    COLOUR_NAMES.put("gold", 0xffd700);
+  }
+
+  private ScaleKernel scaleKernel = ScaleKernel.Box;
+
+  private BandExecutor bandExecutor;
+
+  private boolean decodeReduction = true;
+
+  private boolean cascade = true;
+
+  private DecodedImageCache decodedImageCache;
+
+  private ImagePool imagePool;
+
+  /**
+   * Return the kernel used to scale images.
+   */
+  public ScaleKernel getScaleKernel() {
+    return scaleKernel;
+  }
+
+  /**
+   * Set the kernel used to scale images (defaults to Box).
+   */
+  public void setScaleKernel(ScaleKernel scaleKernel) {
+    this.scaleKernel = scaleKernel;
+  }
+
+  /**
+   * Return the executor used to scale large images in parallel.
+   */
+  public BandExecutor getBandExecutor() {
+    return bandExecutor;
+  }
+
+  /**
+   * Set the executor used to scale large images in parallel (null for serial
+   * processing).
+   */
+  public void setBandExecutor(BandExecutor bandExecutor) {
+    this.bandExecutor = bandExecutor;
+  }
+
+  /**
+   * Return true if the original is decoded at reduced resolution and/or region
+   * when possible.
+   */
+  public boolean isDecodeReduction() {
+    return decodeReduction;
+  }
+
+  /**
+   * Set to false to always decode every pixel of the original (defaults to
+   * true).
+   */
+  public void setDecodeReduction(boolean decodeReduction) {
+    this.decodeReduction = decodeReduction;
+  }
+
+  /**
+   * Return true if smaller images are scaled from larger intermediates.
+   */
+  public boolean isCascade() {
+    return cascade;
+  }
+
+  /**
+   * Set to false to scale every image from the original (defaults to true).
+   * <p>
+   * With cascading the conversions are produced largest first with each scaled
+   * from the nearest larger intermediate rather than the original so that
+   * producing many sizes (like a RenditionSet) costs in proportion to the
+   * total output area.
+   * </p>
+   */
+  public void setCascade(boolean cascade) {
+    this.cascade = cascade;
+  }
+
+  /**
+   * Return the cache of decoded images (null when not caching).
+   */
+  public DecodedImageCache getDecodedImageCache() {
+    return decodedImageCache;
+  }
+
+  /**
+   * Set a cache of decoded images so that a source file converted repeatedly
+   * (like with different sizes) is decoded once. Images held in memory are
+   * not cached.
+   */
+  public void setDecodedImageCache(DecodedImageCache decodedImageCache) {
+    this.decodedImageCache = decodedImageCache;
+  }
+
+  /**
+   * Return the pool scaled and intermediate images are acquired from (null
+   * when allocated).
+   */
+  public ImagePool getImagePool() {
+    return imagePool;
+  }
+
+  /**
+   * Set a pool that the scaled and intermediate images are acquired from. These
+   * are released back to the pool once written so that converting many images
+   * reuses their rasters.
+   */
+  public void setImagePool(ImagePool imagePool) {
+    this.imagePool = imagePool;
+  }
+
+  /**
+   * Include the settings that change the output pixels (the band executor,
+   * caches and pool do not).
+   */
+  @Override
+  public String cacheKey() {
+    return getClass().getName() + ":" + scaleKernel + ":reduction=" + decodeReduction + ":cascade=" + cascade;
+  }
+
+  @Override
+  public void convert(ImageSource source, List<ImageConversion> conversions) throws IOException {
+    convert(source, conversions, ProcessingListener.NONE);
+  }
+
+  @Override
+  public void convert(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+
+    ImageProbe probe = source.probe();
+    int orientation = (probe == null) ? 1 : probe.getOrientation();
+
+    Rectangle region = null;
+    int subsampling = 1;
+    if (decodeReduction && probe != null) {
+      subsampling = decodeSubsampling(conversions);
+      if (orientation == 1) {
+        // crop rectangles of auto oriented thumbnails are not in source coordinates
+        region = decodeRegion(conversions, probe);
+      }
+    }
+
+    final String cacheKey = cacheKey(source, region, subsampling);
+    StageTimer decodeTimer = StageTimer.start(listener, ProcessingStage.DECODE);
+    BufferedImage decoded;
+    try {
+      decoded = decodeCached(cacheKey, source, region, subsampling);
+    } catch (Throwable e) {
+      decodeTimer.failed(e);
+      throw e;
+    }
+    decodeTimer.completed(source.length(), pixels(decoded));
+    int regionX = (region == null) ? 0 : region.x;
+    int regionY = (region == null) ? 0 : region.y;
+
+    // largest first so that smaller images are scaled from larger intermediates
+    List<ImageConversion> ordered = new ArrayList<ImageConversion>(conversions);
+    if (cascade) {
+      Collections.sort(ordered, new Comparator<ImageConversion>() {
+        public int compare(ImageConversion o1, ImageConversion o2) {
+          return Double.compare(scaleFactor(o2.getPlan()), scaleFactor(o1.getPlan()));
+        }
+      });
+    }
+
+    BufferedImage oriented = null;
+    Cascade decodedCascade = new Cascade(decoded);
+    Cascade orientedCascade = null;
+    try {
+      for (int i = 0; i < ordered.size(); i++) {
+        ImageConversion conversion = ordered.get(i);
+        Cascade images = decodedCascade;
+        if (conversion.isThumbnail() && orientation != 1) {
+          // auto orient thumbnails (like -auto-orient) rotating the source once
+          if (oriented == null) {
+            oriented = orient(cacheKey, decoded, orientation);
+            orientedCascade = new Cascade(oriented);
+          }
+          images = orientedCascade;
+        }
+        BufferedImage image = images.source;
+        GeometryPlan plan = conversion.getPlan();
+        if (plan != null && (region != null || subsampling > 1)) {
+          plan = plan.decoded(regionX, regionY, subsampling, image.getWidth(), image.getHeight());
+        }
+        StageTimer convertTimer = StageTimer.start(listener, ProcessingStage.CONVERT, conversion);
+        BufferedImage converted;
+        try {
+          if (cascade && plan != null && plan.getSourceWidth() == image.getWidth() && plan.getSourceHeight() == image.getHeight()) {
+            boolean last = true;
+            for (int j = i + 1; j < ordered.size() && last; j++) {
+              // another conversion from the same (oriented or not) image follows
+              last = orientation != 1 && conversion.isThumbnail() != ordered.get(j).isThumbnail();
+            }
+            converted = images.convert(conversion, plan, last);
+          } else {
+            converted = convert(image, conversion, plan);
+          }
+        } catch (Throwable e) {
+          convertTimer.failed(e);
+          throw e;
+        }
+        convertTimer.completed(0, pixels(converted));
+
+        StageTimer encodeTimer = StageTimer.start(listener, ProcessingStage.ENCODE, conversion);
+        long written;
+        try {
+          written = images.write(converted, conversion);
+        } catch (Throwable e) {
+          encodeTimer.failed(e);
+          throw e;
+        }
+        encodeTimer.completed(written, pixels(converted));
+      }
+    } finally {
+      decodedCascade.release();
+      if (orientedCascade != null) {
+        orientedCascade.release();
+        if (cacheKey == null) {
+          release(oriented);
+        }
+      }
+    }
+  }
+
+  private static long pixels(BufferedImage image) {
+    return (long) image.getWidth() * image.getHeight();
+  }
+
+  /**
+   * Return the factor the plan scales the source by (0 when not known).
+   */
+  private static double scaleFactor(GeometryPlan plan) {
+    if (plan == null) {
+      return 0;
+    }
+    return Math.max((double) plan.getScaleWidth() / plan.getCropWidth(), (double) plan.getScaleHeight() / plan.getCropHeight());
+  }
+
+  /**
+   * The intermediate downscales of a source image.
+   * <p>
+   * Each conversion is scaled from the nearest larger intermediate rather than
+   * the source. Unless it is the last conversion the whole source is scaled to
+   * the resolution of the conversion (becoming an intermediate for the smaller
+   * conversions that follow) and the conversion is then cropped and/or padded
+   * from that.
+   * </p>
+   */
+  private class Cascade {
+
+    final BufferedImage source;
+
+    final List<BufferedImage> intermediates = new ArrayList<BufferedImage>();
+
+    Cascade(BufferedImage source) {
+      this.source = source;
+    }
+
+    BufferedImage convert(ImageConversion conversion, GeometryPlan plan, boolean last) {
+
+      double scale = scaleFactor(plan);
+      int width = (int) Math.round(source.getWidth() * scale);
+      int height = (int) Math.round(source.getHeight() * scale);
+      if (width >= source.getWidth() || height >= source.getHeight()) {
+        return JavaImageEngine.this.convert(source, conversion, plan);
+      }
+
+      // the smallest image with enough resolution
+      BufferedImage from = source;
+      for (BufferedImage intermediate : intermediates) {
+        if (intermediate.getWidth() >= width && intermediate.getHeight() >= height && intermediate.getWidth() < from.getWidth()) {
+          from = intermediate;
+        }
+      }
+      if (!last && (from.getWidth() != width || from.getHeight() != height)) {
+        ScaleImageOp scaleOp = new ScaleImageOp(width, height, scaleKernel);
+        from = filter(scaleOp, from);
+        intermediates.add(from);
+      }
+      if (from != source) {
+        plan = plan.resampled(from.getWidth(), from.getHeight());
+      }
+      return JavaImageEngine.this.convert(from, conversion, plan);
+    }
+
+    /**
+     * Write the converted image releasing it unless it shares the pixels of the
+     * source or an intermediate (like an unchanged or cropped image). Returns
+     * the number of bytes written (0 when not known).
+     */
+    long write(BufferedImage image, ImageConversion conversion) throws IOException {
+      long written = JavaImageEngine.this.writeCounted(image, conversion);
+      DataBuffer data = image.getRaster().getDataBuffer();
+      if (data == source.getRaster().getDataBuffer()) {
+        return written;
+      }
+      for (BufferedImage intermediate : intermediates) {
+        if (data == intermediate.getRaster().getDataBuffer()) {
+          return written;
+        }
+      }
+      JavaImageEngine.this.release(image);
+      return written;
+    }
+
+    /**
+     * Release the intermediates.
+     */
+    void release() {
+      for (BufferedImage intermediate : intermediates) {
+        JavaImageEngine.this.release(intermediate);
+      }
+      intermediates.clear();
+    }
+  }
+
+  /**
+   * Return the key of the decoded image in the cache or null if it is not
+   * cached.
+   */
+  private String cacheKey(ImageSource source, Rectangle region, int subsampling) {
+    if (decodedImageCache == null || !source.isFile()) {
+      return null;
+    }
+    File file = source.getFile();
+    return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified() + ":" + region + ":" + subsampling;
+  }
+
+  private BufferedImage decodeCached(String cacheKey, final ImageSource source, final Rectangle region, final int subsampling)
+      throws IOException {
+    if (cacheKey == null) {
+      return decode(source, region, subsampling);
+    }
+    return decodedImageCache.get(cacheKey, () -> decode(source, region, subsampling));
+  }
+
+  private BufferedImage orient(String cacheKey, final BufferedImage decoded, final int orientation) throws IOException {
+    if (cacheKey == null) {
+      return filter(new OrientationOp(orientation), decoded);
+    }
+    // cached images are not pooled as they are never released
+    return decodedImageCache.get(cacheKey + ":oriented", () -> filter(new OrientationOp(orientation), decoded, false));
+  }
+
+  /**
+   * Return the source subsampling that keeps the decoded image at least 2
+   * times the scaled size of every conversion.
+   */
+  private int decodeSubsampling(List<ImageConversion> conversions) {
+
+    double ratio = Double.MAX_VALUE;
+    for (ImageConversion conversion : conversions) {
+      GeometryPlan plan = conversion.getPlan();
+      if (plan == null) {
+        return 1;
+      }
+      ratio = Math.min(ratio, (double) plan.getCropWidth() / plan.getScaleWidth());
+      ratio = Math.min(ratio, (double) plan.getCropHeight() / plan.getScaleHeight());
+    }
+    return Math.max(1, (int) (ratio / 2));
+  }
+
+  /**
+   * Return the region of the source used by the conversions or null if the
+   * whole source is used.
+   */
+  private Rectangle decodeRegion(List<ImageConversion> conversions, ImageProbe probe) {
+
+    Rectangle region = null;
+    for (ImageConversion conversion : conversions) {
+      GeometryPlan plan = conversion.getPlan();
+      if (plan == null || plan.getSourceWidth() != probe.getWidth() || plan.getSourceHeight() != probe.getHeight()) {
+        return null;
+      }
+      Rectangle crop = new Rectangle(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight());
+      region = (region == null) ? crop : region.union(crop);
+    }
+    if (region == null || (region.width == probe.getWidth() && region.height == probe.getHeight())) {
+      return null;
+    }
+    return region;
+  }
+
+  /**
+   * Decode the region of the image (null for all of it) taking every
+   * subsampling pixel in each direction.
+   */
+  protected BufferedImage decode(ImageSource source, Rectangle region, int subsampling) throws IOException {
+
+    ImageInputStream in = ImageIO.createImageInputStream(source.imageInput());
+    if (in == null) {
+      throw new IOException("Unable to read image " + source);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("Unable to decode image " + source + " using ImageIO");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+          param.setSourceRegion(region);
+        }
+        if (subsampling > 1) {
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        if (log.isTraceEnabled()) {
+          log.trace("decode {} region:{} subsampling:{}", source, region, subsampling);
+        }
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Convert the source image as per the conversion.
+   */
+  protected BufferedImage convert(BufferedImage source, ImageConversion conversion) {
+    return convert(source, conversion, conversion.getPlan());
+  }
+
+  /**
+   * Convert the source image as per the conversion using a plan relative to
+   * the source image.
+   */
+  protected BufferedImage convert(BufferedImage source, ImageConversion conversion, GeometryPlan plan) {
+
+    if (plan == null || plan.getSourceWidth() != source.getWidth() || plan.getSourceHeight() != source.getHeight()) {
+      plan = GeometryPlanner.plan(conversion, source.getWidth(), source.getHeight());
+    }
+
+    Paint background = null;
+    int imageType = 0;
+    if (plan.isPadded()) {
+      Color colour = parseColor(conversion.getBackground());
+      if (colour.getAlpha() < 255 && !supportsAlpha(conversion.getExtension())) {
+        // output format does not support transparency
+        background = Color.WHITE;
+        imageType = BufferedImage.TYPE_INT_RGB;
+      } else {
+        background = colour;
+      }
+    }
+    return filter(new PlanImageOp(plan, scaleKernel, background, imageType), source);
+  }
+
+  private BufferedImage filter(ImageOp op, BufferedImage source) {
+    return filter(op, source, true);
+  }
+
+  private BufferedImage filter(ImageOp op, BufferedImage source, boolean pooled) {
+    op.setBandExecutor(bandExecutor);
+    if (pooled) {
+      op.setImagePool(imagePool);
+    }
+    return op.filter(source, null);
+  }
+
+  /**
+   * Release an image back to the pool (ignored if it was not acquired from it).
+   */
+  private void release(BufferedImage image) {
+    if (imagePool != null) {
+      imagePool.release(image);
+    }
+  }
+
+  /**
+   * Write the image returning the number of bytes written (0 when not known).
+   */
+  private long writeCounted(BufferedImage image, ImageConversion conversion) throws IOException {
+    if (conversion.getFile() != null) {
+      write(image, conversion);
+      return conversion.getFile().length();
+    }
+    CountingOutputStream counter = new CountingOutputStream(conversion.getOutput());
+    write(image, conversion.withOutput(counter));
+    return counter.getCount();
+  }
+
+  /**
+   * Write the image to the conversion file or stream encoded using its
+   * EncoderOptions.
+   */
+  protected void write(BufferedImage image, ImageConversion conversion) throws IOException {
+
+    String extension = conversion.getExtension();
+    if (image.getColorModel().hasAlpha() && !supportsAlpha(extension)) {
+      image = flatten(image);
+    }
+    EncoderOptions options = conversion.getEncoderOptions();
+    if (!options.isDefault()) {
+      if (conversion.getFile() == null) {
+        ImageIOEncoder.write(image, extension, options, conversion.getOutput());
+      } else {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(conversion.getFile()));
+        try {
+          ImageIOEncoder.write(image, extension, options, out);
+        } finally {
+          out.close();
+        }
+      }
+      if (log.isTraceEnabled()) {
+        log.trace("converted {} {}", conversion, options);
+      }
+      return;
+    }
+    boolean written;
+    if (conversion.getFile() != null) {
+      written = ImageIO.write(image, extension, conversion.getFile());
+    } else {
+      written = ImageIO.write(image, extension, conversion.getOutput());
+    }
+    if (!written) {
+      throw new IOException("No ImageIO writer for image format " + extension);
+    }
+    if (log.isTraceEnabled()) {
+      log.trace("converted {}", conversion);
+    }
+  }
+
+  /**
+   * Draw the image onto an opaque white background.
+   */
+  private BufferedImage flatten(BufferedImage image) {
+    BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = rgb.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+    return rgb;
+  }
+
+  private boolean supportsAlpha(String extension) {
+    return "png".equalsIgnoreCase(extension) || "gif".equalsIgnoreCase(extension);
+  }
+
+  /**
+   * Parse an ImageMagick style colour (transparent, none, #rgb, #rgba, #rrggbb,
+   * #rrggbbaa, rgb(r,g,b), rgba(r,g,b,a), grayN or a colour name like white).
+   */
+  static Color parseColor(String colour) {
+
+    if (colour == null) {
+      return new Color(0, 0, 0, 0);
+    }
+    String value = colour.trim().toLowerCase();
+    try {
+      if (value.startsWith("#")) {
+        Color hex = parseHex(value.substring(1));
+        if (hex != null) {
+          return hex;
+        }
+      } else if (value.startsWith("rgb(") || value.startsWith("rgba(")) {
+        return parseRgb(value);
+      } else {
+        Color named = namedColor(value);
+        if (named != null) {
+          return named;
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      // fall through (NumberFormatException or a component out of range)
+    }
+    throw new IllegalArgumentException("Unsupported background colour " + colour);
+  }
+
+  private static Color parseHex(String hex) {
+    switch (hex.length()) {
+    case 3:
+    case 4:
+      int[] c = new int[4];
+      c[3] = 0xf;
+      for (int i = 0; i < hex.length(); i++) {
+        c[i] = Integer.parseInt(hex.substring(i, i + 1), 16);
+      }
+      return new Color(c[0] * 17, c[1] * 17, c[2] * 17, c[3] * 17);
+    case 6:
+      return new Color(Integer.parseInt(hex, 16));
+    case 8:
+      long rgba = Long.parseLong(hex, 16);
+      return new Color((int) (rgba >> 24) & 0xff, (int) (rgba >> 16) & 0xff, (int) (rgba >> 8) & 0xff, (int) rgba & 0xff);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Parse rgb(r,g,b) or rgba(r,g,b,a) with components 0 to 255 or percentages
+   * and alpha 0 to 1.
+   */
+  private static Color parseRgb(String value) {
+    int open = value.indexOf('(');
+    if (!value.endsWith(")")) {
+      throw new IllegalArgumentException(value);
+    }
+    String[] parts = value.substring(open + 1, value.length() - 1).split(",");
+    boolean alpha = value.startsWith("rgba");
+    if (parts.length != (alpha ? 4 : 3)) {
+      throw new IllegalArgumentException(value);
+    }
+    int[] rgb = new int[3];
+    for (int i = 0; i < 3; i++) {
+      String part = parts[i].trim();
+      if (part.endsWith("%")) {
+        rgb[i] = Math.round(Float.parseFloat(part.substring(0, part.length() - 1)) * 255 / 100);
+      } else {
+        rgb[i] = Math.round(Float.parseFloat(part));
+      }
+    }
+    float a = alpha ? Float.parseFloat(parts[3].trim()) : 1f;
+    return new Color(rgb[0], rgb[1], rgb[2], Math.round(a * 255));
+  }
+
+  private static Color namedColor(String name) {
+    if ("transparent".equals(name) || "none".equals(name)) {
+      return new Color(0, 0, 0, 0);
+    }
+    Integer rgb = COLOUR_NAMES.get(name);
+    if (rgb != null) {
+      return new Color(rgb);
+    }
+    if (name.startsWith("gray") || name.startsWith("grey")) {
+      // gray0 to gray100 as a percentage of white
+      int percent = Integer.parseInt(name.substring(4));
+      if (percent >= 0 && percent <= 100) {
+        int level = Math.round(percent * 255 / 100f);
+        return new Color(level, level, level);
+      }
+    }
+    return null;
+  }
+}
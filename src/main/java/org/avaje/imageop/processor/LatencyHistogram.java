@@ -0,0 +1,159 @@
+package org.avaje.imageop.processor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of stage durations.
+ * <p>
+ * Durations are counted in log linear buckets (8 buckets per power of 2) so
+ * percentiles are accurate to within 1/16 of the value with a fixed 4KB of
+ * counters. Recording only increments counters so that many threads can
+ * record concurrently without locking.
+ * </p>
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Enough buckets for any positive long.
+   */
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  private final LongAdder bytes = new LongAdder();
+
+  private final LongAdder pixels = new LongAdder();
+
+  private final LongAdder[] outcomes = new LongAdder[ProcessingOutcome.values().length];
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  LatencyHistogram() {
+    for (int i = 0; i < outcomes.length; i++) {
+      outcomes[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Return the bucket the value is counted in.
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (value < 0) ? 0 : (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Return the smallest value counted in the bucket.
+   */
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * Return the value reported for the bucket (its midpoint).
+   */
+  static long value(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    long lower = lowerBound(bucket);
+    long width = 1L << (bucket / SUB_BUCKETS - 1);
+    return lower + width / 2;
+  }
+
+  /**
+   * Record the completed stage.
+   */
+  void record(ProcessingEvent event) {
+    long nanos = Math.max(0, event.getNanos());
+    counts.incrementAndGet(bucket(nanos));
+    totalNanos.add(nanos);
+    bytes.add(event.getBytes());
+    pixels.add(event.getPixels());
+    outcomes[event.getOutcome().ordinal()].increment();
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Add the counts of this histogram to the other (used to merge histograms).
+   */
+  void addTo(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = counts.get(i);
+      if (count > 0) {
+        other.counts.addAndGet(i, count);
+      }
+    }
+    other.totalNanos.add(totalNanos.sum());
+    other.bytes.add(bytes.sum());
+    other.pixels.add(pixels.sum());
+    for (int i = 0; i < outcomes.length; i++) {
+      other.outcomes[i].add(outcomes[i].sum());
+    }
+    long max = maxNanos.get();
+    long otherMax = other.maxNanos.get();
+    while (max > otherMax && !other.maxNanos.compareAndSet(otherMax, max)) {
+      otherMax = other.maxNanos.get();
+    }
+  }
+
+  /**
+   * Return a snapshot of the statistics.
+   */
+  StageStatistics statistics(ProcessingStage stage, ConvertMode mode) {
+
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    long max = maxNanos.get();
+    long p50 = percentile(snapshot, count, 0.50, max);
+    long p95 = percentile(snapshot, count, 0.95, max);
+    long p99 = percentile(snapshot, count, 0.99, max);
+    long failures = outcomes[ProcessingOutcome.FAILURE.ordinal()].sum();
+    long hits = outcomes[ProcessingOutcome.HIT.ordinal()].sum();
+    long misses = outcomes[ProcessingOutcome.MISS.ordinal()].sum();
+    return new StageStatistics(stage, mode, count, failures, hits, misses, totalNanos.sum(), bytes.sum(), pixels.sum(), p50, p95,
+        p99, max);
+  }
+
+  /**
+   * Return the value at the percentile (0 to 1) of the counts.
+   */
+  static long percentile(long[] snapshot, long count, double percentile, long max) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * count));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(value(i), max);
+      }
+    }
+    return max;
+  }
+}
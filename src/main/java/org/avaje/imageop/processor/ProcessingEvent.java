@@ -0,0 +1,104 @@
+package org.avaje.imageop.processor;
+
+/**
+ * A completed processing stage reported to a {@link ProcessingListener}.
+ */
+public class ProcessingEvent {
+
+  private final ProcessingStage stage;
+
+  private final String role;
+
+  private final ConvertMode mode;
+
+  private final long nanos;
+
+  private final long bytes;
+
+  private final long pixels;
+
+  private final ProcessingOutcome outcome;
+
+  private final Throwable error;
+
+  /**
+   * Create the event for a completed stage.
+   */
+  public ProcessingEvent(ProcessingStage stage, String role, ConvertMode mode, long nanos, long bytes, long pixels,
+      ProcessingOutcome outcome, Throwable error) {
+    this.stage = stage;
+    this.role = role;
+    this.mode = mode;
+    this.nanos = nanos;
+    this.bytes = bytes;
+    this.pixels = pixels;
+    this.outcome = outcome;
+    this.error = error;
+  }
+
+  public String toString() {
+    return stage + ((role == null) ? "" : " " + role) + ((mode == null) ? "" : " " + mode) + " " + outcome + " "
+        + (nanos / 1000) + "us bytes:" + bytes + " pixels:" + pixels;
+  }
+
+  /**
+   * Return the stage.
+   */
+  public ProcessingStage getStage() {
+    return stage;
+  }
+
+  /**
+   * Return the role of the output image (main, thumb or r-name for a
+   * rendition) or null when the stage is not for a single output image.
+   */
+  public String getRole() {
+    return role;
+  }
+
+  /**
+   * Return the ConvertMode of the output image or null when the stage is not
+   * for a single output image.
+   */
+  public ConvertMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Return the elapsed time of the stage in nanoseconds.
+   */
+  public long getNanos() {
+    return nanos;
+  }
+
+  /**
+   * Return the number of bytes read or written by the stage (0 when not
+   * known).
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the number of pixels decoded or produced by the stage (0 when not
+   * known).
+   */
+  public long getPixels() {
+    return pixels;
+  }
+
+  /**
+   * Return the outcome of the stage.
+   */
+  public ProcessingOutcome getOutcome() {
+    return outcome;
+  }
+
+  /**
+   * Return the exception the stage failed with (null unless the outcome is
+   * FAILURE).
+   */
+  public Throwable getError() {
+    return error;
+  }
+}
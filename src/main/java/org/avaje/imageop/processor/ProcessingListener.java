@@ -0,0 +1,47 @@
+package org.avaje.imageop.processor;
+
+/**
+ * Listener notified as each stage of processing an image starts and completes.
+ * <p>
+ * This gives the time spent probing, converting each output image, running
+ * ImageMagick processes and writing the outputs along with the bytes and
+ * pixels involved. {@link ProcessingMetrics} is a listener that keeps
+ * latency histograms of each stage.
+ * </p>
+ * <p>
+ * Listeners are called on the thread processing the image (concurrently when
+ * images are processed concurrently) and should be quick and not throw.
+ * </p>
+ */
+public interface ProcessingListener {
+
+  /**
+   * Listener that ignores all the notifications.
+   */
+  ProcessingListener NONE = new ProcessingListener() {
+    @Override
+    public void stageCompleted(ProcessingEvent event) {
+    }
+  };
+
+  /**
+   * The stage is starting.
+   *
+   * @param stage
+   *          the stage
+   * @param role
+   *          the role of the output image or null when the stage is not for a
+   *          single output image
+   * @param mode
+   *          the ConvertMode of the output image or null
+   */
+  default void stageStarted(ProcessingStage stage, String role, ConvertMode mode) {
+    // do nothing by default
+  }
+
+  /**
+   * The stage has completed (successfully or not).
+   */
+  void stageCompleted(ProcessingEvent event);
+
+}
@@ -0,0 +1,117 @@
+package org.avaje.imageop.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ProcessingListener that keeps lock free latency histograms of each
+ * processing stage and ConvertMode.
+ * <p>
+ * The statistics (count, p50, p95, p99, bytes and pixels) are read via
+ * {@link #getStatistics()} by a pull based exporter or via JMX by registering
+ * this as an MXBean:
+ * </p>
+ *
+ * <pre>{@code
+ *
+ * ProcessingMetrics metrics = new ProcessingMetrics();
+ * processor.setProcessingListener(metrics);
+ *
+ * ManagementFactory.getPlatformMBeanServer()
+ *   .registerMBean(metrics, new ObjectName("org.avaje.imageop:type=ProcessingMetrics"));
+ *
+ * }</pre>
+ *
+ * <p>
+ * The main image is converted using ConvertMode.Max and the thumbnail and
+ * renditions using their ConvertMode so the statistics of the CONVERT stage
+ * by mode distinguish the main and thumbnail conversions.
+ * </p>
+ */
+public class ProcessingMetrics implements ProcessingListener, ProcessingMetricsMXBean {
+
+  private static final ProcessingStage[] STAGES = ProcessingStage.values();
+
+  private static final ConvertMode[] MODES = ConvertMode.values();
+
+  /**
+   * Histograms by stage and mode with the last of each stage for no mode
+   * (created when first recorded).
+   */
+  private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(
+      STAGES.length * (MODES.length + 1));
+
+  private static int index(ProcessingStage stage, ConvertMode mode) {
+    return stage.ordinal() * (MODES.length + 1) + ((mode == null) ? MODES.length : mode.ordinal());
+  }
+
+  @Override
+  public void stageCompleted(ProcessingEvent event) {
+    int index = index(event.getStage(), event.getMode());
+    LatencyHistogram histogram = histograms.get(index);
+    while (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      if (histograms.compareAndSet(index, null, created)) {
+        histogram = created;
+      } else {
+        // created concurrently (or reset again so retry)
+        histogram = histograms.get(index);
+      }
+    }
+    histogram.record(event);
+  }
+
+  /**
+   * Return the statistics of each stage and ConvertMode recorded so far.
+   */
+  @Override
+  public List<StageStatistics> getStatistics() {
+    List<StageStatistics> list = new ArrayList<StageStatistics>();
+    for (ProcessingStage stage : STAGES) {
+      for (int i = 0; i <= MODES.length; i++) {
+        ConvertMode mode = (i < MODES.length) ? MODES[i] : null;
+        LatencyHistogram histogram = histograms.get(index(stage, mode));
+        if (histogram != null) {
+          list.add(histogram.statistics(stage, mode));
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Return the statistics of the stage and ConvertMode (null mode for stages
+   * that are not for a single output image). Returns null when nothing has
+   * been recorded.
+   */
+  public StageStatistics getStatistics(ProcessingStage stage, ConvertMode mode) {
+    LatencyHistogram histogram = histograms.get(index(stage, mode));
+    return (histogram == null) ? null : histogram.statistics(stage, mode);
+  }
+
+  /**
+   * Return the statistics of the stage merged over all the ConvertModes.
+   */
+  public StageStatistics getStatistics(ProcessingStage stage) {
+    LatencyHistogram merged = new LatencyHistogram();
+    for (int i = 0; i <= MODES.length; i++) {
+      LatencyHistogram histogram = histograms.get(stage.ordinal() * (MODES.length + 1) + i);
+      if (histogram != null) {
+        histogram.addTo(merged);
+      }
+    }
+    return merged.statistics(stage, null);
+  }
+
+  /**
+   * Clear the recorded statistics. Stages completing concurrently with the
+   * reset may not be counted.
+   */
+  @Override
+  public void reset() {
+    for (int i = 0; i < histograms.length(); i++) {
+      histograms.set(i, null);
+    }
+  }
+}
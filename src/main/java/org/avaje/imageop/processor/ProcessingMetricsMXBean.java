@@ -0,0 +1,19 @@
+package org.avaje.imageop.processor;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link ProcessingMetrics}.
+ */
+public interface ProcessingMetricsMXBean {
+
+  /**
+   * Return the statistics of each stage and ConvertMode recorded so far.
+   */
+  List<StageStatistics> getStatistics();
+
+  /**
+   * Clear the recorded statistics.
+   */
+  void reset();
+}
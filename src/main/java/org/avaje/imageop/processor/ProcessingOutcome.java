@@ -0,0 +1,27 @@
+package org.avaje.imageop.processor;
+
+/**
+ * The outcome of a processing stage.
+ */
+public enum ProcessingOutcome {
+
+  /**
+   * The stage completed.
+   */
+  SUCCESS,
+
+  /**
+   * The converted images were restored from the cache.
+   */
+  HIT,
+
+  /**
+   * The converted images were not in the cache (or no longer available).
+   */
+  MISS,
+
+  /**
+   * The stage failed with an exception.
+   */
+  FAILURE
+}
@@ -0,0 +1,325 @@
+package org.avaje.imageop.processor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs image processing asynchronously with a cap on the number of concurrent
+ * conversions and a bounded queue of waiting conversions.
+ * <p>
+ * A conversion is dispatched to the executor when a permit is available and
+ * otherwise waits in the queue. When the queue is full the RejectionPolicy
+ * decides whether the conversion is rejected, run on the calling thread or
+ * the caller blocks until there is space. This keeps a server at saturation
+ * without an unbounded number of conversions (or ImageMagick processes) in
+ * flight.
+ * </p>
+ * <p>
+ * The default executor uses virtual threads when running on a JVM that
+ * supports them and otherwise a cached pool of daemon threads (the number of
+ * busy threads is bounded by maxConcurrent).
+ * </p>
+ */
+public class ProcessingQueue {
+
+  private static final Logger log = LoggerFactory.getLogger(ProcessingQueue.class);
+
+  /**
+   * What happens when a conversion is submitted and the queue is full.
+   */
+  public enum RejectionPolicy {
+
+    /**
+     * The returned future completes with a RejectedExecutionException.
+     */
+    Abort,
+
+    /**
+     * The conversion runs on the calling thread (once a permit is available)
+     * which slows down the producer.
+     */
+    CallerRuns,
+
+    /**
+     * The caller blocks until there is space in the queue.
+     */
+    Block
+  }
+
+  private final Executor executor;
+
+  private final boolean ownExecutor;
+
+  private final int maxConcurrent;
+
+  private final int maxQueued;
+
+  private final RejectionPolicy rejectionPolicy;
+
+  private final Semaphore permits;
+
+  private final BlockingQueue<Task<?>> queue;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicLong completed = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * Create with maxConcurrent of the number of available processors, a queue
+   * of 1000 and the Abort policy.
+   */
+  public ProcessingQueue() {
+    this(Runtime.getRuntime().availableProcessors(), 1000, RejectionPolicy.Abort);
+  }
+
+  /**
+   * Create using the default executor.
+   */
+  public ProcessingQueue(int maxConcurrent, int maxQueued, RejectionPolicy rejectionPolicy) {
+    this(null, maxConcurrent, maxQueued, rejectionPolicy);
+  }
+
+  /**
+   * Create using the given executor.
+   *
+   * @param executor
+   *          the executor that runs the conversions (null for the default)
+   * @param maxConcurrent
+   *          the maximum number of conversions that run at the same time
+   * @param maxQueued
+   *          the maximum number of conversions waiting for a permit
+   * @param rejectionPolicy
+   *          what to do when the queue is full
+   */
+  public ProcessingQueue(Executor executor, int maxConcurrent, int maxQueued, RejectionPolicy rejectionPolicy) {
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("maxConcurrent must be at least 1");
+    }
+    this.ownExecutor = (executor == null);
+    this.executor = ownExecutor ? defaultExecutor() : executor;
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.rejectionPolicy = (rejectionPolicy == null) ? RejectionPolicy.Abort : rejectionPolicy;
+    this.permits = new Semaphore(maxConcurrent);
+    this.queue = new LinkedBlockingQueue<Task<?>>(Math.max(1, maxQueued));
+  }
+
+  /**
+   * Return an executor using virtual threads when supported by the JVM and
+   * otherwise a cached pool of daemon threads.
+   */
+  public static ExecutorService defaultExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception e) {
+      log.trace("virtual threads not available", e);
+      return Executors.newCachedThreadPool(new DaemonThreadFactory());
+    }
+  }
+
+  /**
+   * Submit the task returning a future that completes with its result.
+   */
+  public <T> CompletableFuture<T> submit(Callable<T> callable) {
+
+    Task<T> task = new Task<T>(callable);
+    if (permits.tryAcquire()) {
+      if (queue.isEmpty()) {
+        dispatch(task);
+        return task.future;
+      }
+      // preserve the order of waiting tasks
+      permits.release();
+    }
+
+    if (maxQueued > 0 && queue.offer(task)) {
+      drain();
+      return task.future;
+    }
+
+    switch (rejectionPolicy) {
+    case Block:
+      try {
+        queue.put(task);
+        drain();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        rejected.incrementAndGet();
+        task.future.completeExceptionally(e);
+      }
+      break;
+    case CallerRuns:
+      try {
+        permits.acquire();
+        inFlight.incrementAndGet();
+        task.run();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        rejected.incrementAndGet();
+        task.future.completeExceptionally(e);
+      }
+      break;
+    default:
+      rejected.incrementAndGet();
+      task.future.completeExceptionally(new RejectedExecutionException("Processing queue full with " + queue.size() + " waiting"));
+    }
+    return task.future;
+  }
+
+  /**
+   * Dispatch waiting tasks while permits are available.
+   */
+  private void drain() {
+    while (!queue.isEmpty() && permits.tryAcquire()) {
+      Task<?> task = queue.poll();
+      if (task == null) {
+        permits.release();
+      } else {
+        dispatch(task);
+      }
+    }
+  }
+
+  /**
+   * Run the task on the executor (holding a permit).
+   */
+  private void dispatch(Task<?> task) {
+    inFlight.incrementAndGet();
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      inFlight.decrementAndGet();
+      permits.release();
+      rejected.incrementAndGet();
+      task.future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Shutdown the default executor (an executor supplied to the constructor is
+   * not shutdown).
+   */
+  public void shutdown() {
+    if (ownExecutor) {
+      ((ExecutorService) executor).shutdown();
+    }
+  }
+
+  /**
+   * Return the number of tasks waiting for a permit.
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Return the number of tasks running.
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Return the number of tasks that have completed (successfully or not).
+   */
+  public long getCompletedCount() {
+    return completed.get();
+  }
+
+  /**
+   * Return the number of tasks rejected.
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Return the maximum number of tasks that run at the same time.
+   */
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  /**
+   * Return the maximum number of tasks waiting for a permit.
+   */
+  public int getMaxQueued() {
+    return maxQueued;
+  }
+
+  /**
+   * Return the policy applied when the queue is full.
+   */
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  /**
+   * A submitted task that releases its permit and dispatches the next waiting
+   * task when it completes.
+   */
+  private class Task<T> implements Runnable {
+
+    final Callable<T> callable;
+
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+
+    Task(Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public void run() {
+      T result = null;
+      Throwable error = null;
+      try {
+        if (!future.isDone()) {
+          // not cancelled while waiting
+          result = callable.call();
+        }
+      } catch (Throwable e) {
+        error = e;
+      } finally {
+        // counters are updated before dependent stages run
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+        permits.release();
+      }
+      if (error != null) {
+        future.completeExceptionally(error);
+      } else {
+        future.complete(result);
+      }
+      drain();
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "imageop-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
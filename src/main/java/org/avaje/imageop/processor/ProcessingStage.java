@@ -0,0 +1,53 @@
+package org.avaje.imageop.processor;
+
+/**
+ * The stages of processing an image reported to a {@link ProcessingListener}.
+ */
+public enum ProcessingStage {
+
+  /**
+   * Probing the original image and creating its ImageFileDetail (decoding it
+   * when the probe does not give its size).
+   */
+  PROBE,
+
+  /**
+   * Looking up and restoring the converted images from the DerivativeCache.
+   */
+  CACHE,
+
+  /**
+   * Decoding the original image (JavaImageEngine).
+   */
+  DECODE,
+
+  /**
+   * Running an ImageMagick convert process or pooled worker command. This
+   * includes starting the process and is reported once for all the
+   * conversions when they are produced by a single convert process.
+   */
+  PROCESS,
+
+  /**
+   * Converting the original image into one output image (main, thumbnail or
+   * rendition).
+   */
+  CONVERT,
+
+  /**
+   * Encoding a converted image and writing it to its file or stream
+   * (JavaImageEngine).
+   */
+  ENCODE,
+
+  /**
+   * Copying the images to the caller streams and creating the ImageFileDetail
+   * of the output images.
+   */
+  OUTPUT,
+
+  /**
+   * Processing the image as a whole.
+   */
+  TOTAL
+}
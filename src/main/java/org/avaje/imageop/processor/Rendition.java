@@ -0,0 +1,113 @@
+package org.avaje.imageop.processor;
+
+/**
+ * A named size of image (like one width of a responsive srcset) produced by
+ * the ImageProcessor in addition to the main and thumbnail images.
+ * <p>
+ * Renditions are converted like thumbnails using their ConvertMode and are
+ * auto oriented.
+ * </p>
+ */
+public class Rendition {
+
+  private final String name;
+
+  private final int width;
+
+  private final int height;
+
+  private final ConvertMode mode;
+
+  private final String format;
+
+  private final EncoderOptions encoderOptions;
+
+  /**
+   * Create a rendition.
+   *
+   * @param name
+   *          the unique name of the rendition (letters, digits and '-')
+   * @param width
+   *          the target width
+   * @param height
+   *          the target height
+   * @param mode
+   *          the mode used to fit the image to the width and height
+   * @param format
+   *          the image format (extension) or null to derive it from the source
+   *          like the main image
+   */
+  public Rendition(String name, int width, int height, ConvertMode mode, String format) {
+    this(name, width, height, mode, format, null);
+  }
+
+  /**
+   * Create a rendition encoded using the options.
+   *
+   * @param encoderOptions
+   *          the options used to encode the rendition or null to use the
+   *          options of the main image
+   */
+  public Rendition(String name, int width, int height, ConvertMode mode, String format, EncoderOptions encoderOptions) {
+    if (name == null || !name.matches("[A-Za-z0-9-]+")) {
+      throw new IllegalArgumentException("Invalid rendition name " + name);
+    }
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid rendition size " + width + "x" + height);
+    }
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.mode = (mode == null) ? ConvertMode.Max : mode;
+    this.format = format;
+    this.encoderOptions = encoderOptions;
+  }
+
+  public String toString() {
+    String value = name + ":" + mode + ":" + width + "x" + height + ":" + format;
+    return (encoderOptions == null) ? value : value + ":" + encoderOptions;
+  }
+
+  /**
+   * Return the name of the rendition.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Return the target width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the target height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the mode used to fit the image to the width and height.
+   */
+  public ConvertMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Return the image format or null to derive it from the source image.
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  /**
+   * Return the options used to encode the rendition or null to use the
+   * options of the main image.
+   */
+  public EncoderOptions getEncoderOptions() {
+    return encoderOptions;
+  }
+}
@@ -0,0 +1,92 @@
+package org.avaje.imageop.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The renditions (named sizes) produced for each processed image.
+ * <p>
+ * All the renditions are converted from a single decode of the original. With
+ * the JavaImageEngine each smaller rendition is scaled from the nearest larger
+ * intermediate rather than the original so the work grows with the total
+ * output area rather than the number of renditions.
+ * </p>
+ *
+ * <pre>{@code
+ *
+ * RenditionSet renditions = new RenditionSet()
+ *   .add("w320", 320, 2000, ConvertMode.Max)
+ *   .add("w640", 640, 4000, ConvertMode.Max)
+ *   .add("square", 200, 200, ConvertMode.Crop, "png");
+ *
+ * processor.setRenditions(renditions);
+ *
+ * }</pre>
+ */
+public class RenditionSet {
+
+  private final List<Rendition> renditions = new ArrayList<Rendition>();
+
+  /**
+   * Add a rendition with the image format derived from the source.
+   */
+  public RenditionSet add(String name, int width, int height, ConvertMode mode) {
+    return add(new Rendition(name, width, height, mode, null));
+  }
+
+  /**
+   * Add a rendition with the given image format.
+   */
+  public RenditionSet add(String name, int width, int height, ConvertMode mode, String format) {
+    return add(new Rendition(name, width, height, mode, format));
+  }
+
+  /**
+   * Add a rendition with the given image format encoded using the options.
+   */
+  public RenditionSet add(String name, int width, int height, ConvertMode mode, String format, EncoderOptions encoderOptions) {
+    return add(new Rendition(name, width, height, mode, format, encoderOptions));
+  }
+
+  /**
+   * Add a rendition (the name must be unique in the set).
+   */
+  public RenditionSet add(Rendition rendition) {
+    if (get(rendition.getName()) != null) {
+      throw new IllegalArgumentException("Duplicate rendition name " + rendition.getName());
+    }
+    renditions.add(rendition);
+    return this;
+  }
+
+  /**
+   * Return the rendition with the name or null.
+   */
+  public Rendition get(String name) {
+    for (Rendition rendition : renditions) {
+      if (rendition.getName().equals(name)) {
+        return rendition;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the renditions in the order they were added.
+   */
+  public List<Rendition> getRenditions() {
+    return Collections.unmodifiableList(renditions);
+  }
+
+  /**
+   * Return the number of renditions.
+   */
+  public int size() {
+    return renditions.size();
+  }
+
+  public String toString() {
+    return renditions.toString();
+  }
+}
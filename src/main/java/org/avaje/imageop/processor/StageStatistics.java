@@ -0,0 +1,154 @@
+package org.avaje.imageop.processor;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics of a processing stage collected by
+ * {@link ProcessingMetrics}.
+ * <p>
+ * Durations are in nanoseconds with the percentiles accurate to within 1/16
+ * of the value.
+ * </p>
+ */
+public class StageStatistics {
+
+  private final ProcessingStage stage;
+  private final ConvertMode mode;
+  private final long count;
+  private final long failures;
+  private final long hits;
+  private final long misses;
+  private final long totalNanos;
+  private final long bytes;
+  private final long pixels;
+  private final long p50Nanos;
+  private final long p95Nanos;
+  private final long p99Nanos;
+  private final long maxNanos;
+
+  /**
+   * Create the statistics.
+   */
+  @ConstructorProperties({ "stage", "mode", "count", "failures", "hits", "misses", "totalNanos", "bytes", "pixels", "p50Nanos",
+      "p95Nanos", "p99Nanos", "maxNanos" })
+  public StageStatistics(ProcessingStage stage, ConvertMode mode, long count, long failures, long hits, long misses, long totalNanos,
+      long bytes, long pixels, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos) {
+    this.stage = stage;
+    this.mode = mode;
+    this.count = count;
+    this.failures = failures;
+    this.hits = hits;
+    this.misses = misses;
+    this.totalNanos = totalNanos;
+    this.bytes = bytes;
+    this.pixels = pixels;
+    this.p50Nanos = p50Nanos;
+    this.p95Nanos = p95Nanos;
+    this.p99Nanos = p99Nanos;
+    this.maxNanos = maxNanos;
+  }
+
+  public String toString() {
+    return stage + ((mode == null) ? "" : " " + mode) + " count:" + count + " failures:" + failures + " p50:" + (p50Nanos / 1000)
+        + "us p95:" + (p95Nanos / 1000) + "us p99:" + (p99Nanos / 1000) + "us max:" + (maxNanos / 1000) + "us";
+  }
+
+  /**
+   * Return the stage.
+   */
+  public ProcessingStage getStage() {
+    return stage;
+  }
+
+  /**
+   * Return the ConvertMode (null for stages that are not for a single output
+   * image and for statistics merged over all the modes).
+   */
+  public ConvertMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Return the number of times the stage completed (including failures).
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Return the number of times the stage failed.
+   */
+  public long getFailures() {
+    return failures;
+  }
+
+  /**
+   * Return the number of cache hits (CACHE stage).
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Return the number of cache misses (CACHE stage).
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Return the total duration of the stage.
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /**
+   * Return the mean duration of the stage.
+   */
+  public long getMeanNanos() {
+    return (count == 0) ? 0 : totalNanos / count;
+  }
+
+  /**
+   * Return the total bytes read or written by the stage.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the total pixels decoded or produced by the stage.
+   */
+  public long getPixels() {
+    return pixels;
+  }
+
+  /**
+   * Return the median duration.
+   */
+  public long getP50Nanos() {
+    return p50Nanos;
+  }
+
+  /**
+   * Return the 95th percentile duration.
+   */
+  public long getP95Nanos() {
+    return p95Nanos;
+  }
+
+  /**
+   * Return the 99th percentile duration.
+   */
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  /**
+   * Return the maximum duration.
+   */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+}
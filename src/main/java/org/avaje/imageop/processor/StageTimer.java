@@ -0,0 +1,65 @@
+package org.avaje.imageop.processor;
+
+/**
+ * Times a processing stage notifying the listener when it starts and
+ * completes.
+ */
+final class StageTimer {
+
+  private final ProcessingListener listener;
+  private final ProcessingStage stage;
+  private final String role;
+  private final ConvertMode mode;
+  private final long start;
+
+  private StageTimer(ProcessingListener listener, ProcessingStage stage, String role, ConvertMode mode) {
+    this.listener = listener;
+    this.stage = stage;
+    this.role = role;
+    this.mode = mode;
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Start timing a stage that is not for a single output image.
+   */
+  static StageTimer start(ProcessingListener listener, ProcessingStage stage) {
+    return start(listener, stage, null, null);
+  }
+
+  /**
+   * Start timing a stage for the output image of the conversion.
+   */
+  static StageTimer start(ProcessingListener listener, ProcessingStage stage, ImageConversion conversion) {
+    return start(listener, stage, conversion.getRole(), conversion.getMode());
+  }
+
+  /**
+   * Start timing the stage.
+   */
+  static StageTimer start(ProcessingListener listener, ProcessingStage stage, String role, ConvertMode mode) {
+    listener.stageStarted(stage, role, mode);
+    return new StageTimer(listener, stage, role, mode);
+  }
+
+  /**
+   * The stage completed successfully.
+   */
+  void completed(long bytes, long pixels) {
+    completed(ProcessingOutcome.SUCCESS, bytes, pixels);
+  }
+
+  /**
+   * The stage completed with the given outcome.
+   */
+  void completed(ProcessingOutcome outcome, long bytes, long pixels) {
+    listener.stageCompleted(new ProcessingEvent(stage, role, mode, System.nanoTime() - start, bytes, pixels, outcome, null));
+  }
+
+  /**
+   * The stage failed.
+   */
+  void failed(Throwable error) {
+    listener.stageCompleted(new ProcessingEvent(stage, role, mode, System.nanoTime() - start, 0, 0, ProcessingOutcome.FAILURE, error));
+  }
+}
@@ -0,0 +1,134 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BandExecutorTest {
+
+  @Test
+  public void testScaleMatchesSerial() throws IOException {
+
+    BufferedImage in = TestImages.read("ethan.jpg");
+
+    ExecutorService threads = Executors.newFixedThreadPool(3);
+    try {
+      BandExecutor[] executors = { new BandExecutor(new ForkJoinPool(4), 4, 0), new BandExecutor(threads, 5, 0) };
+      for (BandExecutor executor : executors) {
+        for (ScaleKernel kernel : new ScaleKernel[] { ScaleKernel.Box, ScaleKernel.Lanczos3 }) {
+          ScaleImageOp serial = new ScaleImageOp(300, 211, kernel);
+          ScaleImageOp parallel = new ScaleImageOp(300, 211, kernel);
+          parallel.setBandExecutor(executor);
+          assertSame(serial.filter(in, null), parallel.filter(in, null));
+        }
+
+        MaxSizeImageOp serial = new MaxSizeImageOp(250, 250, true, Color.WHITE);
+        MaxSizeImageOp parallel = new MaxSizeImageOp(250, 250, true, Color.WHITE);
+        parallel.setBandExecutor(executor);
+        assertSame(serial.filter(in, null), parallel.filter(in, null));
+
+        CropScaleImageOp serialCrop = new CropScaleImageOp(200, 200);
+        CropScaleImageOp parallelCrop = new CropScaleImageOp(200, 200);
+        parallelCrop.setBandExecutor(executor);
+        assertSame(serialCrop.filter(in, null), parallelCrop.filter(in, null));
+      }
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  @Test
+  public void testPointFilterMatchesSerial() throws IOException {
+
+    BufferedImage in = TestImages.read("test-c.jpeg");
+
+    PointFilter serial = new InvertFilter();
+    PointFilter parallel = new InvertFilter();
+    parallel.setBandExecutor(new BandExecutor(new ForkJoinPool(2), 4, 0));
+    assertSame(serial.filter(in, null), parallel.filter(in, null));
+  }
+
+  @Test
+  public void testBelowThresholdRunsOnCaller() {
+
+    final Thread caller = Thread.currentThread();
+    final int[] rows = new int[1];
+    new BandExecutor().run(100, 100, new BandExecutor.Band() {
+      public void run(int y0, int y1) {
+        Assert.assertSame(caller, Thread.currentThread());
+        rows[0] += y1 - y0;
+      }
+    });
+    Assert.assertEquals(100, rows[0]);
+  }
+
+  @Test
+  public void testRejectedBandsRunOnCaller() {
+
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    threads.shutdown();
+
+    final Thread caller = Thread.currentThread();
+    final int[] rows = new int[1];
+    new BandExecutor(threads, 4, 0).run(100, 100, new BandExecutor.Band() {
+      public void run(int y0, int y1) {
+        Assert.assertSame(caller, Thread.currentThread());
+        rows[0] += y1 - y0;
+      }
+    });
+    Assert.assertEquals(100, rows[0]);
+  }
+
+  @Test
+  public void testCallerErrorWaitsForBands() {
+
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    try {
+      final AtomicInteger completed = new AtomicInteger();
+      try {
+        new BandExecutor(threads, 3, 0).run(100, 90, new BandExecutor.Band() {
+          public void run(int y0, int y1) {
+            if (y0 == 0) {
+              throw new IllegalArgumentException("first band");
+            }
+            try {
+              Thread.sleep(200);
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+            completed.incrementAndGet();
+          }
+        });
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals("first band", e.getMessage());
+        Assert.assertEquals(2, completed.get());
+      }
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  private static class InvertFilter extends PointFilter {
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      return (rgb & 0xff000000) | (~rgb & 0xffffff);
+    }
+  }
+
+  private void assertSame(BufferedImage expected, BufferedImage actual) {
+    Assert.assertEquals(expected.getWidth(), actual.getWidth());
+    Assert.assertEquals(expected.getHeight(), actual.getHeight());
+    int width = expected.getWidth();
+    int[] e = expected.getRGB(0, 0, width, expected.getHeight(), null, 0, width);
+    int[] a = actual.getRGB(0, 0, width, actual.getHeight(), null, 0, width);
+    Assert.assertArrayEquals(e, a);
+  }
+}
@@ -0,0 +1,70 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CropImageOpTest {
+
+  @Test
+  public void testViewSharesRaster() throws IOException {
+
+    BufferedImage src = TestImages.read("test-c.jpeg");
+    BufferedImage view = new CropImageOp(20, 10, 100, 50, true).filter(src, null);
+    Assert.assertEquals(100, view.getWidth());
+    Assert.assertEquals(50, view.getHeight());
+    Assert.assertSame(src.getRaster().getDataBuffer(), view.getRaster().getDataBuffer());
+    Assert.assertEquals(src.getRGB(20, 10), view.getRGB(0, 0));
+    Assert.assertEquals(src.getRGB(119, 59), view.getRGB(99, 49));
+
+    // writes are visible in the source
+    view.setRGB(0, 0, 0xff010203);
+    Assert.assertEquals(0xff010203, src.getRGB(20, 10));
+  }
+
+  @Test
+  public void testDetachedCopy() throws IOException {
+
+    BufferedImage src = TestImages.read("test-c.jpeg");
+    BufferedImage copy = new CropImageOp(20, 10, 100, 50).filter(src, null);
+    Assert.assertNotSame(src.getRaster().getDataBuffer(), copy.getRaster().getDataBuffer());
+    assertRegion(src, 20, 10, copy);
+
+    copy.setRGB(0, 0, 0xff010203);
+    Assert.assertNotEquals(0xff010203, src.getRGB(20, 10));
+  }
+
+  @Test
+  public void testScaleOfView() throws IOException {
+
+    // a scale of the view matches a scale of a copy
+    BufferedImage src = TestImages.read("test-c.jpeg");
+    BufferedImage view = new CropImageOp(33, 7, 120, 90, true).filter(src, null);
+    BufferedImage copy = new CropImageOp(33, 7, 120, 90).filter(src, null);
+    ScaleImageOp scale = new ScaleImageOp(40, 30, ScaleKernel.Lanczos3);
+    BufferedImage expected = scale.filter(copy, null);
+    BufferedImage actual = scale.filter(view, null);
+    assertRegion(expected, 0, 0, actual);
+  }
+
+  @Test
+  public void testOutsideSourceCopies() throws IOException {
+
+    BufferedImage src = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+    src.setRGB(9, 9, 0xffff0000);
+    BufferedImage out = new CropImageOp(5, 5, 10, 10, true).filter(src, null);
+    Assert.assertNotSame(src.getRaster().getDataBuffer(), out.getRaster().getDataBuffer());
+    Assert.assertEquals(10, out.getWidth());
+    Assert.assertEquals(0xffff0000, out.getRGB(4, 4));
+    Assert.assertEquals(0, out.getRGB(9, 9));
+  }
+
+  private void assertRegion(BufferedImage src, int x, int y, BufferedImage actual) {
+    int width = actual.getWidth();
+    int height = actual.getHeight();
+    int[] expected = src.getRGB(x, y, width, height, null, 0, width);
+    Assert.assertArrayEquals(expected, actual.getRGB(0, 0, width, height, null, 0, width));
+  }
+}
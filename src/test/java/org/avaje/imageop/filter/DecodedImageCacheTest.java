@@ -0,0 +1,155 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DecodedImageCacheTest {
+
+  @Test
+  public void testWeightBoundedEviction() throws IOException {
+
+    // 10x10 int rgb images weigh 400 bytes
+    DecodedImageCache cache = new DecodedImageCache(1000);
+    Assert.assertEquals(400, DecodedImageCache.weigh(image(10, 10)));
+
+    cache.put("a", image(10, 10));
+    cache.put("b", image(10, 10));
+    Assert.assertNotNull(cache.getIfPresent("a"));
+    cache.put(DecodedImageCache.scaledKey("a", 5, 5), image(10, 10));
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(800, cache.getWeight());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertNull(cache.getIfPresent("b"));
+    Assert.assertNotNull(cache.getIfPresent(DecodedImageCache.scaledKey("a", 5, 5)));
+
+    // heavier than the maximum is not cached
+    cache.put("big", image(20, 20));
+    Assert.assertNull(cache.getIfPresent("big"));
+    Assert.assertEquals(2, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+
+    final DecodedImageCache cache = new DecodedImageCache(1024 * 1024);
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(new Callable<BufferedImage>() {
+          public BufferedImage call() throws Exception {
+            return cache.get("source", () -> {
+              loads.incrementAndGet();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return image(10, 10);
+            });
+          }
+        }));
+      }
+      Thread.sleep(100);
+      release.countDown();
+
+      BufferedImage first = futures.get(0).get();
+      for (Future<BufferedImage> future : futures) {
+        Assert.assertSame(first, future.get());
+      }
+      Assert.assertEquals(1, loads.get());
+      Assert.assertEquals(1, cache.getLoadCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedLoadNotCached() throws IOException {
+
+    DecodedImageCache cache = new DecodedImageCache(1024 * 1024);
+    try {
+      cache.get("source", () -> {
+        throw new IOException("corrupt");
+      });
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals("corrupt", e.getMessage());
+    }
+    Assert.assertEquals(0, cache.size());
+    Assert.assertNotNull(cache.get("source", () -> image(2, 2)));
+    Assert.assertEquals(2, cache.getLoadCount());
+  }
+
+  @Test
+  public void testLoadErrorCompletesWaiters() throws Exception {
+
+    final DecodedImageCache cache = new DecodedImageCache(1024 * 1024);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<BufferedImage> loader = executor.submit(new Callable<BufferedImage>() {
+        public BufferedImage call() throws Exception {
+          return cache.get("source", () -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+            throw new OutOfMemoryError("decoding");
+          });
+        }
+      });
+      started.await();
+      Future<BufferedImage> waiter = executor.submit(new Callable<BufferedImage>() {
+        public BufferedImage call() throws Exception {
+          return cache.get("source", () -> image(2, 2));
+        }
+      });
+      Thread.sleep(100);
+      release.countDown();
+
+      try {
+        waiter.get(3, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+        Assert.assertTrue(e.getCause().getCause() instanceof OutOfMemoryError);
+      }
+      try {
+        loader.get(3, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof OutOfMemoryError);
+      }
+      Assert.assertEquals(0, cache.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static BufferedImage image(int width, int height) {
+    return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+  }
+}
@@ -0,0 +1,115 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeometryPlanTest {
+
+  @Test
+  public void testFit() {
+
+    GeometryPlan plan = GeometryPlan.fit(2448, 3264, 600, 600, false);
+    Assert.assertEquals(450, plan.getWidth());
+    Assert.assertEquals(600, plan.getHeight());
+    Assert.assertTrue(plan.isScaled());
+    Assert.assertFalse(plan.isCropped());
+    Assert.assertFalse(plan.isPadded());
+
+    // already fits so no change
+    Assert.assertTrue(GeometryPlan.fit(220, 153, 600, 600, false).isIdentity());
+
+    // enlarge
+    plan = GeometryPlan.fit(220, 153, 440, 440, true);
+    Assert.assertEquals(440, plan.getWidth());
+    Assert.assertEquals(306, plan.getHeight());
+  }
+
+  @Test
+  public void testFitExtent() {
+
+    GeometryPlan plan = GeometryPlan.fit(722, 86, 200, 150, false).extent(200, 150);
+    Assert.assertEquals(200, plan.getWidth());
+    Assert.assertEquals(150, plan.getHeight());
+    Assert.assertEquals(200, plan.getScaleWidth());
+    Assert.assertEquals(24, plan.getScaleHeight());
+    Assert.assertEquals(0, plan.getOffsetX());
+    Assert.assertEquals(63, plan.getOffsetY());
+    Assert.assertTrue(plan.isPadded());
+  }
+
+  @Test
+  public void testCover() {
+
+    GeometryPlan plan = GeometryPlan.cover(2448, 3264, 150, 150);
+    Assert.assertEquals(150, plan.getWidth());
+    Assert.assertEquals(150, plan.getHeight());
+    Assert.assertEquals(150, plan.getScaleWidth());
+    Assert.assertEquals(150, plan.getScaleHeight());
+    Assert.assertEquals(0, plan.getCropX());
+    Assert.assertEquals(2448, plan.getCropWidth());
+    Assert.assertEquals(2448, plan.getCropHeight());
+    Assert.assertEquals((3264 - 2448) / 2, plan.getCropY());
+    Assert.assertFalse(plan.isPadded());
+
+    // the scaled height (266.7) is rounded, the crop is still square and centred
+    assertCrop(GeometryPlan.cover(2448, 3264, 200, 200), 0, 408, 2448, 2448);
+    assertCrop(GeometryPlan.cover(3264, 2448, 200, 200), 408, 0, 2448, 2448);
+    // and keeps the aspect ratio of the output
+    assertCrop(GeometryPlan.cover(1000, 1000, 300, 200), 0, 166, 1000, 667);
+    assertCrop(GeometryPlan.cover(1001, 700, 90, 70), 50, 0, 900, 700);
+  }
+
+  private void assertCrop(GeometryPlan plan, int x, int y, int width, int height) {
+    Assert.assertEquals(plan.toString(), Arrays.asList(x, y, width, height),
+        Arrays.asList(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight()));
+  }
+
+  @Test
+  public void testResampled() {
+
+    // relative to an intermediate of the whole source scaled to the cover size
+    GeometryPlan plan = GeometryPlan.cover(2448, 3264, 150, 150).resampled(150, 200);
+    Assert.assertEquals(150, plan.getSourceWidth());
+    Assert.assertEquals(200, plan.getSourceHeight());
+    Assert.assertEquals(0, plan.getCropX());
+    Assert.assertEquals(25, plan.getCropY());
+    Assert.assertEquals(150, plan.getCropWidth());
+    Assert.assertEquals(150, plan.getCropHeight());
+    Assert.assertFalse(plan.isScaled());
+    Assert.assertEquals(150, plan.getWidth());
+  }
+
+  @Test
+  public void testAreaExtent() {
+
+    // 722x86 to the area of 200x150 is 502x60 then cropped to 200 wide and padded to 150 high
+    GeometryPlan plan = GeometryPlan.area(722, 86, 200, 150).extent(200, 150);
+    Assert.assertEquals(200, plan.getWidth());
+    Assert.assertEquals(150, plan.getHeight());
+    Assert.assertEquals(200, plan.getScaleWidth());
+    Assert.assertEquals(60, plan.getScaleHeight());
+    Assert.assertTrue(plan.isCropped());
+    Assert.assertTrue(plan.isPadded());
+    Assert.assertEquals(45, plan.getOffsetY());
+    Assert.assertEquals(0, plan.getCropY());
+    Assert.assertEquals(86, plan.getCropHeight());
+    Assert.assertTrue(plan.getCropX() + plan.getCropWidth() <= 722);
+  }
+
+  @Test
+  public void testPlanImageOp() {
+
+    GeometryPlan plan = GeometryPlan.area(722, 86, 200, 150).extent(200, 150);
+    BufferedImage src = ScaleImageOpTest.solid(722, 86, BufferedImage.TYPE_INT_RGB, 0xff00ff00);
+    BufferedImage out = new PlanImageOp(plan, ScaleKernel.Box, Color.RED, 0).filter(src, null);
+    Assert.assertEquals(200, out.getWidth());
+    Assert.assertEquals(150, out.getHeight());
+    Assert.assertEquals(0xffff0000, out.getRGB(100, 10));
+    Assert.assertEquals(0xff00ff00, out.getRGB(100, 75));
+    Assert.assertEquals(0xffff0000, out.getRGB(100, 140));
+  }
+}
@@ -0,0 +1,99 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageOpChainTest {
+
+  @Test
+  public void testMergedMatchesSequential() throws IOException {
+
+    BufferedImage in = TestImages.read("test-c.jpeg");
+    ImageOp[] ops = { new CropImageOp(10, 20, 150, 100), new ScaleImageOp(90, 60, ScaleKernel.Lanczos3),
+        new BorderOp(5, 4, 3, 2, Color.WHITE, BufferedImage.TYPE_INT_RGB), new InvertFilter(), new MaskFilter(0xff00ffff) };
+
+    ImageOpChain chain = new ImageOpChain(ops);
+    Rectangle2D bounds = chain.getBounds2D(in);
+    Assert.assertEquals(98, (int) bounds.getWidth());
+    Assert.assertEquals(66, (int) bounds.getHeight());
+
+    // crop, scale and border then the 2 point filters
+    List<ImageOp> plan = chain.plan(in.getWidth(), in.getHeight());
+    Assert.assertEquals(2, plan.size());
+    Assert.assertTrue(plan.get(0) instanceof PlanImageOp);
+    Assert.assertTrue(plan.get(1) instanceof PointFilter);
+
+    int[] before = pixels(in);
+    assertSame(sequential(in, ops), chain.filter(in, null));
+    Assert.assertArrayEquals("source unchanged", before, pixels(in));
+  }
+
+  @Test
+  public void testPointFiltersOnSource() throws IOException {
+
+    BufferedImage in = TestImages.read("test-b.png");
+    ImageOp[] ops = { new InvertFilter(), new MaskFilter(0xffff00ff), new InvertFilter() };
+    int[] before = pixels(in);
+    assertSame(sequential(in, ops), new ImageOpChain(ops).filter(in, null));
+    Assert.assertArrayEquals("source unchanged", before, pixels(in));
+  }
+
+  @Test
+  public void testReusedBuffers() throws IOException {
+
+    // the third scale and the filters reuse the images of earlier steps
+    BufferedImage in = TestImages.read("test-c.jpeg");
+    ImageOp[] ops = { new ScaleImageOp(200, 140), new InvertFilter(), new ScaleImageOp(100, 70), new ScaleImageOp(200, 140),
+        new OrientationOp(6), new MaskFilter(0xff0000ff), new CropImageOp(5, 5, 100, 100), new InvertFilter(),
+        new MaxSizeImageOp(50, 50, true, Color.BLACK) };
+    ImageOpChain chain = new ImageOpChain(ops);
+    assertSame(sequential(in, ops), chain.filter(in, null));
+    // the chain can be run again
+    assertSame(sequential(in, ops), chain.filter(in, null));
+  }
+
+  private BufferedImage sequential(BufferedImage in, ImageOp[] ops) {
+    BufferedImage image = in;
+    for (ImageOp op : ops) {
+      image = op.filter(image, null);
+    }
+    return image;
+  }
+
+  private static class InvertFilter extends PointFilter {
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      return (rgb & 0xff000000) | (~rgb & 0xffffff);
+    }
+  }
+
+  private static class MaskFilter extends PointFilter {
+
+    final int mask;
+
+    MaskFilter(int mask) {
+      this.mask = mask;
+    }
+
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      return rgb & mask;
+    }
+  }
+
+  private int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  private void assertSame(BufferedImage expected, BufferedImage actual) {
+    Assert.assertEquals(expected.getWidth(), actual.getWidth());
+    Assert.assertEquals(expected.getHeight(), actual.getHeight());
+    Assert.assertArrayEquals(pixels(expected), pixels(actual));
+  }
+}
@@ -0,0 +1,154 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImagePoolTest {
+
+  @Test
+  public void testBucket() {
+    Assert.assertEquals(64, ImagePool.bucket(1));
+    Assert.assertEquals(64, ImagePool.bucket(64));
+    Assert.assertEquals(320, ImagePool.bucket(300));
+    Assert.assertEquals(1024, ImagePool.bucket(1000));
+    Assert.assertEquals(2560, ImagePool.bucket(2500));
+  }
+
+  @Test
+  public void testAcquireRelease() {
+
+    ImagePool pool = new ImagePool(10 * 1024 * 1024);
+    BufferedImage first = pool.acquire(300, 200, BufferedImage.TYPE_INT_RGB);
+    Assert.assertEquals(300, first.getWidth());
+    Assert.assertEquals(200, first.getHeight());
+    Assert.assertEquals(BufferedImage.TYPE_INT_RGB, first.getType());
+    Assert.assertEquals(1, pool.getAcquiredCount());
+    first.setRGB(10, 10, 0xffffff);
+
+    Assert.assertTrue(pool.release(first));
+    Assert.assertFalse(pool.release(first));
+    Assert.assertFalse(pool.release(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB)));
+    Assert.assertEquals(320 * 256 * 4, pool.getIdleBytes());
+
+    // same bucket reuses the raster (cleared)
+    BufferedImage second = pool.acquire(310, 220, BufferedImage.TYPE_INT_RGB);
+    Assert.assertSame(first.getRaster().getDataBuffer(), second.getRaster().getDataBuffer());
+    Assert.assertEquals(0xff000000, second.getRGB(10, 10));
+    Assert.assertEquals(1, pool.getHitCount());
+    Assert.assertEquals(1, pool.getMissCount());
+    Assert.assertEquals(0, pool.getIdleBytes());
+
+    // another type or bucket does not
+    BufferedImage other = pool.acquire(310, 190, BufferedImage.TYPE_3BYTE_BGR);
+    Assert.assertEquals(BufferedImage.TYPE_3BYTE_BGR, other.getType());
+    Assert.assertEquals(2, pool.getMissCount());
+    pool.release(second);
+    pool.acquire(700, 190, BufferedImage.TYPE_INT_RGB);
+    Assert.assertEquals(3, pool.getMissCount());
+  }
+
+  @Test
+  public void testUnreleasedImageIsCollected() throws InterruptedException {
+
+    ImagePool pool = new ImagePool(10 * 1024 * 1024);
+    WeakReference<BufferedImage> ref = new WeakReference<BufferedImage>(pool.acquire(300, 200, BufferedImage.TYPE_INT_RGB));
+    for (int i = 0; i < 50 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    Assert.assertNull(ref.get());
+    Assert.assertEquals(0, pool.getAcquiredCount());
+  }
+
+  @Test
+  public void testMaxBytes() {
+
+    ImagePool pool = new ImagePool(64 * 64 * 4 * 2);
+    BufferedImage a = pool.acquire(64, 64, BufferedImage.TYPE_INT_ARGB);
+    BufferedImage b = pool.acquire(64, 64, BufferedImage.TYPE_INT_ARGB);
+    BufferedImage c = pool.acquire(64, 64, BufferedImage.TYPE_INT_RGB);
+    pool.release(a);
+    pool.release(b);
+    Assert.assertEquals(0, pool.getDiscardCount());
+
+    // the least recently used idle raster is discarded
+    pool.release(c);
+    Assert.assertEquals(1, pool.getDiscardCount());
+    Assert.assertEquals(64 * 64 * 4 * 2, pool.getIdleBytes());
+
+    // too large to pool at all
+    pool.release(pool.acquire(200, 200, BufferedImage.TYPE_INT_RGB));
+    Assert.assertEquals(2, pool.getDiscardCount());
+
+    pool.clear();
+    Assert.assertEquals(0, pool.getIdleBytes());
+  }
+
+  @Test
+  public void testPooledOpsMatchAllocated() throws IOException {
+
+    BufferedImage in = TestImages.read("ethan.jpg");
+    ImagePool pool = new ImagePool(64 * 1024 * 1024);
+
+    for (int i = 0; i < 2; i++) {
+      ImageOp[] allocated = { new ScaleImageOp(300, 211), new MaxSizeImageOp(250, 250, true, Color.WHITE),
+          new CropScaleImageOp(200, 200), new OrientationOp(6), new CropImageOp(10, 20, 100, 80) };
+      ImageOp[] pooled = { new ScaleImageOp(300, 211), new MaxSizeImageOp(250, 250, true, Color.WHITE),
+          new CropScaleImageOp(200, 200), new OrientationOp(6), new CropImageOp(10, 20, 100, 80) };
+      for (int j = 0; j < allocated.length; j++) {
+        pooled[j].setImagePool(pool);
+        BufferedImage out = pooled[j].filter(in, null);
+        assertSame(allocated[j].filter(in, null), out);
+        Assert.assertTrue(pool.release(out));
+      }
+    }
+    Assert.assertTrue(pool.getHitCount() > 0);
+    Assert.assertEquals(0, pool.getAcquiredCount());
+  }
+
+  @Test
+  public void testChainReleasesIntermediates() throws IOException {
+
+    BufferedImage in = TestImages.read("ethan.jpg");
+    ImagePool pool = new ImagePool(64 * 1024 * 1024);
+
+    ImageOpChain chain = new ImageOpChain(new ScaleImageOp(300, 211), new OrientationOp(3), new ScaleImageOp(150, 105));
+    chain.setImagePool(pool);
+    BufferedImage out = chain.filter(in, null);
+
+    // only the result is still acquired
+    Assert.assertEquals(1, pool.getAcquiredCount());
+    Assert.assertTrue(pool.release(out));
+  }
+
+  @Test
+  public void testPaddedPlanReleasesScaled() {
+
+    // a source with alpha padded into an opaque image is scaled then drawn
+    BufferedImage in = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+    ImagePool pool = new ImagePool(64 * 1024 * 1024);
+
+    GeometryPlan plan = GeometryPlan.fit(400, 300, 200, 200, false).extent(200, 200);
+    PlanImageOp op = new PlanImageOp(plan, ScaleKernel.Box, Color.WHITE, BufferedImage.TYPE_INT_RGB);
+    op.setImagePool(pool);
+    BufferedImage out = op.filter(in, null);
+
+    Assert.assertEquals(BufferedImage.TYPE_INT_RGB, out.getType());
+    Assert.assertEquals(1, pool.getAcquiredCount());
+    Assert.assertTrue(pool.release(out));
+  }
+
+  private void assertSame(BufferedImage expected, BufferedImage actual) {
+    Assert.assertEquals(expected.getWidth(), actual.getWidth());
+    Assert.assertEquals(expected.getHeight(), actual.getHeight());
+    int width = expected.getWidth();
+    int[] e = expected.getRGB(0, 0, width, expected.getHeight(), null, 0, width);
+    int[] a = actual.getRGB(0, 0, width, actual.getHeight(), null, 0, width);
+    Assert.assertArrayEquals(e, a);
+  }
+}
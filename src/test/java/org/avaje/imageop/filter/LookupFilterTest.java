@@ -0,0 +1,115 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LookupFilterTest {
+
+  @Test
+  public void testTables() {
+
+    Assert.assertEquals(0xff8c5038, new BrightnessFilter(1.4f).filterRGB(0, 0, 0xff643928));
+    Assert.assertEquals(0x80ffffff, new BrightnessFilter(3f).filterRGB(0, 0, 0x80646464));
+    Assert.assertEquals(0xff000000 | (128 << 16) | (188 << 8) | 255, new GammaFilter(2f).filterRGB(0, 0, 0xff408aff));
+    Assert.assertEquals(0xff008080, new LevelsFilter(50, 200).filterRGB(0, 0, 0xff207d7d));
+    Assert.assertEquals(0xff030201, new ChannelSwapFilter(LookupTable.BLUE, LookupTable.GREEN, LookupTable.RED).filterRGB(0, 0, 0xff010203));
+    Assert.assertTrue(new GammaFilter(1f).getTable().isIdentity());
+    Assert.assertFalse(new ChannelSwapFilter(LookupTable.BLUE, LookupTable.GREEN, LookupTable.RED).getTable().isIdentity());
+  }
+
+  @Test
+  public void testMergedMatchesSequential() {
+
+    LookupFilter[] filters = { new GammaFilter(1.3f), new ChannelSwapFilter(LookupTable.GREEN, LookupTable.BLUE, LookupTable.RED),
+        new LevelsFilter(20, 230, 10, 240), new BrightnessFilter(1.2f) };
+    LookupFilter merged = filters[0];
+    for (int i = 1; i < filters.length; i++) {
+      merged = merged.then(filters[i]);
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      int rgb = random.nextInt();
+      int expected = rgb;
+      for (LookupFilter filter : filters) {
+        expected = filter.filterRGB(0, 0, expected);
+      }
+      Assert.assertEquals(expected, merged.filterRGB(0, 0, rgb));
+    }
+  }
+
+  @Test
+  public void testImageTypes() {
+
+    LookupFilter filter = new GammaFilter(0.8f).then(new ChannelSwapFilter(LookupTable.BLUE, LookupTable.RED, LookupTable.GREEN));
+    int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE };
+
+    for (int type : types) {
+      BufferedImage src = image(37, 23, type);
+      BufferedImage expected = new BufferedImage(37, 23, type);
+      for (int y = 0; y < 23; y++) {
+        for (int x = 0; x < 37; x++) {
+          expected.setRGB(x, y, filter.filterRGB(x, y, src.getRGB(x, y)));
+        }
+      }
+      assertSame(expected, filter.filter(src, null));
+
+      // into an image of another type and in place
+      BufferedImage rgb = new BufferedImage(37, 23, BufferedImage.TYPE_INT_RGB);
+      filter.filter(src, rgb);
+      assertSame(opaque(expected), rgb);
+      filter.filter(src, src);
+      assertSame(expected, src);
+    }
+  }
+
+  @Test
+  public void testChainMerges() {
+
+    ImageOp[] ops = { new BrightnessFilter(1.1f), new GammaFilter(1.2f), new LevelsFilter(10, 240) };
+    ImageOpChain chain = new ImageOpChain(ops);
+    List<ImageOp> plan = chain.plan(40, 30);
+    Assert.assertEquals(1, plan.size());
+    Assert.assertTrue(plan.get(0) instanceof LookupFilter);
+
+    BufferedImage in = image(40, 30, BufferedImage.TYPE_INT_RGB);
+    BufferedImage expected = in;
+    for (ImageOp op : ops) {
+      expected = op.filter(expected, null);
+    }
+    assertSame(expected, chain.filter(in, null));
+  }
+
+  private BufferedImage image(int width, int height, int type) {
+    Random random = new Random(width * height + type);
+    BufferedImage image = new BufferedImage(width, height, type);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, 0xff000000 | random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  private BufferedImage opaque(BufferedImage image) {
+    BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        rgb.setRGB(x, y, image.getRGB(x, y));
+      }
+    }
+    return rgb;
+  }
+
+  private void assertSame(BufferedImage expected, BufferedImage actual) {
+    int width = expected.getWidth();
+    int[] e = expected.getRGB(0, 0, width, expected.getHeight(), null, 0, width);
+    int[] a = actual.getRGB(0, 0, width, actual.getHeight(), null, 0, width);
+    Assert.assertArrayEquals(e, a);
+  }
+}
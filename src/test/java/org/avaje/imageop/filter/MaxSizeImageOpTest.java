@@ -0,0 +1,48 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MaxSizeImageOpTest {
+
+  @Test
+  public void testPaddedMatchesScaleThenBorder() throws IOException {
+
+    for (String resName : new String[] { "test-a.jpeg", "test-b.png", "test-e.tiff" }) {
+      BufferedImage in = TestImages.read(resName);
+      BufferedImage out = new MaxSizeImageOp(200, 150, true, Color.WHITE).filter(in, null);
+      Assert.assertEquals(200, out.getWidth());
+      Assert.assertEquals(150, out.getHeight());
+
+      GeometryPlan plan = GeometryPlan.fit(in.getWidth(), in.getHeight(), 200, 150, false).extent(200, 150);
+      BufferedImage scaled = new ScaleImageOp(plan.getScaleWidth(), plan.getScaleHeight()).filter(in, null);
+      int right = 200 - plan.getScaleWidth() - plan.getOffsetX();
+      int bottom = 150 - plan.getScaleHeight() - plan.getOffsetY();
+      BufferedImage expected = new BufferedImage(200, 150, out.getType());
+      new BorderOp(plan.getOffsetX(), plan.getOffsetY(), right, bottom, Color.WHITE, out.getType()).filter(scaled, expected);
+
+      Assert.assertArrayEquals(resName, expected.getRGB(0, 0, 200, 150, null, 0, 200), out.getRGB(0, 0, 200, 150, null, 0, 200));
+    }
+  }
+
+  @Test
+  public void testBorderFillsWholeStrips() {
+
+    // wider borders than the image so strips sized from the source would miss pixels
+    BufferedImage src = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+    BufferedImage out = new BorderOp(5, 3, 6, 4, Color.RED, BufferedImage.TYPE_INT_RGB).filter(src, null);
+    Assert.assertEquals(15, out.getWidth());
+    Assert.assertEquals(9, out.getHeight());
+    for (int y = 0; y < 9; y++) {
+      for (int x = 0; x < 15; x++) {
+        boolean inside = x >= 5 && x < 9 && y >= 3 && y < 5;
+        int expect = inside ? 0xff000000 : Color.RED.getRGB();
+        Assert.assertEquals(x + "," + y, expect, out.getRGB(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrientationOpTest {
+
+  @Test
+  public void testOrientations() {
+
+    // 3x2 image with a distinct value per pixel
+    BufferedImage src = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 2; y++) {
+      for (int x = 0; x < 3; x++) {
+        src.setRGB(x, y, 0xff000000 | (y * 3 + x + 1));
+      }
+    }
+
+    assertPixels(1, src, 3, 2, 1, 2, 3, 4, 5, 6);
+    assertPixels(2, src, 3, 2, 3, 2, 1, 6, 5, 4);
+    assertPixels(3, src, 3, 2, 6, 5, 4, 3, 2, 1);
+    assertPixels(4, src, 3, 2, 4, 5, 6, 1, 2, 3);
+    assertPixels(5, src, 2, 3, 1, 4, 2, 5, 3, 6);
+    assertPixels(6, src, 2, 3, 4, 1, 5, 2, 6, 3);
+    assertPixels(7, src, 2, 3, 6, 3, 5, 2, 4, 1);
+    assertPixels(8, src, 2, 3, 3, 6, 2, 5, 1, 4);
+  }
+
+  private void assertPixels(int orientation, BufferedImage src, int width, int height, int... expected) {
+
+    BufferedImage dst = new OrientationOp(orientation).filter(src, null);
+    Assert.assertEquals(width, dst.getWidth());
+    Assert.assertEquals(height, dst.getHeight());
+    int[] actual = new int[expected.length];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        actual[y * width + x] = dst.getRGB(x, y) & 0xffffff;
+      }
+    }
+    Assert.assertArrayEquals("orientation " + orientation, expected, actual);
+  }
+}
@@ -0,0 +1,97 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PointFilterTest {
+
+  private static final int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR,
+      BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_BYTE_GRAY };
+
+  @Test
+  public void testMatchesGetRgbForEachType() {
+
+    for (int type : TYPES) {
+      BufferedImage src = random(37, 23, type);
+      BufferedImage expected = new BufferedImage(37, 23, type);
+      PointFilter invert = new InvertFilter();
+      for (int y = 0; y < 23; y++) {
+        for (int x = 0; x < 37; x++) {
+          expected.setRGB(x, y, invert.filterRGB(x, y, src.getRGB(x, y)));
+        }
+      }
+      BufferedImage actual = invert.filter(src, new BufferedImage(37, 23, type));
+      assertPixels("type " + type, expected, actual);
+
+      // compatible destination created by the filter
+      BufferedImage created = invert.filter(src, null);
+      assertPixels("created type " + type, expected, created);
+    }
+  }
+
+  @Test
+  public void testFilterRowOverride() {
+
+    BufferedImage src = random(20, 10, BufferedImage.TYPE_3BYTE_BGR);
+    PointFilter rowFilter = new PointFilter() {
+      @Override
+      protected void filterRow(int[] row, int y) {
+        Assert.assertEquals(20, row.length);
+        for (int x = 0; x < row.length; x++) {
+          row[x] = row[row.length - 1 - x] | 0xff000000;
+        }
+      }
+
+      @Override
+      public int filterRGB(int x, int y, int rgb) {
+        throw new IllegalStateException();
+      }
+    };
+    BufferedImage dst = rowFilter.filter(src, new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+    Assert.assertEquals(src.getRGB(19, 3), dst.getRGB(0, 3));
+  }
+
+  @Test
+  public void testFill() {
+
+    for (int type : TYPES) {
+      BufferedImage dst = new FillOp(0xff336699).filter(random(15, 9, type), new BufferedImage(15, 9, type));
+      BufferedImage expected = new BufferedImage(15, 9, type);
+      for (int y = 0; y < 9; y++) {
+        for (int x = 0; x < 15; x++) {
+          expected.setRGB(x, y, 0xff336699);
+        }
+      }
+      assertPixels("type " + type, expected, dst);
+    }
+  }
+
+  private static class InvertFilter extends PointFilter {
+    @Override
+    public int filterRGB(int x, int y, int rgb) {
+      return (rgb & 0xff000000) | (~rgb & 0xffffff);
+    }
+  }
+
+  private BufferedImage random(int width, int height, int type) {
+    Random random = new Random(type);
+    BufferedImage image = new BufferedImage(width, height, type);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        // opaque or fully transparent so premultiplied types round trip exactly
+        int argb = random.nextInt();
+        image.setRGB(x, y, (argb & 0x1) == 0 ? (argb | 0xff000000) : 0);
+      }
+    }
+    return image;
+  }
+
+  private void assertPixels(String message, BufferedImage expected, BufferedImage actual) {
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    Assert.assertArrayEquals(message, expected.getRGB(0, 0, width, height, null, 0, width), actual.getRGB(0, 0, width, height, null, 0, width));
+  }
+}
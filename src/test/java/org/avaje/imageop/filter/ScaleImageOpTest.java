@@ -0,0 +1,203 @@
+package org.avaje.imageop.filter;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScaleImageOpTest {
+
+  @Test
+  public void testKernelsDimensions() throws IOException {
+
+    BufferedImage in = TestImages.read("test-c.jpeg");
+    for (ScaleKernel kernel : ScaleKernel.values()) {
+      ScaleImageOp op = new ScaleImageOp(100, 70, kernel);
+      BufferedImage out = op.filter(in, null);
+      Assert.assertEquals(kernel.name(), 100, out.getWidth());
+      Assert.assertEquals(kernel.name(), 70, out.getHeight());
+      Assert.assertEquals(in.getColorModel(), out.getColorModel());
+      Assert.assertTrue(new ArgbRaster(out).getLayout() != ArgbRaster.GENERIC);
+    }
+  }
+
+  @Test
+  public void testSolidColour() {
+
+    int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_USHORT_565_RGB };
+
+    for (int type : types) {
+      BufferedImage in = solid(333, 211, type, 0xff3080c0);
+      for (ScaleKernel kernel : ScaleKernel.values()) {
+        BufferedImage out = new ScaleImageOp(97, 45, kernel).filter(in, null);
+        int expect = in.getRGB(0, 0);
+        Assert.assertEquals(kernel + " type:" + type, expect, out.getRGB(0, 0));
+        Assert.assertEquals(kernel + " type:" + type, expect, out.getRGB(96, 44));
+        Assert.assertEquals(kernel + " type:" + type, expect, out.getRGB(50, 20));
+      }
+    }
+  }
+
+  @Test
+  public void testUpscale() {
+
+    BufferedImage in = solid(10, 10, BufferedImage.TYPE_INT_RGB, 0xff102030);
+    for (ScaleKernel kernel : ScaleKernel.values()) {
+      BufferedImage out = new ScaleImageOp(35, 23, kernel).filter(in, null);
+      Assert.assertEquals(0xff102030, out.getRGB(34, 22));
+    }
+  }
+
+  @Test
+  public void testTransparentDoesNotBleed() {
+
+    // left half transparent white, right half opaque black
+    BufferedImage in = new BufferedImage(200, 10, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 10; y++) {
+      for (int x = 0; x < 200; x++) {
+        in.setRGB(x, y, (x < 100) ? 0x00ffffff : 0xff000000);
+      }
+    }
+    BufferedImage out = new ScaleImageOp(20, 10, ScaleKernel.Mitchell).filter(in, null);
+    for (int x = 0; x < 20; x++) {
+      int argb = out.getRGB(x, 5);
+      if ((argb >>> 24) > 0) {
+        // any visible pixel must be black
+        Assert.assertEquals("x:" + x, 0, argb & 0xffffff);
+      }
+    }
+  }
+
+  @Test
+  public void testBoxMatchesAreaAveraging() throws IOException {
+
+    BufferedImage in = TestImages.read("test-c.jpeg");
+    BufferedImage box = new ScaleImageOp(110, 80, ScaleKernel.Box).filter(in, null);
+    BufferedImage area = new ScaleImageOp(110, 80, ScaleKernel.AreaAveraging).filter(in, null);
+
+    long total = 0;
+    for (int y = 0; y < 80; y++) {
+      for (int x = 0; x < 110; x++) {
+        int a = box.getRGB(x, y);
+        int b = area.getRGB(x, y);
+        total += Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff));
+        total += Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff));
+        total += Math.abs((a & 0xff) - (b & 0xff));
+      }
+    }
+    double meanDiff = total / (110.0 * 80 * 3);
+    Assert.assertTrue("mean diff " + meanDiff, meanDiff < 4);
+  }
+
+  static BufferedImage solid(int width, int height, int type, int argb) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, argb);
+      }
+    }
+    return image;
+  }
+
+  @Test
+  public void testRejectsRectanglesOutOfBounds() {
+
+    BufferedImage in = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+    ScaleImageOp op = new ScaleImageOp(10, 10);
+    try {
+      op.filter(in, new Rectangle(0, 0, 10, 10), new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB), 0, 0);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("5x5 destination"));
+    }
+    try {
+      op.filter(in, new Rectangle(15, 0, 10, 10), null, 0, 0);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("20x20 source"));
+    }
+  }
+
+  @Test
+  public void testRegionMatchesCropThenScale() throws IOException {
+
+    BufferedImage in = TestImages.read("test-b.png");
+    Rectangle region = new Rectangle(101, 13, 300, 61);
+    BufferedImage crop = new CropImageOp(region.x, region.y, region.width, region.height).filter(in, null);
+    for (ScaleKernel kernel : ScaleKernel.values()) {
+      ScaleImageOp op = new ScaleImageOp(120, 25, kernel);
+      BufferedImage expected = op.filter(crop, null);
+      BufferedImage fused = op.filter(in, region, null, 0, 0);
+      assertPixels(kernel.name(), expected, 0, 0, fused);
+
+      // scaled into the interior of a larger image leaving the rest unchanged
+      BufferedImage canvas = solid(140, 45, BufferedImage.TYPE_INT_ARGB, 0xff00ff00);
+      op.filter(in, region, canvas, 10, 12);
+      assertPixels(kernel.name(), expected, 10, 12, canvas);
+      Assert.assertEquals(0xff00ff00, canvas.getRGB(9, 12));
+      Assert.assertEquals(0xff00ff00, canvas.getRGB(130, 37));
+      Assert.assertEquals(0xff00ff00, canvas.getRGB(10, 11));
+    }
+  }
+
+  @Test
+  public void testCropScaleMatchesCropThenScale() throws IOException {
+
+    BufferedImage in = TestImages.read("test-c.jpeg");
+    BufferedImage out = new CropScaleImageOp(80, 80).filter(in, null);
+
+    GeometryPlan plan = GeometryPlan.cover(in.getWidth(), in.getHeight(), 80, 80);
+    BufferedImage crop = new CropImageOp(plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight()).filter(in, null);
+    BufferedImage expected = new ScaleImageOp(80, 80).filter(crop, null);
+    assertPixels("crop scale", expected, 0, 0, out);
+  }
+
+  @Test
+  public void testCropScaleMatchesLegacyGeometry() throws IOException {
+
+    BufferedImage in = TestImages.read("ethan.jpg");
+    for (int[] size : new int[][] { { 200, 200 }, { 150, 100 }, { 90, 70 } }) {
+      int[] legacy = legacyCrop(in.getWidth(), in.getHeight(), size[0], size[1]);
+      GeometryPlan plan = GeometryPlan.cover(in.getWidth(), in.getHeight(), size[0], size[1]);
+      Assert.assertArrayEquals(plan.toString(), legacy,
+          new int[] { plan.getCropX(), plan.getCropY(), plan.getCropWidth(), plan.getCropHeight() });
+
+      BufferedImage crop = new CropImageOp(legacy[0], legacy[1], legacy[2], legacy[3]).filter(in, null);
+      BufferedImage expected = new ScaleImageOp(size[0], size[1]).filter(crop, null);
+      BufferedImage out = new CropScaleImageOp(size[0], size[1]).filter(in, null);
+      Assert.assertEquals(expected.getWidth(), out.getWidth());
+      Assert.assertEquals(expected.getHeight(), out.getHeight());
+      assertPixels("crop scale " + size[0] + "x" + size[1], expected, 0, 0, out);
+    }
+  }
+
+  /**
+   * The crop rectangle (x, y, width, height) of the original crop then scale
+   * CropScaleImageOp.
+   */
+  private int[] legacyCrop(int origWidth, int origHeight, int maxWidth, int maxHeight) {
+    BigDecimal scaleWidth = new BigDecimal(origWidth).divide(new BigDecimal(maxWidth), 6, RoundingMode.HALF_DOWN);
+    BigDecimal scaleHeight = new BigDecimal(origHeight).divide(new BigDecimal(maxHeight), 6, RoundingMode.HALF_DOWN);
+    BigDecimal min = scaleWidth.min(scaleHeight);
+    BigDecimal max = scaleWidth.max(scaleHeight);
+    if (min.compareTo(scaleWidth) == 0) {
+      int height = new BigDecimal(origHeight).multiply(min).divide(max, 6, RoundingMode.HALF_DOWN).intValue();
+      return new int[] { 0, (origHeight - height) / 2, origWidth, height };
+    }
+    int width = new BigDecimal(origWidth).multiply(min).divide(max, 6, RoundingMode.HALF_DOWN).intValue();
+    return new int[] { (origWidth - width) / 2, 0, width, origHeight };
+  }
+
+  private void assertPixels(String message, BufferedImage expected, int x, int y, BufferedImage actual) {
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    int[] e = expected.getRGB(0, 0, width, height, null, 0, width);
+    int[] a = actual.getRGB(x, y, width, height, null, 0, width);
+    Assert.assertArrayEquals(message, e, a);
+  }
+}
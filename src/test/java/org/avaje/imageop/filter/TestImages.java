@@ -0,0 +1,31 @@
+package org.avaje.imageop.filter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+
+/**
+ * Reads the test images from the classpath.
+ */
+public final class TestImages {
+
+  private TestImages() {
+  }
+
+  /**
+   * Read the image resource (like test-c.jpeg) failing if it is missing.
+   */
+  public static BufferedImage read(String resName) throws IOException {
+    InputStream stream = TestImages.class.getResourceAsStream("/" + resName);
+    Assert.assertNotNull(resName, stream);
+    try {
+      return ImageIO.read(stream);
+    } finally {
+      stream.close();
+    }
+  }
+}
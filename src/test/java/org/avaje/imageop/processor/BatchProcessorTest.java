@@ -0,0 +1,135 @@
+package org.avaje.imageop.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchProcessorTest {
+
+  @Test
+  public void testDirectory() throws IOException {
+
+    File input = Files.createTempDirectory("batch-in").toFile();
+    File output = Files.createTempDirectory("batch-out").toFile();
+    copy("test-x.jpg", new File(input, "test-x.jpg"));
+    copy("test-b.png", new File(input, "sub/test-b.png"));
+    copy("test-c.jpeg", new File(input, "sub/deeper/test-c.jpeg"));
+    Files.write(new File(input, "sub/broken.jpg").toPath(), "not an image".getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(input, "notes.txt").toPath(), "ignored".getBytes(StandardCharsets.UTF_8));
+
+    BatchProcessor batch = new BatchProcessor(javaProcessor());
+    batch.setReadThreads(1);
+    batch.setConvertThreads(2);
+    batch.setQueueSize(1);
+    BatchResult result = batch.processDirectory(input, output);
+
+    Assert.assertEquals(4, result.getTotal());
+    Assert.assertEquals(3, result.getSucceeded());
+    Assert.assertEquals(1, result.getFailures().size());
+    BatchResult.Failure failure = result.getFailures().get(0);
+    Assert.assertEquals("broken.jpg", failure.getFile().getName());
+    Assert.assertEquals("convert", failure.getStage());
+    Assert.assertTrue(result.getBytesWritten() > 0);
+
+    Assert.assertEquals(200, ImageIO.read(new File(output, "test-x-main.jpg")).getWidth());
+    Assert.assertEquals(100, ImageIO.read(new File(output, "test-x-thumb.jpg")).getWidth());
+    Assert.assertTrue(new File(output, "sub/test-b-main.png").exists());
+    Assert.assertTrue(new File(output, "sub/deeper/test-c-thumb.jpeg").exists());
+  }
+
+  @Test
+  public void testManifestMain() throws IOException {
+
+    File input = Files.createTempDirectory("batch-in").toFile();
+    File output = Files.createTempDirectory("batch-out").toFile();
+    copy("test-x.jpg", new File(input, "a/test-x.jpg"));
+    File manifest = new File(input, "manifest.txt");
+    Files.write(manifest.toPath(), Arrays.asList("# images", "a/test-x.jpg", "", "missing.jpg"), StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    String[] args = { "--engine", "java", "--size", "300x300", "--thumb", "50x50", "--mode", "Pad", manifest.getPath(), output.getPath() };
+    int exitCode = BatchMain.run(args, new PrintStream(buffer, true, "UTF-8"));
+
+    String report = buffer.toString("UTF-8");
+    Assert.assertEquals(report, 1, exitCode);
+    Assert.assertTrue(report, report.contains("read failed for"));
+    Assert.assertTrue(report, report.contains("processed 1 of 2 images (1 failed)"));
+    Assert.assertEquals(300, ImageIO.read(new File(output, "a/test-x-main.jpg")).getWidth());
+    Assert.assertEquals(50, ImageIO.read(new File(output, "a/test-x-thumb.jpg")).getHeight());
+
+    Assert.assertEquals(2, BatchMain.run(new String[] { "--size" }, new PrintStream(new ByteArrayOutputStream())));
+  }
+
+  @Test
+  public void testManifestOutsideOutput() throws IOException {
+
+    File root = Files.createTempDirectory("batch").toFile();
+    File input = new File(root, "in");
+    File output = new File(root, "out");
+    copy("test-x.jpg", new File(input, "a/test-x.jpg"));
+    copy("test-x.jpg", new File(root, "escape.jpg"));
+    File manifest = new File(input, "manifest.txt");
+    Files.write(manifest.toPath(), Arrays.asList("a/test-x.jpg", "../escape.jpg", "a/../../escape.jpg"), StandardCharsets.UTF_8);
+
+    BatchResult result = new BatchProcessor(javaProcessor()).processManifest(manifest, output);
+
+    Assert.assertEquals(1, result.getSucceeded());
+    Assert.assertEquals(2, result.getFailures().size());
+    for (BatchResult.Failure failure : result.getFailures()) {
+      Assert.assertEquals("read", failure.getStage());
+      Assert.assertTrue(failure.getError().getMessage().contains("outside the output directory"));
+    }
+    Assert.assertTrue(new File(output, "a/test-x-main.jpg").exists());
+    Assert.assertFalse(new File(root, "escape-main.jpg").exists());
+  }
+
+  @Test
+  public void testErrorIsRecorded() throws IOException {
+
+    File input = Files.createTempDirectory("batch-in").toFile();
+    File output = Files.createTempDirectory("batch-out").toFile();
+    copy("test-x.jpg", new File(input, "test-x.jpg"));
+    copy("test-b.png", new File(input, "test-b.png"));
+
+    ImageProcessor processor = javaProcessor();
+    processor.setImageEngine(new JavaImageEngine() {
+      @Override
+      public void convert(ImageSource source, List<ImageConversion> conversions, ProcessingListener listener) throws IOException {
+        if (conversions.get(0).getExtension().equals("png")) {
+          throw new OutOfMemoryError("test");
+        }
+        super.convert(source, conversions, listener);
+      }
+    });
+    BatchProcessor batch = new BatchProcessor(processor);
+    batch.setConvertThreads(1);
+    BatchResult result = batch.processDirectory(input, output);
+
+    Assert.assertEquals(1, result.getSucceeded());
+    Assert.assertEquals(1, result.getFailures().size());
+    Assert.assertEquals("convert", result.getFailures().get(0).getStage());
+    Assert.assertTrue(result.getFailures().get(0).getError() instanceof OutOfMemoryError);
+  }
+
+  private ImageProcessor javaProcessor() {
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    return processor;
+  }
+
+  private void copy(String resName, File file) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.copy(getClass().getResourceAsStream("/" + resName), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
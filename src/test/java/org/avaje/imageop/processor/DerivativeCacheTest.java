@@ -0,0 +1,141 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.avaje.imageop.filter.ScaleKernel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DerivativeCacheTest {
+
+  @Test
+  public void testPutGetAndRebuild() throws IOException {
+
+    File dir = Files.createTempDirectory("imageop-cache").toFile();
+    DerivativeCache cache = new DerivativeCache(dir, 1024 * 1024);
+
+    String key = cache.key(ImageSource.of(new byte[] { 1, 2, 3 }), "100x100");
+    Assert.assertNotEquals(key, cache.key(ImageSource.of(new byte[] { 1, 2, 3 }), "100x200"));
+    Assert.assertNull(cache.get(key));
+
+    cache.put(key, derivatives(10, 20));
+    List<DerivativeCache.Derivative> cached = cache.get(key);
+    Assert.assertNotNull(cached);
+    assertDerivatives(cached, 10, 20);
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(30, cache.getTotalBytes());
+
+    // a new instance rebuilds the index from the directory
+    DerivativeCache rebuilt = new DerivativeCache(dir, 1024 * 1024);
+    Assert.assertEquals(1, rebuilt.size());
+    Assert.assertEquals(30, rebuilt.getTotalBytes());
+    assertDerivatives(rebuilt.get(key), 10, 20);
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws IOException {
+
+    File dir = Files.createTempDirectory("imageop-cache").toFile();
+    DerivativeCache cache = new DerivativeCache(dir, 100);
+
+    String a = cache.key(ImageSource.of(new byte[] { 1 }), "");
+    String b = cache.key(ImageSource.of(new byte[] { 2 }), "");
+    String c = cache.key(ImageSource.of(new byte[] { 3 }), "");
+    cache.put(a, derivatives(20, 20));
+    cache.put(b, derivatives(20, 20));
+    Assert.assertNotNull(cache.get(a));
+
+    cache.put(c, derivatives(20, 20));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertNull(cache.get(b));
+    Assert.assertNotNull(cache.get(a));
+    Assert.assertNotNull(cache.get(c));
+    Assert.assertEquals(80, cache.getTotalBytes());
+  }
+
+  @Test
+  public void testIncompleteEntryIgnored() throws IOException {
+
+    File dir = Files.createTempDirectory("imageop-cache").toFile();
+    DerivativeCache cache = new DerivativeCache(dir, 1024);
+    String key = cache.key(ImageSource.of(new byte[] { 1 }), "");
+    cache.put(key, derivatives(10, 10));
+
+    // remove one of the two images of the entry
+    File file = cache.get(key).get(1).getFile();
+    Assert.assertTrue(file.delete());
+
+    DerivativeCache rebuilt = new DerivativeCache(dir, 1024);
+    Assert.assertEquals(0, rebuilt.size());
+    Assert.assertNull(rebuilt.get(key));
+  }
+
+  @Test
+  public void testProcessorUsesCache() throws IOException {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    DerivativeCache cache = new DerivativeCache(Files.createTempDirectory("imageop-cache").toFile(), 1024 * 1024);
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    JavaImageEngine engine = new JavaImageEngine();
+    processor.setImageEngine(engine);
+    processor.setDerivativeCache(cache);
+
+    ImageFileSet first = processor.process(content, "test-x.jpg");
+    Assert.assertEquals(0, cache.getHitCount());
+    Assert.assertEquals(1, cache.size());
+
+    ImageFileSet second = processor.process(content, "test-x.jpg");
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertArrayEquals(first.getNormalImage().getContent(), second.getNormalImage().getContent());
+    Assert.assertArrayEquals(first.getThumbImage().getContent(), second.getThumbImage().getContent());
+    Assert.assertEquals(200, second.getNormalImage().getWidth());
+    Assert.assertEquals(156, second.getNormalImage().getHeight());
+    Assert.assertEquals(100, second.getThumbImage().getWidth());
+
+    // different parameters are not a hit
+    processor.setThumbnailExtension("png");
+    processor.process(content, "test-x.jpg");
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.size());
+
+    // nor are different engine settings
+    engine.setScaleKernel(ScaleKernel.Lanczos3);
+    processor.process(content, "test-x.jpg");
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(3, cache.size());
+
+    ImageMagickEngine magick = new ImageMagickEngine();
+    String key = magick.cacheKey();
+    magick.setSingleConvert(true);
+    Assert.assertNotEquals(key, magick.cacheKey());
+  }
+
+  private List<DerivativeCache.Derivative> derivatives(int mainLength, int thumbLength) {
+    List<DerivativeCache.Derivative> list = new ArrayList<DerivativeCache.Derivative>();
+    list.add(new DerivativeCache.Derivative("main", "jpg", 200, 100, new byte[mainLength]));
+    list.add(new DerivativeCache.Derivative("thumb", "png", 50, 50, new byte[thumbLength]));
+    return list;
+  }
+
+  private void assertDerivatives(List<DerivativeCache.Derivative> cached, int mainLength, int thumbLength) throws IOException {
+    Assert.assertEquals(2, cached.size());
+    DerivativeCache.Derivative main = cached.get(0);
+    Assert.assertEquals("main", main.getRole());
+    Assert.assertEquals("jpg", main.getExtension());
+    Assert.assertEquals(200, main.getWidth());
+    Assert.assertEquals(100, main.getHeight());
+    Assert.assertEquals(mainLength, Files.readAllBytes(main.getFile().toPath()).length);
+    DerivativeCache.Derivative thumb = cached.get(1);
+    Assert.assertEquals(Arrays.asList("thumb", "png"), Arrays.asList(thumb.getRole(), thumb.getExtension()));
+    Assert.assertEquals(thumbLength, thumb.getLength());
+  }
+}
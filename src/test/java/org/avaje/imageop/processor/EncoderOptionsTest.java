@@ -0,0 +1,121 @@
+package org.avaje.imageop.processor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.avaje.imageop.filter.TestImages;
+import org.im4java.core.IMOperation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EncoderOptionsTest {
+
+  @Test
+  public void testImageMagickOptions() {
+
+    ImageMagickEngine engine = new ImageMagickEngine();
+    EncoderOptions options = EncoderOptions.DEFAULT.withQuality(80).withProgressive(true)
+        .withChromaSubsampling(EncoderOptions.ChromaSubsampling.S420).withStrip(true).withMaxBytes(20000);
+
+    IMOperation op = new IMOperation();
+    engine.addEncoderOptions(op, new ImageConversion(new File("/thumb.jpg"), "jpg", 100, 80, ConvertMode.Crop, true, null)
+        .withEncoderOptions(options));
+    Assert.assertEquals("-strip -quality 80 -interlace Plane -sampling-factor 4:2:0 -define jpeg:extent=20000", op.toString().trim());
+
+    op = new IMOperation();
+    engine.addEncoderOptions(op, new ImageConversion(new File("/thumb.png"), "png", 100, 80, ConvertMode.Crop, true, null)
+        .withEncoderOptions(options.withPngCompressionLevel(9)));
+    Assert.assertEquals("-strip -define png:compression-level=9 -interlace Plane", op.toString().trim());
+
+    List<ImageConversion> conversions = new ArrayList<ImageConversion>();
+    conversions.add(new ImageConversion(new File("/main.jpg"), "jpg", 600, 400, ConvertMode.Max, false, null));
+    conversions.add(new ImageConversion(new File("/thumb.jpg"), "jpg", 100, 80, ConvertMode.Crop, true, null)
+        .withEncoderOptions(EncoderOptions.DEFAULT.withQuality(70)));
+    String args = engine.createSingleOperation(ImageSource.of(new File("/in.jpg")), conversions).toString().trim();
+    Assert.assertTrue(args, args.startsWith("-respect-parentheses -define"));
+    Assert.assertTrue(args, args.endsWith("-quality 70 /thumb.jpg"));
+  }
+
+  @Test
+  public void testJavaEncoding() throws IOException {
+
+    BufferedImage image = TestImages.read("test-c.jpeg");
+
+    byte[] normal = encode(image, "jpg", EncoderOptions.DEFAULT.withQuality(90));
+    byte[] low = encode(image, "jpg", EncoderOptions.DEFAULT.withQuality(30));
+    Assert.assertTrue(low.length < normal.length);
+
+    byte[] full = encode(image, "jpg", EncoderOptions.DEFAULT.withQuality(90).withChromaSubsampling(EncoderOptions.ChromaSubsampling.S444));
+    Assert.assertTrue(full.length > normal.length);
+
+    byte[] progressive = encode(image, "jpg", EncoderOptions.DEFAULT.withProgressive(true));
+    Assert.assertTrue(hasMarker(progressive, 0xc2));
+    Assert.assertFalse(hasMarker(normal, 0xc2));
+    Assert.assertNotNull(ImageIO.read(new ByteArrayInputStream(progressive)));
+
+    byte[] stored = encode(image, "png", EncoderOptions.DEFAULT.withPngCompressionLevel(0));
+    byte[] deflated = encode(image, "png", EncoderOptions.DEFAULT.withPngCompressionLevel(9));
+    Assert.assertTrue(deflated.length < stored.length);
+  }
+
+  @Test
+  public void testByteBudget() throws IOException {
+
+    BufferedImage image = TestImages.read("test-c.jpeg");
+    byte[] best = encode(image, "jpg", EncoderOptions.DEFAULT.withQuality(95));
+    long budget = best.length / 3;
+
+    byte[] fitted = ImageIOEncoder.encodeWithin(image, "jpg", EncoderOptions.DEFAULT.withQuality(95).withMaxBytes(budget));
+    Assert.assertTrue(fitted.length <= budget);
+    // the search does not settle for a much lower quality
+    Assert.assertTrue(fitted.length > budget / 2);
+
+    byte[] tiny = ImageIOEncoder.encodeWithin(image, "jpg", EncoderOptions.DEFAULT.withMaxBytes(10).withMinQuality(20));
+    Assert.assertArrayEquals(encode(image, "jpg", EncoderOptions.DEFAULT.withQuality(20)), tiny);
+  }
+
+  @Test
+  public void testProcessorOptions() throws IOException {
+
+    File file = new File(getClass().getResource("/test-c.jpeg").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    ImageProcessor processor = new ImageProcessor(150, 150, 600, 600, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    ImageFileSet defaults = processor.process(content, "test-c.jpeg");
+
+    processor.setMainEncoderOptions(EncoderOptions.DEFAULT.withMaxBytes(defaults.getNormalImage().getLength() * 2 / 3));
+    processor.setThumbEncoderOptions(EncoderOptions.DEFAULT.withQuality(40).withStrip(true));
+    processor.setRenditions(new RenditionSet().add("w300", 300, 300, ConvertMode.Max, "png",
+        EncoderOptions.DEFAULT.withPngCompressionLevel(9)));
+    ImageFileSet tuned = processor.process(content, "test-c.jpeg");
+
+    Assert.assertTrue(tuned.getNormalImage().getLength() <= defaults.getNormalImage().getLength() * 2 / 3);
+    Assert.assertTrue(tuned.getThumbImage().getLength() < defaults.getThumbImage().getLength());
+    Assert.assertEquals(defaults.getNormalImage().getWidth(), tuned.getNormalImage().getWidth());
+    Assert.assertNotNull(ImageIO.read(new ByteArrayInputStream(tuned.getRendition("w300").getContent())));
+  }
+
+  private byte[] encode(BufferedImage image, String extension, EncoderOptions options) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIOEncoder.write(image, extension, options, out);
+    return out.toByteArray();
+  }
+
+  private boolean hasMarker(byte[] jpeg, int marker) {
+    for (int i = 0; i < jpeg.length - 1; i++) {
+      if ((jpeg[i] & 0xff) == 0xff && (jpeg[i + 1] & 0xff) == marker) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,133 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ImageMagickWorkerPoolTest {
+
+  /**
+   * Stands in for magick -script - printing the marker of each line of script,
+   * reporting an error for FAIL and never completing HANG.
+   */
+  private static final String FAKE_WORKER = "while IFS= read -r line; do "
+      + "case \"$line\" in "
+      + "*HANG*) continue ;; "
+      + "*FAIL*) echo 'magick: unable to open image @ error/blob.c/OpenBlob/1' >&2 ;; "
+      + "*WARN*) echo 'magick: corrupt data @ warning/jpeg.c/JPEGWarningHandler/1' >&2 ;; "
+      + "esac; "
+      + "m=${line#*@@imageop:}; m=${m%%[!0-9]*}; echo \"@@imageop:$m\"; "
+      + "done";
+
+  @Test
+  public void testScript() {
+
+    List<String> args = Arrays.asList("-define", "jpeg:size=200x200", "/in dir/a.jpg", "-thumbnail", "100x100^", "/out.jpg");
+    String script = ImageMagickWorkerPool.script(args, "@@imageop:7");
+    Assert.assertEquals("-respect-parentheses ( -define jpeg:size=200x200 \"/in dir/a.jpg\" -thumbnail 100x100^ -write /out.jpg )"
+        + " -print \"@@imageop:7\\n\" -delete 0--1", script);
+
+    Assert.assertEquals("\"a\\\"b\"", ImageMagickWorkerPool.quote("a\"b"));
+    Assert.assertEquals("\"\"", ImageMagickWorkerPool.quote(""));
+  }
+
+  @Test
+  public void testRecycle() throws IOException {
+
+    ImageMagickWorkerPool pool = fakePool(2);
+    pool.setMaxJobsPerWorker(2);
+    try {
+      for (int i = 0; i < 5; i++) {
+        pool.convert(Arrays.asList("in.jpg", "out.jpg"));
+      }
+      Assert.assertEquals(3, pool.getStartedCount());
+      Assert.assertEquals(2, pool.getRecycledCount());
+      Assert.assertEquals(1, pool.getIdleCount());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentBoundedBySize() throws Exception {
+
+    final ImageMagickWorkerPool pool = fakePool(2);
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 30; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            pool.convert(Arrays.asList("in.jpg", "out.jpg"));
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      Assert.assertTrue(pool.getStartedCount() <= 2);
+      Assert.assertEquals(0, pool.getFailedCount());
+    } finally {
+      executor.shutdown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testErrorReplacesWorker() throws IOException {
+
+    ImageMagickWorkerPool pool = fakePool(1);
+    pool.setHealthCheckIdleMillis(0);
+    try {
+      pool.convert(Arrays.asList("WARN.jpg", "out.jpg"));
+      try {
+        pool.convert(Arrays.asList("FAIL.jpg", "out.jpg"));
+        Assert.fail("expected IOException");
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("unable to open image"));
+      }
+      Assert.assertEquals(1, pool.getFailedCount());
+
+      pool.convert(Arrays.asList("in.jpg", "out.jpg"));
+      pool.convert(Arrays.asList("in.jpg", "out.jpg"));
+      Assert.assertEquals(2, pool.getStartedCount());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testTimeout() throws IOException {
+
+    ImageMagickWorkerPool pool = fakePool(1);
+    pool.setJobTimeoutMillis(300);
+    try {
+      try {
+        pool.convert(Arrays.asList("HANG.jpg", "out.jpg"));
+        Assert.fail("expected IOException");
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("timed out"));
+      }
+      Assert.assertEquals(1, pool.getFailedCount());
+      Assert.assertEquals(0, pool.getIdleCount());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private ImageMagickWorkerPool fakePool(int size) {
+    Assume.assumeTrue(new File("/bin/sh").exists());
+    return new ImageMagickWorkerPool(size, Arrays.asList("/bin/sh", "-c", FAKE_WORKER));
+  }
+}
@@ -0,0 +1,134 @@
+package org.avaje.imageop.processor;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageProbeTest {
+
+  @Test
+  public void testProbeResources() throws IOException {
+
+    assertProbe("ethan.jpg", ImageFormat.JPEG);
+    assertProbe("test-a.jpeg", ImageFormat.JPEG);
+    assertProbe("test-b.png", ImageFormat.PNG);
+    assertProbe("thumbnail3.gif", ImageFormat.GIF);
+    assertProbe("test-d.tiff", ImageFormat.TIFF);
+    assertProbe("test-e.tiff", ImageFormat.TIFF);
+  }
+
+  @Test
+  public void testProbeBmp() throws IOException {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(31, 17, BufferedImage.TYPE_INT_RGB), "bmp", out);
+
+    ImageProbe probe = ImageProbe.probe(out.toByteArray());
+    Assert.assertEquals(ImageFormat.BMP, probe.getFormat());
+    Assert.assertEquals(31, probe.getWidth());
+    Assert.assertEquals(17, probe.getHeight());
+  }
+
+  @Test
+  public void testUnknownFormat() throws IOException {
+    Assert.assertNull(ImageProbe.probe("not an image at all".getBytes("UTF-8")));
+  }
+
+  @Test
+  public void testExifOrientation() throws IOException {
+
+    byte[] jpeg = jpegWithOrientation(40, 20, 6);
+    ImageProbe probe = ImageProbe.probe(jpeg);
+    Assert.assertEquals(ImageFormat.JPEG, probe.getFormat());
+    Assert.assertEquals(40, probe.getWidth());
+    Assert.assertEquals(20, probe.getHeight());
+    Assert.assertEquals(6, probe.getOrientation());
+    Assert.assertTrue(probe.isTransposed());
+    Assert.assertEquals(20, probe.getOrientedWidth());
+    Assert.assertEquals(40, probe.getOrientedHeight());
+  }
+
+  @Test
+  public void testWronglyNamedUpload() throws IOException {
+
+    File file = File.createTempFile("probe-", ".png");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(jpegWithOrientation(40, 20, 6));
+    } finally {
+      out.close();
+    }
+
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Max, null);
+    processor.setImageEngine(new JavaImageEngine());
+    ImageFileSet imageSet = processor.process(file, "upload.png");
+    try {
+      Assert.assertEquals("jpg", imageSet.getSourceExtension());
+      Assert.assertEquals(40, imageSet.getOriginalImage().getWidth());
+      Assert.assertEquals(20, imageSet.getOriginalImage().getHeight());
+      Assert.assertEquals("jpg", imageSet.getNormalImage().getExtension());
+
+      // the thumbnail is auto oriented
+      ImageFileDetail thumb = imageSet.getThumbImage();
+      Assert.assertEquals(50, thumb.getWidth());
+      Assert.assertEquals(100, thumb.getHeight());
+      BufferedImage image = ImageIO.read(thumb.getFile());
+      Assert.assertEquals(50, image.getWidth());
+      Assert.assertEquals(100, image.getHeight());
+    } finally {
+      imageSet.deleteFiles();
+      file.delete();
+    }
+  }
+
+  private void assertProbe(String resName, ImageFormat format) throws IOException {
+
+    File file = new File(getClass().getResource("/" + resName).getFile());
+    BufferedImage image = ImageIO.read(file);
+
+    ImageProbe probe = ImageProbe.probe(file);
+    Assert.assertEquals(format, probe.getFormat());
+    Assert.assertEquals(image.getWidth(), probe.getWidth());
+    Assert.assertEquals(image.getHeight(), probe.getHeight());
+    Assert.assertEquals(1, probe.getOrientation());
+  }
+
+  /**
+   * Return a JPEG with an EXIF APP1 segment holding the orientation.
+   */
+  private byte[] jpegWithOrientation(int width, int height, int orientation) throws IOException {
+
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.BLUE);
+    g.fillRect(0, 0, width, height);
+    g.dispose();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", out);
+    byte[] jpeg = out.toByteArray();
+
+    // big endian TIFF header with one IFD entry (orientation SHORT)
+    byte[] exif = { 'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8, 0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0,
+        (byte) orientation, 0, 0, 0, 0, 0, 0 };
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    result.write(jpeg, 0, 2);
+    result.write(0xFF);
+    result.write(0xE1);
+    result.write((exif.length + 2) >> 8);
+    result.write((exif.length + 2) & 0xFF);
+    result.write(exif);
+    result.write(jpeg, 2, jpeg.length - 2);
+    return result.toByteArray();
+  }
+}
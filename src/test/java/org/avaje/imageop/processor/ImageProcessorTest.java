@@ -1,9 +1,25 @@
 package org.avaje.imageop.processor;
 
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.imageio.ImageIO;
+
+import org.avaje.imageop.filter.DecodedImageCache;
+import org.avaje.imageop.filter.GeometryPlan;
+
+import org.im4java.core.IMOperation;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -37,6 +53,316 @@ public class ImageProcessorTest {
 //    testResource(mode, 100, 80, 350, 40, "test-e.tiff", 26);
     
   }
+  @Test
+  public void testSingleConvertOperation() {
+
+    ImageMagickEngine engine = new ImageMagickEngine();
+    engine.setSingleConvert(true);
+
+    List<ImageConversion> conversions = new ArrayList<ImageConversion>();
+    conversions.add(new ImageConversion(new File("/main.jpg"), "jpg", 600, 400, ConvertMode.Max, false, null));
+    conversions.add(new ImageConversion(new File("/thumb.jpg"), "jpg", 100, 80, ConvertMode.Pad, true, "transparent"));
+
+    IMOperation op = engine.createSingleOperation(ImageSource.of(new File("/in.jpg")), conversions);
+    String args = op.toString().trim();
+    
+    Assert.assertEquals("-define jpeg:size=1200x800 /in.jpg ( +clone -resize 600x400> -write /main.jpg +delete ) "
+        + "-auto-orient -thumbnail 100x80 -background transparent -gravity center -extent 100x80 /thumb.jpg", args);
+
+    // an overridden thumbnail hint also applies to the single decode
+    ImageMagickEngine custom = new ImageMagickEngine() {
+      @Override
+      protected String deriveThumbDefine(ImageConversion thumb) {
+        return "jpeg:size=" + (thumb.getWidth() * 3) + "x" + (thumb.getHeight() * 3);
+      }
+    };
+    args = custom.createSingleOperation(ImageSource.of(new File("/in.jpg")), conversions).toString().trim();
+    Assert.assertTrue(args, args.startsWith("-define jpeg:size=1800x1200 /in.jpg"));
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testDeprecatedThumbDefine() {
+
+    ImageProcessor processor = new ImageProcessor(100, 80, 600, 400, ConvertMode.Crop, null) {
+      @Override
+      protected String deriveThumbDefine() {
+        return "jpeg:size=400x400";
+      }
+    };
+    ImageMagickEngine engine = (ImageMagickEngine) processor.getImageEngine();
+    ImageConversion thumb = new ImageConversion(new File("/thumb.jpg"), "jpg", 100, 80, ConvertMode.Crop, true, null);
+    Assert.assertEquals("jpeg:size=400x400", engine.deriveThumbDefine(thumb));
+
+    // the single decode hint covers the main image rather than the thumbnail
+    List<ImageConversion> conversions = new ArrayList<ImageConversion>();
+    conversions.add(new ImageConversion(new File("/main.jpg"), "jpg", 600, 400, ConvertMode.Max, false, null));
+    conversions.add(thumb);
+    Assert.assertEquals("jpeg:size=1200x800", engine.deriveSingleDefine(conversions));
+  }
+
+  @Test
+  public void testParseColor() {
+
+    Assert.assertEquals(0, JavaImageEngine.parseColor("none").getAlpha());
+    Assert.assertEquals(new Color(0xff, 0xff, 0xff), JavaImageEngine.parseColor("#fff"));
+    Assert.assertEquals(new Color(0xff, 0x00, 0x88, 0x44), JavaImageEngine.parseColor("#f084"));
+    Assert.assertEquals(new Color(0x12, 0x34, 0x56), JavaImageEngine.parseColor("#123456"));
+    Assert.assertEquals(new Color(0x12, 0x34, 0x56, 0x78), JavaImageEngine.parseColor("#12345678"));
+    Assert.assertEquals(new Color(10, 20, 30), JavaImageEngine.parseColor("rgb(10, 20, 30)"));
+    Assert.assertEquals(new Color(255, 128, 0), JavaImageEngine.parseColor("rgb(100%,50%,0%)"));
+    Assert.assertEquals(new Color(10, 20, 30, 128), JavaImageEngine.parseColor("rgba(10,20,30,0.5)"));
+    Assert.assertEquals(new Color(0, 0, 0x80), JavaImageEngine.parseColor("navy"));
+    Assert.assertEquals(new Color(0xbe, 0xbe, 0xbe), JavaImageEngine.parseColor("Grey"));
+    Assert.assertEquals(new Color(0, 0x80, 0), JavaImageEngine.parseColor("green"));
+    Assert.assertEquals(new Color(128, 128, 128), JavaImageEngine.parseColor("gray50"));
+
+    for (String invalid : new String[] { "#ff", "#ggg", "rgb(1,2)", "rgb(300,0,0)", "grey101", "grayish", "notacolour" }) {
+      try {
+        JavaImageEngine.parseColor(invalid);
+        Assert.fail(invalid);
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().contains(invalid));
+      }
+    }
+  }
+
+  @Test
+  public void testJavaEngine() throws IOException {
+
+    for (ConvertMode mode : ConvertMode.values()) {
+      testJavaEngine(mode, 100, 80, 200, 200, "test-a.jpeg", 200, 24);
+      testJavaEngine(mode, 100, 80, 200, 200, "test-b.png", 200, 24);
+      testJavaEngine(mode, 100, 80, 1000, 1000, "test-c.jpeg", 220, 153);
+      testJavaEngine(mode, 150, 150, 600, 600, "ethan.jpg", 450, 600);
+    }
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    ImageFileSet imageSet = processor.process(content, "test-x.jpg");
+
+    Assert.assertSame(content, imageSet.getOriginalImage().getContent());
+    Assert.assertEquals(450, imageSet.getOriginalImage().getWidth());
+
+    ImageFileDetail main = imageSet.getNormalImage();
+    Assert.assertNull(main.getFile());
+    Assert.assertEquals(main.getLength(), main.getContent().length);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(main.getContent()));
+    Assert.assertEquals(200, image.getWidth());
+    Assert.assertEquals(156, image.getHeight());
+    Assert.assertEquals(200, main.getWidth());
+    Assert.assertEquals(156, main.getHeight());
+
+    ImageFileDetail thumb = imageSet.getThumbImage();
+    image = ImageIO.read(new ByteArrayInputStream(thumb.getContent()));
+    Assert.assertEquals(100, image.getWidth());
+    Assert.assertEquals(100, image.getHeight());
+    Assert.assertTrue(imageSet.deleteFiles());
+  }
+
+  @Test
+  public void testRenditions() throws IOException {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    RenditionSet renditions = new RenditionSet()
+        .add("w80", 80, 1000, ConvertMode.Max)
+        .add("w320", 320, 1000, ConvertMode.Max)
+        .add("w160", 160, 1000, ConvertMode.Max)
+        .add("square", 50, 50, ConvertMode.Crop, "png");
+
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    processor.setRenditions(renditions);
+
+    ImageFileSet imageSet = processor.process(content, "test-x.jpg");
+    Assert.assertEquals(Arrays.asList("w80", "w320", "w160", "square"), new ArrayList<String>(imageSet.getRenditions().keySet()));
+    assertRendition(imageSet.getRendition("w320"), "jpg", 320, 249);
+    assertRendition(imageSet.getRendition("w160"), "jpg", 160, 124);
+    assertRendition(imageSet.getRendition("w80"), "jpg", 80, 62);
+    assertRendition(imageSet.getRendition("square"), "png", 50, 50);
+    Assert.assertEquals(200, imageSet.getNormalImage().getWidth());
+    Assert.assertEquals(100, imageSet.getThumbImage().getWidth());
+
+    // cascaded from intermediates the images are close to scaling from the original
+    JavaImageEngine direct = new JavaImageEngine();
+    direct.setCascade(false);
+    processor.setImageEngine(direct);
+    ImageFileSet directSet = processor.process(content, "test-x.jpg");
+    for (String name : imageSet.getRenditions().keySet()) {
+      BufferedImage cascaded = ImageIO.read(new ByteArrayInputStream(imageSet.getRendition(name).getContent()));
+      BufferedImage expected = ImageIO.read(new ByteArrayInputStream(directSet.getRendition(name).getContent()));
+      Assert.assertTrue(name, meanDifference(expected, cascaded) < 12);
+    }
+  }
+
+  private void assertRendition(ImageFileDetail detail, String extension, int width, int height) throws IOException {
+    Assert.assertEquals(extension, detail.getExtension());
+    Assert.assertEquals(width, detail.getWidth());
+    Assert.assertEquals(height, detail.getHeight());
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(detail.getContent()));
+    Assert.assertEquals(width, image.getWidth());
+    Assert.assertEquals(height, image.getHeight());
+  }
+
+  private double meanDifference(BufferedImage expected, BufferedImage actual) {
+    Assert.assertEquals(expected.getWidth(), actual.getWidth());
+    Assert.assertEquals(expected.getHeight(), actual.getHeight());
+    long total = 0;
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        int e = expected.getRGB(x, y);
+        int a = actual.getRGB(x, y);
+        for (int shift = 0; shift < 24; shift += 8) {
+          total += Math.abs(((e >> shift) & 0xff) - ((a >> shift) & 0xff));
+        }
+      }
+    }
+    return (double) total / (3L * expected.getWidth() * expected.getHeight());
+  }
+
+  @Test
+  public void testDecodedImageCache() throws IOException {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+
+    JavaImageEngine engine = new JavaImageEngine();
+    engine.setDecodeReduction(false);
+    engine.setDecodedImageCache(new DecodedImageCache(10 * 1024 * 1024));
+
+    ImageProcessor small = new ImageProcessor(50, 50, 100, 100, ConvertMode.Crop, null);
+    small.setImageEngine(engine);
+    ImageProcessor large = new ImageProcessor(100, 100, 200, 200, ConvertMode.Pad, null);
+    large.setImageEngine(engine);
+
+    Assert.assertEquals(100, small.process(file, "test-x.jpg").getNormalImage().getWidth());
+    Assert.assertEquals(200, large.process(file, "test-x.jpg").getNormalImage().getWidth());
+
+    // decoded once for both
+    Assert.assertEquals(1, engine.getDecodedImageCache().getLoadCount());
+    Assert.assertEquals(1, engine.getDecodedImageCache().getHitCount());
+  }
+
+  @Test
+  public void testStreams() throws IOException {
+
+    File file = new File(getClass().getResource("/test-b.png").getFile());
+
+    ImageProcessor processor = new ImageProcessor(100, 80, 200, 200, ConvertMode.Pad, null);
+    processor.setImageEngine(new JavaImageEngine());
+
+    ByteArrayOutputStream mainOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream thumbOut = new ByteArrayOutputStream();
+    InputStream in = new FileInputStream(file);
+    ImageFileSet imageSet;
+    try {
+      imageSet = processor.process(ImageSource.of(in), "test-b.png", mainOut, thumbOut);
+    } finally {
+      in.close();
+    }
+
+    ImageFileDetail main = imageSet.getNormalImage();
+    Assert.assertNull(main.getContent());
+    Assert.assertEquals(mainOut.size(), main.getLength());
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(mainOut.toByteArray()));
+    Assert.assertEquals(200, image.getWidth());
+    Assert.assertEquals(24, image.getHeight());
+
+    Assert.assertEquals(thumbOut.size(), imageSet.getThumbImage().getLength());
+    image = ImageIO.read(new ByteArrayInputStream(thumbOut.toByteArray()));
+    Assert.assertEquals(100, image.getWidth());
+    Assert.assertEquals(80, image.getHeight());
+  }
+
+  @Test
+  public void testJavaEngineDecodeReduction() throws IOException {
+
+    File file = new File(getClass().getResource("/ethan.jpg").getFile());
+    assertDecodeReduction(file, ConvertMode.Crop, 150, 150, true);
+    assertDecodeReduction(file, ConvertMode.Crop, 150, 150, false);
+    assertDecodeReduction(file, ConvertMode.Pad, 200, 100, true);
+    assertDecodeReduction(file, ConvertMode.PadArea, 120, 120, false);
+  }
+
+  /**
+   * Assert that decoding a subsampled region gives output close to a full decode.
+   */
+  private void assertDecodeReduction(File file, ConvertMode mode, int width, int height, boolean withMain) throws IOException {
+
+    BufferedImage full = convertThumb(file, mode, width, height, withMain, false);
+    BufferedImage reduced = convertThumb(file, mode, width, height, withMain, true);
+    Assert.assertEquals(full.getWidth(), reduced.getWidth());
+    Assert.assertEquals(full.getHeight(), reduced.getHeight());
+
+    long diff = 0;
+    for (int y = 0; y < full.getHeight(); y++) {
+      for (int x = 0; x < full.getWidth(); x++) {
+        int a = full.getRGB(x, y);
+        int b = reduced.getRGB(x, y);
+        for (int shift = 0; shift < 24; shift += 8) {
+          diff += Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff));
+        }
+      }
+    }
+    double mean = (double) diff / (full.getWidth() * full.getHeight() * 3);
+    Assert.assertTrue("mean difference " + mean, mean < 6);
+  }
+
+  private BufferedImage convertThumb(File file, ConvertMode mode, int width, int height, boolean withMain, boolean reduction) throws IOException {
+
+    ImageProbe probe = ImageProbe.probe(file);
+    File thumbFile = File.createTempFile("thumb-", ".png");
+    File mainFile = File.createTempFile("main-", ".png");
+    try {
+      List<ImageConversion> conversions = new ArrayList<ImageConversion>();
+      if (withMain) {
+        GeometryPlan mainPlan = GeometryPlanner.planMain(probe.getWidth(), probe.getHeight(), 600, 600);
+        conversions.add(new ImageConversion(mainFile, "png", 600, 600, ConvertMode.Max, false, null, mainPlan));
+      }
+      GeometryPlan plan = GeometryPlanner.plan(probe.getWidth(), probe.getHeight(), mode, width, height);
+      conversions.add(new ImageConversion(thumbFile, "png", width, height, mode, true, "white", plan));
+
+      JavaImageEngine engine = new JavaImageEngine();
+      engine.setDecodeReduction(reduction);
+      engine.convert(ImageSource.of(file), conversions);
+      return ImageIO.read(thumbFile);
+    } finally {
+      thumbFile.delete();
+      mainFile.delete();
+    }
+  }
+
+  private void testJavaEngine(ConvertMode mode, int thumbWidth, int thumbHeight, int width, int height, String resName, int expectWidth, int expectHeight) throws IOException {
+
+    File file = new File(getClass().getResource("/"+resName).getFile());
+
+    ImageProcessor processor = new ImageProcessor(thumbWidth, thumbHeight, width, height, mode, null);
+    processor.setImageEngine(new JavaImageEngine());
+    ImageFileSet imageSet = processor.process(file, resName);
+
+    ImageFileDetail normalImage = imageSet.getNormalImage();
+    Assert.assertEquals(expectWidth, normalImage.getWidth());
+    Assert.assertEquals(expectHeight, normalImage.getHeight());
+
+    ImageFileDetail thumbImage = imageSet.getThumbImage();
+    Assert.assertTrue(thumbImage.getLength() > 0);
+    if (mode.hasExtent()) {
+      Assert.assertEquals(thumbWidth, thumbImage.getWidth());
+      Assert.assertEquals(thumbHeight, thumbImage.getHeight());
+    } else {
+      Assert.assertTrue(thumbImage.getWidth() == thumbWidth || thumbImage.getHeight() == thumbHeight);
+    }
+    Assert.assertTrue(imageSet.deleteFiles());
+  }
+
   private void testResource(ConvertMode mode, int width, int height, String resName) throws IOException {
     testResource(mode, width, height, resName, 0);
   }
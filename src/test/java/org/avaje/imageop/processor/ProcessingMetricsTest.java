@@ -0,0 +1,168 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProcessingMetricsTest {
+
+  @Test
+  public void testBuckets() {
+
+    for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE }) {
+      int bucket = LatencyHistogram.bucket(value);
+      Assert.assertTrue(bucket < LatencyHistogram.BUCKETS);
+      Assert.assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+      if (bucket + 1 < LatencyHistogram.BUCKETS) {
+        Assert.assertTrue(LatencyHistogram.lowerBound(bucket + 1) > value);
+      }
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+
+    ProcessingMetrics metrics = new ProcessingMetrics();
+    for (int i = 1; i <= 1000; i++) {
+      ProcessingOutcome outcome = (i % 100 == 0) ? ProcessingOutcome.FAILURE : ProcessingOutcome.SUCCESS;
+      metrics.stageCompleted(new ProcessingEvent(ProcessingStage.CONVERT, "thumb", ConvertMode.Crop, i * 1000L, 10, 100, outcome, null));
+    }
+    metrics.stageCompleted(new ProcessingEvent(ProcessingStage.CONVERT, "main", ConvertMode.Max, 5000000L, 10, 100,
+        ProcessingOutcome.SUCCESS, null));
+
+    StageStatistics crop = metrics.getStatistics(ProcessingStage.CONVERT, ConvertMode.Crop);
+    Assert.assertEquals(1000, crop.getCount());
+    Assert.assertEquals(10, crop.getFailures());
+    Assert.assertEquals(10000, crop.getBytes());
+    Assert.assertEquals(100000, crop.getPixels());
+    assertNear(500000, crop.getP50Nanos());
+    assertNear(950000, crop.getP95Nanos());
+    assertNear(990000, crop.getP99Nanos());
+    Assert.assertEquals(1000000, crop.getMaxNanos());
+
+    StageStatistics all = metrics.getStatistics(ProcessingStage.CONVERT);
+    Assert.assertEquals(1001, all.getCount());
+    Assert.assertEquals(5000000, all.getMaxNanos());
+    Assert.assertEquals(2, metrics.getStatistics().size());
+    Assert.assertNull(metrics.getStatistics(ProcessingStage.CONVERT, ConvertMode.Pad));
+
+    metrics.reset();
+    Assert.assertTrue(metrics.getStatistics().isEmpty());
+  }
+
+  @Test
+  public void testRecordConcurrentWithReset() throws InterruptedException {
+
+    final ProcessingMetrics metrics = new ProcessingMetrics();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < 100000; i++) {
+              metrics.stageCompleted(new ProcessingEvent(ProcessingStage.DECODE, null, null, i, 0, 0, ProcessingOutcome.SUCCESS, null));
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        metrics.reset();
+      }
+      thread.join();
+    }
+    Assert.assertNull(error.get());
+  }
+
+  @Test
+  public void testProcessorStages() throws IOException {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+
+    final List<ProcessingStage> started = new ArrayList<ProcessingStage>();
+    final List<ProcessingEvent> completed = new ArrayList<ProcessingEvent>();
+    final ProcessingMetrics metrics = new ProcessingMetrics();
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    processor.setProcessingListener(new ProcessingListener() {
+      @Override
+      public void stageStarted(ProcessingStage stage, String role, ConvertMode mode) {
+        started.add(stage);
+      }
+
+      @Override
+      public void stageCompleted(ProcessingEvent event) {
+        completed.add(event);
+        metrics.stageCompleted(event);
+      }
+    });
+
+    processor.process(content, "test-x.jpg");
+
+    Assert.assertEquals(started.size(), completed.size());
+    Assert.assertEquals(ProcessingStage.TOTAL, started.get(0));
+    Assert.assertEquals(ProcessingStage.TOTAL, completed.get(completed.size() - 1).getStage());
+    Assert.assertEquals(content.length, completed.get(completed.size() - 1).getBytes());
+
+    StageStatistics main = metrics.getStatistics(ProcessingStage.CONVERT, ConvertMode.Max);
+    StageStatistics thumb = metrics.getStatistics(ProcessingStage.CONVERT, ConvertMode.Crop);
+    Assert.assertEquals(1, main.getCount());
+    Assert.assertEquals(200 * 156, main.getPixels());
+    Assert.assertEquals(1, thumb.getCount());
+    Assert.assertEquals(100 * 100, thumb.getPixels());
+    Assert.assertEquals(2, metrics.getStatistics(ProcessingStage.ENCODE).getCount());
+    Assert.assertEquals(1, metrics.getStatistics(ProcessingStage.PROBE, null).getCount());
+    Assert.assertEquals(1, metrics.getStatistics(ProcessingStage.DECODE, null).getCount());
+
+    StageStatistics output = metrics.getStatistics(ProcessingStage.OUTPUT, null);
+    Assert.assertEquals(metrics.getStatistics(ProcessingStage.ENCODE).getBytes(), output.getBytes());
+
+    try {
+      processor.process(new byte[] { 1, 2, 3 }, "broken.jpg");
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals(1, metrics.getStatistics(ProcessingStage.TOTAL, null).getFailures());
+    }
+  }
+
+  @Test
+  public void testMXBean() throws Exception {
+
+    ProcessingMetrics metrics = new ProcessingMetrics();
+    metrics.stageCompleted(new ProcessingEvent(ProcessingStage.PROBE, null, null, 2000, 10, 100, ProcessingOutcome.SUCCESS, null));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.avaje.imageop:type=ProcessingMetrics,name=test");
+    server.registerMBean(metrics, name);
+    try {
+      CompositeData[] statistics = (CompositeData[]) server.getAttribute(name, "Statistics");
+      Assert.assertEquals(1, statistics.length);
+      Assert.assertEquals("PROBE", statistics[0].get("stage"));
+      Assert.assertEquals(1L, statistics[0].get("count"));
+      assertNear(2000, (Long) statistics[0].get("p99Nanos"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  private void assertNear(long expected, long actual) {
+    Assert.assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 16);
+  }
+}
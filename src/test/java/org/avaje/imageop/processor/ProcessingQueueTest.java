@@ -0,0 +1,131 @@
+package org.avaje.imageop.processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProcessingQueueTest {
+
+  @Test
+  public void testMaxConcurrent() throws Exception {
+
+    ProcessingQueue queue = new ProcessingQueue(2, 100, ProcessingQueue.RejectionPolicy.Abort);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    try {
+      List<CompletableFuture<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        final int value = i;
+        futures.add(queue.submit(() -> {
+          int now = running.incrementAndGet();
+          maxRunning.accumulateAndGet(now, Math::max);
+          Thread.sleep(5);
+          running.decrementAndGet();
+          return value;
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        Assert.assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).intValue());
+      }
+      Assert.assertTrue(maxRunning.get() <= 2);
+      Assert.assertEquals(20, queue.getCompletedCount());
+      Assert.assertEquals(0, queue.getInFlight());
+      Assert.assertEquals(0, queue.getQueueDepth());
+    } finally {
+      queue.shutdown();
+    }
+  }
+
+  @Test
+  public void testAbortWhenFull() throws Exception {
+
+    ProcessingQueue queue = new ProcessingQueue(1, 1, ProcessingQueue.RejectionPolicy.Abort);
+    final CountDownLatch latch = new CountDownLatch(1);
+    try {
+      CompletableFuture<String> first = queue.submit(() -> {
+        latch.await();
+        return "first";
+      });
+      CompletableFuture<String> second = queue.submit(() -> "second");
+      CompletableFuture<String> third = queue.submit(() -> "third");
+
+      Assert.assertEquals(1, queue.getInFlight());
+      Assert.assertEquals(1, queue.getQueueDepth());
+      Assert.assertEquals(1, queue.getRejectedCount());
+      try {
+        third.get();
+        Assert.fail("expected rejection");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+
+      latch.countDown();
+      Assert.assertEquals("first", first.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals("second", second.get(10, TimeUnit.SECONDS));
+    } finally {
+      queue.shutdown();
+    }
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+
+    ProcessingQueue queue = new ProcessingQueue(1, 0, ProcessingQueue.RejectionPolicy.CallerRuns);
+    final CountDownLatch latch = new CountDownLatch(1);
+    try {
+      CompletableFuture<Thread> first = queue.submit(() -> {
+        latch.await();
+        return Thread.currentThread();
+      });
+
+      final List<CompletableFuture<Thread>> second = new ArrayList<>();
+      Thread caller = new Thread(() -> second.add(queue.submit(Thread::currentThread)));
+      caller.start();
+      // wait for the caller to block on a permit
+      long deadline = System.currentTimeMillis() + 10000;
+      while (caller.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      latch.countDown();
+      caller.join(10000);
+
+      Assert.assertNotSame(Thread.currentThread(), first.get());
+      Assert.assertSame(caller, second.get(0).get());
+      Assert.assertEquals(0, queue.getRejectedCount());
+    } finally {
+      queue.shutdown();
+    }
+  }
+
+  @Test
+  public void testProcessAsync() throws Exception {
+
+    File file = new File(getClass().getResource("/test-x.jpg").getFile());
+
+    ImageProcessor processor = new ImageProcessor(100, 100, 200, 200, ConvertMode.Crop, null);
+    processor.setImageEngine(new JavaImageEngine());
+    processor.setProcessingQueue(new ProcessingQueue(2, 10, ProcessingQueue.RejectionPolicy.Block));
+
+    List<CompletableFuture<ImageFileSet>> futures = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      futures.add(processor.processAsync(file, "test-x.jpg"));
+    }
+    for (CompletableFuture<ImageFileSet> future : futures) {
+      ImageFileSet imageSet = future.get(30, TimeUnit.SECONDS);
+      Assert.assertEquals(200, imageSet.getNormalImage().getWidth());
+      Assert.assertEquals(100, imageSet.getThumbImage().getWidth());
+      Assert.assertTrue(imageSet.deleteFiles());
+    }
+    Assert.assertEquals(0, processor.getInFlight());
+    processor.getProcessingQueue().shutdown();
+  }
+}